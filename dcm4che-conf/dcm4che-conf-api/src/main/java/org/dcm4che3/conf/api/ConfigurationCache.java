@@ -39,27 +39,64 @@
 package org.dcm4che3.conf.api;
 
 import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Thread-safe cache of configuration objects.
+ * <p>
+ * Concurrent requests for the same key share a single lookup in the configuration backend. Entries that are close to
+ * becoming stale (see {@link #setRefreshAheadRatio(float)}) are refreshed on a background executor while the current
+ * value is still served. Unknown keys are cached as negative entries with a separate, usually shorter, timeout.
+ * If {@link #setMaxSize(int) a maximum size} is set, the least recently used entries are evicted.
+ * </p>
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  */
 public abstract class ConfigurationCache<C,T> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationCache.class);
+
     private static final class CacheEntry<T> {
         final T value;
         final long fetchTime;
+        final AtomicBoolean refreshing = new AtomicBoolean();
         CacheEntry(T value, long fetchTime) {
             this.value = value;
             this.fetchTime = fetchTime;
         }
     }
 
-    private final HashMap<String, CacheEntry<T>> cache =
-            new HashMap<String, CacheEntry<T>>();
+    private final ConcurrentHashMap<String, CacheEntry<T>> cache =
+            new ConcurrentHashMap<String, CacheEntry<T>>();
+    /**
+     * Same entries as {@link #cache} in access order, guarded by itself. Only touched by hits if a maximal size is
+     * set, so lookups in unbounded caches stay lock-free.
+     */
+    private final LinkedHashMap<String, CacheEntry<T>> lru =
+            new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, FutureTask<CacheEntry<T>>> loading =
+            new ConcurrentHashMap<String, FutureTask<CacheEntry<T>>>();
     private final C conf;
-    private long staleTimeout;
+    private volatile long staleTimeout;
+    private volatile long negativeStaleTimeout = 10000L;
+    private volatile float refreshAheadRatio = 0.8f;
+    private volatile int maxSize;
+    private volatile Executor refreshExecutor;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
 
     public ConfigurationCache(C conf) {
         if (conf == null)
@@ -75,23 +112,102 @@ public abstract class ConfigurationCache<C,T> {
         this.staleTimeout = staleTimeout * 1000L;
     }
 
+    public int getNegativeStaleTimeout() {
+        return (int) (negativeStaleTimeout / 1000);
+    }
+
+    /**
+     * @param negativeStaleTimeout timeout in seconds of entries for unknown keys, 0 to use the stale timeout.
+     *                             Never exceeds the stale timeout. Default: 10.
+     */
+    public void setNegativeStaleTimeout(int negativeStaleTimeout) {
+        this.negativeStaleTimeout = negativeStaleTimeout * 1000L;
+    }
+
+    public float getRefreshAheadRatio() {
+        return refreshAheadRatio;
+    }
+
+    /**
+     * @param refreshAheadRatio fraction of the stale timeout after which an entry is refreshed in the background,
+     *                          values &gt;= 1 disable refresh-ahead. Default: 0.8.
+     */
+    public void setRefreshAheadRatio(float refreshAheadRatio) {
+        this.refreshAheadRatio = refreshAheadRatio;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximal number of cached entries, 0 for unlimited (default)
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * @param refreshExecutor executor used to refresh entries ahead of time. If not set, a single daemon thread is
+     *                        started on first use.
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
     public void clear() {
-        cache.clear();
+        synchronized (lru) {
+            generation.incrementAndGet();
+            cache.clear();
+            lru.clear();
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return total time spent loading entries from the configuration, in ms
+     */
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalLoadTime.get());
     }
 
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
 
     public T get(String key) throws ConfigurationException {
         long now = System.currentTimeMillis();
         CacheEntry<T> entry = cache.get(key);
-        if (entry == null 
-                || (staleTimeout != 0 && now > entry.fetchTime + staleTimeout)) {
-            T value = null;
-            try {
-                value = find(conf, key);
-            } catch (ConfigurationNotFoundException e) {
-            }
-            entry = new CacheEntry<T>(value, now);
-            cache.put(key, entry);
+        if (entry == null || now > entry.fetchTime + timeoutOf(entry)) {
+            missCount.incrementAndGet();
+            entry = load(key);
+        } else {
+            hitCount.incrementAndGet();
+            if (now > entry.fetchTime + (long) (timeoutOf(entry) * refreshAheadRatio))
+                refreshAhead(key, entry);
+            if (maxSize > 0)
+                synchronized (lru) {
+                    lru.get(key);
+                }
         }
         return entry.value;
     }
@@ -99,4 +215,129 @@ public abstract class ConfigurationCache<C,T> {
     protected abstract T find(C conf, String key)
             throws ConfigurationException;
 
+    private long timeoutOf(CacheEntry<T> entry) {
+        long timeout = staleTimeout;
+        if (entry.value == null && negativeStaleTimeout != 0 && (timeout == 0 || negativeStaleTimeout < timeout))
+            timeout = negativeStaleTimeout;
+        return timeout == 0 ? Long.MAX_VALUE / 2 : timeout;
+    }
+
+    /**
+     * Loads the entry, only one thread queries the configuration for the same key at a time
+     */
+    private CacheEntry<T> load(final String key) throws ConfigurationException {
+        FutureTask<CacheEntry<T>> task = new FutureTask<CacheEntry<T>>(new Callable<CacheEntry<T>>() {
+            @Override
+            public CacheEntry<T> call() throws Exception {
+                return fetch(key);
+            }
+        });
+        FutureTask<CacheEntry<T>> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException("Interrupted while loading " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new ConfigurationException(cause);
+        }
+    }
+
+    private CacheEntry<T> fetch(String key) throws ConfigurationException {
+        long gen = generation.get();
+        long start = System.nanoTime();
+        T value = null;
+        try {
+            value = find(conf, key);
+        } catch (ConfigurationNotFoundException e) {
+        } finally {
+            loadCount.incrementAndGet();
+            totalLoadTime.addAndGet(System.nanoTime() - start);
+        }
+        CacheEntry<T> entry = new CacheEntry<T>(value, System.currentTimeMillis());
+
+        synchronized (lru) {
+            // don't resurrect entries that were cleared while loading
+            if (gen == generation.get()) {
+                cache.put(key, entry);
+                lru.put(key, entry);
+                evictIfNecessary();
+            }
+        }
+        return entry;
+    }
+
+    private void refreshAhead(final String key, final CacheEntry<T> entry) {
+        if (refreshAheadRatio >= 1 || !entry.refreshing.compareAndSet(false, true))
+            return;
+
+        try {
+            executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (cache.get(key) == entry)
+                            load(key);
+                    } catch (Exception e) {
+                        LOG.warn("Failed to refresh cached configuration of " + key, e);
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private Executor executor() {
+        Executor executor = refreshExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = refreshExecutor;
+                if (executor == null) {
+                    refreshExecutor = executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "dcm4che-conf-cache-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Evicts the least recently accessed entries, once the cache has grown over its maximal size. Must be called
+     * while holding the lock of {@link #lru}.
+     */
+    private void evictIfNecessary() {
+        int max = maxSize;
+        if (max <= 0)
+            return;
+
+        Iterator<Map.Entry<String, CacheEntry<T>>> iter = lru.entrySet().iterator();
+        while (lru.size() > max && iter.hasNext()) {
+            Map.Entry<String, CacheEntry<T>> eldest = iter.next();
+            iter.remove();
+            cache.remove(eldest.getKey(), eldest.getValue());
+            evictionCount.incrementAndGet();
+        }
+    }
 }
@@ -0,0 +1,115 @@
+package org.dcm4che3.conf.api;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationCacheTest {
+
+    private static class CountingCache extends ConfigurationCache<Map<String, String>, String> {
+
+        final AtomicInteger finds = new AtomicInteger();
+        volatile CountDownLatch block;
+
+        CountingCache(Map<String, String> conf) {
+            super(conf);
+        }
+
+        @Override
+        protected String find(Map<String, String> conf, String key) {
+            finds.incrementAndGet();
+            CountDownLatch latch = block;
+            if (latch != null)
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            String value = conf.get(key);
+            if (value == null)
+                throw new ConfigurationNotFoundException(key);
+            return value;
+        }
+    }
+
+    private static Map<String, String> conf() {
+        Map<String, String> conf = new ConcurrentHashMap<String, String>();
+        conf.put("AET1", "ae1");
+        conf.put("AET2", "ae2");
+        conf.put("AET3", "ae3");
+        return conf;
+    }
+
+    @Test
+    public void concurrentRequestsShareOneLookup() throws Exception {
+        final CountingCache cache = new CountingCache(conf());
+        cache.block = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[8];
+        final String[] results = new String[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results[index] = cache.get("AET1");
+                }
+            });
+            threads[i].start();
+        }
+
+        Thread.sleep(100);
+        cache.block.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        for (String result : results)
+            assertEquals("ae1", result);
+        assertEquals(1, cache.finds.get());
+    }
+
+    @Test
+    public void unknownKeysAreCachedNegatively() throws Exception {
+        Map<String, String> conf = conf();
+        CountingCache cache = new CountingCache(conf);
+
+        assertNull(cache.get("UNKNOWN"));
+        assertNull(cache.get("UNKNOWN"));
+        assertEquals(1, cache.finds.get());
+
+        conf.put("UNKNOWN", "found");
+        cache.setNegativeStaleTimeout(0);
+        cache.setStaleTimeout(1);
+        Thread.sleep(1100);
+        assertEquals("found", cache.get("UNKNOWN"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        CountingCache cache = new CountingCache(conf());
+        cache.setMaxSize(2);
+
+        cache.get("AET1");
+        Thread.sleep(5);
+        cache.get("AET2");
+        Thread.sleep(5);
+        cache.get("AET1");
+        Thread.sleep(5);
+        cache.get("AET3");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.get("AET1");
+        assertEquals(3, cache.finds.get());
+        cache.get("AET2");
+        assertEquals(4, cache.finds.get());
+    }
+}
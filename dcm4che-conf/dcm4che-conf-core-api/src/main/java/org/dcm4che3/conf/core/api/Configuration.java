@@ -88,6 +88,7 @@ public interface Configuration extends BatchRunner {
 
     enum ConfigStorageType {
         JSON_FILE,
+        JSON_FILE_JOURNALED,
         DB_BLOBS;
     }
 
@@ -122,6 +122,11 @@ public class ConfigProperty
     private int order;
     private Object group;
 
+    /**
+     * Type adapter bound to this property by a vitalizer, see {@link #getBoundTypeAdapter(Object)}
+     */
+    private volatile TypeAdapterBinding typeAdapterBinding;
+
     public ConfigProperty( Map<Type, Annotation> annotations, String name, Type type )
     {
         this.annotations = annotations;
@@ -513,4 +518,34 @@ public class ConfigProperty
     {
         return group;
     }
+
+    /**
+     * Returns the type adapter that was bound to this property with the same binding key, so that it does not
+     * need to be looked up again for every use of the property.
+     *
+     * @param bindingKey identifies the vitalizer (and the state of its registered adapters) that bound the adapter
+     * @return bound type adapter or null
+     */
+    public ConfigTypeAdapter getBoundTypeAdapter( Object bindingKey )
+    {
+        TypeAdapterBinding binding = typeAdapterBinding;
+        return binding != null && binding.bindingKey == bindingKey ? binding.typeAdapter : null;
+    }
+
+    public void bindTypeAdapter( Object bindingKey, ConfigTypeAdapter typeAdapter )
+    {
+        typeAdapterBinding = new TypeAdapterBinding( bindingKey, typeAdapter );
+    }
+
+    private static class TypeAdapterBinding
+    {
+        final Object bindingKey;
+        final ConfigTypeAdapter typeAdapter;
+
+        TypeAdapterBinding( Object bindingKey, ConfigTypeAdapter typeAdapter )
+        {
+            this.bindingKey = bindingKey;
+            this.typeAdapter = typeAdapter;
+        }
+    }
 }
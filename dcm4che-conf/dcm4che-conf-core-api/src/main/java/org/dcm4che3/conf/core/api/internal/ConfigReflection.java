@@ -40,28 +40,37 @@
 package org.dcm4che3.conf.core.api.internal;
 
 
+import org.apache.commons.beanutils.MethodUtils;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.dcm4che3.conf.core.api.*;
 
+import java.beans.PropertyDescriptor;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class shall NOT be referenced externally, it will be removed/renamed/refactored without notice.
- * Caches to minimize reflection access.
+ * Caches to minimize reflection access. The caches are lock-free for readers, getters and setters of properties are
+ * resolved only once per class and property.
  *
  * @author Roman K
  */
 public class ConfigReflection {
 
 
-    private static final Map<Class, ClassInfo> classInfoCache = Collections.synchronizedMap(new HashMap<Class, ClassInfo>());
-    private static final Map<Class, Boolean> isClassConfigurable = Collections.synchronizedMap(new HashMap<Class, Boolean>());
+    private static final ConcurrentMap<Class, ClassInfo> classInfoCache = new ConcurrentHashMap<Class, ClassInfo>();
+    private static final ConcurrentMap<Class, Boolean> isClassConfigurable = new ConcurrentHashMap<Class, Boolean>();
 
-    private static final Map<Class, ConfigProperty> dummyPropsCache = Collections.synchronizedMap(new HashMap<Class, ConfigProperty>());
+    private static final ConcurrentMap<Class, ConfigProperty> dummyPropsCache = new ConcurrentHashMap<Class, ConfigProperty>();
+
+    private static final ConcurrentMap<Class, ConcurrentMap<String, PropertyAccessor>> accessorCache =
+            new ConcurrentHashMap<Class, ConcurrentMap<String, PropertyAccessor>>();
 
     public static List<ConfigProperty> getAllConfigurableFields(Class clazz) {
         return getClassInfo(clazz).configurableProperties;
@@ -74,8 +83,8 @@ public class ConfigReflection {
             return found;
         } else {
             ConfigProperty property = new ConfigProperty(clazz);
-            dummyPropsCache.put(clazz, property);
-            return property;
+            ConfigProperty existing = dummyPropsCache.putIfAbsent(clazz, property);
+            return existing != null ? existing : property;
         }
     }
 
@@ -91,8 +100,9 @@ public class ConfigReflection {
 
     public static boolean isConfigurableClass(Class clazz) {
 
-        if (isClassConfigurable.containsKey(clazz))
-            return isClassConfigurable.get(clazz);
+        Boolean isConfigurable = isClassConfigurable.get(clazz);
+        if (isConfigurable != null)
+            return isConfigurable;
 
         boolean isItForReal = clazz.getAnnotation(ConfigurableClass.class) != null;
         isClassConfigurable.put(clazz, isItForReal);
@@ -126,9 +136,9 @@ public class ConfigReflection {
             }
         }
 
-        classInfoCache.put(clazz, classInfo);
+        ClassInfo existing = classInfoCache.putIfAbsent(clazz, classInfo);
 
-        return classInfo;
+        return existing != null ? existing : classInfo;
     }
 
 
@@ -216,7 +226,10 @@ public class ConfigReflection {
 
     public static void setProperty(Object object, String propertyName, Object value) throws ReflectionAccessException {
         try {
-            PropertyUtils.setSimpleProperty(object, propertyName, value);
+            Method writeMethod = getPropertyAccessor(object.getClass(), propertyName).writeMethod;
+            if (writeMethod == null)
+                throw new NoSuchMethodException("Property '" + propertyName + "' has no setter method");
+            writeMethod.invoke(object, value);
         } catch (IllegalAccessException e) {
             throw new ReflectionAccessException("Could not set property " + propertyName + " in class " + object.getClass().toString(), e);
         } catch (InvocationTargetException e) {
@@ -228,7 +241,10 @@ public class ConfigReflection {
 
     public static Object getProperty(Object object, ConfigProperty property) throws ReflectionAccessException {
         try {
-            return PropertyUtils.getSimpleProperty(object, property.getName());
+            Method readMethod = getPropertyAccessor(object.getClass(), property.getName()).readMethod;
+            if (readMethod == null)
+                throw new NoSuchMethodException("Property '" + property.getName() + "' has no getter method");
+            return readMethod.invoke(object);
         } catch (IllegalAccessException e) {
             throw new ReflectionAccessException("Could not get property " + property + " in class " + object.getClass().toString(), e);
         } catch (InvocationTargetException e) {
@@ -238,6 +254,61 @@ public class ConfigReflection {
         }
     }
 
+    private static PropertyAccessor getPropertyAccessor(Class clazz, String propertyName) {
+        ConcurrentMap<String, PropertyAccessor> accessors = accessorCache.get(clazz);
+        if (accessors == null) {
+            accessors = new ConcurrentHashMap<String, PropertyAccessor>();
+            ConcurrentMap<String, PropertyAccessor> existing = accessorCache.putIfAbsent(clazz, accessors);
+            if (existing != null)
+                accessors = existing;
+        }
+
+        PropertyAccessor accessor = accessors.get(propertyName);
+        if (accessor == null) {
+            accessor = new PropertyAccessor(clazz, propertyName);
+            accessors.putIfAbsent(propertyName, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Getter and setter of a bean property, resolved once
+     */
+    private static class PropertyAccessor {
+
+        final Method readMethod;
+        final Method writeMethod;
+
+        PropertyAccessor(Class clazz, String propertyName) {
+            Method read = null;
+            Method write = null;
+            for (PropertyDescriptor descriptor : PropertyUtils.getPropertyDescriptors(clazz)) {
+                if (descriptor.getName().equals(propertyName)) {
+                    read = accessible(clazz, descriptor.getReadMethod());
+                    write = accessible(clazz, descriptor.getWriteMethod());
+                    break;
+                }
+            }
+            readMethod = read;
+            writeMethod = write;
+        }
+
+        private static Method accessible(Class clazz, Method method) {
+            if (method == null)
+                return null;
+
+            Method accessibleMethod = MethodUtils.getAccessibleMethod(clazz, method);
+            if (accessibleMethod != null) {
+                try {
+                    // skip the access checks on every invocation
+                    accessibleMethod.setAccessible(true);
+                } catch (SecurityException ignore) {
+                }
+            }
+            return accessibleMethod;
+        }
+    }
+
     private static class ClassInfo {
 
         List<ConfigProperty> configurableProperties;
@@ -53,6 +53,7 @@ import org.dcm4che3.conf.core.context.ContextFactory;
 import org.dcm4che3.conf.core.context.LoadingContext;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -63,7 +64,13 @@ import java.util.concurrent.TimeoutException;
  */
 public class DefaultBeanVitalizer implements BeanVitalizer {
 
-    private final Map<Class, ConfigTypeAdapter> customConfigTypeAdapters = new HashMap<Class, ConfigTypeAdapter>();
+    private final Map<Class, ConfigTypeAdapter> customConfigTypeAdapters = new ConcurrentHashMap<Class, ConfigTypeAdapter>();
+
+    /**
+     * Identifies the type adapters bound to config properties by this vitalizer, replaced whenever a custom adapter
+     * is registered to invalidate all bindings
+     */
+    private volatile Object typeAdapterBindingKey = new Object();
     private int loadingTimeoutSec = 5;
 
     private final Map<Class, List<Class>> extensionsByClass;
@@ -197,6 +204,18 @@ public class DefaultBeanVitalizer implements BeanVitalizer {
     @SuppressWarnings("unchecked")
     public ConfigTypeAdapter lookupTypeAdapter(ConfigProperty property) throws ConfigurationException {
 
+        Object bindingKey = typeAdapterBindingKey;
+        ConfigTypeAdapter typeAdapter = property.getBoundTypeAdapter(bindingKey);
+        if (typeAdapter == null) {
+            typeAdapter = resolveTypeAdapter(property);
+            property.bindTypeAdapter(bindingKey, typeAdapter);
+        }
+        return typeAdapter;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConfigTypeAdapter resolveTypeAdapter(ConfigProperty property) throws ConfigurationException {
+
         Class clazz = property.getRawClass();
 
         // check if it is a reference
@@ -246,6 +265,7 @@ public class DefaultBeanVitalizer implements BeanVitalizer {
     @Override
     public void registerCustomConfigTypeAdapter(Class clazz, ConfigTypeAdapter typeAdapter) {
         customConfigTypeAdapters.put(clazz, typeAdapter);
+        typeAdapterBindingKey = new Object();
     }
 
     @SuppressWarnings("unchecked")
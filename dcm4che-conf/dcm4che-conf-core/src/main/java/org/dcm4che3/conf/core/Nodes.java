@@ -44,6 +44,7 @@ import org.apache.commons.jxpath.JXPathContext;
 import org.apache.commons.jxpath.JXPathNotFoundException;
 import org.apache.commons.jxpath.Pointer;
 import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.util.ConfigNodeQuery;
 import org.dcm4che3.conf.core.util.XNodeUtil;
 
 import java.util.*;
@@ -63,6 +64,11 @@ public class Nodes {
     }
 
     public static Object getNode(Object rootConfigNode, String path) {
+        ConfigNodeQuery query = ConfigNodeQuery.compileCached(path);
+        List<Object> pathItems = query != null ? query.simplePathItems() : null;
+        if (pathItems != null)
+            return getNodeOrNull(rootConfigNode, pathItems);
+
         try {
             return JXPathContext.newContext(rootConfigNode).getValue(path);
         } catch (JXPathNotFoundException e) {
@@ -75,10 +81,21 @@ public class Nodes {
     }
 
     public static void removeNodes(Map<String, Object> configurationRoot, String path) {
-        JXPathContext.newContext(configurationRoot).removeAll(path);
+        ConfigNodeQuery query = ConfigNodeQuery.compileCached(path);
+        if (query != null)
+            query.removeAll(configurationRoot, null);
+        else
+            JXPathContext.newContext(configurationRoot).removeAll(path);
     }
 
+    /**
+     * Expressions supported by {@link ConfigNodeQuery} are evaluated directly on the nodes, others by JXPath
+     */
     public static Iterator search(Map<String, Object> configurationRoot, String liteXPathExpression) throws IllegalArgumentException {
+        ConfigNodeQuery query = ConfigNodeQuery.compileCached(liteXPathExpression);
+        if (query != null)
+            return query.iterate(configurationRoot);
+
         return JXPathContext.newContext(configurationRoot).iterate(liteXPathExpression);
 
     }
@@ -315,6 +332,20 @@ public class Nodes {
         return getNode(node, pathItems) != null;
     }
 
+    /**
+     * Same as {@link #getNode(Object, List)}, but returns null instead of failing if a path item does not match the
+     * type of the node
+     */
+    private static Object getNodeOrNull(Object node, List<Object> pathItems) {
+        for (Object pathItem : pathItems) {
+            if (node instanceof Map)
+                node = ((Map) node).get(pathItem);
+            else
+                return null;
+        }
+        return node;
+    }
+
     public static Object getNode(Object node, List<Object> pathItems) {
         for (Object pathItem : pathItems) {
             if (node == null) {
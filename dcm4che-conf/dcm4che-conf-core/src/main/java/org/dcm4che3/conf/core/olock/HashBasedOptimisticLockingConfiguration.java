@@ -6,14 +6,22 @@ import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.Path;
 import org.dcm4che3.conf.core.api.internal.ConfigProperty;
 import org.dcm4che3.conf.core.api.internal.ConfigReflection;
+import org.dcm4che3.conf.core.util.ConfigNodeDiff;
 import org.dcm4che3.conf.core.util.ConfigNodeTraverser;
 import org.dcm4che3.conf.core.util.ConfigNodeTraverser.ConfigNodeTypesafeFilter;
+import org.dcm4che3.conf.core.util.PathFollower;
 import org.dcm4che3.conf.core.Nodes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -60,10 +68,10 @@ public class HashBasedOptimisticLockingConfiguration extends DelegatingConfigura
         Map<String, Object> nodeBeingPersisted = (Map<String, Object>) Nodes.deepCloneNode(configNode);
 
         // get existing node from storage
-        Map<String, Object> nodeInStorage = (Map<String, Object>) getConfigurationNode(path, configurableClass);
+        Map<String, Object> nodeInStorage = (Map<String, Object>) super.getConfigurationNode(path, configurableClass);
 
         // if there is nothing in storage - just persist and leave
-        if (nodeInStorage == null) {
+        if (nodeInStorage == null || nodeBeingPersisted == null) {
             if (nodeBeingPersisted != null) {
                 ConfigNodeTraverser.traverseMapNode(nodeBeingPersisted, new CleanupFilter(Configuration.OLOCK_HASH_KEY));
             }
@@ -71,28 +79,179 @@ public class HashBasedOptimisticLockingConfiguration extends DelegatingConfigura
             return;
         }
 
+        // if nothing has changed, there is nothing to merge - no need to calculate any hashes
+        List<ConfigNodeDiff.Change> changes = ConfigNodeDiff.diff(nodeInStorage, nodeBeingPersisted, Configuration.OLOCK_HASH_KEY);
+        if (changes.isEmpty()) {
+            log.debug("Node at path {} is unchanged, skipping persist", path);
+            return;
+        }
+
+        // must be resolved before merging, the merge swaps the contents of the nodes
+        Map<List<Object>, Class> changedObjects = getChangedObjects(nodeInStorage, changes, configurableClass);
+
+        markHashes(nodeInStorage, configurableClass);
+
         // save old hashes in node being persisted
         ConfigNodeTraverser.traverseMapNode(nodeBeingPersisted, new OLockCopyFilter(OLD_OLOCK_HASH_KEY));
 
-        // calculate current hashes in node being persisted
-        ConfigNodeTraverser.traverseMapNode(nodeBeingPersisted, new OLockHashCalcFilter(OLD_OLOCK_HASH_KEY));
+        // Olock'd nodes that are not on the way to a change, and not inside a changed node, are equal in both nodes.
+        // They keep their old hash, so that they are taken over as unchanged by the merge, and no hashes need to be
+        // calculated for them.
+        Set<Map<String, Object>> hashed = Collections.newSetFromMap(new IdentityHashMap<Map<String, Object>, Boolean>());
+        for (ConfigNodeDiff.Change change : changes)
+            calculateHashes(nodeInStorage, nodeBeingPersisted, change.getPathItems(), hashed);
 
         ////// merge the object /////
         ConfigNodeTraverser.dualTraverseMapNodes(nodeInStorage, nodeBeingPersisted, new OLockMergeDualFilter());
 
-        // filter the #hash clutter out
-        ConfigNodeTraverser.traverseMapNode(nodeBeingPersisted, new CleanupFilter(OLD_OLOCK_HASH_KEY, Configuration.OLOCK_HASH_KEY));
+        // persist only the changed objects
+        for (Map.Entry<List<Object>, Class> changedObject : changedObjects.entrySet()) {
+            List<Object> pathItems = new ArrayList<Object>(path.getPathItems());
+            pathItems.addAll(changedObject.getKey());
+
+            Map<String, Object> node = (Map<String, Object>) Nodes.getNode(nodeBeingPersisted, changedObject.getKey());
 
-        delegate.persistNode(path, nodeBeingPersisted, configurableClass);
+            // filter the #hash clutter out
+            if (node != null)
+                ConfigNodeTraverser.traverseMapNode(node, new CleanupFilter(OLD_OLOCK_HASH_KEY, Configuration.OLOCK_HASH_KEY));
+
+            delegate.persistNode(new Path(pathItems), node, changedObject.getValue());
+        }
     }
 
+    /**
+     * Finds the configurable objects that contain the changes, so that they can be persisted with their class, e.g. to
+     * preserve unknown extensions. Falls back to the parent object if the class of a node cannot be resolved.
+     *
+     * @return relative paths of changed objects, none of them is inside of another one, and their classes
+     */
+    private static Map<List<Object>, Class> getChangedObjects(Map<String, Object> nodeInStorage, List<ConfigNodeDiff.Change> changes, Class configurableClass) {
+        List<List<Object>> paths = new ArrayList<List<Object>>();
+        for (ConfigNodeDiff.Change change : changes) {
+            List<Object> pathItems = change.getPathItems();
+
+            // an added or removed node is persisted with its parent
+            if (!pathItems.isEmpty() && (change.isRemoval() || !Nodes.nodeExists(nodeInStorage, pathItems)))
+                pathItems = pathItems.subList(0, pathItems.size() - 1);
+
+            paths.add(pathItems);
+        }
+
+        Map<List<Object>, Class> changedObjects = new LinkedHashMap<List<Object>, Class>();
+        if (configurableClass == null) {
+            changedObjects.put(Collections.emptyList(), null);
+            return changedObjects;
+        }
+
+        for (List<Object> pathItems : paths) {
+            Class clazz = null;
+            while (clazz == null) {
+                try {
+                    ConfigProperty property = PathFollower.traceProperties(configurableClass, new Path(pathItems)).getLast();
+                    if (property.isConfObject())
+                        clazz = property.getRawClass();
+                } catch (IllegalArgumentException e) {
+                    // e.g. inside of extensions
+                }
+                if (clazz == null)
+                    pathItems = pathItems.subList(0, pathItems.size() - 1);
+            }
+            changedObjects.put(new ArrayList<Object>(pathItems), clazz);
+        }
+
+        // objects inside of other changed objects are persisted with them
+        Iterator<List<Object>> iterator = changedObjects.keySet().iterator();
+        while (iterator.hasNext()) {
+            List<Object> pathItems = iterator.next();
+            for (List<Object> other : changedObjects.keySet())
+                if (other.size() < pathItems.size() && other.equals(pathItems.subList(0, other.size()))) {
+                    iterator.remove();
+                    break;
+                }
+        }
+        return changedObjects;
+    }
+
+    /**
+     * Calculates the hashes of olock'd nodes on the way to the change, and all hashes inside of the changed nodes
+     */
+    private static void calculateHashes(Map<String, Object> nodeInStorage, Map<String, Object> nodeBeingPersisted, List<Object> pathItems, Set<Map<String, Object>> hashed) {
+        Object oldNode = nodeInStorage;
+        Object newNode = nodeBeingPersisted;
+        for (Object pathItem : pathItems) {
+            calculateHash((Map<String, Object>) oldNode, null, hashed);
+            calculateHash((Map<String, Object>) newNode, OLD_OLOCK_HASH_KEY, hashed);
+            oldNode = ((Map<String, Object>) oldNode).get(pathItem);
+            newNode = ((Map<String, Object>) newNode).get(pathItem);
+        }
+
+        // a node is only missing in one of them if it was added or removed, then it is the last one on the path
+        if (oldNode instanceof Map)
+            ConfigNodeTraverser.traverseMapNode(oldNode, new OLockHashCalcFilter());
+        if (newNode instanceof Map)
+            ConfigNodeTraverser.traverseMapNode(newNode, new OLockHashCalcFilter(OLD_OLOCK_HASH_KEY));
+    }
+
+    /**
+     * Calculates the hash of a single olock'd node. Nested olock'd nodes only contribute with their key to it, so they
+     * are not traversed.
+     */
+    private static void calculateHash(Map<String, Object> node, String ignoredKey, Set<Map<String, Object>> hashed) {
+        if (!node.containsKey(Configuration.OLOCK_HASH_KEY) || !hashed.add(node))
+            return;
+
+        Map<String, Object> pruned = (Map<String, Object>) pruneOLockedNodes(node, true);
+        ConfigNodeTraverser.traverseMapNode(pruned, ignoredKey == null ? new OLockHashCalcFilter() : new OLockHashCalcFilter(ignoredKey));
+        node.put(Configuration.OLOCK_HASH_KEY, pruned.get(Configuration.OLOCK_HASH_KEY));
+    }
+
+    private static Object pruneOLockedNodes(Object node, boolean root) {
+        if (node instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) node;
+            Map<String, Object> pruned = new LinkedHashMap<String, Object>();
+            if (!root && map.containsKey(Configuration.OLOCK_HASH_KEY)) {
+                pruned.put(Configuration.OLOCK_HASH_KEY, NOT_CALCULATED_YET);
+                return pruned;
+            }
+            for (Map.Entry<String, Object> entry : map.entrySet())
+                pruned.put(entry.getKey(), pruneOLockedNodes(entry.getValue(), false));
+            return pruned;
+        }
+
+        if (node instanceof List) {
+            List<Object> pruned = new ArrayList<Object>();
+            for (Object element : (List<Object>) node)
+                pruned.add(pruneOLockedNodes(element, false));
+            return pruned;
+        }
+
+        return node;
+    }
 
     @Override
     public Object getConfigurationNode(Path path, Class configurableClass) throws ConfigurationException {
 
         Object configurationNode = super.getConfigurationNode(path, configurableClass);
 
-        //  calculate olock hashes if called with configurableClass
+        calculateHashes(configurationNode, configurableClass);
+
+        return configurationNode;
+    }
+
+    /**
+     * Calculates olock hashes (in place) if called with configurableClass
+     */
+    private void calculateHashes(Object configurationNode, Class configurableClass) {
+        if (configurableClass != null && configurationNode != null) {
+            markHashes(configurationNode, configurableClass);
+            ConfigNodeTraverser.traverseMapNode(configurationNode, new OLockHashCalcFilter());
+        }
+    }
+
+    /**
+     * Inserts not yet calculated #hash props (in place) if called with configurableClass
+     */
+    private void markHashes(Object configurationNode, Class configurableClass) {
         if (configurableClass != null && configurationNode != null) {
 
             ConfigNodeTraverser.traverseNodeTypesafe(
@@ -101,11 +260,7 @@ public class HashBasedOptimisticLockingConfiguration extends DelegatingConfigura
                     allExtensionClasses,
                     new HashMarkingTypesafeNodeFilter()
             );
-
-            ConfigNodeTraverser.traverseMapNode(configurationNode, new OLockHashCalcFilter());
         }
-
-        return configurationNode;
     }
 
     /**
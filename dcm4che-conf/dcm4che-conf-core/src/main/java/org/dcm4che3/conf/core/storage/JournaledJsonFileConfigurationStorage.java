@@ -0,0 +1,527 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.dcm4che3.conf.core.Nodes;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.core.api.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JSON file storage that keeps the configuration tree in memory.
+ * <p>
+ * Each change is appended as a single-line path/node record to a write-ahead journal (<code>&lt;file&gt;.journal</code>)
+ * instead of re-writing the whole file. Once the journal grows over the compaction threshold, it is rotated and
+ * compacted into the snapshot (the configuration file itself, in the same format as used by
+ * {@link SingleJsonFileConfigurationStorage}) in the background. The snapshot is written to a temporary file which is
+ * then renamed, so the snapshot on disk is always complete.
+ * </p>
+ * <p>
+ * On startup the tree is recovered from the snapshot, followed by the rotated journals that were not yet compacted
+ * and the current journal. An incomplete trailing record (e.g. after a crash) is ignored.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+@SuppressWarnings("unchecked")
+public class JournaledJsonFileConfigurationStorage implements Configuration {
+
+    private static final Logger log = LoggerFactory.getLogger(JournaledJsonFileConfigurationStorage.class);
+
+    public static final String COMPACTION_THRESHOLD_PROP = "org.dcm4che.conf.journal.compactionThreshold";
+    public static final String SYNC_PROP = "org.dcm4che.conf.journal.sync";
+
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final String TMP_SUFFIX = ".tmp";
+
+    private static final String OP_PERSIST = "persist";
+    private static final String OP_REMOVE = "remove";
+
+    private String fileName;
+    private int compactionThreshold = 1000;
+    private boolean sync = true;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Map<String, Object> configurationRoot;
+    private FileOutputStream journalStream;
+    private Writer journalWriter;
+    private int journalRecords;
+    private long rotatedJournalSeq;
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile Executor compactionExecutor;
+
+    public JournaledJsonFileConfigurationStorage() {
+        //NOOP
+    }
+
+    public JournaledJsonFileConfigurationStorage(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public void configure(Hashtable<?, ?> props) {
+        this.fileName = SingleJsonFileConfigurationStorage.resolveConfigFileNameSetting(props);
+
+        String threshold = (String) props.get(COMPACTION_THRESHOLD_PROP);
+        if (threshold != null)
+            compactionThreshold = Integer.parseInt(threshold.trim());
+
+        String sync = (String) props.get(SYNC_PROP);
+        if (sync != null)
+            this.sync = Boolean.parseBoolean(sync.trim());
+    }
+
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * @param sync if set to true (default), each journal record is forced to the disk before the change is reported
+     *             as done
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public Executor getCompactionExecutor() {
+        return compactionExecutor;
+    }
+
+    /**
+     * @param compactionExecutor executor used to compact the journal in the background. If not set, a single daemon
+     *                           thread is started on first use.
+     */
+    public void setCompactionExecutor(Executor compactionExecutor) {
+        this.compactionExecutor = compactionExecutor;
+    }
+
+    File getSnapshotFile() {
+        return new File(fileName);
+    }
+
+    File getJournalFile() {
+        return new File(fileName + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Returns the in-memory configuration tree. The returned tree must not be modified.
+     */
+    @Override
+    public synchronized Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+        if (configurationRoot == null)
+            recover();
+        return configurationRoot;
+    }
+
+    @Override
+    public synchronized Object getConfigurationNode(Path path, Class configurableClass) throws ConfigurationException {
+        return Nodes.deepCloneNode(Nodes.getNode(getConfigurationRoot(), path.getPathItems()));
+    }
+
+    @Override
+    public synchronized boolean nodeExists(Path path) throws ConfigurationException {
+        return Nodes.nodeExists(getConfigurationRoot(), path.getPathItems());
+    }
+
+    @Override
+    public synchronized void persistNode(Path path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
+        Map<String, Object> root = getConfigurationRoot();
+
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("op", OP_PERSIST);
+        record.put("path", path.getPathItems());
+        record.put("node", configNode);
+        appendToJournal(record);
+
+        apply(root, record);
+
+        log.info("Configuration updated at path " + path);
+    }
+
+    @Override
+    public synchronized void removeNode(Path path) throws ConfigurationException {
+        Map<String, Object> root = getConfigurationRoot();
+
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("op", OP_REMOVE);
+        record.put("path", path.getPathItems());
+        appendToJournal(record);
+
+        apply(root, record);
+    }
+
+    @Override
+    public void refreshNode(Path path) {
+
+    }
+
+    @Override
+    public Path getPathByUUID(String uuid) {
+        throw new ConfigurationException("Unexpected error - uuid index is missing");
+    }
+
+    @Override
+    public synchronized Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
+        // copy the results, the in-memory tree must not be modified by the callers
+        List l = new ArrayList();
+        Iterator iterator = Nodes.search(getConfigurationRoot(), liteXPathExpression);
+        while (iterator.hasNext()) l.add(Nodes.deepCloneNode(iterator.next()));
+        return l.iterator();
+    }
+
+    @Override
+    public void lock() {
+        // ostrich
+    }
+
+    @Override
+    public void runBatch(Batch batch) {
+        batch.run();
+    }
+
+    /**
+     * Closes the journal. The storage re-opens it on the next change.
+     */
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    private void apply(Map<String, Object> root, Map<String, Object> record) {
+        List<Object> pathItems = (List<Object>) record.get("path");
+
+        if (OP_PERSIST.equals(record.get("op"))) {
+            Map<String, Object> node = (Map<String, Object>) Nodes.deepCloneNode(record.get("node"));
+            if (pathItems.isEmpty())
+                configurationRoot = node == null ? new HashMap<String, Object>() : node;
+            else
+                Nodes.replaceNode(root, node, pathItems);
+        } else if (OP_REMOVE.equals(record.get("op"))) {
+            if (pathItems.isEmpty())
+                configurationRoot = new HashMap<String, Object>();
+            else
+                Nodes.removeNode(root, pathItems);
+        } else
+            throw new IllegalArgumentException("Unknown journal record " + record.get("op"));
+    }
+
+    private void appendToJournal(Map<String, Object> record) throws ConfigurationException {
+        try {
+            if (journalWriter == null) {
+                journalStream = new FileOutputStream(getJournalFile(), true);
+                journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream, "UTF-8"));
+            }
+
+            journalWriter.write(objectMapper.writeValueAsString(record));
+            journalWriter.write('\n');
+            journalWriter.flush();
+            if (sync)
+                journalStream.getFD().sync();
+        } catch (IOException e) {
+            // the journal might end with a partial record now, don't write after it
+            closeJournal();
+            throw new ConfigurationException("Cannot write to configuration journal " + getJournalFile(), e);
+        }
+
+        if (++journalRecords >= compactionThreshold)
+            compactInBackground();
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
+                log.warn("Error while closing configuration journal", e);
+            }
+            journalWriter = null;
+            journalStream = null;
+        }
+    }
+
+    // -------- recovery --------
+
+    /**
+     * Must be called while holding the lock
+     */
+    private void recover() throws ConfigurationException {
+        File snapshotFile = getSnapshotFile();
+        File tmpFile = new File(fileName + TMP_SUFFIX);
+
+        // the snapshot may only be missing while renaming a complete temporary file (see writeSnapshot)
+        if (!snapshotFile.exists() && tmpFile.exists())
+            snapshotFile = tmpFile;
+
+        Map<String, Object> root;
+        try {
+            root = snapshotFile.exists()
+                    ? (Map<String, Object>) objectMapper.readValue(snapshotFile, Map.class)
+                    : new HashMap<String, Object>();
+        } catch (IOException e) {
+            throw new ConfigurationException("Cannot read configuration snapshot " + snapshotFile, e);
+        }
+        configurationRoot = root;
+
+        // replaying a journal is idempotent, so it does not matter if a rotated journal is already in the snapshot
+        boolean corrupted = false;
+        for (File rotatedJournal : listRotatedJournals()) {
+            corrupted |= replay(rotatedJournal);
+            rotatedJournalSeq = Math.max(rotatedJournalSeq, seqOf(rotatedJournal));
+        }
+
+        journalRecords = 0;
+        File journalFile = getJournalFile();
+        if (journalFile.exists())
+            corrupted |= replay(journalFile);
+
+        log.info("Configuration recovered from " + snapshotFile + " and " + journalRecords + " journal records");
+
+        // don't append after a partial record, compact right away instead
+        if (corrupted)
+            compact();
+    }
+
+    /**
+     * @return true if the journal ends with an incomplete record
+     */
+    private boolean replay(File journal) throws ConfigurationException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) continue;
+
+                    Map<String, Object> record;
+                    try {
+                        record = objectMapper.readValue(line, Map.class);
+                    } catch (IOException e) {
+                        if (reader.readLine() != null)
+                            throw new ConfigurationException("Corrupted configuration journal " + journal, e);
+
+                        log.warn("Ignoring incomplete last record of configuration journal " + journal);
+                        return true;
+                    }
+
+                    apply(configurationRoot, record);
+                    journalRecords++;
+                }
+                return false;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Cannot read configuration journal " + journal, e);
+        }
+    }
+
+    private List<File> listRotatedJournals() {
+        File snapshotFile = getSnapshotFile().getAbsoluteFile();
+        final String prefix = snapshotFile.getName() + JOURNAL_SUFFIX + ".";
+
+        File[] files = snapshotFile.getParentFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && seqOf(new File(dir, name)) >= 0;
+            }
+        });
+
+        List<File> journals = files == null ? new ArrayList<File>() : new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(journals, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long seq1 = seqOf(o1);
+                long seq2 = seqOf(o2);
+                return seq1 < seq2 ? -1 : seq1 == seq2 ? 0 : 1;
+            }
+        });
+        return journals;
+    }
+
+    private static long seqOf(File rotatedJournal) {
+        String name = rotatedJournal.getName();
+        try {
+            return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // -------- compaction --------
+
+    private void compactInBackground() {
+        if (!compacting.compareAndSet(false, true))
+            return;
+
+        try {
+            executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doCompact();
+                    } catch (Exception e) {
+                        log.warn("Configuration journal compaction failed, will retry on next threshold", e);
+                    } finally {
+                        compacting.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compacting.set(false);
+        }
+    }
+
+    private Executor executor() {
+        Executor executor = compactionExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = compactionExecutor;
+                if (executor == null) {
+                    compactionExecutor = executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "dcm4che-conf-journal-compaction");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Compacts the journal into the snapshot, blocks until done
+     */
+    public void compact() throws ConfigurationException {
+        while (!compacting.compareAndSet(false, true))
+            Thread.yield();
+        try {
+            doCompact();
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private void doCompact() throws ConfigurationException {
+        Object snapshot;
+
+        // rotate the journal, changes made while the snapshot is being written go to a new one
+        synchronized (this) {
+            if (configurationRoot == null)
+                return;
+
+            closeJournal();
+            File journalFile = getJournalFile();
+            if (journalFile.exists()) {
+                File rotated = new File(fileName + JOURNAL_SUFFIX + "." + (++rotatedJournalSeq));
+                if (!journalFile.renameTo(rotated))
+                    throw new ConfigurationException("Cannot rotate configuration journal " + journalFile + " to " + rotated);
+            }
+            journalRecords = 0;
+
+            snapshot = Nodes.deepCloneNode(configurationRoot);
+        }
+
+        List<File> compactedJournals = listRotatedJournals();
+
+        writeSnapshot(snapshot);
+
+        for (File journal : compactedJournals)
+            if (!journal.delete())
+                log.warn("Cannot delete compacted configuration journal " + journal);
+
+        log.info("Configuration journal compacted into " + getSnapshotFile());
+    }
+
+    private void writeSnapshot(Object snapshot) throws ConfigurationException {
+        File snapshotFile = getSnapshotFile();
+        File tmpFile = new File(fileName + TMP_SUFFIX);
+        try {
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                objectMapper.writerWithDefaultPrettyPrinter().writeValue(new NonClosingOutputStream(out), snapshot);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Cannot write configuration snapshot " + tmpFile, e);
+        }
+
+        // rename is atomic on POSIX, other platforms do not allow to rename over an existing file
+        if (!tmpFile.renameTo(snapshotFile)) {
+            if (!snapshotFile.delete() || !tmpFile.renameTo(snapshotFile))
+                throw new ConfigurationException("Cannot rename " + tmpFile + " to " + snapshotFile);
+        }
+    }
+
+    /**
+     * Jackson closes the stream it writes to, but the descriptor is still needed to sync
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
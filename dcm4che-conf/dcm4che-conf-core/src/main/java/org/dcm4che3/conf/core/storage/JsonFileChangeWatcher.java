@@ -0,0 +1,179 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.api.ConfigChangeEvent;
+import org.dcm4che3.conf.core.api.ConfigChangeEventTransport;
+import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.events.SimpleConfigChangeEvent;
+import org.dcm4che3.conf.core.util.ConfigNodeDiff;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the file of a {@link SingleJsonFileConfigurationStorage} and publishes the paths that have changed in it,
+ * e.g. when the file was edited manually or by another process.
+ * <p>
+ * The file is polled for its modification time and size, since file system notifications are not available on the
+ * supported Java version. Changed paths are detected by diffing the new content with the previous one.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public class JsonFileChangeWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonFileChangeWatcher.class);
+
+    private final SingleJsonFileConfigurationStorage storage;
+    private final ConfigChangeEventTransport transport;
+    private final String sourceId;
+
+    private long lastModified;
+    private long lastLength;
+    private Map<String, Object> lastRoot;
+
+    private ScheduledExecutorService scheduledExecutor;
+    private ScheduledExecutorService ownScheduledExecutor;
+    private ScheduledFuture<?> pollTask;
+
+    public JsonFileChangeWatcher(SingleJsonFileConfigurationStorage storage, ConfigChangeEventTransport transport) {
+        this.storage = storage;
+        this.transport = transport;
+        this.sourceId = "json-file-watcher:" + storage.getFileName();
+    }
+
+    public synchronized ScheduledExecutorService getScheduledExecutor() {
+        return scheduledExecutor;
+    }
+
+    /**
+     * @param scheduledExecutor executor used to poll the file. If not set, a single daemon thread is started by
+     *                          {@link #start(long)} and terminated by {@link #stop()}.
+     */
+    public synchronized void setScheduledExecutor(ScheduledExecutorService scheduledExecutor) {
+        this.scheduledExecutor = scheduledExecutor;
+    }
+
+    /**
+     * Starts polling in the background
+     *
+     * @param pollInterval interval between two checks, in ms
+     */
+    public synchronized void start(long pollInterval) {
+        if (pollTask != null)
+            return;
+
+        checkForChanges();
+
+        ScheduledExecutorService executor = scheduledExecutor;
+        if (executor == null)
+            executor = ownScheduledExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "dcm4che-conf-file-watcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        pollTask = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkForChanges();
+                } catch (Exception e) {
+                    log.warn("Failed to check configuration file " + storage.getFileName() + " for changes", e);
+                }
+            }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+        if (ownScheduledExecutor != null) {
+            ownScheduledExecutor.shutdownNow();
+            ownScheduledExecutor = null;
+        }
+    }
+
+    /**
+     * Checks the file once and publishes an event if the content has changed since the last check.
+     * The first check only records the current state.
+     *
+     * @return the changed paths, empty if nothing has changed
+     */
+    public synchronized List<String> checkForChanges() {
+        File file = new File(storage.getFileName());
+        long modified = file.lastModified();
+        long length = file.length();
+
+        List<String> changedPaths = new ArrayList<String>();
+        if (lastRoot != null && modified == lastModified && length == lastLength)
+            return changedPaths;
+
+        Map<String, Object> root = storage.getConfigurationRoot();
+        if (lastRoot != null) {
+            for (ConfigNodeDiff.Change change : ConfigNodeDiff.diff(lastRoot, root))
+                changedPaths.add(new Path(change.getPathItems()).toSimpleEscapedPath());
+        }
+
+        lastModified = modified;
+        lastLength = length;
+        lastRoot = root;
+
+        if (!changedPaths.isEmpty()) {
+            log.info("Configuration file {} has changed at {}", storage.getFileName(), changedPaths);
+            transport.publish(new SimpleConfigChangeEvent(ConfigChangeEvent.CONTEXT.CONFIG_CHANGE, changedPaths, sourceId));
+        }
+        return changedPaths;
+    }
+}
@@ -40,18 +40,41 @@
 package org.dcm4che3.conf.core.storage;
 
 import org.dcm4che3.conf.core.DelegatingConfiguration;
+import org.dcm4che3.conf.core.api.ConfigChangeEvent;
+import org.dcm4che3.conf.core.api.ConfigChangeEventTransport;
 import org.dcm4che3.conf.core.api.Configuration;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.Nodes;
 import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.events.SimpleConfigChangeEvent;
+import org.dcm4che3.conf.core.util.ConfigNodeDiff;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Simple caching, no full transaction support, e.g. for rollbacks
- * Oversynchronized
+ * <p>
+ * The cached configuration tree is a copy-on-write snapshot: a published tree is never modified. Writers create a new
+ * tree that shares all unmodified sub-nodes with the previous one and publish it atomically, so readers do not need to
+ * lock. Writers (and batches) are serialized. Changes made within a batch are only visible to the thread running the
+ * batch, until the batch completes.
+ * </p>
+ * <p>
+ * If a staleTimeout is configured, a stale tree is reloaded in the background while readers keep using the old one.
+ * </p>
+ * <p>
+ * With a {@link ConfigChangeEventTransport}, the cache publishes the paths it changes and reloads only the paths
+ * changed by others. If a batch fails, only the paths it has touched are reloaded, on next access.
+ * </p>
  *
  * @author Roman K
  */
@@ -61,7 +84,46 @@ public class SimpleCachingConfigurationDecorator extends DelegatingConfiguration
     public static final Logger log = LoggerFactory.getLogger(SimpleCachingConfigurationDecorator.class);
     private boolean readOnly = false;
 
-    private Map<String, Object> cachedConfigurationRoot = null;
+    private volatile Map<String, Object> cachedConfigurationRoot = null;
+
+    /**
+     * Tree modified by the batch that is currently running, only visible to the thread holding the writeLock
+     */
+    private Map<String, Object> batchConfigurationRoot = null;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final String sourceId = UUID.randomUUID().toString();
+    private volatile ConfigChangeEventTransport changeEventTransport;
+    private volatile Executor refreshExecutor;
+
+    /**
+     * Paths changed by the batch that is currently running, only accessed by the thread holding the writeLock
+     */
+    private List<String> batchChangedPaths = null;
+
+    /**
+     * Paths touched by failed batches, to be reloaded from the delegate on next access
+     */
+    private final Set<String> dirtyPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final ConfigChangeEventTransport.Listener changeListener = new ConfigChangeEventTransport.Listener() {
+        @Override
+        public void onConfigChange(ConfigChangeEvent event) {
+            if (event instanceof SimpleConfigChangeEvent && sourceId.equals(((SimpleConfigChangeEvent) event).getSourceId()))
+                return;
+
+            try {
+                for (String changedPath : event.getChangedPaths())
+                    refreshPath(Path.fromSimpleEscapedPath(changedPath));
+            } catch (RuntimeException e) {
+                // better to reload everything than to keep serving outdated config
+                log.warn("Failed to refresh changed configuration paths " + event.getChangedPaths() + ", reloading all", e);
+                invalidateAll();
+            }
+        }
+    };
 
     public SimpleCachingConfigurationDecorator(Configuration delegate) {
         this(delegate, System.getProperties());
@@ -84,29 +146,138 @@ public class SimpleCachingConfigurationDecorator extends DelegatingConfiguration
     }
 
     long staleTimeout;
-    long fetchTime;
+    volatile long fetchTime;
+
+    /**
+     * Publishes changes made through this cache to the transport, and refreshes paths changed by others
+     */
+    public void setChangeEventTransport(ConfigChangeEventTransport transport) {
+        ConfigChangeEventTransport old = this.changeEventTransport;
+        if (old != null)
+            old.removeListener(changeListener);
+
+        this.changeEventTransport = transport;
+        if (transport != null)
+            transport.addInternalListener(changeListener);
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * @param refreshExecutor executor used to reload a stale tree in the background. If not set, a single daemon
+     *                        thread is started on first use.
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
 
 
+    /**
+     * Returns the cached configuration tree. The returned tree must not be modified.
+     */
     @Override
-    public synchronized Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+    public Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+
+        if (writeLock.isHeldByCurrentThread() && batchConfigurationRoot != null)
+            return batchConfigurationRoot;
+
+        if (!dirtyPaths.isEmpty())
+            refreshDirtyPaths();
+
+        Map<String, Object> root = cachedConfigurationRoot;
+        if (root == null)
+            return loadConfigurationRoot();
 
-        long now = System.currentTimeMillis();
+        if (staleTimeout != 0 && System.currentTimeMillis() > fetchTime + staleTimeout)
+            refreshInBackground();
 
-        if (cachedConfigurationRoot == null ||
-                (staleTimeout != 0 && now > fetchTime + staleTimeout)) {
-            fetchTime = now;
-            if (cachedConfigurationRoot == null)
+        return root;
+    }
+
+    private Map<String, Object> loadConfigurationRoot() throws ConfigurationException {
+        writeLock.lock();
+        try {
+            Map<String, Object> root = cachedConfigurationRoot;
+            if (root == null) {
+                fetchTime = System.currentTimeMillis();
+                root = loadFromDelegate();
+                cachedConfigurationRoot = root;
                 log.info("Configuration cache initialized");
-            else
-                log.debug("Configuration cache refreshed");
+            }
+            return root;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            cachedConfigurationRoot = delegate.getConfigurationRoot();
+    /**
+     * The delegate might keep modifying the tree it returns, so the cache works on its own copy
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> loadFromDelegate() throws ConfigurationException {
+        return (Map<String, Object>) Nodes.deepCloneNode(delegate.getConfigurationRoot());
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true))
+            return;
+
+        try {
+            executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeLock.lock();
+                        try {
+                            if (System.currentTimeMillis() > fetchTime + staleTimeout) {
+                                fetchTime = System.currentTimeMillis();
+                                cachedConfigurationRoot = loadFromDelegate();
+                                log.debug("Configuration cache refreshed");
+                            }
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    } catch (Exception e) {
+                        log.warn("Configuration cache refresh failed", e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.set(false);
         }
-        return cachedConfigurationRoot;
+    }
+
+    private Executor executor() {
+        Executor executor = refreshExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = refreshExecutor;
+                if (executor == null) {
+                    refreshExecutor = executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "dcm4che-conf-cache-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return executor;
     }
 
     /**
-     * Return cached node
+     * Return a deep copy of the cached node. The decorators above modify the returned node in place (olock hashes,
+     * defaults), so it cannot be a shared part of the published snapshot.
      *
      * @param path
      * @param configurableClass
@@ -114,7 +285,7 @@ public class SimpleCachingConfigurationDecorator extends DelegatingConfiguration
      * @throws ConfigurationException
      */
     @Override
-    public synchronized Object getConfigurationNode(Path path, Class configurableClass) throws ConfigurationException {
+    public Object getConfigurationNode(Path path, Class configurableClass) throws ConfigurationException {
         Object node = Nodes.getNode(getConfigurationRoot(), path.getPathItems());
 
         if (node == null) return null;
@@ -128,37 +299,126 @@ public class SimpleCachingConfigurationDecorator extends DelegatingConfiguration
     }
 
     @Override
-    public synchronized void persistNode(Path path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
-        if (!readOnly) delegate.persistNode(path, configNode, configurableClass);
-        if (!Path.ROOT.equals(path))
-            Nodes.replaceNode(getConfigurationRoot(), configNode, path.getPathItems());
-        else
-            cachedConfigurationRoot = configNode;
+    public void persistNode(Path path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
+        writeLock.lock();
+        boolean changed = false;
+        try {
+            Map<String, Object> root = getConfigurationRoot();
+            Object cachedNode = Path.ROOT.equals(path) ? root : Nodes.getNode(root, path.getPathItems());
+
+            if (!(cachedNode instanceof Map) || configNode == null) {
+                if (!readOnly) delegate.persistNode(path, configNode, configurableClass);
+                Map<String, Object> copy = (Map<String, Object>) Nodes.deepCloneNode(configNode);
+                if (!Path.ROOT.equals(path))
+                    publish((Map<String, Object>) copyOnWrite(root, path.getPathItems(), 0, copy, false));
+                else
+                    publish(copy);
+                changed = changed(path);
+            } else {
+
+                // always write through - the cached node might be stale, only the storage can tell whether the write
+                // is a no-op. The diff is only used to patch the cached tree.
+                if (!readOnly) delegate.persistNode(path, configNode, configurableClass);
+
+                List<ConfigNodeDiff.Change> changes = ConfigNodeDiff.diff((Map<String, Object>) cachedNode, configNode);
+                for (ConfigNodeDiff.Change change : changes) {
+                    List<Object> changePath = new ArrayList<Object>(path.getPathItems());
+                    changePath.addAll(change.getPathItems());
+
+                    if (changePath.isEmpty())
+                        root = (Map<String, Object>) Nodes.deepCloneNode(change.getNode());
+                    else
+                        root = (Map<String, Object>) copyOnWrite(root, changePath, 0, Nodes.deepCloneNode(change.getNode()), change.isRemoval());
+                }
+                if (!changes.isEmpty())
+                    publish(root);
+                changed = changed(path);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (changed)
+            fireChangeEvent(Collections.singletonList(path.toSimpleEscapedPath()));
     }
 
     @Override
-    public synchronized void refreshNode(Path path) throws ConfigurationException {
-        if (!readOnly) {
+    public void refreshNode(Path path) throws ConfigurationException {
+        if (!readOnly)
+            refreshPath(path);
+    }
+
+    /**
+     * Reloads the node at the path from the delegate, the rest of the cached tree is kept
+     */
+    private void refreshPath(Path path) throws ConfigurationException {
+        writeLock.lock();
+        try {
+            Map<String, Object> root = batchConfigurationRoot != null ? batchConfigurationRoot : cachedConfigurationRoot;
+
+            // nothing loaded yet - nothing to refresh
+            if (root == null)
+                return;
+
+            if (Path.ROOT.equals(path)) {
+                fetchTime = System.currentTimeMillis();
+                publish(loadFromDelegate());
+                return;
+            }
+
+            Object node = delegate.getConfigurationNode(path, null);
+            if (node != null)
+                publish((Map<String, Object>) copyOnWrite(root, path.getPathItems(), 0, Nodes.deepCloneNode(node), false));
+            else if (Nodes.nodeExists(root, path.getPathItems()))
+                publish((Map<String, Object>) copyOnWrite(root, path.getPathItems(), 0, null, true));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void refreshDirtyPaths() throws ConfigurationException {
+        for (String dirtyPath : new ArrayList<String>(dirtyPaths)) {
+            refreshPath(Path.fromSimpleEscapedPath(dirtyPath));
+            dirtyPaths.remove(dirtyPath);
+        }
+    }
+
+    private void invalidateAll() {
+        writeLock.lock();
+        try {
             cachedConfigurationRoot = null;
-            getConfigurationRoot();
+            dirtyPaths.clear();
+        } finally {
+            writeLock.unlock();
         }
     }
 
     @Override
-    public synchronized boolean nodeExists(Path path) throws ConfigurationException {
+    public boolean nodeExists(Path path) throws ConfigurationException {
         return Nodes.nodeExists(getConfigurationRoot(), path.getPathItems());
     }
 
     @Override
-    public synchronized void removeNode(Path path) throws ConfigurationException {
-        if (!readOnly) delegate.removeNode(path);
-        Nodes.removeNode(getConfigurationRoot(), path.getPathItems());
+    public void removeNode(Path path) throws ConfigurationException {
+        writeLock.lock();
+        boolean changed;
+        try {
+            if (!readOnly) delegate.removeNode(path);
+            Map<String, Object> root = getConfigurationRoot();
+            if (Nodes.nodeExists(root, path.getPathItems()))
+                publish((Map<String, Object>) copyOnWrite(root, path.getPathItems(), 0, null, true));
+            changed = changed(path);
+        } finally {
+            writeLock.unlock();
+        }
+        if (changed)
+            fireChangeEvent(Collections.singletonList(path.toSimpleEscapedPath()));
     }
 
     @Override
-    public synchronized Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
+    public Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
 
-        // fully iterate and make copies of all returned results to ensure the consistency and isolation
+        // fully iterate and make copies of all returned results to ensure the consistency and isolation,
+        // like getConfigurationNode, callers may modify the results
         List l = new ArrayList();
         final Iterator origIterator = Nodes.search(getConfigurationRoot(), liteXPathExpression);
 
@@ -168,17 +428,112 @@ public class SimpleCachingConfigurationDecorator extends DelegatingConfiguration
     }
 
     @Override
-    public synchronized void runBatch(Batch batch) {
+    public void runBatch(Batch batch) {
+        writeLock.lock();
+        boolean outermost = batchConfigurationRoot == null;
+        List<String> changedPaths = null;
         try {
+            if (outermost) {
+                batchConfigurationRoot = getConfigurationRoot();
+                batchChangedPaths = new ArrayList<String>();
+            }
+
             super.runBatch(batch);
+
+            if (outermost)
+                cachedConfigurationRoot = batchConfigurationRoot;
         } catch (RuntimeException e) {
 
-            // if something goes wrong during batching - invalidate the cache before others are able to read inconsistent data
-            // we cannot re-load here since an underlying transaction is likely to be inactive
-            if (!readOnly) cachedConfigurationRoot = null;
+            // if something goes wrong during batching - the published tree is still the one from before the batch,
+            // but the storage might contain some of the changes. We cannot re-load here since an underlying transaction
+            // is likely to be inactive, so the touched paths are re-loaded on next access
+            if (outermost && !readOnly) dirtyPaths.addAll(batchChangedPaths);
 
             throw e;
+        } finally {
+            if (outermost) {
+                changedPaths = batchChangedPaths;
+                batchChangedPaths = null;
+                batchConfigurationRoot = null;
+            }
+            writeLock.unlock();
+        }
+
+        if (outermost && !changedPaths.isEmpty())
+            fireChangeEvent(changedPaths);
+    }
+
+    /**
+     * Must be called by the thread holding the writeLock
+     *
+     * @return true if the change should be published right away, false if it's published once the batch completes
+     */
+    private boolean changed(Path path) {
+        // a read-only cache does not change the storage, so others have nothing to refresh
+        if (readOnly)
+            return false;
+
+        if (batchChangedPaths != null) {
+            batchChangedPaths.add(path.toSimpleEscapedPath());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Must NOT be called while holding the writeLock, the transport may synchronously notify other caches
+     */
+    private void fireChangeEvent(List<String> changedPaths) {
+        ConfigChangeEventTransport transport = changeEventTransport;
+        if (transport != null)
+            transport.publish(new SimpleConfigChangeEvent(ConfigChangeEvent.CONTEXT.CONFIG_CHANGE, changedPaths, sourceId));
+    }
+
+    /**
+     * Must be called by the thread holding the writeLock
+     */
+    private void publish(Map<String, Object> root) {
+        if (batchConfigurationRoot != null)
+            batchConfigurationRoot = root;
+        else
+            cachedConfigurationRoot = root;
+    }
+
+    /**
+     * Returns a copy of the node with the sub-node at the specified path replaced (or removed). Only the nodes
+     * along the path are copied, all other sub-nodes are shared with the original node.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copyOnWrite(Object node, List<Object> pathItems, int index, Object replacement, boolean remove) {
+        Object pathItem = pathItems.get(index);
+        boolean leaf = index == pathItems.size() - 1;
+
+        if (node instanceof List && pathItem instanceof Integer) {
+            List<Object> newList = new ArrayList<Object>((List<Object>) node);
+            int i = (Integer) pathItem;
+            if (leaf && remove)
+                newList.remove(i);
+            else
+                newList.set(i, leaf ? replacement : copyOnWrite(newList.get(i), pathItems, index + 1, replacement, remove));
+            return newList;
+        }
+
+        if (node instanceof Map && pathItem instanceof String) {
+            Map<String, Object> newMap = new HashMap<String, Object>((Map<String, Object>) node);
+            if (leaf && remove)
+                newMap.remove(pathItem);
+            else {
+                Object subNode = newMap.get(pathItem);
+                if (subNode == null && !leaf) {
+                    if (!(pathItems.get(index + 1) instanceof String))
+                        throw new IllegalStateException("Cannot create lists items with replace, path " + pathItems + " , item '" + pathItems.get(index + 1) + "'");
+                    subNode = Configuration.NodeFactory.emptyNode();
+                }
+                newMap.put((String) pathItem, leaf ? replacement : copyOnWrite(subNode, pathItems, index + 1, replacement, remove));
+            }
+            return newMap;
         }
 
+        throw new IllegalArgumentException("Unexpected node/path: node " + node + " , path item " + pathItem);
     }
 }
@@ -45,6 +45,7 @@ import org.dcm4che3.conf.core.Nodes;
 import org.dcm4che3.conf.core.api.Configuration;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.util.ConfigNodeDiff;
 import org.dcm4che3.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -93,6 +94,10 @@ public class SingleJsonFileConfigurationStorage implements Configuration {
 
     }
 
+    public String getFileName() {
+        return fileName;
+    }
+
     public void configure(Hashtable<?, ?> props) {
         String fileName = ConfigurationSettingsLoader.getPropertyWithNotice(
                 props,
@@ -133,6 +138,14 @@ public class SingleJsonFileConfigurationStorage implements Configuration {
     public synchronized void persistNode(Path path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
         Map<String, Object> configurationRoot = getConfigurationRoot();
 
+        // the whole file has to be re-written on each change, so don't do it when nothing has changed
+        Object existingNode = Path.ROOT.equals(path) ? configurationRoot : Nodes.getNode(configurationRoot, path.getPathItems());
+        if (existingNode instanceof Map && configNode != null
+                && ConfigNodeDiff.diff((Map<String, Object>) existingNode, configNode).isEmpty()) {
+            log.debug("Node at path " + path + " is unchanged, file is not re-written");
+            return;
+        }
+
 //        if (configurableClass != null)
 //            configNode.put("#class", configurableClass.getName());
 
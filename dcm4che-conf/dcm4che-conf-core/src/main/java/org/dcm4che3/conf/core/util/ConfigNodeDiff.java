@@ -0,0 +1,187 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.util;
+
+import java.util.*;
+
+/**
+ * Structural diff of two configuration nodes.
+ * <p>
+ * The result is a list of {@link Change}s, each of them either replaces a map sub-node or removes one. Changes are
+ * reported on the deepest map that contains them - if a primitive or a list inside a map differs, the whole map is
+ * reported as changed, while sub-maps that are equal are not reported at all. Applying the changes in order to the
+ * old node produces a node equal to the new one (except for the ignored keys).
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+@SuppressWarnings("unchecked")
+public class ConfigNodeDiff {
+
+    public static class Change {
+
+        private final List<Object> pathItems;
+        private final Map<String, Object> node;
+
+        Change(List<Object> pathItems, Map<String, Object> node) {
+            this.pathItems = pathItems;
+            this.node = node;
+        }
+
+        /**
+         * @return path of the changed node, relative to the diffed nodes
+         */
+        public List<Object> getPathItems() {
+            return pathItems;
+        }
+
+        /**
+         * @return the new node, or null if the node was removed
+         */
+        public Map<String, Object> getNode() {
+            return node;
+        }
+
+        public boolean isRemoval() {
+            return node == null;
+        }
+
+        @Override
+        public String toString() {
+            return (isRemoval() ? "removed " : "changed ") + pathItems;
+        }
+    }
+
+    /**
+     * @param oldNode     the node to compare against
+     * @param newNode     the changed node
+     * @param ignoredKeys keys that are not taken into account when comparing, e.g. olock hashes
+     * @return changes needed to turn the old node into the new one, empty if the nodes are equal
+     */
+    public static List<Change> diff(Map<String, Object> oldNode, Map<String, Object> newNode, String... ignoredKeys) {
+        List<Change> changes = new ArrayList<Change>();
+        diffMaps(new ArrayList<Object>(), oldNode, newNode, new HashSet<String>(Arrays.asList(ignoredKeys)), changes);
+        return changes;
+    }
+
+    /**
+     * Deep equality of two nodes, not taking the ignored keys into account
+     */
+    public static boolean equalNodes(Object node1, Object node2, String... ignoredKeys) {
+        return equalNodes(node1, node2, new HashSet<String>(Arrays.asList(ignoredKeys)));
+    }
+
+    private static void diffMaps(List<Object> path, Map<String, Object> oldNode, Map<String, Object> newNode, Set<String> ignoredKeys, List<Change> changes) {
+
+        List<Change> subChanges = new ArrayList<Change>();
+
+        Set<String> keys = new LinkedHashSet<String>(oldNode.keySet());
+        keys.addAll(newNode.keySet());
+
+        for (String key : keys) {
+            if (ignoredKeys.contains(key)) continue;
+
+            Object oldValue = oldNode.get(key);
+            Object newValue = newNode.get(key);
+
+            if (oldValue instanceof Map && newValue instanceof Map) {
+                diffMaps(append(path, key), (Map<String, Object>) oldValue, (Map<String, Object>) newValue, ignoredKeys, subChanges);
+            } else if (newValue instanceof Map && !oldNode.containsKey(key)) {
+                subChanges.add(new Change(append(path, key), (Map<String, Object>) newValue));
+            } else if (oldValue instanceof Map && !newNode.containsKey(key)) {
+                subChanges.add(new Change(append(path, key), null));
+            } else if (!equalNodes(oldValue, newValue, ignoredKeys)
+                    || oldNode.containsKey(key) != newNode.containsKey(key)) {
+
+                // a non-map value of this node changed - the node itself is the smallest unit that can be persisted
+                changes.add(new Change(path, newNode));
+                return;
+            }
+        }
+
+        changes.addAll(subChanges);
+    }
+
+    private static boolean equalNodes(Object node1, Object node2, Set<String> ignoredKeys) {
+        if (node1 == node2) return true;
+        if (node1 == null || node2 == null) return false;
+
+        if (node1 instanceof Map && node2 instanceof Map) {
+            Map<String, Object> map1 = (Map<String, Object>) node1;
+            Map<String, Object> map2 = (Map<String, Object>) node2;
+
+            for (Map.Entry<String, Object> entry : map1.entrySet()) {
+                if (ignoredKeys.contains(entry.getKey())) continue;
+                if (!map2.containsKey(entry.getKey())) return false;
+                if (!equalNodes(entry.getValue(), map2.get(entry.getKey()), ignoredKeys)) return false;
+            }
+            for (String key : map2.keySet())
+                if (!ignoredKeys.contains(key) && !map1.containsKey(key)) return false;
+
+            return true;
+        }
+
+        if (node1 instanceof List && node2 instanceof List) {
+            List<Object> list1 = (List<Object>) node1;
+            List<Object> list2 = (List<Object>) node2;
+            if (list1.size() != list2.size()) return false;
+
+            Iterator<Object> it2 = list2.iterator();
+            for (Object item : list1)
+                if (!equalNodes(item, it2.next(), ignoredKeys)) return false;
+
+            return true;
+        }
+
+        // numbers may come back with a different type after a round-trip through a storage
+        if (node1 instanceof Number && node2 instanceof Number
+                && !(node1 instanceof Double || node1 instanceof Float || node2 instanceof Double || node2 instanceof Float))
+            return ((Number) node1).longValue() == ((Number) node2).longValue();
+
+        return node1.equals(node2);
+    }
+
+    private static List<Object> append(List<Object> path, Object item) {
+        List<Object> newPath = new ArrayList<Object>(path.size() + 1);
+        newPath.addAll(path);
+        newPath.add(item);
+        return newPath;
+    }
+}
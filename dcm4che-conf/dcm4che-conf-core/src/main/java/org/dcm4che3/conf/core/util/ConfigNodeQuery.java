@@ -0,0 +1,619 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.util;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of the subset of XPath that is used to query configuration trees (see DicomPath), evaluated directly
+ * on Map/List nodes instead of through JXPath.
+ * <p>
+ * Supported are: absolute and relative location paths, child steps by name, <code>*</code>, <code>.</code>,
+ * <code>//</code>, predicates <code>[@name='value']</code>, <code>[relative/path='value']</code>,
+ * <code>[relative/path]</code> and <code>[position]</code>, and unions of paths with <code>|</code>.
+ * A string literal of the form <code>'{param}'</code> is a parameter, that is bound when the query is evaluated.
+ * </p>
+ * <p>
+ * {@link #compile(String)} returns null for expressions outside of this subset, those should be evaluated by JXPath.
+ * </p>
+ * <p>
+ * {@link #compileCached(String)} caches the expressions with their string literals replaced by parameters, so
+ * queries that only differ in the searched values (e.g. AE titles) share one compiled template.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public class ConfigNodeQuery {
+
+    private static final int MAX_CACHED_QUERIES = 4096;
+    private static final Object UNSUPPORTED = new Object();
+    static final ConcurrentHashMap<String, Object> cache = new ConcurrentHashMap<String, Object>();
+
+    private final String expression;
+    private final List<Step[]> paths;
+
+    /**
+     * values of the literals of the expression, if the query is bound to them, otherwise null
+     */
+    private final Map<String, String> boundParams;
+
+    private ConfigNodeQuery(String expression, List<Step[]> paths, Map<String, String> boundParams) {
+        this.expression = expression;
+        this.paths = paths;
+        this.boundParams = boundParams;
+    }
+
+    /**
+     * @return compiled query, or null if the expression is not supported
+     */
+    public static ConfigNodeQuery compile(String expression) {
+        try {
+            return new Parser(expression).parseQuery();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #compile(String)}, but re-uses a previously compiled template of the expression, bound to the
+     * literals of the expression. Once {@value #MAX_CACHED_QUERIES} templates are cached, further ones are compiled
+     * without caching them.
+     */
+    public static ConfigNodeQuery compileCached(String expression) {
+        List<String> literals = new ArrayList<String>();
+        String template = toTemplate(expression, literals);
+        Object query = cache.get(template);
+        if (query == null) {
+            query = compile(template);
+            if (query == null)
+                query = UNSUPPORTED;
+            if (cache.size() < MAX_CACHED_QUERIES)
+                cache.putIfAbsent(template, query);
+        }
+        if (query == UNSUPPORTED)
+            return null;
+
+        ConfigNodeQuery compiled = (ConfigNodeQuery) query;
+        if (literals.isEmpty())
+            return compiled;
+
+        Map<String, String> params = new HashMap<String, String>(literals.size() * 2);
+        for (int i = 0; i < literals.size(); i++)
+            params.put(Integer.toString(i), literals.get(i));
+        return new ConfigNodeQuery(expression, compiled.paths, params);
+    }
+
+    /**
+     * Replaces the string literals of the expression by the parameters <code>'{0}'</code>, <code>'{1}'</code>, ...
+     * Literals which already are parameter references are kept.
+     *
+     * @param literals receives the values of the replaced literals
+     * @return the template, or the expression itself if it contains an unterminated literal
+     */
+    private static String toTemplate(String expression, List<String> literals) {
+        int quote = indexOfQuote(expression, 0);
+        if (quote < 0)
+            return expression;
+
+        StringBuilder template = new StringBuilder(expression.length());
+        int pos = 0;
+        do {
+            int end = expression.indexOf(expression.charAt(quote), quote + 1);
+            if (end < 0) {
+                literals.clear();
+                return expression;
+            }
+            String text = expression.substring(quote + 1, end);
+            template.append(expression, pos, quote);
+            if (new Literal(text).param != null)
+                template.append('\'').append(text).append('\'');
+            else {
+                template.append("'{").append(literals.size()).append("}'");
+                literals.add(text);
+            }
+            pos = end + 1;
+        } while ((quote = indexOfQuote(expression, pos)) >= 0);
+        return template.append(expression, pos, expression.length()).toString();
+    }
+
+    private static int indexOfQuote(String s, int fromIndex) {
+        for (int i = fromIndex; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'' || c == '"')
+                return i;
+        }
+        return -1;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return true if the query is a single path consisting only of child steps by name (and @name predicates),
+     * i.e. it addresses at most one node
+     */
+    public boolean isSimplePath() {
+        return simplePathItems() != null;
+    }
+
+    /**
+     * @return path items of a simple path, see {@link #isSimplePath()}, or null
+     */
+    public List<Object> simplePathItems() {
+        if (paths.size() != 1)
+            return null;
+
+        List<Object> items = new ArrayList<Object>();
+        for (Step step : paths.get(0)) {
+            if (step.axis != Axis.CHILD || step.name == null)
+                return null;
+            items.add(step.name);
+            for (Predicate predicate : step.predicates) {
+                if (!(predicate instanceof NamePredicate))
+                    return null;
+                Literal value = ((NamePredicate) predicate).value;
+                if (value.param != null && (boundParams == null || !boundParams.containsKey(value.param)))
+                    return null;
+                items.add(value.value(boundParams));
+            }
+        }
+        return items;
+    }
+
+    public Iterator iterate(Object root) {
+        return iterate(root, null);
+    }
+
+    /**
+     * @param params values of the parameters of the query, in addition to the literals the query was compiled from,
+     *               may be null
+     * @return iterator over all nodes selected by the query
+     */
+    public Iterator iterate(Object root, Map<String, String> params) {
+        List<Object> values = new ArrayList<Object>();
+        for (NodeRef ref : select(root, params))
+            values.add(ref.value);
+        return values.iterator();
+    }
+
+    /**
+     * Removes all nodes selected by the query from their containers
+     */
+    public void removeAll(Object root, Map<String, String> params) {
+        List<NodeRef> listElements = new ArrayList<NodeRef>();
+        for (NodeRef ref : select(root, params)) {
+            if (ref.container instanceof Map)
+                ((Map) ref.container).remove(ref.key);
+            else if (ref.container instanceof List)
+                listElements.add(ref);
+        }
+
+        // remove list elements from the highest index down, so that the indexes of the remaining ones stay valid
+        Collections.sort(listElements, new Comparator<NodeRef>() {
+            @Override
+            public int compare(NodeRef o1, NodeRef o2) {
+                return (Integer) o2.key - (Integer) o1.key;
+            }
+        });
+        for (NodeRef ref : listElements) {
+            List list = (List) ref.container;
+            int index = (Integer) ref.key;
+            if (index < list.size() && list.get(index) == ref.value)
+                list.remove(index);
+        }
+    }
+
+    private List<NodeRef> select(Object root, Map<String, String> params) {
+        if (params == null)
+            params = boundParams;
+        else if (boundParams != null) {
+            Map<String, String> merged = new HashMap<String, String>(boundParams);
+            merged.putAll(params);
+            params = merged;
+        }
+        List<NodeRef> result = new ArrayList<NodeRef>();
+        for (Step[] path : paths)
+            result.addAll(evaluate(path, Collections.singletonList(new NodeRef(null, null, root)), params));
+        return result;
+    }
+
+    private static List<NodeRef> evaluate(Step[] path, List<NodeRef> contexts, Map<String, String> params) {
+        for (Step step : path) {
+            List<NodeRef> next = new ArrayList<NodeRef>();
+            for (NodeRef context : contexts) {
+                List<NodeRef> candidates = step.apply(context);
+                for (Predicate predicate : step.predicates)
+                    candidates = predicate.filter(candidates, params);
+                next.addAll(candidates);
+            }
+            contexts = next;
+            if (contexts.isEmpty())
+                break;
+        }
+        return contexts;
+    }
+
+    private static class NodeRef {
+        final Object container;
+        final Object key;
+        final Object value;
+
+        NodeRef(Object container, Object key, Object value) {
+            this.container = container;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private enum Axis {
+        CHILD,
+        SELF,
+        DESCENDANT_OR_SELF
+    }
+
+    private static class Step {
+        final Axis axis;
+
+        /**
+         * null for *
+         */
+        final String name;
+        final List<Predicate> predicates = new ArrayList<Predicate>();
+
+        Step(Axis axis, String name) {
+            this.axis = axis;
+            this.name = name;
+        }
+
+        List<NodeRef> apply(NodeRef context) {
+            List<NodeRef> result = new ArrayList<NodeRef>();
+            switch (axis) {
+                case SELF:
+                    result.add(context);
+                    break;
+                case DESCENDANT_OR_SELF:
+                    addDescendantsOrSelf(context, result);
+                    break;
+                default:
+                    addChildren(context.value, name, result);
+            }
+            return result;
+        }
+
+        /**
+         * Collections are not nodes on their own, only their elements are
+         */
+        private static void addDescendantsOrSelf(NodeRef ref, List<NodeRef> result) {
+            if (ref.value instanceof List) {
+                List<?> list = (List<?>) ref.value;
+                for (int i = 0; i < list.size(); i++)
+                    if (list.get(i) instanceof Map)
+                        addDescendantsOrSelf(new NodeRef(list, i, list.get(i)), result);
+            } else if (ref.value instanceof Map) {
+                result.add(ref);
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) ref.value).entrySet())
+                    if (entry.getValue() instanceof Map || entry.getValue() instanceof List)
+                        addDescendantsOrSelf(new NodeRef(ref.value, entry.getKey(), entry.getValue()), result);
+            }
+        }
+
+        /**
+         * Like JXPath, collection-valued properties contribute their elements, not the collection itself
+         */
+        private static void addChildren(Object node, String name, List<NodeRef> result) {
+            if (node instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) node;
+                if (name != null)
+                    addValue(map, name, map.get(name), result);
+                else
+                    for (Map.Entry<?, ?> entry : map.entrySet())
+                        addValue(map, entry.getKey(), entry.getValue(), result);
+            } else if (node instanceof List) {
+                for (Object element : (List<?>) node)
+                    addChildren(element, name, result);
+            }
+        }
+
+        private static void addValue(Object container, Object key, Object value, List<NodeRef> result) {
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                for (int i = 0; i < list.size(); i++)
+                    if (list.get(i) != null)
+                        result.add(new NodeRef(list, i, list.get(i)));
+            } else if (value != null)
+                result.add(new NodeRef(container, key, value));
+        }
+    }
+
+    private static class Literal {
+        final String text;
+
+        /**
+         * parameter name if the literal is a parameter reference
+         */
+        final String param;
+
+        Literal(String text) {
+            this.text = text;
+            this.param = text.length() > 2 && text.startsWith("{") && text.endsWith("}")
+                    ? text.substring(1, text.length() - 1)
+                    : null;
+        }
+
+        String value(Map<String, String> params) {
+            if (param != null && params != null && params.containsKey(param))
+                return params.get(param);
+            return text;
+        }
+    }
+
+    private interface Predicate {
+        List<NodeRef> filter(List<NodeRef> candidates, Map<String, String> params);
+    }
+
+    /**
+     * [@name='value'] selects the child with the specified name
+     */
+    private static class NamePredicate implements Predicate {
+        final Literal value;
+
+        NamePredicate(Literal value) {
+            this.value = value;
+        }
+
+        @Override
+        public List<NodeRef> filter(List<NodeRef> candidates, Map<String, String> params) {
+            String name = value.value(params);
+            List<NodeRef> result = new ArrayList<NodeRef>();
+            for (NodeRef candidate : candidates)
+                Step.addChildren(candidate.value, name, result);
+            return result;
+        }
+    }
+
+    /**
+     * [n] selects the n-th candidate, starting with 1
+     */
+    private static class PositionPredicate implements Predicate {
+        final int position;
+
+        PositionPredicate(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public List<NodeRef> filter(List<NodeRef> candidates, Map<String, String> params) {
+            return position <= candidates.size()
+                    ? Collections.singletonList(candidates.get(position - 1))
+                    : Collections.<NodeRef>emptyList();
+        }
+    }
+
+    /**
+     * [path] or [path='value'] selects the candidates for which the relative path selects any node (with the
+     * specified value)
+     */
+    private static class PathPredicate implements Predicate {
+        final Step[] path;
+        final Literal value;
+
+        PathPredicate(Step[] path, Literal value) {
+            this.path = path;
+            this.value = value;
+        }
+
+        @Override
+        public List<NodeRef> filter(List<NodeRef> candidates, Map<String, String> params) {
+            String expected = value != null ? value.value(params) : null;
+            List<NodeRef> result = new ArrayList<NodeRef>();
+            for (NodeRef candidate : candidates)
+                if (matches(candidate, expected, params))
+                    result.add(candidate);
+            return result;
+        }
+
+        private boolean matches(NodeRef candidate, String expected, Map<String, String> params) {
+            List<NodeRef> selected = evaluate(path, Collections.singletonList(candidate), params);
+            if (expected == null)
+                return !selected.isEmpty();
+
+            for (NodeRef ref : selected)
+                if (!(ref.value instanceof Map || ref.value instanceof List) && expected.equals(String.valueOf(ref.value)))
+                    return true;
+            return false;
+        }
+    }
+
+    private static class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        ConfigNodeQuery parseQuery() {
+            List<Step[]> paths = new ArrayList<Step[]>();
+            paths.add(parsePath());
+            skipWhitespace();
+            while (peek() == '|') {
+                pos++;
+                paths.add(parsePath());
+                skipWhitespace();
+            }
+            if (pos != s.length())
+                throw new UnsupportedOperationException();
+            return new ConfigNodeQuery(s, paths, null);
+        }
+
+        private Step[] parsePath() {
+            skipWhitespace();
+            List<Step> steps = new ArrayList<Step>();
+            if (peek() == '/') {
+                pos++;
+                if (peek() == '/') {
+                    pos++;
+                    steps.add(new Step(Axis.DESCENDANT_OR_SELF, null));
+                } else if (atPathEnd()) {
+                    // "/" selects the root
+                    steps.add(new Step(Axis.SELF, null));
+                    return steps.toArray(new Step[steps.size()]);
+                }
+            }
+            steps.add(parseStep());
+            while (peek() == '/') {
+                pos++;
+                if (peek() == '/') {
+                    pos++;
+                    steps.add(new Step(Axis.DESCENDANT_OR_SELF, null));
+                }
+                steps.add(parseStep());
+            }
+            return steps.toArray(new Step[steps.size()]);
+        }
+
+        private Step parseStep() {
+            Step step;
+            if (peek() == '*') {
+                pos++;
+                step = new Step(Axis.CHILD, null);
+            } else {
+                String name = parseName();
+                step = ".".equals(name) ? new Step(Axis.SELF, null) : new Step(Axis.CHILD, name);
+            }
+            while (peek() == '[') {
+                pos++;
+                step.predicates.add(parsePredicate());
+                skipWhitespace();
+                expect(']');
+            }
+            return step;
+        }
+
+        private Predicate parsePredicate() {
+            skipWhitespace();
+            char c = peek();
+            if (c == '@') {
+                pos++;
+                if (!"name".equals(parseName()))
+                    throw new UnsupportedOperationException();
+                skipWhitespace();
+                expect('=');
+                return new NamePredicate(parseLiteral());
+            }
+            if (c >= '0' && c <= '9') {
+                int start = pos;
+                while (peek() >= '0' && peek() <= '9')
+                    pos++;
+                int position = Integer.parseInt(s.substring(start, pos));
+                if (position < 1)
+                    throw new UnsupportedOperationException();
+                return new PositionPredicate(position);
+            }
+            if (c == '/')
+                throw new UnsupportedOperationException();
+            Step[] path = parsePath();
+            skipWhitespace();
+            if (peek() == '=') {
+                pos++;
+                return new PathPredicate(path, parseLiteral());
+            }
+            return new PathPredicate(path, null);
+        }
+
+        private Literal parseLiteral() {
+            skipWhitespace();
+            char quote = peek();
+            if (quote != '\'' && quote != '"')
+                throw new UnsupportedOperationException();
+            int end = s.indexOf(quote, pos + 1);
+            if (end < 0)
+                throw new UnsupportedOperationException();
+            Literal literal = new Literal(s.substring(pos + 1, end));
+            pos = end + 1;
+            return literal;
+        }
+
+        private String parseName() {
+            StringBuilder name = new StringBuilder();
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '\\' && pos + 1 < s.length() && s.charAt(pos + 1) == '/') {
+                    name.append('/');
+                    pos += 2;
+                } else if (isNameChar(c)) {
+                    name.append(c);
+                    pos++;
+                } else
+                    break;
+            }
+            // function calls, axes, parent steps and operators are not supported
+            if (name.length() == 0 || "..".equals(name.toString()) || peek() == '(' || peek() == ':')
+                throw new UnsupportedOperationException();
+            return name.toString();
+        }
+
+        private static boolean isNameChar(char c) {
+            return !Character.isWhitespace(c) && "/[]|='\"*@()!<>,:$\\".indexOf(c) < 0;
+        }
+
+        private boolean atPathEnd() {
+            skipWhitespace();
+            return pos == s.length() || peek() == '|' || peek() == ']';
+        }
+
+        private void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+                pos++;
+        }
+
+        private char peek() {
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        private void expect(char c) {
+            if (peek() != c)
+                throw new UnsupportedOperationException();
+            pos++;
+        }
+    }
+}
@@ -39,7 +39,11 @@
  */
 package org.dcm4che3.conf.core;
 
+import org.dcm4che3.conf.core.adapters.DefaultConfigTypeAdapters;
 import org.dcm4che3.conf.core.api.internal.BeanVitalizer;
+import org.dcm4che3.conf.core.api.internal.ConfigProperty;
+import org.dcm4che3.conf.core.api.internal.ConfigReflection;
+import org.dcm4che3.conf.core.api.internal.ConfigTypeAdapter;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
@@ -445,6 +449,26 @@ public class VitalizerTest {
 
     }
 
+    @Test
+    public void testTypeAdapterBindingIsInvalidatedOnRegistration() throws ConfigurationException {
+        DefaultBeanVitalizer beanVitalizer = new DefaultBeanVitalizer();
+        beanVitalizer.newConfiguredInstance(getTestConfigClassMap(), TestConfigClass.class);
+
+        ConfigProperty strProperty = null;
+        for (ConfigProperty property : ConfigReflection.getAllConfigurableFields(TestConfigClass.class))
+            if (property.getName().equals("str")) strProperty = property;
+
+        ConfigTypeAdapter defaultAdapter = beanVitalizer.lookupTypeAdapter(strProperty);
+        Assert.assertSame(defaultAdapter, beanVitalizer.lookupTypeAdapter(strProperty));
+
+        ConfigTypeAdapter customAdapter = new DefaultConfigTypeAdapters.PrimitiveTypeAdapter("string");
+        beanVitalizer.registerCustomConfigTypeAdapter(String.class, customAdapter);
+        Assert.assertSame(customAdapter, beanVitalizer.lookupTypeAdapter(strProperty));
+
+        // another vitalizer does not see the adapter bound by the first one
+        Assert.assertSame(defaultAdapter, new DefaultBeanVitalizer().lookupTypeAdapter(strProperty));
+    }
+
     @Test
     public void testPerformance() throws ConfigurationException {
         HashMap<String, Object> testConfigClassNode = getTestConfigClassMap();
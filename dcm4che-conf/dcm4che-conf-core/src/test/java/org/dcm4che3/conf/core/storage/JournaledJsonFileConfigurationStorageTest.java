@@ -0,0 +1,119 @@
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.api.Path;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class JournaledJsonFileConfigurationStorageTest {
+
+    private static final String FILE_NAME = "target/journaled-config.json";
+
+    private static Map<String, Object> node(String key, Object value) {
+        Map<String, Object> node = new HashMap<String, Object>();
+        node.put(key, value);
+        return node;
+    }
+
+    @Before
+    public void cleanUp() {
+        File dir = new File(FILE_NAME).getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        for (File file : dir.listFiles())
+            if (file.getName().startsWith("journaled-config.json"))
+                file.delete();
+    }
+
+    private static JournaledJsonFileConfigurationStorage createStorage() {
+        JournaledJsonFileConfigurationStorage storage = new JournaledJsonFileConfigurationStorage(FILE_NAME);
+        storage.setSync(false);
+        return storage;
+    }
+
+    @Test
+    public void recoversFromJournal() throws Exception {
+        JournaledJsonFileConfigurationStorage storage = createStorage();
+        storage.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        storage.persistNode(new Path("root", "b"), node("prop", "2"), null);
+        storage.removeNode(new Path("root", "a"));
+        storage.persistNode(new Path("root", "b"), node("prop", "3"), null);
+        storage.close();
+
+        Assert.assertFalse(new File(FILE_NAME).exists());
+
+        JournaledJsonFileConfigurationStorage recovered = createStorage();
+        Assert.assertFalse(recovered.nodeExists(new Path("root", "a")));
+        Assert.assertEquals(node("prop", "3"), recovered.getConfigurationNode(new Path("root", "b"), null));
+        recovered.close();
+    }
+
+    @Test
+    public void compactsIntoSnapshot() throws Exception {
+        JournaledJsonFileConfigurationStorage storage = createStorage();
+        storage.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        storage.compact();
+
+        Assert.assertTrue(new File(FILE_NAME).exists());
+        Assert.assertFalse(storage.getJournalFile().exists());
+
+        storage.persistNode(new Path("root", "b"), node("prop", "2"), null);
+        storage.close();
+
+        // the snapshot stays readable by the plain json file storage
+        Assert.assertEquals(node("prop", "1"), new SingleJsonFileConfigurationStorage(FILE_NAME).getConfigurationNode(new Path("root", "a"), null));
+        Assert.assertNull(new SingleJsonFileConfigurationStorage(FILE_NAME).getConfigurationNode(new Path("root", "b"), null));
+
+        JournaledJsonFileConfigurationStorage recovered = createStorage();
+        Assert.assertEquals(node("prop", "1"), recovered.getConfigurationNode(new Path("root", "a"), null));
+        Assert.assertEquals(node("prop", "2"), recovered.getConfigurationNode(new Path("root", "b"), null));
+        recovered.close();
+    }
+
+    @Test
+    public void compactsOnCompactionExecutor() throws Exception {
+        JournaledJsonFileConfigurationStorage storage = createStorage();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        storage.setCompactionExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        storage.setCompactionThreshold(2);
+        storage.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        storage.persistNode(new Path("root", "b"), node("prop", "2"), null);
+
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertFalse(new File(FILE_NAME).exists());
+        tasks.get(0).run();
+        Assert.assertTrue(new File(FILE_NAME).exists());
+        storage.close();
+    }
+
+    @Test
+    public void ignoresIncompleteLastRecord() throws Exception {
+        JournaledJsonFileConfigurationStorage storage = createStorage();
+        storage.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        storage.close();
+
+        FileOutputStream out = new FileOutputStream(storage.getJournalFile(), true);
+        out.write("{\"op\":\"persist\",\"path\":[\"root\",\"b\"],\"no".getBytes("UTF-8"));
+        out.close();
+
+        JournaledJsonFileConfigurationStorage recovered = createStorage();
+        Assert.assertEquals(node("prop", "1"), recovered.getConfigurationNode(new Path("root", "a"), null));
+        Assert.assertFalse(recovered.nodeExists(new Path("root", "b")));
+
+        // recovery has compacted the journal, so new records are not appended to the broken one
+        Assert.assertFalse(recovered.getJournalFile().exists());
+        recovered.close();
+    }
+}
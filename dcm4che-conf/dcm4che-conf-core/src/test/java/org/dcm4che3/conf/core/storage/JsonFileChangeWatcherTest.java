@@ -0,0 +1,80 @@
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.events.InJvmConfigChangeEventTransport;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class JsonFileChangeWatcherTest {
+
+    private static Map<String, Object> node(String key, Object value) {
+        Map<String, Object> node = new HashMap<String, Object>();
+        node.put(key, value);
+        return node;
+    }
+
+    @Test
+    public void externalFileChangesAreRefreshedInCache() throws Exception {
+        String fileName = "target/watched-config.json";
+        new File(fileName).delete();
+
+        SingleJsonFileConfigurationStorage storage = new SingleJsonFileConfigurationStorage(fileName);
+        storage.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        storage.persistNode(new Path("root", "b"), node("prop", "1"), null);
+
+        InJvmConfigChangeEventTransport transport = new InJvmConfigChangeEventTransport();
+        SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(storage, new Hashtable<Object, Object>());
+        cache.setChangeEventTransport(transport);
+        Assert.assertEquals("1", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+
+        JsonFileChangeWatcher watcher = new JsonFileChangeWatcher(storage, transport);
+        Assert.assertTrue(watcher.checkForChanges().isEmpty());
+
+        // another process changes the file
+        new SingleJsonFileConfigurationStorage(fileName).persistNode(new Path("root", "a"), node("prop", "changed"), null);
+
+        Assert.assertEquals(Arrays.asList("/root/a"), watcher.checkForChanges());
+        Assert.assertEquals("changed", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Assert.assertTrue(watcher.checkForChanges().isEmpty());
+    }
+
+    @Test
+    public void pollsOnScheduledExecutor() throws Exception {
+        String fileName = "target/watched-config-polled.json";
+        new File(fileName).delete();
+
+        SingleJsonFileConfigurationStorage storage = new SingleJsonFileConfigurationStorage(fileName);
+        storage.persistNode(new Path("root", "a"), node("prop", "1"), null);
+
+        InJvmConfigChangeEventTransport transport = new InJvmConfigChangeEventTransport();
+        SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(storage, new Hashtable<Object, Object>());
+        cache.setChangeEventTransport(transport);
+        Assert.assertEquals("1", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            JsonFileChangeWatcher watcher = new JsonFileChangeWatcher(storage, transport);
+            watcher.setScheduledExecutor(executor);
+            watcher.start(10);
+
+            new SingleJsonFileConfigurationStorage(fileName).persistNode(new Path("root", "a"), node("prop", "changed"), null);
+            for (int i = 0; i < 500 && !"changed".equals(cache.getConfigurationNode(new Path("root", "a", "prop"), null)); i++)
+                Thread.sleep(10);
+            Assert.assertEquals("changed", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+
+            // the injected executor is not owned by the watcher
+            watcher.stop();
+            Assert.assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.api.BatchRunner;
+import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.events.InJvmConfigChangeEventTransport;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SimpleCachingConfigurationDecoratorTest {
+
+    private static Map<String, Object> node(String key, Object value) {
+        Map<String, Object> node = new HashMap<String, Object>();
+        node.put(key, value);
+        return node;
+    }
+
+    @Test
+    public void persistDoesNotModifyPublishedTree() throws Exception {
+        SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(
+                new InMemoryConfiguration(), new Hashtable<Object, Object>());
+
+        Map<String, Object> siblingNode = node("prop", "sibling");
+        cache.persistNode(new Path("root", "sibling"), siblingNode, null);
+        cache.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        Map<String, Object> before = cache.getConfigurationRoot();
+
+        cache.persistNode(new Path("root", "a"), node("prop", "2"), null);
+        cache.removeNode(new Path("root", "sibling", "prop"));
+        Map<String, Object> after = cache.getConfigurationRoot();
+
+        Assert.assertEquals("1", ((Map) ((Map) before.get("root")).get("a")).get("prop"));
+        Assert.assertEquals("sibling", ((Map) ((Map) before.get("root")).get("sibling")).get("prop"));
+        Assert.assertEquals("2", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Assert.assertFalse(cache.nodeExists(new Path("root", "sibling", "prop")));
+        Assert.assertNotSame(before, after);
+
+        // modifying the persisted node afterwards must not affect the cache
+        siblingNode.put("prop", "modified");
+        Assert.assertEquals("sibling", ((Map) ((Map) before.get("root")).get("sibling")).get("prop"));
+    }
+
+    @Test
+    public void persistWritesThroughIfCachedNodeIsEqual() throws Exception {
+        InMemoryConfiguration storage = new InMemoryConfiguration();
+        SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(
+                storage, new Hashtable<Object, Object>());
+        cache.persistNode(new Path("root", "a"), node("prop", "1"), null);
+
+        // changed by someone else - the cached node is stale
+        storage.persistNode(new Path("root", "a"), node("prop", "2"), null);
+
+        cache.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        Assert.assertEquals("1", storage.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Assert.assertEquals("1", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+    }
+
+    @Test
+    public void batchChangesAreOnlyVisibleToBatchThreadUntilCompleted() throws Exception {
+        final SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(
+                new InMemoryConfiguration(), new Hashtable<Object, Object>());
+        cache.persistNode(new Path("root"), node("prop", "old"), null);
+
+        final AtomicReference<Object> seenByOtherThread = new AtomicReference<Object>();
+        final AtomicReference<Object> seenByBatchThread = new AtomicReference<Object>();
+        cache.runBatch(new BatchRunner.Batch() {
+            @Override
+            public void run() {
+                cache.persistNode(new Path("root"), node("prop", "new"), null);
+                seenByBatchThread.set(cache.getConfigurationNode(new Path("root", "prop"), null));
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        seenByOtherThread.set(cache.getConfigurationNode(new Path("root", "prop"), null));
+                    }
+                });
+                reader.start();
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        Assert.assertEquals("new", seenByBatchThread.get());
+        Assert.assertEquals("old", seenByOtherThread.get());
+        Assert.assertEquals("new", cache.getConfigurationNode(new Path("root", "prop"), null));
+    }
+
+    @Test
+    public void changesAreRefreshedOnlyForChangedPaths() throws Exception {
+        InMemoryConfiguration storage = new InMemoryConfiguration();
+        InJvmConfigChangeEventTransport transport = new InJvmConfigChangeEventTransport();
+
+        SimpleCachingConfigurationDecorator cache1 = new SimpleCachingConfigurationDecorator(storage, new Hashtable<Object, Object>());
+        SimpleCachingConfigurationDecorator cache2 = new SimpleCachingConfigurationDecorator(storage, new Hashtable<Object, Object>());
+        cache1.setChangeEventTransport(transport);
+        cache2.setChangeEventTransport(transport);
+
+        cache1.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        cache1.persistNode(new Path("root", "b"), node("prop", "1"), null);
+        Assert.assertEquals("1", cache2.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Object unchangedNode = ((Map) cache2.getConfigurationRoot().get("root")).get("b");
+
+        cache1.persistNode(new Path("root", "a"), node("prop", "2"), null);
+        Assert.assertEquals("2", cache2.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Assert.assertSame(unchangedNode, ((Map) cache2.getConfigurationRoot().get("root")).get("b"));
+
+        cache1.removeNode(new Path("root", "a"));
+        Assert.assertFalse(cache2.nodeExists(new Path("root", "a")));
+    }
+
+    @Test
+    public void failedBatchReloadsOnlyTouchedPaths() throws Exception {
+        InMemoryConfiguration storage = new InMemoryConfiguration();
+        final SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(storage, new Hashtable<Object, Object>());
+        cache.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        cache.persistNode(new Path("root", "b"), node("prop", "1"), null);
+        Object unchangedNode = ((Map) cache.getConfigurationRoot().get("root")).get("b");
+
+        try {
+            cache.runBatch(new BatchRunner.Batch() {
+                @Override
+                public void run() {
+                    cache.persistNode(new Path("root", "a"), node("prop", "2"), null);
+                    throw new IllegalStateException("failed");
+                }
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the storage is not transactional, so the change made it there
+        Assert.assertEquals("2", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Assert.assertSame(unchangedNode, ((Map) cache.getConfigurationRoot().get("root")).get("b"));
+    }
+
+    @Test
+    public void staleTreeIsReloadedByRefreshExecutor() throws Exception {
+        InMemoryConfiguration storage = new InMemoryConfiguration();
+        SimpleCachingConfigurationDecorator cache = new SimpleCachingConfigurationDecorator(
+                storage, new Hashtable<Object, Object>());
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        cache.setRefreshExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        cache.staleTimeout = 1;
+        cache.persistNode(new Path("root", "a"), node("prop", "1"), null);
+        storage.persistNode(new Path("root", "a"), node("prop", "2"), null);
+        Thread.sleep(5);
+
+        // the stale tree is still served while the refresh is pending
+        Assert.assertEquals("1", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+        Assert.assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        Assert.assertEquals("2", cache.getConfigurationNode(new Path("root", "a", "prop"), null));
+    }
+}
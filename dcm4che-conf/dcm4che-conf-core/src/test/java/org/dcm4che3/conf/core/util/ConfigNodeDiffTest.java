@@ -0,0 +1,120 @@
+package org.dcm4che3.conf.core.util;
+
+import org.dcm4che3.conf.core.Nodes;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author agent <agent@local>
+ */
+@SuppressWarnings("unchecked")
+public class ConfigNodeDiffTest {
+
+    private static Map<String, Object> createDevice() {
+        Map<String, Object> ae1 = new HashMap<String, Object>();
+        ae1.put("dicomAETitle", "AE1");
+        ae1.put("dicomAssociationInitiator", true);
+        ae1.put("dcmTransferCapability", new ArrayList<Object>(Arrays.asList("tc1", "tc2")));
+
+        Map<String, Object> ae2 = new HashMap<String, Object>();
+        ae2.put("dicomAETitle", "AE2");
+        ae2.put("dicomAssociationInitiator", false);
+
+        Map<String, Object> aes = new HashMap<String, Object>();
+        aes.put("AE1", ae1);
+        aes.put("AE2", ae2);
+
+        Map<String, Object> device = new HashMap<String, Object>();
+        device.put("dicomDeviceName", "device");
+        device.put("dicomNetworkAE", aes);
+        return device;
+    }
+
+    private static Map<String, Object> getMap(Map<String, Object> node, String... path) {
+        for (String item : path)
+            node = (Map<String, Object>) node.get(item);
+        return node;
+    }
+
+    @Test
+    public void noChanges() {
+        Assert.assertTrue(ConfigNodeDiff.diff(createDevice(), createDevice()).isEmpty());
+    }
+
+    @Test
+    public void changedPrimitiveIsReportedOnContainingNode() {
+        Map<String, Object> newDevice = createDevice();
+        getMap(newDevice, "dicomNetworkAE", "AE2").put("dicomAssociationInitiator", true);
+
+        List<ConfigNodeDiff.Change> changes = ConfigNodeDiff.diff(createDevice(), newDevice);
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals(Arrays.<Object>asList("dicomNetworkAE", "AE2"), changes.get(0).getPathItems());
+        Assert.assertSame(getMap(newDevice, "dicomNetworkAE", "AE2"), changes.get(0).getNode());
+    }
+
+    @Test
+    public void changedListIsReportedOnContainingNode() {
+        Map<String, Object> newDevice = createDevice();
+        ((List<Object>) getMap(newDevice, "dicomNetworkAE", "AE1").get("dcmTransferCapability")).add("tc3");
+
+        List<ConfigNodeDiff.Change> changes = ConfigNodeDiff.diff(createDevice(), newDevice);
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals(Arrays.<Object>asList("dicomNetworkAE", "AE1"), changes.get(0).getPathItems());
+    }
+
+    @Test
+    public void addedAndRemovedSubNodes() {
+        Map<String, Object> newDevice = createDevice();
+        Map<String, Object> aes = getMap(newDevice, "dicomNetworkAE");
+        aes.remove("AE1");
+        Map<String, Object> ae3 = new HashMap<String, Object>();
+        ae3.put("dicomAETitle", "AE3");
+        aes.put("AE3", ae3);
+
+        List<ConfigNodeDiff.Change> changes = ConfigNodeDiff.diff(createDevice(), newDevice);
+        Assert.assertEquals(2, changes.size());
+        for (ConfigNodeDiff.Change change : changes) {
+            if (change.isRemoval())
+                Assert.assertEquals(Arrays.<Object>asList("dicomNetworkAE", "AE1"), change.getPathItems());
+            else
+                Assert.assertSame(ae3, change.getNode());
+        }
+    }
+
+    @Test
+    public void changesReproduceNewNode() {
+        Map<String, Object> oldDevice = createDevice();
+        Map<String, Object> newDevice = createDevice();
+        getMap(newDevice, "dicomNetworkAE", "AE2").put("dicomAssociationInitiator", true);
+        getMap(newDevice, "dicomNetworkAE").remove("AE1");
+        newDevice.put("dicomDescription", "changed");
+
+        Map<String, Object> patched = (Map<String, Object>) Nodes.deepCloneNode(oldDevice);
+        for (ConfigNodeDiff.Change change : ConfigNodeDiff.diff(oldDevice, newDevice)) {
+            if (change.getPathItems().isEmpty()) {
+                patched = (Map<String, Object>) Nodes.deepCloneNode(change.getNode());
+            } else if (change.isRemoval()) {
+                Nodes.removeNode(patched, change.getPathItems());
+            } else {
+                Nodes.replaceNode(patched, (Map<String, Object>) Nodes.deepCloneNode(change.getNode()), change.getPathItems());
+            }
+        }
+
+        Assert.assertTrue(ConfigNodeDiff.equalNodes(newDevice, patched));
+    }
+
+    @Test
+    public void ignoredKeysAndNumberTypes() {
+        Map<String, Object> oldDevice = createDevice();
+        oldDevice.put("dcmLimit", 5);
+        Map<String, Object> newDevice = createDevice();
+        newDevice.put("dcmLimit", 5L);
+        getMap(newDevice, "dicomNetworkAE", "AE1").put(Configuration.OLOCK_HASH_KEY, "abc");
+
+        Assert.assertTrue(ConfigNodeDiff.diff(oldDevice, newDevice, Configuration.OLOCK_HASH_KEY).isEmpty());
+        Assert.assertFalse(ConfigNodeDiff.diff(oldDevice, newDevice).isEmpty());
+    }
+}
@@ -0,0 +1,161 @@
+package org.dcm4che3.conf.core.util;
+
+import org.apache.commons.jxpath.JXPathContext;
+import org.dcm4che3.conf.core.Nodes;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+public class ConfigNodeQueryTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfigNodeQueryTest.class);
+
+    private static final String[] QUERIES = {
+            "/dicomConfigurationRoot/dicomDevicesRoot/*/dicomNetworkAE/*/dicomAETitle | /dicomConfigurationRoot/dicomDevicesRoot/*/dicomNetworkAE/*/dcmAETitleAliases",
+            "/dicomConfigurationRoot/dicomDevicesRoot/*[dicomNetworkAE[@name='AE_7']]/dicomDeviceName",
+            "/dicomConfigurationRoot/dicomDevicesRoot/*[dicomNetworkAE[*/dcmAETitleAliases='ALIAS_3']]/dicomDeviceName",
+            "/dicomConfigurationRoot/dicomDevicesRoot/*/dicomDeviceName",
+            "/dicomConfigurationRoot/dicomDevicesRoot/*[dicomNetworkAE/*[_.uuid='ae-uuid-5']]/dicomDeviceName",
+            "/dicomConfigurationRoot/dicomDevicesRoot/*[_.uuid='device-uuid-8']/dicomDeviceName",
+            "/dicomConfigurationRoot/dicomDevicesRoot/*[.//_.uuid='ae-uuid-2']/_.uuid",
+            "/dicomConfigurationRoot/dicomDevicesRoot[@name='device_4']",
+            "//*[_.uuid='ae-uuid-6']",
+            "/dicomConfigurationRoot/dicomDevicesRoot/device_1/dicomNetworkAE/AE_1/dcmTransferCapability[2]/name",
+    };
+
+    private static Map<String, Object> createConfigRoot(int numberOfDevices) {
+        Map<String, Object> devices = new HashMap<String, Object>();
+        for (int i = 0; i < numberOfDevices; i++) {
+            List<Object> tcs = new ArrayList<Object>();
+            for (int j = 0; j < 3; j++) {
+                Map<String, Object> tc = new HashMap<String, Object>();
+                tc.put("name", "tc_" + j);
+                tcs.add(tc);
+            }
+
+            Map<String, Object> ae = new HashMap<String, Object>();
+            ae.put("dicomAETitle", "AE_" + i);
+            ae.put("dcmAETitleAliases", Arrays.asList("ALIAS_" + i));
+            ae.put("_.uuid", "ae-uuid-" + i);
+            ae.put("dcmTransferCapability", tcs);
+
+            Map<String, Object> aes = new HashMap<String, Object>();
+            aes.put("AE_" + i, ae);
+
+            Map<String, Object> device = new HashMap<String, Object>();
+            device.put("dicomDeviceName", "device_" + i);
+            device.put("_.uuid", "device-uuid-" + i);
+            device.put("dicomNetworkAE", aes);
+            devices.put("device_" + i, device);
+        }
+
+        Map<String, Object> configRoot = new HashMap<String, Object>();
+        configRoot.put("dicomDevicesRoot", devices);
+
+        Map<String, Object> root = new HashMap<String, Object>();
+        root.put("dicomConfigurationRoot", configRoot);
+        return root;
+    }
+
+    private static List<Object> toList(Iterator iterator) {
+        List<Object> list = new ArrayList<Object>();
+        while (iterator.hasNext())
+            list.add(iterator.next());
+        return list;
+    }
+
+    @Test
+    public void sameResultsAsJXPath() {
+        Map<String, Object> root = createConfigRoot(10);
+        for (String query : QUERIES) {
+            ConfigNodeQuery compiled = ConfigNodeQuery.compile(query);
+            Assert.assertNotNull(query, compiled);
+
+            List<Object> expected = toList(JXPathContext.newContext(root).iterate(query));
+            List<Object> actual = toList(compiled.iterate(root));
+            Assert.assertFalse(query, expected.isEmpty());
+            Assert.assertEquals(query, new HashSet<Object>(expected), new HashSet<Object>(actual));
+            Assert.assertEquals(query, expected.size(), actual.size());
+        }
+    }
+
+    @Test
+    public void boundParameters() {
+        Map<String, Object> root = createConfigRoot(10);
+        ConfigNodeQuery query = ConfigNodeQuery.compile(
+                "/dicomConfigurationRoot/dicomDevicesRoot/*[dicomNetworkAE[@name='{aeName}']]/dicomDeviceName");
+
+        Assert.assertEquals(Arrays.<Object>asList("device_3"),
+                toList(query.iterate(root, Collections.singletonMap("aeName", "AE_3"))));
+        Assert.assertEquals(Arrays.<Object>asList("device_9"),
+                toList(query.iterate(root, Collections.singletonMap("aeName", "AE_9"))));
+    }
+
+    @Test
+    public void unsupportedExpressions() {
+        Assert.assertNull(ConfigNodeQuery.compile("/*[contains(prop2,'I am ')]"));
+        Assert.assertNull(ConfigNodeQuery.compile("/a/../b"));
+        Assert.assertNull(ConfigNodeQuery.compile("/a[b='1' and c='2']"));
+    }
+
+    @Test
+    public void removeNodes() {
+        Map<String, Object> root = createConfigRoot(3);
+        Nodes.removeNodes(root, "/dicomConfigurationRoot/dicomDevicesRoot/*/dicomNetworkAE/*/dcmTransferCapability");
+        Assert.assertFalse(Nodes.search(root, "/dicomConfigurationRoot/dicomDevicesRoot/*/dicomNetworkAE/*/dcmTransferCapability").hasNext());
+
+        Nodes.removeNodes(root, "/dicomConfigurationRoot/dicomDevicesRoot/*[_.uuid='device-uuid-1']");
+        Assert.assertEquals(2, toList(Nodes.search(root, "/dicomConfigurationRoot/dicomDevicesRoot/*/dicomDeviceName")).size());
+    }
+
+    @Test
+    public void cachedTemplateIsBoundToLiterals() {
+        Map<String, Object> root = createConfigRoot(10);
+        String template = "/dicomConfigurationRoot/dicomDevicesRoot/*[dicomNetworkAE[@name='{0}']]/dicomDeviceName";
+        for (int i = 0; i < 10; i++) {
+            String query = template.replace("{0}", "AE_" + i);
+            Assert.assertEquals(query, Arrays.<Object>asList("device_" + i),
+                    toList(ConfigNodeQuery.compileCached(query).iterate(root)));
+        }
+        Assert.assertTrue(ConfigNodeQuery.cache.containsKey(template));
+        Assert.assertFalse(ConfigNodeQuery.cache.containsKey(template.replace("{0}", "AE_3")));
+
+        Assert.assertEquals(Arrays.<Object>asList("device_5"), toList(ConfigNodeQuery.compileCached(
+                "/dicomConfigurationRoot/dicomDevicesRoot/*[dicomNetworkAE[@name='{aeName}']]/dicomDeviceName")
+                .iterate(root, Collections.singletonMap("aeName", "AE_5"))));
+
+        ConfigNodeQuery simple = ConfigNodeQuery.compileCached(
+                "/dicomConfigurationRoot/dicomDevicesRoot/device_2/dicomNetworkAE[@name='AE_2']");
+        Assert.assertEquals(Arrays.<Object>asList("dicomConfigurationRoot", "dicomDevicesRoot", "device_2",
+                "dicomNetworkAE", "AE_2"), simple.simplePathItems());
+    }
+
+    @Test
+    @Ignore("Benchmark")
+    public void benchmarkAgainstJXPath() {
+        Map<String, Object> root = createConfigRoot(10000);
+        int iterations = 100;
+
+        for (String query : QUERIES) {
+            int expected = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                expected = toList(JXPathContext.newContext(root).iterate(query)).size();
+            long jxpath = System.nanoTime() - start;
+
+            int actual = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                actual = toList(Nodes.search(root, query)).size();
+            long compiled = System.nanoTime() - start;
+
+            Assert.assertEquals(query, expected, actual);
+            log.info("{} - JXPath: {} ms, compiled: {} ms", new Object[]{
+                    query, jxpath / 1000000 / iterations, compiled / 1000000 / iterations});
+        }
+    }
+}
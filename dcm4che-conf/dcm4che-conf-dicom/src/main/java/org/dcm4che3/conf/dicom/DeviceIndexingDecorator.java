@@ -0,0 +1,409 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.dicom;
+
+import org.dcm4che3.conf.core.DelegatingConfiguration;
+import org.dcm4che3.conf.core.api.ConfigChangeEvent;
+import org.dcm4che3.conf.core.api.ConfigChangeEventTransport;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.util.ConfigNodeTraverser;
+import org.dcm4che3.conf.core.util.PathPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Keeps hash indexes of AE titles, AE title aliases, HL7 application names and UUIDs to the names of devices they
+ * belong to, and answers the corresponding {@link DicomPath} searches from these indexes instead of evaluating the
+ * xpath over the whole configuration tree.
+ * <p>
+ * The indexes are built lazily from the devices root on first use and then maintained incrementally on
+ * persistNode/removeNode/refreshNode of single devices. Any modification of a node above a device node
+ * (e.g. the configuration root) invalidates the indexes, they are then rebuilt on next use. A failed batch
+ * invalidates the indexes as well, since they might contain changes the batch did not persist.
+ * </p>
+ * <p>
+ * Modifications that bypass this decorator become visible after a refreshNode, after a change event received from the
+ * {@link ConfigChangeEventTransport} (which must then be set on this decorator after it is set on the caches below),
+ * or at the latest after the staleTimeout (<code>org.dcm4che.conf.staleTimeout</code>) has passed since the indexes
+ * were built, same as with a {@link org.dcm4che3.conf.core.storage.SimpleCachingConfigurationDecorator}.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+@SuppressWarnings("unchecked")
+public class DeviceIndexingDecorator extends DelegatingConfiguration {
+
+    private static final Path DEVICES_ROOT_PATH = new Path("dicomConfigurationRoot", "dicomDevicesRoot");
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceIndexingDecorator.class);
+
+    private DeviceIndex index;
+    private long indexTime;
+    private final long staleTimeout;
+
+    private volatile ConfigChangeEventTransport changeEventTransport;
+
+    private final ConfigChangeEventTransport.Listener changeListener = new ConfigChangeEventTransport.Listener() {
+        @Override
+        public void onConfigChange(ConfigChangeEvent event) {
+            synchronized (DeviceIndexingDecorator.this) {
+                try {
+                    for (String changedPath : event.getChangedPaths())
+                        updateIndex(Path.fromSimpleEscapedPath(changedPath));
+                } catch (Exception e) {
+                    log.warn("Failed to re-index changed configuration paths " + event.getChangedPaths() + ", rebuilding the index", e);
+                    index = null;
+                }
+            }
+        }
+    };
+
+    public DeviceIndexingDecorator(Configuration delegate) {
+        this(delegate, System.getProperties());
+    }
+
+    public DeviceIndexingDecorator(Configuration delegate, Hashtable<?, ?> properties) {
+        super(delegate);
+        String s = (String) properties.get("org.dcm4che.conf.staleTimeout");
+        staleTimeout = Integer.valueOf(s == null ? "0" : s) * 1000L;
+    }
+
+    /**
+     * Re-indexes the devices changed by others. Must be set after the transport is set on the caches below, so that
+     * the indexes are updated from the refreshed nodes.
+     */
+    public void setChangeEventTransport(ConfigChangeEventTransport transport) {
+        ConfigChangeEventTransport old = this.changeEventTransport;
+        if (old != null)
+            old.removeListener(changeListener);
+
+        this.changeEventTransport = transport;
+        if (transport != null)
+            transport.addInternalListener(changeListener);
+    }
+
+    @Override
+    public Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
+        PathPattern.PathParser parser;
+
+        if ((parser = DicomPath.DeviceNameByAEName.parseIfMatches(liteXPathExpression)) != null)
+            return lookup(IndexType.AE_TITLE, parser.getParam("aeName"));
+
+        if ((parser = DicomPath.DeviceNameByAENameAlias.parseIfMatches(liteXPathExpression)) != null)
+            return lookup(IndexType.AE_TITLE_ALIAS, parser.getParam("aeNameAlias"));
+
+        if ((parser = DicomPath.DeviceNameByHL7AppName.parseIfMatches(liteXPathExpression)) != null)
+            return lookup(IndexType.HL7_APP_NAME, parser.getParam("hl7AppName"));
+
+        if ((parser = DicomPath.DeviceNameByAEUUID.parseIfMatches(liteXPathExpression)) != null)
+            return lookup(IndexType.AE_UUID, parser.getParam("aeUUID"));
+
+        if ((parser = DicomPath.DeviceNameByUUID.parseIfMatches(liteXPathExpression)) != null)
+            return lookup(IndexType.DEVICE_UUID, parser.getParam("deviceUUID"));
+
+        if ((parser = DicomPath.DeviceUUIDByAnyUUID.parseIfMatches(liteXPathExpression)) != null)
+            return lookupDeviceUUIDByAnyUUID(parser.getParam("UUID"));
+
+        if (DicomPath.AllDeviceNames.path().equals(liteXPathExpression))
+            return listAll(IndexType.DEVICE_NAME);
+
+        if (DicomPath.AllAETitles.path().equals(liteXPathExpression))
+            return listAll(IndexType.AE_TITLE_VALUE);
+
+        if (DicomPath.AllHL7AppNames.path().equals(liteXPathExpression))
+            return listAll(IndexType.HL7_APP_NAME_VALUE);
+
+        return super.search(liteXPathExpression);
+    }
+
+    @Override
+    public synchronized void persistNode(Path path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
+        super.persistNode(path, configNode, configurableClass);
+        updateIndex(path);
+    }
+
+    @Override
+    public synchronized void removeNode(Path path) throws ConfigurationException {
+        super.removeNode(path);
+        updateIndex(path);
+    }
+
+    @Override
+    public synchronized void refreshNode(Path path) throws ConfigurationException {
+        super.refreshNode(path);
+        updateIndex(path);
+    }
+
+    @Override
+    public void runBatch(Batch batch) {
+        try {
+            super.runBatch(batch);
+        } catch (RuntimeException e) {
+            // the indexes might contain changes made within the batch that did not make it to the storage
+            synchronized (this) {
+                index = null;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized Iterator lookup(IndexType type, String key) throws ConfigurationException {
+        List<String> deviceNames = index().get(type, key);
+        return deviceNames == null
+                ? Collections.emptyList().iterator()
+                : new ArrayList<String>(deviceNames).iterator();
+    }
+
+    private synchronized Iterator lookupDeviceUUIDByAnyUUID(String uuid) throws ConfigurationException {
+        DeviceIndex index = index();
+        List<String> deviceNames = index.get(IndexType.ANY_UUID, uuid);
+        if (deviceNames == null)
+            return Collections.emptyList().iterator();
+
+        List<String> deviceUUIDs = new ArrayList<String>(deviceNames.size());
+        for (String deviceName : deviceNames) {
+            String deviceUUID = index.devices.get(deviceName).uuid;
+            if (deviceUUID != null)
+                deviceUUIDs.add(deviceUUID);
+        }
+        return deviceUUIDs.iterator();
+    }
+
+    private synchronized Iterator listAll(IndexType type) throws ConfigurationException {
+        List<String> values = new ArrayList<String>();
+        for (DeviceEntry entry : index().devices.values())
+            values.addAll(entry.keys.get(type));
+        return values.iterator();
+    }
+
+    private DeviceIndex index() throws ConfigurationException {
+        if (index != null && staleTimeout != 0 && System.currentTimeMillis() > indexTime + staleTimeout)
+            index = null;
+
+        if (index == null) {
+            indexTime = System.currentTimeMillis();
+            DeviceIndex newIndex = new DeviceIndex();
+            Object devicesRoot = super.getConfigurationNode(DEVICES_ROOT_PATH, null);
+            if (devicesRoot instanceof Map)
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>) devicesRoot).entrySet())
+                    if (entry.getValue() instanceof Map)
+                        newIndex.add(new DeviceEntry(entry.getKey(), (Map<String, Object>) entry.getValue()));
+            index = newIndex;
+        }
+        return index;
+    }
+
+    /**
+     * Re-indexes the device affected by a modification at the specified path, or invalidates the whole index if the
+     * modification affects more than a single device.
+     */
+    private void updateIndex(Path path) throws ConfigurationException {
+        if (index == null)
+            return;
+
+        List<Object> items = path.getPathItems();
+        List<Object> devicesRootItems = DEVICES_ROOT_PATH.getPathItems();
+        for (int i = 0; i < devicesRootItems.size(); i++) {
+            if (i == items.size()) {
+                index = null;
+                return;
+            }
+            if (!devicesRootItems.get(i).equals(items.get(i)))
+                return;
+        }
+
+        if (items.size() == devicesRootItems.size() || !(items.get(devicesRootItems.size()) instanceof String)) {
+            index = null;
+            return;
+        }
+
+        String deviceName = (String) items.get(devicesRootItems.size());
+        index.remove(deviceName);
+
+        Object deviceNode = super.getConfigurationNode(DicomPath.devicePath(deviceName), null);
+        if (deviceNode instanceof Map)
+            index.add(new DeviceEntry(deviceName, (Map<String, Object>) deviceNode));
+    }
+
+    private enum IndexType {
+        DEVICE_NAME,
+        DEVICE_UUID,
+        AE_TITLE,
+        AE_TITLE_ALIAS,
+        AE_TITLE_VALUE,
+        AE_UUID,
+        HL7_APP_NAME,
+        HL7_APP_NAME_VALUE,
+        ANY_UUID
+    }
+
+    /**
+     * Keys under which a single device is indexed
+     */
+    private static class DeviceEntry {
+
+        final String deviceName;
+        final String uuid;
+        final EnumMap<IndexType, List<String>> keys = new EnumMap<IndexType, List<String>>(IndexType.class);
+
+        DeviceEntry(String deviceName, Map<String, Object> deviceNode) {
+            this.deviceName = deviceName;
+            this.uuid = asString(deviceNode.get(Configuration.UUID_KEY));
+
+            for (IndexType type : IndexType.values())
+                keys.put(type, new ArrayList<String>());
+
+            Object name = deviceNode.get("dicomDeviceName");
+            addKey(IndexType.DEVICE_NAME, name != null ? asString(name) : deviceName);
+            addKey(IndexType.DEVICE_UUID, uuid);
+
+            Object aes = deviceNode.get("dicomNetworkAE");
+            if (aes instanceof Map)
+                for (Map.Entry<String, Object> aeEntry : ((Map<String, Object>) aes).entrySet()) {
+                    addKey(IndexType.AE_TITLE, aeEntry.getKey());
+                    if (!(aeEntry.getValue() instanceof Map))
+                        continue;
+
+                    Map<String, Object> aeNode = (Map<String, Object>) aeEntry.getValue();
+                    addKey(IndexType.AE_TITLE_VALUE, asString(aeNode.get("dicomAETitle")));
+                    addKey(IndexType.AE_UUID, asString(aeNode.get(Configuration.UUID_KEY)));
+
+                    Object aliases = aeNode.get("dcmAETitleAliases");
+                    if (aliases instanceof Collection)
+                        for (Object alias : (Collection) aliases) {
+                            addKey(IndexType.AE_TITLE_ALIAS, asString(alias));
+                            addKey(IndexType.AE_TITLE_VALUE, asString(alias));
+                        }
+                    else {
+                        addKey(IndexType.AE_TITLE_ALIAS, asString(aliases));
+                        addKey(IndexType.AE_TITLE_VALUE, asString(aliases));
+                    }
+                }
+
+            Object extensions = deviceNode.get("deviceExtensions");
+            if (extensions instanceof Map) {
+                Object hl7Ext = ((Map<String, Object>) extensions).get("HL7DeviceExtension");
+                if (hl7Ext instanceof Map) {
+                    Object hl7Apps = ((Map<String, Object>) hl7Ext).get("hl7Apps");
+                    Collection apps = hl7Apps instanceof Map
+                            ? ((Map<String, Object>) hl7Apps).values()
+                            : hl7Apps instanceof Collection ? (Collection) hl7Apps : Collections.emptyList();
+                    for (Object app : apps)
+                        if (app instanceof Map) {
+                            String appName = asString(((Map<String, Object>) app).get("hl7ApplicationName"));
+                            addKey(IndexType.HL7_APP_NAME, appName);
+                            addKey(IndexType.HL7_APP_NAME_VALUE, appName);
+                        }
+                }
+            }
+
+            ConfigNodeTraverser.traverseMapNode(deviceNode, new ConfigNodeTraverser.AConfigNodeFilter() {
+                @Override
+                public void onPrimitiveNodeElement(Map<String, Object> containerNode, String key, Object value) {
+                    if (Configuration.UUID_KEY.equals(key))
+                        addKey(IndexType.ANY_UUID, asString(value));
+                }
+            });
+        }
+
+        private void addKey(IndexType type, String key) {
+            if (key != null)
+                keys.get(type).add(key);
+        }
+
+        private static String asString(Object value) {
+            return value instanceof String ? (String) value : null;
+        }
+    }
+
+    private static class DeviceIndex {
+
+        final Map<String, DeviceEntry> devices = new LinkedHashMap<String, DeviceEntry>();
+        final EnumMap<IndexType, Map<String, List<String>>> maps =
+                new EnumMap<IndexType, Map<String, List<String>>>(IndexType.class);
+
+        DeviceIndex() {
+            for (IndexType type : IndexType.values())
+                maps.put(type, new HashMap<String, List<String>>());
+        }
+
+        List<String> get(IndexType type, String key) {
+            return maps.get(type).get(key);
+        }
+
+        void add(DeviceEntry entry) {
+            devices.put(entry.deviceName, entry);
+            for (Map.Entry<IndexType, List<String>> keys : entry.keys.entrySet()) {
+                Map<String, List<String>> map = maps.get(keys.getKey());
+                for (String key : keys.getValue()) {
+                    List<String> deviceNames = map.get(key);
+                    if (deviceNames == null) {
+                        deviceNames = new ArrayList<String>(1);
+                        map.put(key, deviceNames);
+                    }
+                    if (!deviceNames.contains(entry.deviceName))
+                        deviceNames.add(entry.deviceName);
+                }
+            }
+        }
+
+        void remove(String deviceName) {
+            DeviceEntry entry = devices.remove(deviceName);
+            if (entry == null)
+                return;
+
+            for (Map.Entry<IndexType, List<String>> keys : entry.keys.entrySet()) {
+                Map<String, List<String>> map = maps.get(keys.getKey());
+                for (String key : keys.getValue()) {
+                    List<String> deviceNames = map.get(key);
+                    if (deviceNames != null) {
+                        deviceNames.remove(deviceName);
+                        if (deviceNames.isEmpty())
+                            map.remove(key);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -41,12 +41,14 @@ package org.dcm4che3.conf.dicom;
 import org.dcm4che3.conf.ConfigurationSettingsLoader;
 import org.dcm4che3.conf.core.DefaultBeanVitalizer;
 import org.dcm4che3.conf.core.ExtensionMergingConfiguration;
+import org.dcm4che3.conf.core.api.ConfigChangeEventTransport;
 import org.dcm4che3.conf.core.api.Configuration;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.Path;
 import org.dcm4che3.conf.core.index.ReferenceIndexingDecorator;
 import org.dcm4che3.conf.core.normalization.DefaultsAndNullFilterDecorator;
 import org.dcm4che3.conf.core.olock.HashBasedOptimisticLockingConfiguration;
+import org.dcm4che3.conf.core.storage.JournaledJsonFileConfigurationStorage;
 import org.dcm4che3.conf.core.storage.SimpleCachingConfigurationDecorator;
 import org.dcm4che3.conf.core.storage.SingleJsonFileConfigurationStorage;
 import org.dcm4che3.net.AEExtension;
@@ -74,6 +76,8 @@ public class DicomConfigurationBuilder {
     private Map<Class, List<Class>> extensionClassesMap = new HashMap<Class, List<Class>>();
     private boolean doOptimisticLocking = false;
     private boolean uuidIndexing = true;
+    private boolean deviceIndexing = false;
+    private ConfigChangeEventTransport changeEventTransport = null;
 
     private void setLdapProps(Hashtable<?, ?> ldapProps) {
         this.ldapProps = ldapProps;
@@ -148,6 +152,24 @@ public class DicomConfigurationBuilder {
         return this;
     }
 
+    public DicomConfigurationBuilder deviceIndexing() {
+        this.deviceIndexing = true;
+        return this;
+    }
+
+    public DicomConfigurationBuilder disableDeviceIndexing() {
+        this.deviceIndexing = false;
+        return this;
+    }
+
+    /**
+     * Transport used by the cache and the device index to share configuration changes with other instances
+     */
+    public DicomConfigurationBuilder changeEventTransport(ConfigChangeEventTransport changeEventTransport) {
+        this.changeEventTransport = changeEventTransport;
+        return this;
+    }
+
     public CommonDicomConfigurationWithHL7 build() throws ConfigurationException {
 
         List<Class> allExtensions = new ArrayList<Class>();
@@ -184,7 +206,7 @@ public class DicomConfigurationBuilder {
         if (configurationStorage == null) {
             String configType = ConfigurationSettingsLoader.getPropertyWithNotice(props,
                     Configuration.CONF_STORAGE_SYSTEM_PROP, "json_file",
-                    " Possible values: 'json_file'.");
+                     " Possible values: 'json_file', 'json_file_journaled'.");
 
             switch (Configuration.ConfigStorageType.valueOf(configType.toUpperCase().trim())) {
                 case JSON_FILE:
@@ -192,13 +214,22 @@ public class DicomConfigurationBuilder {
                     jsonConfigurationStorage.configure(props);
                     configurationStorage = jsonConfigurationStorage;
                     break;
+                case JSON_FILE_JOURNALED:
+                    JournaledJsonFileConfigurationStorage journaledConfigurationStorage = new JournaledJsonFileConfigurationStorage();
+                    journaledConfigurationStorage.configure(props);
+                    configurationStorage = journaledConfigurationStorage;
+                    break;
                 default:
                     throw new RuntimeException("Not implemented");
             }
         }
 
-        if (cache)
-            configurationStorage = new SimpleCachingConfigurationDecorator(configurationStorage, props);
+        if (cache) {
+            SimpleCachingConfigurationDecorator cachingDecorator =
+                    new SimpleCachingConfigurationDecorator(configurationStorage, props);
+            cachingDecorator.setChangeEventTransport(changeEventTransport);
+            configurationStorage = cachingDecorator;
+        }
 
         if(extensionMerge)
             configurationStorage = new ExtensionMergingConfiguration(configurationStorage, allExtensions);
@@ -206,6 +237,13 @@ public class DicomConfigurationBuilder {
         if (uuidIndexing)
             configurationStorage = new ReferenceIndexingDecorator(configurationStorage, new HashMap<String, Path>());
 
+        if (deviceIndexing) {
+            // registered after the cache, so that changes of others are indexed from the refreshed cache
+            DeviceIndexingDecorator indexingDecorator = new DeviceIndexingDecorator(configurationStorage, props);
+            indexingDecorator.setChangeEventTransport(changeEventTransport);
+            configurationStorage = indexingDecorator;
+        }
+
         if (doOptimisticLocking)
             configurationStorage = new HashBasedOptimisticLockingConfiguration(configurationStorage, allExtensions);
 
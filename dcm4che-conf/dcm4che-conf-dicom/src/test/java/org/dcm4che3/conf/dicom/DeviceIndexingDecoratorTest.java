@@ -0,0 +1,211 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.dicom;
+
+import org.dcm4che3.conf.core.DelegatingConfiguration;
+import org.dcm4che3.conf.core.Nodes;
+import org.dcm4che3.conf.core.api.ConfigChangeEvent;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.core.api.Path;
+import org.dcm4che3.conf.core.events.InJvmConfigChangeEventTransport;
+import org.dcm4che3.conf.core.events.SimpleConfigChangeEvent;
+import org.dcm4che3.conf.core.storage.InMemoryConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author agent <agent@local>
+ */
+public class DeviceIndexingDecoratorTest {
+
+    @SuppressWarnings("unchecked")
+    private static InMemoryConfiguration getMockStorage() throws ConfigurationException {
+        return new InMemoryConfiguration((Map<String, Object>) Nodes.deepCloneNode(
+                SimpleStorageTest.getMockDicomConfStorage().getConfigurationRoot()));
+    }
+
+    private static Configuration getIndexedStorage() throws ConfigurationException {
+        return new DeviceIndexingDecorator(getMockStorage());
+    }
+
+    @Test
+    public void searchTest() throws ConfigurationException {
+        new SearchTest().searchTestForStorage(getIndexedStorage());
+    }
+
+    @Test
+    public void indexIsUpdatedOnPersistAndRemove() throws ConfigurationException {
+        Configuration storage = getIndexedStorage();
+
+        // build the index
+        Assert.assertFalse(storage.search(DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path()).hasNext());
+
+        Map<String, Object> aeNode = new HashMap<String, Object>();
+        aeNode.put("dicomAETitle", "NEWAE");
+        aeNode.put("dcmAETitleAliases", Arrays.asList("NEWAE_ALIAS"));
+        aeNode.put(Configuration.UUID_KEY, "ae-uuid");
+
+        Map<String, Object> aes = new HashMap<String, Object>();
+        aes.put("NEWAE", aeNode);
+
+        Map<String, Object> deviceNode = new HashMap<String, Object>();
+        deviceNode.put("dicomDeviceName", "newdevice");
+        deviceNode.put(Configuration.UUID_KEY, "device-uuid");
+        deviceNode.put("dicomNetworkAE", aes);
+
+        storage.persistNode(DicomPath.devicePath("newdevice"), deviceNode, null);
+
+        assertSearchResult(storage, DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path(), "newdevice");
+        assertSearchResult(storage, DicomPath.DeviceNameByAENameAlias.set("aeNameAlias", "NEWAE_ALIAS").path(), "newdevice");
+        assertSearchResult(storage, DicomPath.DeviceNameByAEUUID.set("aeUUID", "ae-uuid").path(), "newdevice");
+        assertSearchResult(storage, DicomPath.DeviceNameByUUID.set("deviceUUID", "device-uuid").path(), "newdevice");
+        assertSearchResult(storage, DicomPath.DeviceUUIDByAnyUUID.set("UUID", "ae-uuid").path(), "device-uuid");
+        Assert.assertTrue(toList(storage.search(DicomPath.AllAETitles.path())).contains("NEWAE_ALIAS"));
+        Assert.assertEquals(15, toList(storage.search(DicomPath.AllDeviceNames.path())).size());
+
+        // modify a nested node of the device
+        storage.removeNode(new Path("dicomConfigurationRoot", "dicomDevicesRoot", "newdevice", "dicomNetworkAE", "NEWAE"));
+        Assert.assertFalse(storage.search(DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path()).hasNext());
+        assertSearchResult(storage, DicomPath.DeviceNameByUUID.set("deviceUUID", "device-uuid").path(), "newdevice");
+
+        storage.removeNode(DicomPath.devicePath("newdevice"));
+        Assert.assertFalse(storage.search(DicomPath.DeviceNameByUUID.set("deviceUUID", "device-uuid").path()).hasNext());
+        Assert.assertEquals(14, toList(storage.search(DicomPath.AllDeviceNames.path())).size());
+    }
+
+    @Test
+    public void indexIsUpdatedOnChangeEvent() throws ConfigurationException {
+        InMemoryConfiguration storage = getMockStorage();
+        DeviceIndexingDecorator indexed = new DeviceIndexingDecorator(storage);
+        InJvmConfigChangeEventTransport transport = new InJvmConfigChangeEventTransport();
+        indexed.setChangeEventTransport(transport);
+
+        // build the index
+        Assert.assertFalse(indexed.search(DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path()).hasNext());
+
+        // changed by another instance
+        storage.persistNode(DicomPath.devicePath("newdevice"), newDeviceNode(), null);
+        transport.publish(new SimpleConfigChangeEvent(ConfigChangeEvent.CONTEXT.CONFIG_CHANGE,
+                Collections.singletonList(DicomPath.devicePath("newdevice").toSimpleEscapedPath()), "other"));
+
+        assertSearchResult(indexed, DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path(), "newdevice");
+    }
+
+    @Test
+    public void indexIsInvalidatedOnFailedBatch() throws ConfigurationException {
+        final RollingBackStorage storage = new RollingBackStorage(getMockStorage());
+        final DeviceIndexingDecorator indexed = new DeviceIndexingDecorator(storage);
+
+        // build the index
+        Assert.assertFalse(indexed.search(DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path()).hasNext());
+
+        try {
+            indexed.runBatch(new Configuration.Batch() {
+                @Override
+                public void run() {
+                    try {
+                        indexed.persistNode(DicomPath.devicePath("newdevice"), newDeviceNode(), null);
+                    } catch (ConfigurationException e) {
+                        throw new RuntimeException(e);
+                    }
+                    throw new IllegalStateException("batch failed");
+                }
+            });
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+
+        Assert.assertFalse(indexed.search(DicomPath.DeviceNameByAEName.set("aeName", "NEWAE").path()).hasNext());
+    }
+
+    private static Map<String, Object> newDeviceNode() {
+        Map<String, Object> aeNode = new HashMap<String, Object>();
+        aeNode.put("dicomAETitle", "NEWAE");
+
+        Map<String, Object> aes = new HashMap<String, Object>();
+        aes.put("NEWAE", aeNode);
+
+        Map<String, Object> deviceNode = new HashMap<String, Object>();
+        deviceNode.put("dicomDeviceName", "newdevice");
+        deviceNode.put("dicomNetworkAE", aes);
+        return deviceNode;
+    }
+
+    /**
+     * Discards the changes of a failed batch
+     */
+    private static class RollingBackStorage extends DelegatingConfiguration {
+
+        RollingBackStorage(Configuration delegate) {
+            super(delegate);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void runBatch(Batch batch) {
+            Map<String, Object> snapshot;
+            try {
+                snapshot = (Map<String, Object>) Nodes.deepCloneNode(delegate.getConfigurationRoot());
+            } catch (ConfigurationException e) {
+                throw new RuntimeException(e);
+            }
+            try {
+                super.runBatch(batch);
+            } catch (RuntimeException e) {
+                delegate = new InMemoryConfiguration(snapshot);
+                throw e;
+            }
+        }
+    }
+
+    private static void assertSearchResult(Configuration storage, String path, String expected) throws ConfigurationException {
+        Assert.assertEquals(Collections.singletonList(expected), toList(storage.search(path)));
+    }
+
+    private static List<Object> toList(Iterator search) {
+        List<Object> list = new ArrayList<Object>();
+        while (search.hasNext())
+            list.add(search.next());
+        return list;
+    }
+}
@@ -44,10 +44,13 @@ package org.dcm4che3.conf.dicom;
 
 import junit.framework.AssertionFailedError;
 import org.dcm4che3.conf.core.DefaultBeanVitalizer;
+import org.dcm4che3.conf.core.DelegatingConfiguration;
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
 import org.dcm4che3.conf.core.api.ConfigurableProperty.ConfigurablePropertyType;
 import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.core.api.OptimisticLockException;
 import org.dcm4che3.conf.core.api.Path;
 import org.dcm4che3.conf.core.api.internal.ConfigProperty;
 import org.dcm4che3.conf.core.api.internal.BeanVitalizer;
@@ -62,7 +65,10 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -329,4 +335,51 @@ public class OptimisticLockingTest extends HashBasedOptimisticLockingConfigurati
 
 
     }
+
+    @Test
+    public void testPersistsOnlyChangedObjects() throws IOException {
+
+        final List<Path> persistedPaths = new ArrayList<Path>();
+        Configuration recordingConfig = new DelegatingConfiguration(SimpleStorageTest.getMockDicomConfStorage()) {
+            @Override
+            public void persistNode(Path path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
+                persistedPaths.add(path);
+                super.persistNode(path, configNode, configurableClass);
+            }
+        };
+
+        Configuration lockedConfig = new HashBasedOptimisticLockingConfiguration(recordingConfig, new ArrayList<Class>());
+
+        Map<String, Object> configurationNode1 = (Map<String, Object>) lockedConfig.getConfigurationNode(DicomPath.devicePath("dcmqrscp"), Device.class);
+        Map<String, Object> configurationNode2 = (Map<String, Object>) lockedConfig.getConfigurationNode(DicomPath.devicePath("dcmqrscp"), Device.class);
+
+        // unchanged node is not persisted at all
+        lockedConfig.persistNode(DicomPath.devicePath("dcmqrscp"), configurationNode1, Device.class);
+        Assert.assertEquals(0, persistedPaths.size());
+
+        // a change inside of an AE is persisted with the AE only
+        Nodes.replacePrimitive(configurationNode1, false, new Path("dicomNetworkAE", "DCMQRSCP", "dicomAssociationAcceptor").getPathItems());
+        lockedConfig.persistNode(DicomPath.devicePath("dcmqrscp"), configurationNode1, Device.class);
+
+        List<Object> aePathItems = new ArrayList<Object>(DicomPath.devicePath("dcmqrscp").getPathItems());
+        aePathItems.addAll(Arrays.asList("dicomNetworkAE", "DCMQRSCP"));
+        Assert.assertEquals(Collections.singletonList(new Path(aePathItems)), persistedPaths);
+
+        // a conflicting change of the same AE is still detected
+        Nodes.replacePrimitive(configurationNode2, false, new Path("dicomNetworkAE", "DCMQRSCP", "dicomAssociationInitiator").getPathItems());
+        try {
+            lockedConfig.persistNode(DicomPath.devicePath("dcmqrscp"), configurationNode2, Device.class);
+            throw new AssertionFailedError("Should have failed!");
+        } catch (OptimisticLockException e) {
+            // its ok
+        }
+
+        Map<String, Object> newNode = (Map<String, Object>) lockedConfig.getConfigurationNode(DicomPath.devicePath("dcmqrscp"), Device.class);
+        Assert.assertEquals(
+                false,
+                Nodes.getNode(newNode, "/dicomNetworkAE/DCMQRSCP/dicomAssociationAcceptor"));
+        Assert.assertEquals(
+                true,
+                Nodes.getNode(newNode, "/dicomNetworkAE/DCMQRSCP/dicomAssociationInitiator"));
+    }
 }
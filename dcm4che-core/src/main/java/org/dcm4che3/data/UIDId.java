@@ -0,0 +1,226 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.data;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.ResourceBundle;
+
+/**
+ * Registry of the well-known UIDs defined in {@link UID}, which are mapped to dense integer ids
+ * (<code>0 .. count()-1</code>).
+ * <p>
+ * The lookup by UID uses a minimal perfect hash table (hash and displace) that is built once, when the class is
+ * loaded: one hash table probe and one string comparison, no collisions to resolve. Ids may be used to index arrays
+ * and as bits of a {@link UIDSet}. Ids are only stable within one JVM, they must not be persisted.
+ *
+ * @author agent <agent@local>
+ */
+public final class UIDId {
+
+    public static final int UNKNOWN = -1;
+
+    private static final String[] UIDS;
+    private static final String[] KEYWORDS;
+    private static final int[] DISPLACEMENTS;
+    private static final int[] SLOTS;
+    private static volatile String[] names;
+
+    static {
+        LinkedHashSet<String> uids = new LinkedHashSet<String>();
+        ArrayList<String> keywords = new ArrayList<String>();
+        for (Field field : UID.class.getFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) && field.getType() == String.class)
+                try {
+                    if (uids.add((String) field.get(null)))
+                        keywords.add(field.getName());
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+        }
+        UIDS = uids.toArray(new String[uids.size()]);
+        KEYWORDS = keywords.toArray(new String[keywords.size()]);
+
+        int[][] tables = null;
+        for (int size = Integer.highestOneBit(Math.max(UIDS.length, 1)) << 1; tables == null; size <<= 1)
+            tables = build(UIDS, size);
+        DISPLACEMENTS = tables[0];
+        SLOTS = tables[1];
+    }
+
+    private UIDId() {
+    }
+
+    private static int mix(int h, int seed) {
+        h ^= seed * 0x9E3779B9;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Hash and displace: keys are grouped into buckets, then, starting with the biggest bucket, a displacement is
+     * searched for each bucket that places all its keys into free slots.
+     *
+     * @return the displacements by bucket and the ids by slot, or null if there is no solution for that size
+     */
+    private static int[][] build(String[] keys, int size) {
+        int bucketCount = Math.max(size >>> 2, 1);
+        final int[][] buckets = new int[bucketCount][];
+        int[] bucketSizes = new int[bucketCount];
+        for (String key : keys)
+            bucketSizes[mix(key.hashCode(), 0) & (bucketCount - 1)]++;
+        for (int i = 0; i < bucketCount; i++)
+            buckets[i] = new int[bucketSizes[i]];
+        Arrays.fill(bucketSizes, 0);
+        for (int id = 0; id < keys.length; id++) {
+            int b = mix(keys[id].hashCode(), 0) & (bucketCount - 1);
+            buckets[b][bucketSizes[b]++] = id;
+        }
+
+        Integer[] order = new Integer[bucketCount];
+        for (int i = 0; i < bucketCount; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return buckets[o2].length - buckets[o1].length;
+            }
+        });
+
+        int[] displacements = new int[bucketCount];
+        int[] slots = new int[size];
+        Arrays.fill(slots, UNKNOWN);
+        int[] bucketSlots = new int[keys.length];
+        for (Integer b : order) {
+            int[] bucket = buckets[b];
+            if (bucket.length == 0)
+                break;
+
+            int d = 1;
+            search:
+            for (;; d++) {
+                if (d > (1 << 16))
+                    return null;
+
+                for (int i = 0; i < bucket.length; i++) {
+                    int slot = mix(keys[bucket[i]].hashCode(), d) & (size - 1);
+                    if (slots[slot] != UNKNOWN)
+                        continue search;
+                    for (int j = 0; j < i; j++)
+                        if (bucketSlots[j] == slot)
+                            continue search;
+                    bucketSlots[i] = slot;
+                }
+                break;
+            }
+            displacements[b] = d;
+            for (int i = 0; i < bucket.length; i++)
+                slots[bucketSlots[i]] = bucket[i];
+        }
+        return new int[][] { displacements, slots };
+    }
+
+    /**
+     * @return number of registered UIDs
+     */
+    public static int count() {
+        return UIDS.length;
+    }
+
+    /**
+     * @return the id of the UID, or {@link #UNKNOWN} if it is not a well-known UID
+     */
+    public static int of(String uid) {
+        if (uid == null)
+            return UNKNOWN;
+
+        int h = uid.hashCode();
+        int d = DISPLACEMENTS[mix(h, 0) & (DISPLACEMENTS.length - 1)];
+        if (d == 0)
+            return UNKNOWN;
+
+        int id = SLOTS[mix(h, d) & (SLOTS.length - 1)];
+        if (id == UNKNOWN)
+            return UNKNOWN;
+
+        String registered = UIDS[id];
+        return registered == uid || registered.equals(uid) ? id : UNKNOWN;
+    }
+
+    public static String uidOf(int id) {
+        return UIDS[id];
+    }
+
+    public static String keywordOf(int id) {
+        return KEYWORDS[id];
+    }
+
+    /**
+     * @return the name of the UID with the id, or "?" if there is none
+     */
+    public static String nameOf(int id) {
+        if (id == UNKNOWN)
+            return "?";
+
+        String[] names = UIDId.names;
+        if (names == null)
+            UIDId.names = names = loadNames();
+        return names[id];
+    }
+
+    private static String[] loadNames() {
+        ResourceBundle rb = ResourceBundle.getBundle("org.dcm4che3.data.UIDNames");
+        String[] names = new String[UIDS.length];
+        for (int id = 0; id < UIDS.length; id++) {
+            try {
+                names[id] = rb.getString(UIDS[id]);
+            } catch (Exception e) {
+                names[id] = "?";
+            }
+        }
+        return names;
+    }
+}
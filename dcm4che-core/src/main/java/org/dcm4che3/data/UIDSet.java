@@ -0,0 +1,131 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Immutable set of UIDs. Well-known UIDs (see {@link UIDId}) are kept as a bitset of their ids, other UIDs (e.g.
+ * private SOP Classes or Transfer Syntaxes) in a hash set.
+ *
+ * @author agent <agent@local>
+ */
+public final class UIDSet implements Serializable {
+
+    private static final long serialVersionUID = -3418430519371325126L;
+
+    public static final UIDSet EMPTY = new UIDSet(new String[0]);
+
+    private final String[] uids;
+    private transient volatile long[] bits;
+    private transient volatile HashSet<String> others;
+
+    private UIDSet(String[] uids) {
+        this.uids = uids;
+    }
+
+    public static UIDSet of(String... uids) {
+        LinkedHashSet<String> distinct = new LinkedHashSet<String>(Arrays.asList(uids));
+        return distinct.isEmpty() ? EMPTY : new UIDSet(distinct.toArray(new String[distinct.size()]));
+    }
+
+    private long[] bits() {
+        long[] bits = this.bits;
+        if (bits == null) {
+            bits = new long[(UIDId.count() + 63) >>> 6];
+            HashSet<String> others = new HashSet<String>();
+            for (String uid : uids) {
+                int id = UIDId.of(uid);
+                if (id != UIDId.UNKNOWN)
+                    bits[id >>> 6] |= 1L << id;
+                else
+                    others.add(uid);
+            }
+            this.others = others;
+            this.bits = bits;
+        }
+        return bits;
+    }
+
+    public boolean contains(int id) {
+        return id != UIDId.UNKNOWN && (bits()[id >>> 6] & (1L << id)) != 0;
+    }
+
+    public boolean contains(String uid) {
+        int id = UIDId.of(uid);
+        if (id != UIDId.UNKNOWN)
+            return contains(id);
+
+        bits();
+        return uid != null && others.contains(uid);
+    }
+
+    public boolean isEmpty() {
+        return uids.length == 0;
+    }
+
+    public int size() {
+        return uids.length;
+    }
+
+    public String[] toArray() {
+        return uids.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof UIDSet)) return false;
+        UIDSet other = (UIDSet) o;
+        return Arrays.equals(bits(), other.bits()) && others.equals(other.others);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bits()) * 31 + others.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(uids);
+    }
+}
@@ -83,22 +83,13 @@
  
 package org.dcm4che3.data;
 
-import java.util.ResourceBundle;
-
 /**
  * @author Gunter Zeilinger &lt;gunterze@gmail.com&gt;
  */
 public class UID {
 
-    private static final ResourceBundle rb = 
-            ResourceBundle.getBundle("org.dcm4che3.data.UIDNames");
-
     public static String nameOf(String uid) {
-        try {
-            return rb.getString(uid);
-        } catch (Exception e) {
-            return "?";
-        }
+        return UIDId.nameOf(UIDId.of(uid));
     }
 
     public static String forName(String keyword) {
@@ -0,0 +1,89 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.data;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class UIDIdTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (Field field : UID.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers())
+                    || field.getType() != String.class)
+                continue;
+            String uid = (String) field.get(null);
+            int id = UIDId.of(uid);
+            assertTrue(field.getName(), id >= 0 && id < UIDId.count());
+            assertEquals(uid, UIDId.uidOf(id));
+        }
+    }
+
+    @Test
+    public void testOfUnknown() {
+        assertEquals(UIDId.UNKNOWN, UIDId.of("1.2.40.0.13.1.1.99"));
+        assertEquals(UIDId.UNKNOWN, UIDId.of(null));
+    }
+
+    @Test
+    public void testNameOf() {
+        assertEquals("Implicit VR Little Endian",
+                UIDId.nameOf(UIDId.of(UID.ImplicitVRLittleEndian)));
+    }
+
+    @Test
+    public void testUIDSetContains() {
+        UIDSet set = UIDSet.of(UID.ImplicitVRLittleEndian,
+                UID.ExplicitVRLittleEndian, "1.2.40.0.13.1.1.99");
+        assertEquals(3, set.size());
+        assertTrue(set.contains(UID.ImplicitVRLittleEndian));
+        assertTrue(set.contains(UIDId.of(UID.ExplicitVRLittleEndian)));
+        assertTrue(set.contains("1.2.40.0.13.1.1.99"));
+        assertFalse(set.contains(UID.ExplicitVRBigEndianRetired));
+        assertFalse(set.contains(UIDId.UNKNOWN));
+    }
+
+}
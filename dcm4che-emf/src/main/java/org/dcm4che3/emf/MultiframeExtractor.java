@@ -38,9 +38,15 @@
 
 package org.dcm4che3.emf;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -49,6 +55,9 @@ import org.dcm4che3.data.BulkData;
 import org.dcm4che3.data.Fragments;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.data.Value;
+import org.dcm4che3.io.DicomEncodingOptions;
+import org.dcm4che3.io.DicomOutputStream;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -59,8 +68,9 @@ public class MultiframeExtractor {
     private enum Impl {
         EnhancedCTImageExtractor(UID.CTImageStorage),
         EnhancedMRImageExtractor(UID.MRImageStorage) {
-            Attributes extract(MultiframeExtractor mfe, Attributes emf, int frame) {
-                Attributes sf = super.extract(mfe, emf, frame);
+            Attributes extract(MultiframeExtractor mfe, Attributes emf,
+                    Attributes shared, int frame, boolean sharePixelData) {
+                Attributes sf = super.extract(mfe, emf, shared, frame, sharePixelData);
                 setEchoTime(sf);
                 setScanningSequence(sf);
                 setSequenceVariant(sf);
@@ -153,8 +163,9 @@ public class MultiframeExtractor {
             this.sfcuid = sfcuid;
         }
 
-        Attributes extract(MultiframeExtractor mfe, Attributes emf, int frame) {
-            return mfe.extract(emf, frame, sfcuid);
+        Attributes extract(MultiframeExtractor mfe, Attributes emf,
+                Attributes shared, int frame, boolean sharePixelData) {
+            return mfe.extract(emf, shared, frame, sharePixelData);
         }
     }
 
@@ -234,8 +245,91 @@ public class MultiframeExtractor {
      * @return legacy Single-frame image
      */
     public Attributes extract(Attributes emf, int frame) {
-        return implFor(emf.getString(Tag.SOPClassUID))
-                .extract(this, emf, frame);
+        Impl impl = implFor(emf.getString(Tag.SOPClassUID));
+        return impl.extract(this, emf, sharedHeader(emf, impl.sfcuid), frame, false);
+    }
+
+    /** Extract all frames from Enhanced Multi-frame image and pass them as
+     * corresponding legacy Single-frame images to the specified consumer.
+     * Attributes common to all frames are only calculated once. Pixel Data
+     * of the returned images references the Pixel Data of the Enhanced
+     * Multi-frame image, instead of containing a copy of it.
+     * 
+     * @param emf Enhanced Multi-frame image
+     * @param consumer receives the legacy Single-frame images
+     * @return number of extracted frames
+     * @throws IOException if thrown by the consumer
+     */
+    public int extractAll(Attributes emf, SingleFrameConsumer consumer)
+            throws IOException {
+        return extractAll(emf, consumer, null, 1);
+    }
+
+    /** Extract all frames from Enhanced Multi-frame image and pass them as
+     * corresponding legacy Single-frame images to the specified consumer,
+     * invoked by up to {@code maxConcurrency} tasks of the specified executor.
+     * 
+     * @param emf Enhanced Multi-frame image
+     * @param consumer receives the legacy Single-frame images; must be
+     *        thread-safe if an executor is specified
+     * @param executor executor invoking the consumer or {@code null} to
+     *        invoke the consumer on the calling thread
+     * @param maxConcurrency maximal number of concurrent consumer invocations
+     * @return number of extracted frames
+     * @throws IOException if thrown by the consumer
+     */
+    public int extractAll(Attributes emf, final SingleFrameConsumer consumer,
+            Executor executor, int maxConcurrency) throws IOException {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("maxConcurrency: " + maxConcurrency);
+
+        Impl impl = implFor(emf.getString(Tag.SOPClassUID));
+        Attributes shared = sharedHeader(emf, impl.sfcuid);
+        int n = emf.getInt(Tag.NumberOfFrames, 1);
+        if (executor == null) {
+            for (int frame = 0; frame < n; frame++)
+                consumer.accept(frame, impl.extract(this, emf, shared, frame, true));
+            return n;
+        }
+
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        try {
+            for (int frame = 0; frame < n && failure.get() == null; frame++) {
+                final int frameIndex = frame;
+                final Attributes sf = impl.extract(this, emf, shared, frame, true);
+                permits.acquire();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                consumer.accept(frameIndex, sf);
+                            } catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            permits.acquire(maxConcurrency);
+            permits.release(maxConcurrency);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        Throwable e = failure.get();
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        return n;
     }
 
     private static Impl implFor(String mfcuid) {
@@ -246,30 +340,48 @@ public class MultiframeExtractor {
         return impl;
     }
 
-    private Attributes extract(Attributes emf, int frame, String cuid) {
+    /**
+     * Returns the attributes of the Enhanced Multi-frame image and of its
+     * Shared Functional Groups, which are common to all extracted frames.
+     * The SOP Instance UID is already mapped, but not yet suffixed by the
+     * frame number.
+     */
+    private Attributes sharedHeader(Attributes emf, String cuid) {
         Attributes sfgs = emf.getNestedDataset(Tag.SharedFunctionalGroupsSequence);
         if (sfgs == null)
             throw new IllegalArgumentException(
                     "Missing (5200,9229) Shared Functional Groups Sequence");
+        Attributes shared = new Attributes(emf.size() * 2);
+        shared.addNotSelected(emf, EXCLUDE_TAGS);
+        addFunctionGroups(shared, sfgs);
+        shared.setString(Tag.SOPClassUID, VR.UI, cuid);
+        shared.setString(Tag.SOPInstanceUID, VR.UI, uidMapper.get(
+                shared.getString(Tag.SOPInstanceUID)));
+        if (!preserveSeriesInstanceUID)
+            shared.setString(Tag.SeriesInstanceUID, VR.UI, uidMapper.get(
+                    shared.getString(Tag.SeriesInstanceUID)));
+        adjustReferencedImages(shared, Tag.ReferencedImageSequence);
+        adjustReferencedImages(shared, Tag.SourceImageSequence);
+        return shared;
+    }
+
+    private Attributes extract(Attributes emf, Attributes shared, int frame,
+            boolean sharePixelData) {
         Attributes fgs = emf.getNestedDataset(Tag.PerFrameFunctionalGroupsSequence, frame);
         if (fgs == null)
             throw new IllegalArgumentException(
                     "Missing (5200,9230) Per-frame Functional Groups Sequence Item for frame #" + (frame + 1));
-        Attributes dest = new Attributes(emf.size() * 2);
-        dest.addNotSelected(emf, EXCLUDE_TAGS);
-        addFunctionGroups(dest, sfgs);
+        Attributes dest = new Attributes(shared.size() + fgs.size() * 4);
+        dest.addAll(shared);
         addFunctionGroups(dest, fgs);
-        addPixelData(dest, emf, frame);
-        dest.setString(Tag.SOPClassUID, VR.UI, cuid);
-        dest.setString(Tag.SOPInstanceUID, VR.UI, uidMapper.get(
-                dest.getString(Tag.SOPInstanceUID)) + '.' + (frame + 1));
+        addPixelData(dest, emf, frame, sharePixelData);
+        dest.setString(Tag.SOPInstanceUID, VR.UI,
+                shared.getString(Tag.SOPInstanceUID) + '.' + (frame + 1));
         dest.setString(Tag.InstanceNumber, VR.IS,
-                createInstanceNumber(dest.getString(Tag.InstanceNumber, ""), frame));
+                createInstanceNumber(shared.getString(Tag.InstanceNumber, ""), frame));
         dest.setString(Tag.ImageType, VR.CS, dest.getStrings(Tag.FrameType));
         dest.remove(Tag.FrameType);
-        if (!preserveSeriesInstanceUID)
-            dest.setString(Tag.SeriesInstanceUID, VR.UI, uidMapper.get(
-                    dest.getString(Tag.SeriesInstanceUID)));
+        // already adjusted references of the shared header are left unchanged
         adjustReferencedImages(dest, Tag.ReferencedImageSequence);
         adjustReferencedImages(dest, Tag.SourceImageSequence);
         return dest;
@@ -314,12 +426,18 @@ public class MultiframeExtractor {
                 dest.addAll(fg);
     }
 
-    private void addPixelData(Attributes dest, Attributes src, int frame) {
+    private void addPixelData(Attributes dest, Attributes src, int frame,
+            boolean sharePixelData) {
         VR.Holder vr = new VR.Holder();
         Object pixelData = src.getValue(Tag.PixelData, vr);
         if (pixelData instanceof byte[]) {
-            dest.setBytes(Tag.PixelData, vr.vr, extractPixelData(
-                    (byte[]) pixelData, frame, calcFrameLength(src)));
+            int length = calcFrameLength(src);
+            if (sharePixelData)
+                dest.setValue(Tag.PixelData, vr.vr, new PixelDataFrame(
+                        (byte[]) pixelData, frame * length, length, src.bigEndian()));
+            else
+                dest.setBytes(Tag.PixelData, vr.vr, extractPixelData(
+                        (byte[]) pixelData, frame, length));
         } else if (pixelData instanceof BulkData) {
             dest.setValue(Tag.PixelData, vr.vr, extractPixelData(
                     (BulkData) pixelData, frame, calcFrameLength(src)));
@@ -343,6 +461,57 @@ public class MultiframeExtractor {
         return dest;
     }
 
+    /**
+     * Pixel Data of one frame, referencing the Pixel Data of all frames.
+     */
+    private static class PixelDataFrame implements Value {
+
+        private final byte[] pixelData;
+        private final int offset;
+        private final int length;
+        private final boolean bigEndian;
+
+        PixelDataFrame(byte[] pixelData, int offset, int length, boolean bigEndian) {
+            this.pixelData = pixelData;
+            this.offset = offset;
+            this.length = length;
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return length == 0;
+        }
+
+        @Override
+        public byte[] toBytes(VR vr, boolean bigEndian) throws IOException {
+            byte[] b = Arrays.copyOfRange(pixelData, offset, offset + length);
+            if (this.bigEndian != bigEndian)
+                vr.toggleEndian(b, false);
+            return b;
+        }
+
+        @Override
+        public void writeTo(DicomOutputStream out, VR vr) throws IOException {
+            if (this.bigEndian != out.isBigEndian())
+                out.write(toBytes(vr, out.isBigEndian()));
+            else
+                out.write(pixelData, offset, length);
+            if ((length & 1) != 0)
+                out.write(vr.paddingByte());
+        }
+
+        @Override
+        public int calcLength(DicomEncodingOptions encOpts, boolean explicitVR, VR vr) {
+            return (length + 1) & ~1;
+        }
+
+        @Override
+        public int getEncodedLength(DicomEncodingOptions encOpts, boolean explicitVR, VR vr) {
+            return (length + 1) & ~1;
+        }
+    }
+
     private int calcFrameLength(Attributes src) {
         return src.getInt(Tag.Rows, 0)
              * src.getInt(Tag.Columns, 0)
@@ -0,0 +1,221 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.emf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class MultiframeExtractorTest {
+
+    private static final int FRAMES = 3;
+    private static final int FRAME_LENGTH = 2 * 2 * 2;
+
+    private ExecutorService executor;
+    private File pixelDataFile;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        if (pixelDataFile != null)
+            pixelDataFile.delete();
+    }
+
+    @Test
+    public void testExtractAll() throws Exception {
+        assertExtractAllEqualsExtract(createEnhancedCT(pixelData()), null);
+    }
+
+    @Test
+    public void testExtractAllWithExecutor() throws Exception {
+        assertExtractAllEqualsExtract(createEnhancedCT(pixelData()), executor);
+    }
+
+    @Test
+    public void testExtractAllBulkData() throws Exception {
+        assertExtractAllEqualsExtract(createEnhancedCT(pixelDataBulkData()), null);
+    }
+
+    @Test
+    public void testExtractAllBulkDataWithExecutor() throws Exception {
+        assertExtractAllEqualsExtract(createEnhancedCT(pixelDataBulkData()), executor);
+    }
+
+    @Test
+    public void testConsumerExceptionPropagates() throws Exception {
+        assertConsumerExceptionPropagates(null);
+    }
+
+    @Test
+    public void testConsumerExceptionPropagatesWithExecutor() throws Exception {
+        assertConsumerExceptionPropagates(executor);
+    }
+
+    private void assertExtractAllEqualsExtract(Attributes emf,
+            ExecutorService executor) throws Exception {
+        MultiframeExtractor mfe = new MultiframeExtractor();
+        final AtomicReferenceArray<Attributes> extracted =
+                new AtomicReferenceArray<Attributes>(FRAMES);
+        int n = mfe.extractAll(emf, new SingleFrameConsumer() {
+            @Override
+            public void accept(int frame, Attributes sf) {
+                assertNull(extracted.getAndSet(frame, sf));
+            }
+        }, executor, 2);
+        assertEquals(FRAMES, n);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            Attributes expected = mfe.extract(emf, frame);
+            Attributes actual = extracted.get(frame);
+            assertNotNull("frame #" + (frame + 1), actual);
+            assertEquals(expected.getString(Tag.SOPInstanceUID),
+                    actual.getString(Tag.SOPInstanceUID));
+            assertArrayEquals(expected.getBytes(Tag.PixelData),
+                    actual.getBytes(Tag.PixelData));
+            assertArrayEquals(encode(expected), encode(actual));
+        }
+    }
+
+    private void assertConsumerExceptionPropagates(ExecutorService executor)
+            throws Exception {
+        final IOException failure = new IOException("consumer failed");
+        try {
+            new MultiframeExtractor().extractAll(createEnhancedCT(pixelData()),
+                    new SingleFrameConsumer() {
+                        @Override
+                        public void accept(int frame, Attributes sf)
+                                throws IOException {
+                            if (frame == 1)
+                                throw failure;
+                        }
+                    }, executor, 2);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    private static byte[] pixelData() {
+        byte[] b = new byte[FRAMES * FRAME_LENGTH];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) i;
+        return b;
+    }
+
+    private BulkData pixelDataBulkData() throws IOException {
+        pixelDataFile = File.createTempFile("pixeldata", ".raw");
+        FileOutputStream out = new FileOutputStream(pixelDataFile);
+        try {
+            out.write(new byte[4]);
+            out.write(pixelData());
+        } finally {
+            out.close();
+        }
+        return new BulkData(pixelDataFile.toURI().toString(), 4,
+                FRAMES * FRAME_LENGTH, false);
+    }
+
+    private static Attributes createEnhancedCT(Object pixelData) {
+        Attributes emf = new Attributes();
+        emf.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedCTImageStorage);
+        emf.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+        emf.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.3");
+        emf.setString(Tag.InstanceNumber, VR.IS, "1");
+        emf.setInt(Tag.NumberOfFrames, VR.IS, FRAMES);
+        emf.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        emf.setInt(Tag.Rows, VR.US, 2);
+        emf.setInt(Tag.Columns, VR.US, 2);
+        emf.setInt(Tag.BitsAllocated, VR.US, 16);
+        Attributes pixelMeasures = new Attributes();
+        pixelMeasures.setString(Tag.PixelSpacing, VR.DS, "0.5", "0.5");
+        Attributes sfgs = new Attributes();
+        sfgs.newSequence(Tag.PixelMeasuresSequence, 1).add(pixelMeasures);
+        emf.newSequence(Tag.SharedFunctionalGroupsSequence, 1).add(sfgs);
+        emf.newSequence(Tag.PerFrameFunctionalGroupsSequence, FRAMES);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            Attributes frameType = new Attributes();
+            frameType.setString(Tag.FrameType, VR.CS,
+                    "ORIGINAL", "PRIMARY", "AXIAL", "NONE");
+            Attributes position = new Attributes();
+            position.setDouble(Tag.ImagePositionPatient, VR.DS,
+                    0, 0, frame * 0.5);
+            Attributes fgs = new Attributes();
+            fgs.newSequence(Tag.CTImageFrameTypeSequence, 1).add(frameType);
+            fgs.newSequence(Tag.PlanePositionSequence, 1).add(position);
+            emf.getSequence(Tag.PerFrameFunctionalGroupsSequence).add(fgs);
+        }
+        emf.setValue(Tag.PixelData, VR.OW, pixelData);
+        return emf;
+    }
+
+    private static byte[] encode(Attributes attrs) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream out = new DicomOutputStream(bout,
+                UID.ExplicitVRLittleEndian);
+        try {
+            out.writeDataset(null, attrs);
+        } finally {
+            out.close();
+        }
+        return bout.toByteArray();
+    }
+}
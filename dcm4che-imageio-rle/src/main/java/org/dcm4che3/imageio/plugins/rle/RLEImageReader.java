@@ -38,6 +38,7 @@
 
 package org.dcm4che3.imageio.plugins.rle;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
@@ -97,6 +98,18 @@ public class RLEImageReader extends ImageReader {
 
     private int height;
 
+    private Rectangle srcRegion;
+
+    private int xSubsampling;
+
+    private int ySubsampling;
+
+    private int runLength;
+
+    private boolean literalRun;
+
+    private byte runValue;
+
     protected RLEImageReader(ImageReaderSpi originatingProvider) {
         super(originatingProvider);
     }
@@ -112,6 +125,7 @@ public class RLEImageReader extends ImageReader {
     private void resetInternalState() {
         width = 0;
         height = 0;
+        srcRegion = null;
     }
 
     @Override
@@ -184,6 +198,7 @@ public class RLEImageReader extends ImageReader {
         if (bi != null) {
             width = bi.getWidth();
             height = bi.getHeight();
+            srcRegion = null;
             return bi;
         }
         
@@ -192,7 +207,10 @@ public class RLEImageReader extends ImageReader {
             SampleModel sm = imageType.getSampleModel();
             width = sm.getWidth();
             height = sm.getHeight();
-            return imageType.createBufferedImage(width, height);
+            initSourceRegion(param);
+            return srcRegion != null
+                    ? imageType.createBufferedImage(destWidth(), destHeight())
+                    : imageType.createBufferedImage(width, height);
         }
         throw new IllegalArgumentException(UNKNOWN_IMAGE_TYPE);
     }
@@ -205,6 +223,7 @@ public class RLEImageReader extends ImageReader {
         if (bi != null) {
             width = bi.getWidth();
             height = bi.getHeight();
+            srcRegion = null;
             return bi.getRaster();
         }
 
@@ -213,11 +232,46 @@ public class RLEImageReader extends ImageReader {
             SampleModel sm = imageType.getSampleModel();
             width = sm.getWidth();
             height = sm.getHeight();
-            return Raster.createWritableRaster(sm, null);
+            initSourceRegion(param);
+            return Raster.createWritableRaster(srcRegion != null
+                    ? sm.createCompatibleSampleModel(destWidth(), destHeight())
+                    : sm,
+                    null);
         }
         throw new IllegalArgumentException(UNKNOWN_IMAGE_TYPE);
     }
 
+    /**
+     * The dimension of the image is taken from the sample model of
+     * {@code ImageReadParam.destinationType}. A source region or source
+     * subsampling specified by {@code param} reduces the size of the
+     * returned raster accordingly.
+     */
+    private void initSourceRegion(ImageReadParam param) {
+        srcRegion = null;
+        if (param.getSourceRegion() == null
+                && param.getSourceXSubsampling() == 1
+                && param.getSourceYSubsampling() == 1
+                && param.getSubsamplingXOffset() == 0
+                && param.getSubsamplingYOffset() == 0)
+            return;
+
+        Rectangle region = getSourceRegion(param, width, height);
+        if (region.isEmpty())
+            throw new IllegalArgumentException("Empty source region: " + region);
+        srcRegion = region;
+        xSubsampling = param.getSourceXSubsampling();
+        ySubsampling = param.getSourceYSubsampling();
+    }
+
+    private int destWidth() {
+        return (srcRegion.width + xSubsampling - 1) / xSubsampling;
+    }
+
+    private int destHeight() {
+        return (srcRegion.height + ySubsampling - 1) / ySubsampling;
+    }
+
     private void read(DataBuffer db) throws IOException {
         switch (db.getDataType()) {
         case DataBuffer.TYPE_BYTE:
@@ -237,15 +291,27 @@ public class RLEImageReader extends ImageReader {
 
     private void read(byte[][] bands) throws IOException {
         readRLEHeader(bands.length);
-        for (int i = 0; i < bands.length; i++)
-            unrle(i+1, bands[i]);
+        if (srcRegion != null) {
+            byte[] row = new byte[width];
+            for (int i = 0; i < bands.length; i++)
+                unrleSubsampled(i+1, bands[i], row);
+        } else {
+            for (int i = 0; i < bands.length; i++)
+                unrle(i+1, bands[i]);
+        }
     }
 
     private void read(short[] data) throws IOException {
         readRLEHeader(2);
         Arrays.fill(data, (short) 0);
-        unrle(1, data);
-        unrle(2, data);
+        if (srcRegion != null) {
+            byte[] row = new byte[width];
+            unrleSubsampled(1, data, row);
+            unrleSubsampled(2, data, row);
+        } else {
+            unrle(1, data);
+            unrle(2, data);
+        }
     }
 
     private void seekSegment(int seg) throws IOException {
@@ -359,6 +425,80 @@ public class RLEImageReader extends ImageReader {
         }
     }
 
+    /**
+     * Decodes the segment row by row, only until the last row of the source
+     * region, and picks the subsampled bytes of each selected row.
+     * Remaining rows of the segment are skipped by seeking to the next one.
+     */
+    private void unrleSubsampled(int seg, byte[] data, byte[] row)
+            throws IOException {
+        seekSegment(seg);
+        runLength = 0;
+        int endRow = srcRegion.y + srcRegion.height;
+        int pos = 0;
+        int y = 0;
+        try {
+            for (; y < endRow; y++) {
+                unrleRow(row);
+                if (y >= srcRegion.y && (y - srcRegion.y) % ySubsampling == 0)
+                    for (int x = srcRegion.x, end = srcRegion.x + srcRegion.width;
+                            x < end; x += xSubsampling)
+                        data[pos++] = row[x];
+            }
+        } catch (EOFException e) {
+            LOG.info("RLE Segment #{} too short, set missing rows from #{} to 0",
+                    seg, y + 1);
+        }
+    }
+
+    private void unrleSubsampled(int seg, short[] data, byte[] row)
+            throws IOException {
+        seekSegment(seg);
+        runLength = 0;
+        int shift = seg == 1 ? 8 : 0;
+        int endRow = srcRegion.y + srcRegion.height;
+        int pos = 0;
+        int y = 0;
+        try {
+            for (; y < endRow; y++) {
+                unrleRow(row);
+                if (y >= srcRegion.y && (y - srcRegion.y) % ySubsampling == 0)
+                    for (int x = srcRegion.x, end = srcRegion.x + srcRegion.width;
+                            x < end; x += xSubsampling)
+                        data[pos++] |= (row[x] & 0xff) << shift;
+            }
+        } catch (EOFException e) {
+            LOG.info("RLE Segment #{} too short, set missing rows from #{} to 0",
+                    seg, y + 1);
+        }
+    }
+
+    private void unrleRow(byte[] row) throws IOException {
+        int pos = 0;
+        int n;
+        while (pos < row.length) {
+            if (runLength == 0) {
+                n = nextByte();
+                if (n >= 0) {
+                    literalRun = true;
+                    runLength = n + 1;
+                } else if (n != -128) {
+                    literalRun = false;
+                    runLength = 1 - n;
+                    runValue = nextByte();
+                }
+                continue;
+            }
+            n = Math.min(runLength, row.length - pos);
+            if (literalRun)
+                read(row, pos, n);
+            else
+                Arrays.fill(row, pos, pos + n, runValue);
+            pos += n;
+            runLength -= n;
+        }
+    }
+
     private void fillBuffer() throws IOException {
         bufOff = iis.getStreamPosition();
         bufPos = 0;
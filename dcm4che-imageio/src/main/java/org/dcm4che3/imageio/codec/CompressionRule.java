@@ -44,6 +44,7 @@ import java.util.EnumSet;
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
 import org.dcm4che3.conf.core.api.LDAP;
+import org.dcm4che3.data.UIDSet;
 import org.dcm4che3.image.PhotometricInterpretation;
 import org.dcm4che3.util.Property;
 import org.dcm4che3.util.StringUtils;
@@ -203,6 +204,8 @@ public class CompressionRule
         @ConfigurableProperty(name = "dcmSOPClass")
         String[] sopClasses;
 
+        private transient volatile UIDSet sopClassSet;
+
         @ConfigurableProperty(name = "dcmImageType")
         String[] imageType;
         
@@ -276,6 +279,7 @@ public class CompressionRule
 
         public void setSopClasses(String[] sopClasses) {
             this.sopClasses = sopClasses;
+            this.sopClassSet = null;
         }
         
         public String[] getImageType() {
@@ -342,11 +346,21 @@ public class CompressionRule
                     && matchBitStored(bitsStored)
                     && matchPixelRepresentation(pixelRepresentation)
                     && isEmptyOrContains(this.aeTitles, aeTitle)
-                    && isEmptyOrContains(this.sopClasses, sopClass)
+                    && matchSOPClass(sopClass)
                     && isEmptyOrContains(this.imageType, imgTypes)
                     && isEmptyOrContains(this.bodyPartExamined, bodyPart);
         }
 
+        private boolean matchSOPClass(String sopClass) {
+            if (sopClass == null || sopClasses.length == 0)
+                return true;
+
+            UIDSet set = sopClassSet;
+            if (set == null)
+                sopClassSet = set = UIDSet.of(sopClasses);
+            return set.contains(sopClass);
+        }
+
         private boolean matchPixelRepresentation(int pixelRepresentation) {
             return this.pixelRepresentation == -1 
                     || this.pixelRepresentation == pixelRepresentation;
@@ -47,6 +47,7 @@ import org.dcm4che3.image.Overlays;
 import org.dcm4che3.image.PhotometricInterpretation;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLS;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLSImageOutputStream;
+import org.dcm4che3.imageio.stream.EncapsulatedFrameIndex;
 import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.util.ByteUtils;
@@ -109,6 +110,8 @@ public class Compressor implements Closeable {
 
     private ImageReadParam verifyParam;
 
+    private boolean basicOffsetTable;
+
     public Compressor(Attributes dataset, String tsuid, String compressTsuid, Property... compressParams) {
         if (compressTsuid == null)
             throw new NullPointerException("compressTsuid");
@@ -180,6 +183,21 @@ public class Compressor implements Closeable {
         }
     }
 
+    public boolean isBasicOffsetTable() {
+        return basicOffsetTable;
+    }
+
+    /**
+     * Enable encoding of the Basic Offset Table of multi-frame images. Because
+     * the Basic Offset Table precedes the first frame, all frames are
+     * compressed and kept in memory before the first frame is written.
+     *
+     * @param basicOffsetTable {@code true} to encode the Basic Offset Table
+     */
+    public void setBasicOffsetTable(boolean basicOffsetTable) {
+        this.basicOffsetTable = basicOffsetTable;
+    }
+
     public boolean compress() throws IOException {
 
         if (pixels == null)
@@ -192,11 +210,15 @@ public class Compressor implements Closeable {
         int frames = imageParams.getFrames();
         Fragments compressedPixeldata =
                 dataset.newFragments(Tag.PixelData, VR.OB, frames + 1);
-        compressedPixeldata.add(Value.NULL);
+        CompressedFrame[] compressedFrames = new CompressedFrame[frames];
+        compressedPixeldata.add(basicOffsetTable && frames > 1
+                ? new BasicOffsetTable(compressedFrames)
+                : Value.NULL);
         for (int i = 0; i < frames; i++) {
             CompressedFrame frame = new CompressedFrame(i);
             if (needToExtractEmbeddedOverlays())
                 frame.compress();
+            compressedFrames[i] = frame;
             compressedPixeldata.add(frame);
         }
         for (int gg0000 : embeddedOverlays) {
@@ -338,6 +360,67 @@ public class Compressor implements Closeable {
 
     }
 
+    private class BasicOffsetTable implements Value {
+
+        private final CompressedFrame[] frames;
+        private byte[] bot;
+
+        public BasicOffsetTable(CompressedFrame[] frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public byte[] toBytes(VR vr, boolean bigEndian) throws IOException {
+            return bot();
+        }
+
+        @Override
+        public void writeTo(DicomOutputStream out, VR vr) throws IOException {
+            out.write(bot());
+        }
+
+        @Override
+        public int calcLength(DicomEncodingOptions encOpts, boolean explicitVR, VR vr) {
+            return getEncodedLength(encOpts, explicitVR, vr);
+        }
+
+        @Override
+        public int getEncodedLength(DicomEncodingOptions encOpts, boolean explicitVR, VR vr) {
+            try {
+                return bot().length;
+            } catch (IOException e) {
+                // rethrown on writing the compressed frame
+                return 0;
+            }
+        }
+
+        private byte[] bot() throws IOException {
+            if (bot != null)
+                return bot;
+
+            if (ex != null)
+                throw ex;
+
+            int[] itemLengths = new int[frames.length];
+            for (int i = 0; i < frames.length; i++)
+                itemLengths[i] = frames[i].getEncodedLength(null, false, VR.OB);
+            if (ex != null)
+                throw ex;
+
+            bot = EncapsulatedFrameIndex.basicOffsetTable(itemLengths);
+            if (bot == null) {
+                LOG.info("Compressed frames exceed 4 GB - write empty Basic Offset Table");
+                bot = ByteUtils.EMPTY_BYTES;
+            }
+            return bot;
+        }
+    }
+
     private static class CacheOutputStream extends FilterOutputStream {
 
         public CacheOutputStream() {
@@ -482,13 +565,13 @@ public class Compressor implements Closeable {
         // depends on the compression algorithm, properties and the compressor implementation.)
         long compressedFrameLength = uncompressedFrameLength;
 
-        if (!needToExtractEmbeddedOverlays()) {
+        if (!needToExtractEmbeddedOverlays() && !(basicOffsetTable && imageParams.getFrames() > 1)) {
             // As the compression happens lazily on demand (when writing to the OutputStream), we just need to keep one
             // frame in memory at one moment in time.
             memoryNeededDuringCompression += compressedFrameLength;
         } else {
-            // if embedded overlays need to be extracted, compression for each frame is done eagerly, so all compressed
-            // frames have to be kept in memory
+            // if embedded overlays need to be extracted or the Basic Offset Table is encoded, all frames are compressed
+            // before the first frame is written, so all compressed frames have to be kept in memory
             memoryNeededDuringCompression += compressedFrameLength * imageParams.getFrames();
         }
 
@@ -40,7 +40,7 @@ package org.dcm4che3.imageio.codec;
 import org.dcm4che3.data.*;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLS;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLSImageInputStream;
-import org.dcm4che3.imageio.stream.SegmentedImageInputStream;
+import org.dcm4che3.imageio.stream.EncapsulatedFrameIndex;
 import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomOutputStream;
 import org.slf4j.Logger;
@@ -76,6 +76,7 @@ public class Decompressor {
     private ImageReader imageReader;
     private ImageReadParam readParam;
     private PatchJPEGLS patchJPEGLS;
+    private EncapsulatedFrameIndex frameIndex;
 
     public Decompressor(Attributes dataset, String tsuid) {
         if (tsuid == null)
@@ -100,8 +101,7 @@ public class Decompressor {
                         + "with Transfer Syntax: " + tsuid);
 
             int numFragments = ((Fragments)this.pixels).size();
-            if (frames == 1 ? (numFragments < 2)
-                            : (numFragments != frames + 1))
+            if (numFragments < frames + 1)
                 throw new IllegalArgumentException(
                         "Number of Pixel Data Fragments: "
                         + numFragments + " does not match " + frames);
@@ -197,8 +197,8 @@ public class Decompressor {
     protected BufferedImage decompressFrame(ImageInputStream iis, int index)
             throws IOException {
 
-        if (pixels instanceof Fragments && ((Fragments) pixels).get(index+1) instanceof BulkData)
-            iis = SegmentedImageInputStream.ofFrame(iis, (Fragments) pixels, index, imageParams.getFrames());
+        if (pixels instanceof Fragments)
+            iis = frameIndex(iis).openFrame(iis, (Fragments) pixels, index);
 
         if (decompressedImage == null && tsType == TransferSyntaxType.RLE)
             decompressedImage = BufferedImageUtils.createBufferedImage(imageParams, tsType);
@@ -218,6 +218,12 @@ public class Decompressor {
         return decompressedImage;
     }
 
+    private EncapsulatedFrameIndex frameIndex(ImageInputStream iis) throws IOException {
+        if (frameIndex == null)
+            frameIndex = EncapsulatedFrameIndex.of(iis, (Fragments) pixels, imageParams.getFrames());
+        return frameIndex;
+    }
+
     public ImageInputStream createImageInputStream() throws IOException {
         return createImageInputStream(0);
     }
@@ -226,10 +232,14 @@ public class Decompressor {
 
         if (pixels instanceof Fragments) {
             Fragments pixelFragments = (Fragments) pixels;
-            if (pixelFragments.get(frameIndex + 1) instanceof BulkData)
-                return new FileImageInputStream(((BulkData) pixelFragments.get(frameIndex + 1)).getFile());
-            else if (pixelFragments.get(frameIndex + 1) instanceof byte[])
-                return new MemoryCacheImageInputStream(new ByteArrayInputStream((byte[])pixelFragments.get(frameIndex + 1)));
+            // if frames span several fragments, decompressFrame() maps the frame to its fragments
+            Object fragment = pixelFragments.get(pixelFragments.size() == imageParams.getFrames() + 1
+                    ? frameIndex + 1
+                    : 1);
+            if (fragment instanceof BulkData)
+                return new FileImageInputStream(((BulkData) fragment).getFile());
+            else if (fragment instanceof byte[])
+                return new MemoryCacheImageInputStream(new ByteArrayInputStream((byte[]) fragment));
             else
                 return null;
         }
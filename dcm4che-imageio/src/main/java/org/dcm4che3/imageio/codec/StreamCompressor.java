@@ -44,20 +44,38 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.image.Overlays;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLS;
+import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLSImageInputStream;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLSImageOutputStream;
+import org.dcm4che3.imageio.stream.EncapsulatedFrameIndex;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.util.ByteUtils;
 import org.dcm4che3.util.Property;
 import org.dcm4che3.util.StreamUtils;
+import org.dcm4che3.util.TagUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -75,6 +93,7 @@ public class StreamCompressor extends StreamDecompressor {
     private ImageWriter compressor;
     private PatchJPEGLS compressPatchJPEGLS;
     private ImageWriteParam compressParam;
+    private final ArrayList<Property> compressParams = new ArrayList<Property>();
     private int maxPixelValueError = -1;
     private int avgPixelValueBlockSize = 1;
     private ImageReader verifier;
@@ -82,11 +101,103 @@ public class StreamCompressor extends StreamDecompressor {
     private ImageParams imageParams;
     private BufferedImage bi2;
     private int frameIndex;
+    private Executor executor;
+    private int parallelism = 1;
+    private int maxQueuedFrames = 16;
+    private long maxBufferedBytes = 64 * 1024 * 1024L;
+    private Queue<FrameCodec> codecs;
+    private Semaphore codecPermits;
+    private boolean basicOffsetTable;
+    private ArrayList<byte[]> compressedFrames;
+    private long compressedBytes;
 
     public StreamCompressor(DicomInputStream in, String inTransferSyntaxUID, DicomOutputStream out) {
         super(in, inTransferSyntaxUID, out);
     }
 
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set executor used to decompress, compress and verify frames of
+     * multi-frame images concurrently to reading and writing of the streams.
+     * If {@code null}, all frames are processed serially on the calling thread.
+     *
+     * @param executor executor running the codec workers or {@code null}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set maximal number of frames processed concurrently by the codec
+     * workers. Each worker uses its own image reader and writer instances.
+     *
+     * @param parallelism maximal number of concurrently processed frames
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxQueuedFrames() {
+        return maxQueuedFrames;
+    }
+
+    /**
+     * Set maximal number of frames read from the input stream, but not yet
+     * written to the output stream.
+     *
+     * @param maxQueuedFrames maximal number of pending frames
+     */
+    public void setMaxQueuedFrames(int maxQueuedFrames) {
+        if (maxQueuedFrames < 1)
+            throw new IllegalArgumentException("maxQueuedFrames: " + maxQueuedFrames);
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    public boolean isBasicOffsetTable() {
+        return basicOffsetTable;
+    }
+
+    /**
+     * Enable encoding of the Basic Offset Table of multi-frame images. Because
+     * the Basic Offset Table precedes the first frame, all compressed frames
+     * are kept in memory until the last frame is compressed. If they exceed
+     * {@link #getMaxBufferedBytes()}, an empty Basic Offset Table is written
+     * and the remaining frames are written as they are compressed.
+     *
+     * @param basicOffsetTable {@code true} to encode the Basic Offset Table
+     */
+    public void setBasicOffsetTable(boolean basicOffsetTable) {
+        this.basicOffsetTable = basicOffsetTable;
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * Set memory budget for pending frames, calculated from the size of the
+     * read and of the decompressed frames. At least one frame is always
+     * processed, even if it exceeds the budget. The compressed frames kept
+     * in memory for the Basic Offset Table are limited separately by the
+     * same budget.
+     *
+     * @param maxBufferedBytes maximal number of buffered bytes
+     */
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        if (maxBufferedBytes < 0)
+            throw new IllegalArgumentException("maxBufferedBytes: " + maxBufferedBytes);
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
     public boolean compress(String compressTsuid, Property... params) throws IOException {
         if (compressTsuid == null)
             throw new NullPointerException("compressTsuid");
@@ -104,21 +215,16 @@ public class StreamCompressor extends StreamDecompressor {
         this.compressor = ImageWriterFactory.getImageWriter(param);
         LOG.debug("Compressor: {}", compressor.getClass().getName());
         this.compressPatchJPEGLS = param.patchJPEGLS;
-        this.compressParam = compressor.getDefaultWriteParam();
-        int count = 0;
         for (Property property : cat(param.getImageWriteParams(), params)) {
             String name = property.getName();
             if (name.equals("maxPixelValueError"))
                 this.maxPixelValueError = ((Number) property.getValue()).intValue();
             else if (name.equals("avgPixelValueBlockSize"))
                 this.avgPixelValueBlockSize = ((Number) property.getValue()).intValue();
-            else {
-                if (count++ == 0)
-                    compressParam.setCompressionMode(
-                            ImageWriteParam.MODE_EXPLICIT);
-                property.setAt(compressParam);
-            }
+            else
+                compressParams.add(property);
         }
+        this.compressParam = createWriteParam(compressor);
 
         if (maxPixelValueError >= 0) {
             ImageReaderFactory.ImageReaderParam readerParam =
@@ -131,10 +237,41 @@ public class StreamCompressor extends StreamDecompressor {
             this.verifyParam = verifier.getDefaultReadParam();
             LOG.debug("Verifier: {}", verifier.getClass().getName());
         }
+        if (executor != null && parallelism > 1)
+            initCodecs(param, compressTsuid);
         decompress();
         return pixeldataProcessed;
     }
 
+    private ImageWriteParam createWriteParam(ImageWriter writer) {
+        ImageWriteParam writeParam = writer.getDefaultWriteParam();
+        if (!compressParams.isEmpty())
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        for (Property property : compressParams)
+            property.setAt(writeParam);
+        return writeParam;
+    }
+
+    private void initCodecs(ImageWriterFactory.ImageWriterParam param, String compressTsuid) {
+        codecs = new ConcurrentLinkedQueue<FrameCodec>();
+        codecPermits = new Semaphore(parallelism);
+        ImageReaderFactory.ImageReaderParam decompressorParam = decompressor != null
+                ? ImageReaderFactory.getImageReaderParam(tsuid)
+                : null;
+        ImageReaderFactory.ImageReaderParam verifierParam = verifier != null
+                ? ImageReaderFactory.getImageReaderParam(compressTsuid)
+                : null;
+        for (int i = 0; i < parallelism; i++)
+            codecs.add(new FrameCodec(
+                    decompressorParam != null
+                            ? ImageReaderFactory.getImageReader(decompressorParam)
+                            : null,
+                    ImageWriterFactory.getImageWriter(param),
+                    verifierParam != null
+                            ? ImageReaderFactory.getImageReader(verifierParam)
+                            : null));
+    }
+
     @Override
     public void dispose() {
         super.dispose();
@@ -142,6 +279,9 @@ public class StreamCompressor extends StreamDecompressor {
             compressor.dispose();
         if (verifier != null)
             verifier.dispose();
+        if (codecs != null)
+            for (FrameCodec codec : codecs)
+                codec.dispose();
     }
 
     private Property[] cat(Property[] a, Property[] b) {
@@ -172,9 +312,15 @@ public class StreamCompressor extends StreamDecompressor {
         coerceAttributes.coerce(attrs).writeTo(out);
         attrs.clear();
         out.writeHeader(Tag.PixelData, VR.OB, -1);
-        out.writeHeader(Tag.Item, null, 0);
+        if (basicOffsetTable && imageParams.getFrames() > 1) {
+            compressedFrames = new ArrayList<byte[]>(imageParams.getFrames());
+            compressedBytes = 0L;
+        } else
+            out.writeHeader(Tag.Item, null, 0);
 
-        if (len == -1) {
+        if (codecs != null && imageParams.getFrames() > 1) {
+            transcodeFrames(dis, len);
+        } else if (len == -1) {
             if (!tsType.isPixeldataEncapsulated()) {
                 throw new IOException("Unexpected encapsulated Pixel Data");
             }
@@ -199,10 +345,330 @@ public class StreamCompressor extends StreamDecompressor {
             }
             dis.skipFully(padding);
         }
+        if (compressedFrames != null)
+            writeCompressedFrames();
         out.writeHeader(Tag.SequenceDelimitationItem, null, 0);
         pixeldataProcessed = true;
     }
 
+    /**
+     * Pipelined processing of multi-frame images: the calling thread reads
+     * the (compressed) frames from the input stream and hands them to the
+     * codec workers for decompression, compression and verification. The
+     * resulting frames are written in their original order by the calling
+     * thread, as soon as they are available or if the number of pending
+     * frames or bytes would exceed the configured limits.
+     */
+    private void transcodeFrames(DicomInputStream dis, int len) throws IOException {
+        boolean encapsulated = len == -1;
+        if (encapsulated != tsType.isPixeldataEncapsulated())
+            throw new IOException(encapsulated
+                    ? "Unexpected encapsulated Pixel Data"
+                    : "Pixel Data not encapsulated");
+
+        boolean bigEndian = dis.bigEndian();
+        boolean swapOW = bigEndian && dis.vr() == VR.OW;
+        int padding = 0;
+        if (encapsulated) {
+            dis.readHeader();
+            dis.skipFully(dis.length());
+        } else {
+            padding = len - imageParams.getLength();
+            if (padding < 0)
+                throw new IllegalArgumentException(
+                        "Pixel data too short: " + len + " instead "
+                                + imageParams.getLength() + " bytes");
+        }
+        ArrayDeque<PendingFrame> pending = new ArrayDeque<PendingFrame>();
+        long bufferedBytes = 0L;
+        try {
+            for (int i = 0; i < imageParams.getFrames(); i++) {
+                byte[] frame;
+                if (encapsulated) {
+                    if (!readItemHeader(dis))
+                        throw new IOException("Number of Fragments < Number of Frames ["
+                                + imageParams.getFrames() + "]");
+                    frame = new byte[dis.length()];
+                } else {
+                    frame = new byte[imageParams.getFrameLength()];
+                }
+                dis.readFully(frame);
+                long size = frame.length + imageParams.getFrameLength();
+                while (!pending.isEmpty()
+                        && (pending.size() >= maxQueuedFrames
+                            || bufferedBytes + size > maxBufferedBytes)) {
+                    bufferedBytes -= writePendingFrame(pending.remove());
+                }
+                PendingFrame pendingFrame = new PendingFrame(
+                        new TranscodeFrame(i, frame, bigEndian, swapOW), size);
+                submit(pendingFrame);
+                pending.add(pendingFrame);
+                bufferedBytes += size;
+                while (!pending.isEmpty() && pending.element().isDone())
+                    bufferedBytes -= writePendingFrame(pending.remove());
+            }
+            while (!pending.isEmpty())
+                writePendingFrame(pending.remove());
+        } finally {
+            if (!pending.isEmpty()) {
+                for (PendingFrame pendingFrame : pending)
+                    pendingFrame.cancel(false);
+                // the codecs must not be disposed while still used by running frames
+                codecPermits.acquireUninterruptibly(parallelism);
+                codecPermits.release(parallelism);
+            }
+        }
+        if (encapsulated) {
+            while (readItemHeader(dis))
+                dis.skipFully(dis.length());
+        } else
+            dis.skipFully(padding);
+    }
+
+    /**
+     * Hands the frame to the executor as soon as one of the codecs is
+     * available, so no executor thread ever waits for a codec.
+     */
+    private void submit(PendingFrame pendingFrame) throws IOException {
+        try {
+            codecPermits.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        try {
+            executor.execute(pendingFrame);
+        } catch (RuntimeException e) {
+            codecPermits.release();
+            throw e;
+        }
+    }
+
+    private static boolean readItemHeader(DicomInputStream dis) throws IOException {
+        switch (dis.readHeader()) {
+        case Tag.Item:
+            return true;
+        case Tag.SequenceDelimitationItem:
+            return false;
+        }
+        throw new IOException("Unexpected attribute " + TagUtils.toString(dis.tag())
+                + " in encapsulated Pixel Data");
+    }
+
+    private long writePendingFrame(PendingFrame pendingFrame) throws IOException {
+        byte[] compressed;
+        try {
+            compressed = pendingFrame.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+        if (compressedFrames != null)
+            addCompressedFrame(compressed);
+        else
+            writeFragment(compressed);
+        frameIndex++;
+        return pendingFrame.size;
+    }
+
+    private void writeFragment(byte[] b) throws IOException {
+        out.writeHeader(Tag.Item, null, (b.length + 1) & ~1);
+        out.write(b);
+        if ((b.length & 1) != 0)
+            out.write(0);
+    }
+
+    private void addCompressedFrame(byte[] b) throws IOException {
+        compressedBytes += b.length;
+        if (compressedBytes <= maxBufferedBytes) {
+            compressedFrames.add(b);
+            return;
+        }
+        LOG.info("Compressed frames exceed {} bytes - write empty Basic Offset Table",
+                maxBufferedBytes);
+        writeFragment(ByteUtils.EMPTY_BYTES);
+        for (byte[] frame : compressedFrames)
+            writeFragment(frame);
+        writeFragment(b);
+        compressedFrames = null;
+    }
+
+    private void writeCompressedFrames() throws IOException {
+        int[] itemLengths = new int[compressedFrames.size()];
+        for (int i = 0; i < itemLengths.length; i++)
+            itemLengths[i] = (compressedFrames.get(i).length + 1) & ~1;
+        byte[] bot = EncapsulatedFrameIndex.basicOffsetTable(itemLengths);
+        if (bot == null) {
+            LOG.info("Compressed frames exceed 4 GB - write empty Basic Offset Table");
+            bot = ByteUtils.EMPTY_BYTES;
+        }
+        writeFragment(bot);
+        for (byte[] b : compressedFrames)
+            writeFragment(b);
+        compressedFrames = null;
+    }
+
+    /**
+     * Releases its codec permit after it was run, or when it was cancelled
+     * before it was started, so the permit is also returned if the executor
+     * never runs a cancelled frame.
+     */
+    private final class PendingFrame extends FutureTask<byte[]> {
+        final long size;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        PendingFrame(Callable<byte[]> callable, long size) {
+            super(callable);
+            this.size = size;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true))
+                return;
+            try {
+                super.run();
+            } finally {
+                codecPermits.release();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (claimed.compareAndSet(false, true))
+                codecPermits.release();
+            return cancelled;
+        }
+    }
+
+    private final class TranscodeFrame implements Callable<byte[]> {
+        private final int index;
+        private final byte[] frame;
+        private final boolean bigEndian;
+        private final boolean swapOW;
+
+        TranscodeFrame(int index, byte[] frame, boolean bigEndian, boolean swapOW) {
+            this.index = index;
+            this.frame = frame;
+            this.bigEndian = bigEndian;
+            this.swapOW = swapOW;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            FrameCodec codec = codecs.remove();
+            try {
+                return codec.transcode(index, frame, bigEndian, swapOW);
+            } finally {
+                codecs.add(codec);
+            }
+        }
+    }
+
+    private final class FrameCodec {
+        private final ImageReader decompressor;
+        private final ImageWriter compressor;
+        private final ImageWriteParam compressParam;
+        private final ImageReader verifier;
+        private final ImageReadParam verifyParam;
+        private BufferedImage bi;
+        private BufferedImage bi2;
+
+        FrameCodec(ImageReader decompressor, ImageWriter compressor, ImageReader verifier) {
+            this.decompressor = decompressor;
+            this.compressor = compressor;
+            this.compressParam = createWriteParam(compressor);
+            this.verifier = verifier;
+            this.verifyParam = verifier != null ? verifier.getDefaultReadParam() : null;
+        }
+
+        byte[] transcode(int index, byte[] frame, boolean bigEndian, boolean swapOW)
+                throws IOException {
+            if (bi == null && (decompressor == null || tsType == TransferSyntaxType.RLE))
+                bi = BufferedImageUtils.createBufferedImage(imageParams, compressTsType);
+            long start = System.currentTimeMillis();
+            if (decompressor != null) {
+                ImageInputStream iis = new MemoryCacheImageInputStream(
+                        new ByteArrayInputStream(frame));
+                decompressor.setInput(patchJPEGLS != null
+                        ? new PatchJPEGLSImageInputStream(iis, patchJPEGLS)
+                        : iis);
+                ImageReadParam readParam = decompressor.getDefaultReadParam();
+                readParam.setDestination(bi);
+                bi = decompressor.read(0, readParam);
+            } else {
+                toDataBuffer(frame, bi.getRaster().getDataBuffer(), bigEndian, swapOW);
+            }
+            if (imageParams.getBitsStored() < imageParams.getBitsAllocated())
+                BufferedImageUtils.nullifyUnusedBits(imageParams.getBitsStored(),
+                        bi.getRaster().getDataBuffer());
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(frame.length >> 1);
+            MemoryCacheImageOutputStream compressedFrame = new MemoryCacheImageOutputStream(bout);
+            compressor.setOutput(compressPatchJPEGLS != null
+                    ? new PatchJPEGLSImageOutputStream(compressedFrame, compressPatchJPEGLS)
+                    : compressedFrame);
+            compressor.write(null, new IIOImage(bi, null, null), compressParam);
+            if (verifier != null) {
+                compressedFrame.seek(0);
+                verifier.setInput(compressedFrame);
+                verifyParam.setDestination(bi2);
+                bi2 = verifier.read(0, verifyParam);
+                int maxDiff = BufferedImageUtils.maxDiff(bi.getRaster(), bi2.getRaster(),
+                        avgPixelValueBlockSize);
+                LOG.debug("Verified compressed frame #{} - max pixel value error: {}",
+                        index + 1, maxDiff);
+                if (maxDiff > maxPixelValueError)
+                    throw new CompressionVerificationException(maxDiff);
+            }
+            compressedFrame.close();
+            byte[] compressed = bout.toByteArray();
+            long end = System.currentTimeMillis();
+            if (LOG.isDebugEnabled())
+                LOG.debug("Transcoded frame #{} {}:1 in {} ms",
+                        index + 1, (float) BufferedImageUtils.sizeOf(bi) / compressed.length,
+                        end - start);
+            return compressed;
+        }
+
+        void dispose() {
+            if (decompressor != null)
+                decompressor.dispose();
+            compressor.dispose();
+            if (verifier != null)
+                verifier.dispose();
+        }
+    }
+
+    private static void toDataBuffer(byte[] frame, DataBuffer db, boolean bigEndian,
+            boolean swapOW) {
+        switch (db.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            byte[][] data = ((DataBufferByte) db).getBankData();
+            for (int i = 0, off = 0; i < data.length; off += data[i++].length)
+                System.arraycopy(frame, off, data[i], 0, data[i].length);
+            if (swapOW)
+                ByteUtils.swapShorts(data);
+            break;
+        case DataBuffer.TYPE_USHORT:
+            ByteUtils.bytesToShorts(frame, 0, ((DataBufferUShort) db).getData(), 0,
+                    frame.length >> 1, bigEndian);
+            break;
+        case DataBuffer.TYPE_SHORT:
+            ByteUtils.bytesToShorts(frame, 0, ((DataBufferShort) db).getData(), 0,
+                    frame.length >> 1, bigEndian);
+            break;
+        default:
+            throw new UnsupportedOperationException("Unsupported Datatype: " + db.getDataType());
+        }
+    }
+
    private void readFrame(DicomInputStream dis, DataBuffer db, byte[] buf) throws IOException {
         switch (db.getDataType()) {
         case DataBuffer.TYPE_BYTE:
@@ -230,7 +696,8 @@ public class StreamCompressor extends StreamDecompressor {
         if (imageParams.getBitsStored() < imageParams.getBitsAllocated())
             BufferedImageUtils.nullifyUnusedBits(imageParams.getBitsStored(), bi.getRaster().getDataBuffer());
 
-        MemoryCacheImageOutputStream compressedFrame = new MemoryCacheImageOutputStream(out) {
+        OutputStream frameOut = compressedFrames != null ? new ByteArrayOutputStream() : out;
+        MemoryCacheImageOutputStream compressedFrame = new MemoryCacheImageOutputStream(frameOut) {
 
             @Override
             public void flush() throws IOException {
@@ -249,6 +716,12 @@ public class StreamCompressor extends StreamDecompressor {
             LOG.debug("Compressed frame #{} {}:1 in {} ms",
                     frameIndex+1, (float) BufferedImageUtils.sizeOf(bi) / streamLength,  end - start);
         verify(compressedFrame, bi);
+        if (compressedFrames != null) {
+            compressedFrame.close();
+            addCompressedFrame(((ByteArrayOutputStream) frameOut).toByteArray());
+            frameIndex++;
+            return;
+        }
         out.writeHeader(Tag.Item, null, (streamLength + 1) & ~1);
         start = System.currentTimeMillis();
         compressedFrame.close();
@@ -39,8 +39,10 @@
 package org.dcm4che3.imageio.codec;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import org.dcm4che3.data.UID;
+import org.dcm4che3.data.UIDId;
 import org.dcm4che3.image.PhotometricInterpretation;
 
 /**
@@ -161,7 +163,14 @@ public enum TransferSyntaxType {
         map.put(UID.RLELossless, RLE);
     }
 
+    private static final TransferSyntaxType[] byUIDId = new TransferSyntaxType[UIDId.count()];
+    static {
+        for (Map.Entry<String, TransferSyntaxType> entry : map.entrySet())
+            byUIDId[UIDId.of(entry.getKey())] = entry.getValue();
+    }
+
     public static TransferSyntaxType forUID(String uid) {
-        return map.get(uid);
+        int id = UIDId.of(uid);
+        return id != UIDId.UNKNOWN ? byUIDId[id] : null;
     }
 }
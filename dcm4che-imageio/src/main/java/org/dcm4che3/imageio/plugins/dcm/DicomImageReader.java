@@ -38,6 +38,7 @@
 
 package org.dcm4che3.imageio.plugins.dcm;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
@@ -80,6 +81,7 @@ import org.dcm4che3.imageio.codec.ImageReaderFactory;
 import org.dcm4che3.imageio.codec.ImageReaderFactory.ImageReaderParam;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLS;
 import org.dcm4che3.imageio.codec.jpeg.PatchJPEGLSImageInputStream;
+import org.dcm4che3.imageio.stream.EncapsulatedFrameIndex;
 import org.dcm4che3.imageio.stream.ImageInputStreamAdapter;
 import org.dcm4che3.imageio.stream.SegmentedImageInputStream;
 import org.dcm4che3.io.BulkDataDescriptor;
@@ -98,6 +100,8 @@ public class DicomImageReader extends ImageReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(DicomImageReader.class);
 
+    private static final int[] NO_OVERLAYS = {};
+
     private ImageInputStream iis;
 
     private Attributes ds;
@@ -116,6 +120,8 @@ public class DicomImageReader extends ImageReader {
 
     private Fragments pixeldataFragments;
 
+    private EncapsulatedFrameIndex pixeldataFrameIndex;
+
     private File pixeldataFile;
 
     private byte[] pixeldataBytes;
@@ -140,6 +146,8 @@ public class DicomImageReader extends ImageReader {
 
     private PhotometricInterpretation pmi;
 
+    private boolean keepiisOpen;
+
     public DicomImageReader(ImageReaderSpi originatingProvider) {
         super(originatingProvider);
     }
@@ -248,7 +256,7 @@ public class DicomImageReader extends ImageReader {
     }
 
     private void closeiis() throws IOException {
-        if (pixeldataFile != null && iis != null) {
+        if (pixeldataFile != null && iis != null && !keepiisOpen) {
             iis.close();
             iis = null;
         }
@@ -281,6 +289,11 @@ public class DicomImageReader extends ImageReader {
         readMetadata();
         checkIndex(frameIndex);
 
+        return readRaster(frameIndex, param, true, null);
+    }
+
+    private Raster readRaster(int frameIndex, ImageReadParam param,
+            boolean applySourceRegion, FrameBuffers buffers) throws IOException {
         openiis();
         try {
             if (decompressor != null) {
@@ -288,9 +301,11 @@ public class DicomImageReader extends ImageReader {
 
                 if (LOG.isDebugEnabled())
                     LOG.debug("Start decompressing frame #" + (frameIndex + 1));
+                ImageReadParam decompressParam =
+                        decompressParam(param, applySourceRegion);
                 Raster wr = pmi.decompress() == pmi && decompressor.canReadRaster()
-                        ? decompressor.readRaster(0, decompressParam(param))
-                        : decompressor.read(0, decompressParam(param)).getRaster();
+                        ? decompressor.readRaster(0, decompressParam)
+                        : decompressor.read(0, decompressParam).getRaster();
                 if (LOG.isDebugEnabled())
                     LOG.debug("Finished decompressing frame #" + (frameIndex + 1));
                 return wr;
@@ -306,26 +321,143 @@ public class DicomImageReader extends ImageReader {
               throw new RuntimeException("fix this?");
             }
 
-            WritableRaster wr = Raster.createWritableRaster(
-                    createSampleModel(dataType, banded), null);
-            DataBuffer buf = wr.getDataBuffer();
-            if (buf instanceof DataBufferByte) {
-                byte[][] data = ((DataBufferByte) buf).getBankData();
-                for (byte[] bs : data)
-                    iis.readFully(bs);
-                if (pixelBulkData.bigEndian && pixeldataVR.vr == VR.OW)
-                    ByteUtils.swapShorts(data);
-            } else {
-                short[] data = ((DataBufferUShort) buf).getData();
-                iis.readFully(data, 0, data.length);
+            if (applySourceRegion && isSubsampled(param)) {
+                if (canReadSubsampled())
+                    return readSubsampledRaster(iis.getStreamPosition(), param);
+
+                return subsample(readFrame(null), param);
             }
-            return wr;
+            if (buffers == null)
+                return readFrame(null);
+
+            return buffers.raw = readFrame(buffers.raw);
         } finally {
             closeiis();
         }
     }
 
-    private ImageReadParam decompressParam(ImageReadParam param) {
+    private WritableRaster readFrame(WritableRaster dest) throws IOException {
+        WritableRaster wr = dest != null
+                ? dest
+                : Raster.createWritableRaster(
+                        createSampleModel(dataType, banded), null);
+        DataBuffer buf = wr.getDataBuffer();
+        if (buf instanceof DataBufferByte) {
+            byte[][] data = ((DataBufferByte) buf).getBankData();
+            for (byte[] bs : data)
+                iis.readFully(bs);
+            if (swapBytes())
+                ByteUtils.swapShorts(data);
+        } else {
+            short[] data = ((DataBufferUShort) buf).getData();
+            iis.readFully(data, 0, data.length);
+        }
+        return wr;
+    }
+
+    private boolean swapBytes() {
+        return pixelBulkData != null && pixelBulkData.bigEndian
+                && pixeldataVR.vr == VR.OW;
+    }
+
+    private static boolean isSubsampled(ImageReadParam param) {
+        return param != null && (param.getSourceRegion() != null
+                || param.getSourceXSubsampling() != 1
+                || param.getSourceYSubsampling() != 1
+                || param.getSubsamplingXOffset() != 0
+                || param.getSubsamplingYOffset() != 0);
+    }
+
+    private boolean canReadSubsampled() {
+        return (bitsAllocated == 8 || bitsAllocated == 16)
+                && !pmi.isSubSambled()
+                && !(dataType == DataBuffer.TYPE_BYTE && swapBytes());
+    }
+
+    private Rectangle sourceRegion(ImageReadParam param) {
+        Rectangle srcRegion = getSourceRegion(param, width, height);
+        if (srcRegion.isEmpty())
+            throw new IllegalArgumentException("Empty source region: " + srcRegion);
+        return srcRegion;
+    }
+
+    /**
+     * Reads only the rows and columns of the source region selected by the
+     * subsampling of {@code param}, seeking over all other pixel values.
+     */
+    private WritableRaster readSubsampledRaster(long frameStart,
+            ImageReadParam param) throws IOException {
+        Rectangle srcRegion = sourceRegion(param);
+        int xSub = param.getSourceXSubsampling();
+        int ySub = param.getSourceYSubsampling();
+        int destWidth = (srcRegion.width + xSub - 1) / xSub;
+        int destHeight = (srcRegion.height + ySub - 1) / ySub;
+        WritableRaster wr = Raster.createWritableRaster(
+                pmi.createSampleModel(dataType, destWidth, destHeight,
+                        samples, banded), null);
+        int bytesPerSample = bitsAllocated >> 3;
+        int pixelStride = banded ? 1 : samples;
+        int planes = banded ? samples : 1;
+        long planeLength = banded ? (long) width * height : 0L;
+        int rowLength = srcRegion.width * pixelStride;
+        DataBuffer buf = wr.getDataBuffer();
+        if (buf instanceof DataBufferByte) {
+            byte[][] bankData = ((DataBufferByte) buf).getBankData();
+            byte[] row = new byte[rowLength];
+            for (int plane = 0; plane < planes; plane++) {
+                byte[] data = bankData[plane];
+                for (int dy = 0, i = 0; dy < destHeight; dy++) {
+                    iis.seek(samplePosition(frameStart, plane * planeLength,
+                            srcRegion.y + dy * ySub, srcRegion.x,
+                            pixelStride, bytesPerSample));
+                    iis.readFully(row, 0, rowLength);
+                    for (int sx = 0; sx < rowLength; sx += xSub * pixelStride)
+                        for (int s = 0; s < pixelStride; s++)
+                            data[i++] = row[sx + s];
+                }
+            }
+        } else {
+            short[][] bankData = ((DataBufferUShort) buf).getBankData();
+            short[] row = new short[rowLength];
+            for (int plane = 0; plane < planes; plane++) {
+                short[] data = bankData[plane];
+                for (int dy = 0, i = 0; dy < destHeight; dy++) {
+                    iis.seek(samplePosition(frameStart, plane * planeLength,
+                            srcRegion.y + dy * ySub, srcRegion.x,
+                            pixelStride, bytesPerSample));
+                    iis.readFully(row, 0, rowLength);
+                    for (int sx = 0; sx < rowLength; sx += xSub * pixelStride)
+                        for (int s = 0; s < pixelStride; s++)
+                            data[i++] = row[sx + s];
+                }
+            }
+        }
+        return wr;
+    }
+
+    private long samplePosition(long frameStart, long planeOffset, int y, int x,
+            int pixelStride, int bytesPerSample) {
+        return frameStart + (planeOffset + ((long) y * width + x) * pixelStride)
+                * bytesPerSample;
+    }
+
+    private WritableRaster subsample(Raster raster, ImageReadParam param) {
+        Rectangle srcRegion = sourceRegion(param);
+        int xSub = param.getSourceXSubsampling();
+        int ySub = param.getSourceYSubsampling();
+        int destWidth = (srcRegion.width + xSub - 1) / xSub;
+        int destHeight = (srcRegion.height + ySub - 1) / ySub;
+        WritableRaster wr = raster.createCompatibleWritableRaster(
+                destWidth, destHeight);
+        int[] pixel = new int[raster.getNumBands()];
+        for (int dy = 0, sy = srcRegion.y; dy < destHeight; dy++, sy += ySub)
+            for (int dx = 0, sx = srcRegion.x; dx < destWidth; dx++, sx += xSub)
+                wr.setPixel(dx, dy, raster.getPixel(sx, sy, pixel));
+        return wr;
+    }
+
+    private ImageReadParam decompressParam(ImageReadParam param,
+            boolean applySourceRegion) {
         ImageReadParam decompressParam = decompressor.getDefaultReadParam();
         ImageTypeSpecifier imageType = null;
         BufferedImage dest = null;
@@ -337,15 +469,130 @@ public class DicomImageReader extends ImageReader {
             imageType = createImageType(bitsStored, dataType, true);
         decompressParam.setDestinationType(imageType);
         decompressParam.setDestination(dest);
+        if (applySourceRegion && isSubsampled(param)) {
+            decompressParam.setSourceRegion(param.getSourceRegion());
+            decompressParam.setSourceSubsampling(
+                    param.getSourceXSubsampling(),
+                    param.getSourceYSubsampling(),
+                    param.getSubsamplingXOffset(),
+                    param.getSubsamplingYOffset());
+        }
         return decompressParam;
     }
 
+    /**
+     * Reads a down-scaled image of the specified frame fitting into a square
+     * of {@code maxSize} pixels. For uncompressed and RLE compressed Pixel
+     * Data, only the pixel values of every n-th row and column are read.
+     *
+     * @param frameIndex
+     *            index of the frame
+     * @param maxSize
+     *            maximal width and height of the returned image
+     * @param param
+     *            optional read parameters, not modified by this method
+     * @return the down-scaled image
+     * @throws IOException
+     */
+    public BufferedImage readThumbnail(int frameIndex, int maxSize,
+            ImageReadParam param) throws IOException {
+        readMetadata();
+        checkIndex(frameIndex);
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize: " + maxSize);
+
+        Rectangle srcRegion = param != null && param.getSourceRegion() != null
+                ? param.getSourceRegion().intersection(
+                        new Rectangle(0, 0, width, height))
+                : new Rectangle(0, 0, width, height);
+        int subsampling = Math.max(1, (Math.max(srcRegion.width,
+                srcRegion.height) + maxSize - 1) / maxSize);
+        DicomImageReadParam thumbnailParam = new DicomImageReadParam();
+        if (param instanceof DicomImageReadParam) {
+            DicomImageReadParam dParam = (DicomImageReadParam) param;
+            thumbnailParam.setWindowCenter(dParam.getWindowCenter());
+            thumbnailParam.setWindowWidth(dParam.getWindowWidth());
+            thumbnailParam.setAutoWindowing(dParam.isAutoWindowing());
+            thumbnailParam.setPreferWindow(dParam.isPreferWindow());
+            thumbnailParam.setWindowIndex(dParam.getWindowIndex());
+            thumbnailParam.setVOILUTIndex(dParam.getVOILUTIndex());
+            thumbnailParam.setOverlayActivationMask(
+                    dParam.getOverlayActivationMask());
+            thumbnailParam.setOverlayGrayscaleValue(
+                    dParam.getOverlayGrayscaleValue());
+            thumbnailParam.setPresentationState(dParam.getPresentationState());
+        }
+        if (param != null)
+            thumbnailParam.setSourceRegion(param.getSourceRegion());
+        thumbnailParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return read(frameIndex, thumbnailParam);
+    }
+
     @Override
     public BufferedImage read(int frameIndex, ImageReadParam param)
             throws IOException {
         readMetadata();
         checkIndex(frameIndex);
 
+        return read(frameIndex, param, null);
+    }
+
+    /**
+     * Reads the frames from {@code fromIndex}, inclusive, to {@code toIndex},
+     * exclusive, and passes each frame to {@code consumer}. The input stream
+     * is opened once, and the rasters of the first frame are reused for all
+     * following frames, so the memory consumption does not depend on the
+     * number of frames. Therefore the {@code BufferedImage} passed to the
+     * consumer is only valid until {@link FrameConsumer#accept} returns.
+     *
+     * @param fromIndex
+     *            index of the first frame
+     * @param toIndex
+     *            index after the last frame
+     * @param param
+     *            read parameters applied to each frame, may be {@code null}
+     * @param consumer
+     *            receives the frames in ascending order
+     * @throws IOException
+     */
+    public void readFrames(int fromIndex, int toIndex, ImageReadParam param,
+            FrameConsumer consumer) throws IOException {
+        readMetadata();
+        if (fromIndex > toIndex)
+            throw new IllegalArgumentException("fromIndex(" + fromIndex
+                    + ") > toIndex(" + toIndex + ")");
+        if (fromIndex == toIndex)
+            return;
+
+        checkIndex(fromIndex);
+        checkIndex(toIndex - 1);
+        FrameBuffers buffers = new FrameBuffers();
+        openiis();
+        keepiisOpen = true;
+        try {
+            for (int frameIndex = fromIndex; frameIndex < toIndex; frameIndex++)
+                consumer.accept(frameIndex, read(frameIndex, param, buffers));
+        } finally {
+            keepiisOpen = false;
+            closeiis();
+        }
+    }
+
+    private static final class FrameBuffers {
+        BufferedImage decompressed;
+        WritableRaster raw;
+        WritableRaster lut;
+        BufferedImage image;
+    }
+
+    private BufferedImage read(int frameIndex, ImageReadParam param,
+            FrameBuffers buffers) throws IOException {
+        int[] overlayGroupOffsets = pmi.isMonochrome()
+                ? getActiveOverlayGroupOffsets(param)
+                : NO_OVERLAYS;
+        // overlays refer to the full frame, so subsample after applying them
+        boolean subsampleLater = overlayGroupOffsets.length > 0
+                && isSubsampled(param);
         WritableRaster raster;
         if (decompressor != null) {
             openiis();
@@ -353,7 +600,15 @@ public class DicomImageReader extends ImageReader {
                 decompressor.setInput(iisOfFrame(frameIndex));
                 if (LOG.isDebugEnabled())
                     LOG.debug("Start decompressing frame #" + (frameIndex + 1));
-                BufferedImage bi = decompressor.read(0, decompressParam(param));
+                ImageReadParam decompressParam =
+                        decompressParam(param, !subsampleLater);
+                boolean reuse = buffers != null && !isSubsampled(param)
+                        && decompressParam.getDestination() == null;
+                if (reuse)
+                    decompressParam.setDestination(buffers.decompressed);
+                BufferedImage bi = decompressor.read(0, decompressParam);
+                if (reuse)
+                    buffers.decompressed = bi;
                 if (LOG.isDebugEnabled())
                     LOG.debug("Finished decompressing frame #" + (frameIndex + 1));
                 if (samples > 1)
@@ -364,26 +619,37 @@ public class DicomImageReader extends ImageReader {
                 closeiis();
             }
         } else
-            raster = (WritableRaster) readRaster(frameIndex, param);
+            raster = (WritableRaster)
+                    readRaster(frameIndex, param, !subsampleLater, buffers);
 
         ColorModel cm;
         if (pmi.isMonochrome()) {
-            int[] overlayGroupOffsets = getActiveOverlayGroupOffsets(param);
             byte[][] overlayData = new byte[overlayGroupOffsets.length][];
             for (int i = 0; i < overlayGroupOffsets.length; i++) {
                 overlayData[i] = extractOverlay(overlayGroupOffsets[i], raster);
             }
             cm = createColorModel(8, DataBuffer.TYPE_BYTE);
-            SampleModel sm = createSampleModel(DataBuffer.TYPE_BYTE, false);
-            raster = applyLUTs(raster, frameIndex, param, sm, 8);
+            SampleModel sm = pmi.createSampleModel(DataBuffer.TYPE_BYTE,
+                    raster.getWidth(), raster.getHeight(), samples, false);
+            raster = applyLUTs(raster, frameIndex, param, sm, 8,
+                    buffers != null ? buffers.lut : null);
+            if (buffers != null && !subsampleLater)
+                buffers.lut = raster;
             for (int i = 0; i < overlayGroupOffsets.length; i++) {
                 applyOverlay(overlayGroupOffsets[i],
                         raster, frameIndex, param, 8, overlayData[i]);
             }
+            if (subsampleLater)
+                raster = subsample(raster, param);
         } else {
             cm = createColorModel(bitsStored, dataType);
         }
-        return new BufferedImage(cm, raster , false, null);
+        if (buffers == null)
+            return new BufferedImage(cm, raster , false, null);
+
+        if (buffers.image == null || buffers.image.getRaster() != raster)
+            buffers.image = new BufferedImage(cm, raster , false, null);
+        return buffers.image;
     }
 
     private byte[] extractOverlay(int gg0000, WritableRaster raster) {
@@ -407,8 +673,11 @@ public class DicomImageReader extends ImageReader {
     @SuppressWarnings("resource")
     private ImageInputStreamImpl iisOfFrame(int frameIndex)
             throws IOException {
-        SegmentedImageInputStream siis = SegmentedImageInputStream.ofFrame(
-                iis, pixeldataFragments, frameIndex, frames);
+        if (pixeldataFrameIndex == null)
+            pixeldataFrameIndex = EncapsulatedFrameIndex.of(
+                    iis, pixeldataFragments, frames);
+        SegmentedImageInputStream siis = pixeldataFrameIndex.openFrame(
+                iis, pixeldataFragments, frameIndex);
         return patchJpegLS != null
                 ? new PatchJPEGLSImageInputStream(siis, patchJpegLS)
                 : siis;
@@ -450,11 +719,14 @@ public class DicomImageReader extends ImageReader {
     }
 
     private WritableRaster applyLUTs(WritableRaster raster,
-            int frameIndex, ImageReadParam param, SampleModel sm, int outBits) {
+            int frameIndex, ImageReadParam param, SampleModel sm, int outBits,
+            WritableRaster reuse) {
          WritableRaster destRaster =
                 sm.getDataType() == raster.getSampleModel().getDataType()
                         ? raster
-                        : Raster.createWritableRaster(sm, null);
+                        : reuse != null && reuse != raster
+                                ? reuse
+                                : Raster.createWritableRaster(sm, null);
         Attributes imgAttrs = metadata.getAttributes();
         StoredValue sv = StoredValue.valueOf(imgAttrs);
         LookupTableFactory lutParam = new LookupTableFactory(sv);
@@ -614,6 +886,7 @@ public class DicomImageReader extends ImageReader {
         pixelBulkData = null;
         frameLength = 0;
         pixeldataFragments = null;
+        pixeldataFrameIndex = null;
         pixeldataBytes = null;
         if (decompressor != null) {
             decompressor.dispose();
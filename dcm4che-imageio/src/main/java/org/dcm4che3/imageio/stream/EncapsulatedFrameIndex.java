@@ -0,0 +1,243 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.imageio.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.util.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps frames of encapsulated Pixel Data to the Pixel Data Fragments
+ * containing the compressed frame. If the number of fragments does not match
+ * the number of frames, the frame boundaries are taken from the Basic Offset
+ * Table or - if it is empty - detected by scanning the start of each fragment
+ * for a JPEG SOI or JPEG 2000 SOC marker. The index is built once, so
+ * subsequent access to any frame does not need to walk the fragment list.
+ *
+ * @author agent <agent@local>
+ */
+public class EncapsulatedFrameIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EncapsulatedFrameIndex.class);
+
+    private final int[] firstFragments;
+    private final int[] numFragments;
+
+    private EncapsulatedFrameIndex(int[] firstFragments, int[] numFragments) {
+        this.firstFragments = firstFragments;
+        this.numFragments = numFragments;
+    }
+
+    public static EncapsulatedFrameIndex of(ImageInputStream iis,
+            Fragments fragments, int frames) throws IOException {
+        int numFragments = fragments.size() - 1;
+        if (numFragments < frames)
+            throw new UnsupportedOperationException(
+                    "Number of Fragments [" + fragments.size()
+                            + "] < Number of Frames [" + frames + "] + 1");
+
+        if (frames == 1)
+            return new EncapsulatedFrameIndex(
+                    new int[] { 1 }, new int[] { numFragments });
+
+        int[] frameStarts = new int[frames];
+        if (numFragments == frames) {
+            for (int i = 0; i < frames; i++)
+                frameStarts[i] = i + 1;
+        } else if (!frameStartsFromBasicOffsetTable(iis, fragments, frameStarts)
+                && !scanForFrameStarts(iis, fragments, frameStarts))
+            throw new UnsupportedOperationException(
+                    "Failed to detect boundaries of " + frames
+                            + " Frames in " + numFragments + " Fragments");
+
+        int[] frameFragments = new int[frames];
+        for (int i = 1; i < frames; i++)
+            frameFragments[i - 1] = frameStarts[i] - frameStarts[i - 1];
+        frameFragments[frames - 1] = numFragments + 1 - frameStarts[frames - 1];
+        return new EncapsulatedFrameIndex(frameStarts, frameFragments);
+    }
+
+    private static boolean frameStartsFromBasicOffsetTable(ImageInputStream iis,
+            Fragments fragments, int[] frameStarts) throws IOException {
+        int frames = frameStarts.length;
+        byte[] bot = readFragment(iis, fragments.get(0), frames << 2);
+        if (bot.length < frames << 2)
+            return false;
+
+        long itemOffset = 0L;
+        for (int i = 0, fragment = 1, n = fragments.size(); i < frames; i++) {
+            long frameOffset = ByteUtils.bytesToIntLE(bot, i << 2) & 0xffffffffL;
+            while (itemOffset < frameOffset && fragment < n)
+                itemOffset += 8 + lengthOf(fragments.get(fragment++));
+            if (itemOffset != frameOffset || fragment == n) {
+                LOG.info("Basic Offset Table does not match Fragments - ignored");
+                return false;
+            }
+            frameStarts[i] = fragment;
+        }
+        return true;
+    }
+
+    private static boolean scanForFrameStarts(ImageInputStream iis,
+            Fragments fragments, int[] frameStarts) throws IOException {
+        int frame = 0;
+        for (int fragment = 1, n = fragments.size(); fragment < n; fragment++) {
+            if (isFrameStart(readFragment(iis, fragments.get(fragment), 4))) {
+                if (frame == frameStarts.length)
+                    return false;
+                frameStarts[frame++] = fragment;
+            }
+        }
+        return frame == frameStarts.length && frameStarts[0] == 1;
+    }
+
+    private static boolean isFrameStart(byte[] b) {
+        if (b.length < 2 || b[0] != (byte) 0xFF)
+            return false;
+        // JPEG SOI or JPEG 2000 SOC followed by SIZ
+        return b[1] == (byte) 0xD8
+                || b.length >= 4 && b[1] == (byte) 0x4F
+                        && b[2] == (byte) 0xFF && b[3] == (byte) 0x51;
+    }
+
+    private static int lengthOf(Object fragment) {
+        if (fragment instanceof BulkData)
+            return ((BulkData) fragment).length();
+        if (fragment instanceof byte[])
+            return ((byte[]) fragment).length;
+        return 0;
+    }
+
+    private static byte[] readFragment(ImageInputStream iis, Object fragment,
+            int maxlen) throws IOException {
+        if (fragment instanceof byte[])
+            return (byte[]) fragment;
+        if (!(fragment instanceof BulkData) || iis == null)
+            return ByteUtils.EMPTY_BYTES;
+
+        BulkData bulkData = (BulkData) fragment;
+        byte[] b = new byte[Math.min(maxlen, bulkData.length())];
+        iis.seek(bulkData.offset());
+        iis.readFully(b);
+        return b;
+    }
+
+    public int getNumberOfFrames() {
+        return firstFragments.length;
+    }
+
+    /**
+     * @return index of the first fragment of the frame in the Pixel Data
+     *         Fragments, with index 0 referring to the Basic Offset Table
+     */
+    public int getFirstFragment(int frameIndex) {
+        return firstFragments[frameIndex];
+    }
+
+    public int getNumberOfFragments(int frameIndex) {
+        return numFragments[frameIndex];
+    }
+
+    /**
+     * Returns an image input stream containing the concatenated fragments of
+     * the specified frame. Fragments referencing bulk data are read from
+     * {@code iis}, fragments already in memory are read from memory.
+     */
+    public SegmentedImageInputStream openFrame(ImageInputStream iis,
+            Fragments fragments, int frameIndex) throws IOException {
+        int first = firstFragments[frameIndex];
+        int n = numFragments[frameIndex];
+        if (fragments.get(first) instanceof BulkData) {
+            long[] offsets = new long[n];
+            int[] lengths = new int[n];
+            for (int i = 0; i < n; i++) {
+                BulkData bulkData = (BulkData) fragments.get(first + i);
+                offsets[i] = bulkData.offset();
+                lengths[i] = bulkData.length();
+            }
+            return new SegmentedImageInputStream(iis, offsets, lengths);
+        }
+        byte[] b;
+        if (n == 1) {
+            b = (byte[]) fragments.get(first);
+        } else {
+            int length = 0;
+            for (int i = 0; i < n; i++)
+                length += lengthOf(fragments.get(first + i));
+            b = new byte[length];
+            for (int i = 0, off = 0; i < n; i++) {
+                byte[] fragment = (byte[]) fragments.get(first + i);
+                System.arraycopy(fragment, 0, b, off, fragment.length);
+                off += fragment.length;
+            }
+        }
+        return new SegmentedImageInputStream(
+                new MemoryCacheImageInputStream(new ByteArrayInputStream(b)),
+                0, b.length, false);
+    }
+
+    /**
+     * Encodes the Basic Offset Table for encapsulated Pixel Data with one
+     * fragment per frame.
+     *
+     * @param itemLengths
+     *            (even) lengths of the fragments of all frames
+     * @return value of the Basic Offset Table item or {@code null}, if the
+     *         offsets exceed the 32-bit range of the Basic Offset Table
+     */
+    public static byte[] basicOffsetTable(int[] itemLengths) {
+        byte[] bot = new byte[itemLengths.length << 2];
+        long offset = 0L;
+        for (int i = 0; i < itemLengths.length; i++) {
+            if (offset > 0xffffffffL)
+                return null;
+            ByteUtils.intToBytesLE((int) offset, bot, i << 2);
+            offset += 8 + itemLengths[i];
+        }
+        return bot;
+    }
+}
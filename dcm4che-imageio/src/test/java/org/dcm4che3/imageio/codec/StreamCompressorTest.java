@@ -0,0 +1,232 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * **** END LICENSE BLOCK *****
+ */
+
+package org.dcm4che3.imageio.codec;
+
+import org.dcm4che3.data.*;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class StreamCompressorTest {
+
+    private static final String US_MF_RLE = "src/test/data/US-PAL-8-10x-echo";
+
+    @Test
+    public void testPipelinedCompress() throws Exception {
+        testPipelinedCompress(3);
+    }
+
+    /**
+     * Executor threads exceeding the parallelism must not wait for a codec
+     */
+    @Test
+    public void testPipelinedCompressWithMoreThreadsThanCodecs() throws Exception {
+        testPipelinedCompress(8);
+    }
+
+    /**
+     * Frames never run by the executor must not block the cleanup after
+     * reading the input failed
+     */
+    @Test(timeout = 10000)
+    public void testReadFailureWithDroppedFrames() throws Exception {
+        File srcFile = new File(US_MF_RLE);
+        File truncatedFile = new File("target", srcFile.getName() + "-truncated");
+        copy(srcFile, truncatedFile, srcFile.length() / 2);
+        DicomInputStream dis = new DicomInputStream(truncatedFile);
+        StreamCompressor compressor = null;
+        try {
+            Attributes fmi = dis.readFileMetaInformation();
+            compressor = new StreamCompressor(dis, fmi.getString(Tag.TransferSyntaxUID),
+                    new DicomOutputStream(new ByteArrayOutputStream(), UID.ExplicitVRLittleEndian));
+            compressor.setExecutor(new Executor() {
+
+                @Override
+                public void execute(Runnable command) {
+                    // drop
+                }
+            });
+            compressor.setParallelism(16);
+            compressor.setMaxQueuedFrames(16);
+            compressor.compress(UID.JPEGBaseline1);
+            fail("EOFException expected");
+        } catch (EOFException expected) {
+        } finally {
+            SafeClose.close(dis);
+            if (compressor != null)
+                compressor.dispose();
+        }
+    }
+
+    @Test
+    public void testBasicOffsetTable() throws Exception {
+        assertTrue(basicOffsetTableLength(Long.MAX_VALUE) > 0);
+    }
+
+    /**
+     * The Basic Offset Table is left empty, if the compressed frames exceed
+     * the memory budget
+     */
+    @Test
+    public void testBasicOffsetTableExceedsMaxBufferedBytes() throws Exception {
+        assertEquals(0, basicOffsetTableLength(1000));
+    }
+
+    private int basicOffsetTableLength(long maxBufferedBytes) throws Exception {
+        File srcFile = new File(US_MF_RLE);
+        DicomInputStream dis = new DicomInputStream(srcFile);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        StreamCompressor compressor = null;
+        try {
+            Attributes fmi = dis.readFileMetaInformation();
+            compressor = new StreamCompressor(dis, fmi.getString(Tag.TransferSyntaxUID),
+                    new DicomOutputStream(bout, UID.ExplicitVRLittleEndian));
+            compressor.setBasicOffsetTable(true);
+            compressor.setMaxBufferedBytes(maxBufferedBytes);
+            compressor.compress(UID.JPEGBaseline1);
+        } finally {
+            SafeClose.close(dis);
+            if (compressor != null)
+                compressor.dispose();
+        }
+        Attributes ds = new DicomInputStream(new ByteArrayInputStream(bout.toByteArray()),
+                UID.ExplicitVRLittleEndian).readDataset(-1, -1);
+        Fragments fragments = (Fragments) ds.getValue(Tag.PixelData);
+        assertEquals(ds.getInt(Tag.NumberOfFrames, 0) + 1, fragments.size());
+        Object bot = fragments.get(0);
+        return bot instanceof byte[] ? ((byte[]) bot).length : 0;
+    }
+
+    private void testPipelinedCompress(int threads) throws Exception {
+        File srcFile = new File(US_MF_RLE);
+        File serialFile = new File("target", srcFile.getName() + "-serial");
+        File pipelinedFile = new File("target", srcFile.getName() + "-pipelined");
+        compress(srcFile, serialFile, null);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            compress(srcFile, pipelinedFile, executor);
+        } finally {
+            executor.shutdown();
+        }
+        Attributes ds;
+        DicomInputStream dis = null;
+        try {
+            dis = new DicomInputStream(pipelinedFile);
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+            ds = dis.readDataset(-1, -1);
+        } finally {
+            SafeClose.close(dis);
+        }
+        Fragments fragments = (Fragments) ds.getValue(Tag.PixelData);
+        assertEquals(ds.getInt(Tag.NumberOfFrames, 0) + 1, fragments.size());
+        assertArrayEquals(digest(serialFile), digest(pipelinedFile));
+    }
+
+    private static void compress(File srcFile, File outFile, ExecutorService executor)
+            throws IOException {
+        DicomInputStream dis = null;
+        DicomOutputStream dos = null;
+        StreamCompressor compressor = null;
+        try {
+            dis = new DicomInputStream(srcFile);
+            dos = new DicomOutputStream(outFile);
+            Attributes fmi = dis.readFileMetaInformation();
+            String tsuid = fmi.getString(Tag.TransferSyntaxUID);
+            fmi.setString(Tag.TransferSyntaxUID, VR.UI, UID.JPEGBaseline1);
+            dos.writeFileMetaInformation(fmi);
+            compressor = new StreamCompressor(dis, tsuid, dos);
+            if (executor != null) {
+                compressor.setExecutor(executor);
+                compressor.setParallelism(2);
+                compressor.setMaxQueuedFrames(4);
+            }
+            compressor.compress(UID.JPEGBaseline1);
+        } finally {
+            SafeClose.close(dis);
+            SafeClose.close(dos);
+            if (compressor != null)
+                compressor.dispose();
+        }
+    }
+
+    private static void copy(File srcFile, File destFile, long length) throws IOException {
+        FileInputStream in = new FileInputStream(srcFile);
+        try {
+            FileOutputStream out = new FileOutputStream(destFile);
+            try {
+                StreamUtils.copy(in, out, (int) length);
+            } finally {
+                SafeClose.close(out);
+            }
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+
+    private static byte[] digest(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0)
+                digest.update(buf, 0, read);
+        } finally {
+            SafeClose.close(in);
+        }
+        return digest.digest();
+    }
+}
@@ -38,6 +38,8 @@
 
 package org.dcm4che3.imageio.dcm;
 
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferUShort;
@@ -48,12 +50,15 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.FileImageInputStream;
 import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.imageio.plugins.dcm.DicomImageReader;
 import org.dcm4che3.imageio.plugins.dcm.DicomMetaData;
+import org.dcm4che3.imageio.plugins.dcm.FrameConsumer;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.util.SafeClose;
@@ -124,6 +129,96 @@ public class TestDicomImageReader {
         Assert.assertEquals(US_MF_RLE_CHECKSUM, rasterChecksum(result));
     }
 
+    @Test
+    public void testReadSubsampledRaster() throws Exception {
+        testReadSubsampledRaster(NM_MF, 5);
+    }
+
+    @Test
+    public void testReadSubsampledRasterFromCompressed() throws Exception {
+        testReadSubsampledRaster(US_MF_RLE, 5);
+    }
+
+    @Test
+    public void testReadThumbnail() throws Exception {
+        FileImageInputStream iis = new FileImageInputStream(new File(NM_MF));
+        try {
+            reader.setInput(iis);
+            BufferedImage bi = ((DicomImageReader) reader).readThumbnail(5, 32, null);
+            Assert.assertTrue(bi.getWidth() <= 32);
+            Assert.assertTrue(bi.getHeight() <= 32);
+        } finally {
+            SafeClose.close(iis);
+        }
+    }
+
+    @Test
+    public void testReadFrames() throws Exception {
+        testReadFrames(NM_MF);
+    }
+
+    @Test
+    public void testReadFramesFromCompressed() throws Exception {
+        testReadFrames(US_MF_RLE);
+    }
+
+    private void testReadFrames(String pathname) throws Exception {
+        FileImageInputStream iis = new FileImageInputStream(new File(pathname));
+        try {
+            reader.setInput(iis);
+            int numFrames = reader.getNumImages(false);
+            final String[] checksums = new String[numFrames];
+            for (int i = 0; i < numFrames; i++)
+                checksums[i] = rasterChecksum(reader.read(i, null).getRaster());
+            final int[] count = new int[1];
+            ((DicomImageReader) reader).readFrames(0, numFrames, null,
+                    new FrameConsumer() {
+                        @Override
+                        public void accept(int frameIndex, BufferedImage image)
+                                throws IOException {
+                            try {
+                                Assert.assertEquals(checksums[frameIndex],
+                                        rasterChecksum(image.getRaster()));
+                            } catch (IOException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                throw new IOException(e);
+                            }
+                            count[0]++;
+                        }
+                    });
+            Assert.assertEquals(numFrames, count[0]);
+        } finally {
+            SafeClose.close(iis);
+        }
+    }
+
+    private void testReadSubsampledRaster(String pathname, int imageIndex)
+            throws IOException {
+        FileImageInputStream iis = new FileImageInputStream(new File(pathname));
+        try {
+            reader.setInput(iis);
+            Raster full = reader.readRaster(imageIndex, null);
+            ImageReadParam param = reader.getDefaultReadParam();
+            Rectangle region = new Rectangle(3, 5, full.getWidth() - 7,
+                    full.getHeight() - 9);
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(3, 2, 0, 0);
+            Raster sub = reader.readRaster(imageIndex, param);
+            Assert.assertEquals((region.width + 2) / 3, sub.getWidth());
+            Assert.assertEquals((region.height + 1) / 2, sub.getHeight());
+            int[] expected = new int[full.getNumBands()];
+            int[] actual = new int[sub.getNumBands()];
+            for (int y = 0; y < sub.getHeight(); y++)
+                for (int x = 0; x < sub.getWidth(); x++)
+                    Assert.assertArrayEquals(
+                            full.getPixel(region.x + x * 3, region.y + y * 2, expected),
+                            sub.getPixel(x, y, actual));
+        } finally {
+            SafeClose.close(iis);
+        }
+    }
+
     private Raster testReadRasterFromImageInputStream(String pathname, int imageIndex)
             throws IOException {
         FileImageInputStream iis = new FileImageInputStream(new File(pathname));
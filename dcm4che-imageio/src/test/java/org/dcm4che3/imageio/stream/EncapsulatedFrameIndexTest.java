@@ -0,0 +1,108 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * **** END LICENSE BLOCK *****
+ */
+
+package org.dcm4che3.imageio.stream;
+
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+import javax.imageio.stream.ImageInputStream;
+
+import static org.junit.Assert.*;
+
+public class EncapsulatedFrameIndexTest {
+
+    private static final byte[] FRAME1_1 = { (byte) 0xFF, (byte) 0xD8, 1, 1 };
+    private static final byte[] FRAME1_2 = { 1, 2 };
+    private static final byte[] FRAME2_1 = { (byte) 0xFF, (byte) 0xD8, 2, 1, 2, 2 };
+    private static final byte[] FRAME3_1 = { (byte) 0xFF, (byte) 0xD8, 3, 1 };
+    private static final byte[] FRAME3_2 = { 3, 2 };
+    private static final byte[] FRAME3_3 = { 3, 3 };
+
+    @Test
+    public void testOneFragmentPerFrame() throws Exception {
+        Fragments frags = fragments(new byte[0], FRAME1_1, FRAME2_1, FRAME3_1);
+        EncapsulatedFrameIndex index = EncapsulatedFrameIndex.of(null, frags, 3);
+        assertEquals(3, index.getNumberOfFrames());
+        assertEquals(2, index.getFirstFragment(1));
+        assertEquals(1, index.getNumberOfFragments(1));
+    }
+
+    @Test
+    public void testBasicOffsetTable() throws Exception {
+        byte[] bot = EncapsulatedFrameIndex.basicOffsetTable(new int[] {
+                FRAME1_1.length + 8 + FRAME1_2.length, FRAME2_1.length });
+        // frame boundaries are taken from the BOT, not from the JPEG SOI markers
+        Fragments frags = fragments(bot, FRAME1_1, FRAME1_2, FRAME2_1, FRAME3_1);
+        EncapsulatedFrameIndex index = EncapsulatedFrameIndex.of(null, frags, 2);
+        assertEquals(1, index.getFirstFragment(0));
+        assertEquals(2, index.getNumberOfFragments(0));
+        assertEquals(3, index.getFirstFragment(1));
+        assertEquals(2, index.getNumberOfFragments(1));
+    }
+
+    @Test
+    public void testScanForFrameStarts() throws Exception {
+        Fragments frags = fragments(new byte[0],
+                FRAME1_1, FRAME1_2, FRAME2_1, FRAME3_1, FRAME3_2, FRAME3_3);
+        EncapsulatedFrameIndex index = EncapsulatedFrameIndex.of(null, frags, 3);
+        assertEquals(4, index.getFirstFragment(2));
+        assertEquals(3, index.getNumberOfFragments(2));
+        ImageInputStream iis = index.openFrame(null, frags, 2);
+        byte[] b = new byte[FRAME3_1.length + FRAME3_2.length + FRAME3_3.length];
+        iis.readFully(b);
+        assertEquals(-1, iis.read());
+        assertArrayEquals(new byte[] { (byte) 0xFF, (byte) 0xD8, 3, 1, 3, 2, 3, 3 }, b);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUndetectableFrameBoundaries() throws Exception {
+        Fragments frags = fragments(new byte[0], FRAME1_1, FRAME1_2, FRAME3_2);
+        EncapsulatedFrameIndex.of(null, frags, 2);
+    }
+
+    private static Fragments fragments(byte[]... values) {
+        Fragments frags = new Fragments(null, Tag.PixelData, VR.OB, false, values.length);
+        for (byte[] value : values)
+            frags.add(value);
+        return frags;
+    }
+}
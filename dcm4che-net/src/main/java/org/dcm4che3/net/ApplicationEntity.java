@@ -151,6 +151,10 @@ public class ApplicationEntity implements Serializable {
 
     private transient DimseRQHandler dimseRQHandler;
 
+    private transient volatile TransferCapabilityTable tcTable;
+
+    private transient AssociationPool associationPool;
+
     public ApplicationEntity() {
     }
 
@@ -196,6 +200,7 @@ public class ApplicationEntity implements Serializable {
                     scuTCs.put(tc.getSopClass(), tc);
             }
         }
+        tcTable = null;
     }
 
     public Collection<TransferCapability> getTransferCapabilities() {
@@ -515,6 +520,7 @@ public class ApplicationEntity implements Serializable {
                 ? scuTCs : scpTCs).put(tc.getSopClass(), tc);
         if (prev != null && prev != tc)
             prev.setApplicationEntity(null);
+        tcTable = null;
         return prev;
     }
 
@@ -524,6 +530,7 @@ public class ApplicationEntity implements Serializable {
                 .remove(sopClass);
         if (tc != null)
             tc.setApplicationEntity(null);
+        tcTable = null;
         return tc;
     }
 
@@ -537,24 +544,39 @@ public class ApplicationEntity implements Serializable {
         return (role == TransferCapability.Role.SCU ? scuTCs : scpTCs).get(sopClass);
     }
 
+    /**
+     * Notifies that a Transfer Capability of this AE has changed
+     */
+    void onTransferCapabilityChanged() {
+        tcTable = null;
+    }
+
+    private TransferCapabilityTable getTransferCapabilityTable() {
+        TransferCapabilityTable table = tcTable;
+        if (table == null)
+            tcTable = table = new TransferCapabilityTable(scpTCs, scuTCs);
+        return table;
+    }
+
     protected PresentationContext negotiate(AAssociateRQ rq, AAssociateAC ac,
                                             PresentationContext rqpc) {
+        TransferCapabilityTable table = getTransferCapabilityTable();
         String as = rqpc.getAbstractSyntax();
-        TransferCapability tc = roleSelection(rq, ac, as);
+        TransferCapability tc = roleSelection(rq, ac, as, table);
         int pcid = rqpc.getPCID();
         if (tc == null)
             return new PresentationContext(pcid,
                     PresentationContext.ABSTRACT_SYNTAX_NOT_SUPPORTED,
                     rqpc.getTransferSyntax());
 
-        for (String ts : rqpc.getTransferSyntaxes())
-            if (tc.containsTransferSyntax(ts)) {
-                byte[] info = negotiate(rq.getExtNegotiationFor(as), tc);
-                if (info != null)
-                    ac.addExtendedNegotiation(new ExtendedNegotiation(as, info));
-                return new PresentationContext(pcid,
-                        PresentationContext.ACCEPTANCE, ts);
-            }
+        String ts = table.selectTransferSyntax(tc, rqpc.getTransferSyntaxes());
+        if (ts != null) {
+            byte[] info = negotiate(rq.getExtNegotiationFor(as), tc);
+            if (info != null)
+                ac.addExtendedNegotiation(new ExtendedNegotiation(as, info));
+            return new PresentationContext(pcid,
+                    PresentationContext.ACCEPTANCE, ts);
+        }
 
         return new PresentationContext(pcid,
                 PresentationContext.TRANSFER_SYNTAX_NOT_SUPPORTED,
@@ -562,7 +584,12 @@ public class ApplicationEntity implements Serializable {
     }
 
     private TransferCapability roleSelection(AAssociateRQ rq,
-                                             AAssociateAC ac, String asuid) {
+                                             AAssociateAC ac, String asuid,
+                                             TransferCapabilityTable table) {
+        Map<String, TransferCapability> scpTCs =
+                table.getTransferCapabilities(TransferCapability.Role.SCP);
+        Map<String, TransferCapability> scuTCs =
+                table.getTransferCapabilities(TransferCapability.Role.SCU);
         RoleSelection rqrs = rq.getRoleSelectionFor(asuid);
         if (rqrs == null)
             return getTC(scpTCs, asuid, rq);
@@ -655,6 +682,31 @@ public class ApplicationEntity implements Serializable {
         return as;
     }
 
+    /**
+     * Returns the pool of associations initiated by this application entity,
+     * which can be leased and handed back for reuse, instead of opening a
+     * new association by {@code connect} for each job. A new pool replaces
+     * a pool which was closed, explicitly or by
+     * {@link Device#unbindConnections()}.
+     *
+     * @return association pool of this application entity
+     */
+    public synchronized AssociationPool getAssociationPool() {
+        if (associationPool == null || associationPool.isClosed())
+            associationPool = new AssociationPool(this);
+        return associationPool;
+    }
+
+    void closeAssociationPool() {
+        AssociationPool pool;
+        synchronized (this) {
+            pool = associationPool;
+            associationPool = null;
+        }
+        if (pool != null)
+            pool.close();
+    }
+
     public Association connect(Connection remote, AAssociateRQ rq)
             throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
         return connect(findCompatibelConnection(remote), remote, rq);
@@ -727,6 +779,7 @@ public class ApplicationEntity implements Serializable {
         scuTCs.putAll(src.scuTCs);
         scpTCs.clear();
         scpTCs.putAll(src.scpTCs);
+        tcTable = new TransferCapabilityTable(scpTCs, scuTCs);
     }
 
     private void reconfigureAEExtensions(ApplicationEntity from) {
@@ -40,11 +40,16 @@ package org.dcm4che3.net;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -93,11 +98,39 @@ public class Association {
     private int maxOpsInvoked;
     private int maxPDULength;
     private int performing;
+    private Semaphore dimseRQWorkers;
     private Timeout timeout;
+    private final long createTime = System.nanoTime();
+    private volatile long releaseTime;
+    private final AssociationMetrics metrics;
     private final IntHashMap<DimseRSPHandler> rspHandlerForMsgId =
             new IntHashMap<DimseRSPHandler>();
+    private final LinkedList<PendingInvoke> pendingInvokes =
+            new LinkedList<PendingInvoke>();
     private final IntHashMap<CancelRQHandler> cancelHandlerForMsgId =
             new IntHashMap<CancelRQHandler>();
+
+    /*
+     * Registered by the reader thread for received cancelable requests, so
+     * a C-CANCEL-RQ received before the service registered its handler is
+     * passed to the handler on registration.
+     */
+    private static final CancelRQHandler CANCEL_RQ_EXPECTED =
+            new CancelRQHandler() {
+
+        @Override
+        public void onCancelRQ(Association association) {
+        }
+    };
+
+    private static final CancelRQHandler CANCEL_RQ_RECEIVED =
+            new CancelRQHandler() {
+
+        @Override
+        public void onCancelRQ(Association association) {
+        }
+    };
+
     private final HashMap<String,HashMap<String,PresentationContext>> pcMap =
             new HashMap<String,HashMap<String,PresentationContext>>();
 
@@ -111,6 +144,10 @@ public class Association {
              + '(' + serialNo + ')';
         this.conn = local;
         this.device = local.getDevice();
+        NetworkMetrics networkMetrics = device.getNetworkMetrics();
+        this.metrics = networkMetrics != null
+                ? networkMetrics.newAssociationMetrics(this)
+                : AssociationMetrics.NONE;
         this.sock = sock;
         this.in = sock.getInputStream();
         this.out = sock.getOutputStream();
@@ -128,6 +165,10 @@ public class Association {
          return device;
     }
 
+    public AssociationMetrics getMetrics() {
+        return metrics;
+    }
+
     public int nextMessageID() {
         return messageID.incrementAndGet() & 0xFFFF;
     }
@@ -266,6 +307,16 @@ public class Association {
         return conn.isPackPDV();
     }
 
+    int getPdvCoalesceDelay() {
+        return device.getScheduledExecutor() != null
+                ? conn.getPdvCoalesceDelay()
+                : 0;
+    }
+
+    int getPdvCoalesceMaxLength() {
+        return conn.getPdvCoalesceMaxLength();
+    }
+
     public void release() throws IOException {
         state.writeAReleaseRQ(this);
     }
@@ -333,6 +384,7 @@ public class Association {
         LOG.info("{} << A-RELEASE-RQ", name);
         enterState(State.Sta7);
         stopTimeout();
+        releaseTime = System.nanoTime();
         encoder.writeAReleaseRQ();
         startReleaseTimeout();
     }
@@ -402,7 +454,7 @@ public class Association {
 
     public void waitForOutstandingRSP() throws InterruptedException {
         synchronized (rspHandlerForMsgId) {
-            while (!rspHandlerForMsgId.isEmpty())
+            while (!rspHandlerForMsgId.isEmpty() || !pendingInvokes.isEmpty())
                 rspHandlerForMsgId.wait();
         }
     }
@@ -422,6 +474,7 @@ public class Association {
         LOG.debug("{}", ac);
         enterState(State.Sta6);
         encoder.write(ac);
+        metrics.onAssociationEstablished(System.nanoTime() - createTime);
         startIdleTimeout();
     }
 
@@ -492,6 +545,9 @@ public class Association {
 
     private void onClose() {
         stopTimeout();
+        metrics.onAssociationClosed(releaseTime != 0
+                ? System.nanoTime() - releaseTime
+                : -1);
         synchronized (rspHandlerForMsgId) {
             IntHashMap.Visitor<DimseRSPHandler> visitor =
                     new IntHashMap.Visitor<DimseRSPHandler>() {
@@ -504,6 +560,9 @@ public class Association {
             };
             rspHandlerForMsgId.accept(visitor);
             rspHandlerForMsgId.clear();
+            for (PendingInvoke pending : pendingInvokes)
+                pending.rspHandler.onClose(this);
+            pendingInvokes.clear();
             rspHandlerForMsgId.notifyAll();
         }
         if (ae != null)
@@ -526,6 +585,7 @@ public class Association {
             ac = device.getAssociationHandler().negotiate(this, rq);
             initPCMap();
             maxOpsInvoked = ac.getMaxOpsPerformed();
+            initDimseRQWorkers(ac.getMaxOpsInvoked());
             maxPDULength = Association.minZeroAsMax(
                     rq.getMaxPDULength(), conn.getSendPDULength());
             write(ac);
@@ -545,9 +605,11 @@ public class Association {
         this.ac = ac;
         initPCMap();
         maxOpsInvoked = ac.getMaxOpsInvoked();
+        initDimseRQWorkers(ac.getMaxOpsPerformed());
         maxPDULength = Association.minZeroAsMax(
                 ac.getMaxPDULength(), conn.getSendPDULength());
         enterState(State.Sta6);
+        metrics.onAssociationEstablished(System.nanoTime() - createTime);
         startIdleTimeout();
     }
 
@@ -564,6 +626,8 @@ public class Association {
     void onAReleaseRQ() throws IOException {
         LOG.info("{} >> A-RELEASE-RQ", name);
         stopTimeout();
+        if (releaseTime == 0)
+            releaseTime = System.nanoTime();
         state.onAReleaseRQ(this);
     }
 
@@ -643,11 +707,84 @@ public class Association {
         encoder.writePDataTF();
     }
 
+    private void initDimseRQWorkers(int maxOpsPerformed) {
+        int workers = conn.getMaxConcurrentDimseRQ();
+        if (maxOpsPerformed > 0)
+            workers = Math.min(workers, maxOpsPerformed);
+        dimseRQWorkers = workers > 1 ? new Semaphore(workers) : null;
+    }
+
     void onDimseRQ(PresentationContext pc, Dimse dimse, Attributes cmd,
             PDVInputStream data) throws IOException {
         stopTimeout();
+        metrics.onDimseRQReceived(dimse);
         incPerforming();
-        ae.onDimseRQ(this, pc, dimse, cmd, data);
+        if (dimse == Dimse.C_FIND_RQ || dimse.isRetrieveRQ())
+            expectCancelRQ(cmd.getInt(Tag.MessageID, -1));
+        if (dimseRQWorkers == null)
+            ae.onDimseRQ(this, pc, dimse, cmd, data);
+        else
+            dispatchDimseRQ(pc, dimse, cmd, data);
+    }
+
+    private void dispatchDimseRQ(final PresentationContext pc,
+            final Dimse dimse, final Attributes cmd, PDVInputStream data)
+            throws IOException {
+        try {
+            dimseRQWorkers.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        final SpooledPDVInputStream spooled;
+        try {
+            spooled = data != null
+                    ? SpooledPDVInputStream.spool(data,
+                            conn.getDimseRQSpoolThreshold())
+                    : null;
+        } catch (IOException e) {
+            dimseRQWorkers.release();
+            throw e;
+        }
+        try {
+            device.execute(ExecutorLane.valueOf(dimse),
+                    cmd.getInt(Tag.Priority, Priority.NORMAL), new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ae.onDimseRQ(Association.this, pc, dimse, cmd, spooled);
+                    } catch (AAbort aa) {
+                        abort(aa);
+                    } catch (IOException e) {
+                        onIOException(e);
+                    } catch (Throwable e) {
+                        // no response will be sent, so the association
+                        // could not be released anymore
+                        LOG.error("{}: failed to process {}:", name, dimse, e);
+                        abort();
+                    } finally {
+                        SafeClose.close(spooled);
+                        dimseRQWorkers.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            SafeClose.close(spooled);
+            dimseRQWorkers.release();
+            LOG.warn("{}: failed to dispatch {}: {}", new Object[] {
+                    name, dimse, e.getMessage() });
+            // writing the final RSP decrements the performing operations
+            if (!tryWriteDimseRSP(pc,
+                    Commands.mkRSP(cmd, Status.OutOfResources, dimse))) {
+                decPerforming();
+                abort();
+            }
+        } catch (RuntimeException e) {
+            SafeClose.close(spooled);
+            dimseRQWorkers.release();
+            decPerforming();
+            throw e;
+        }
     }
 
     private synchronized void incPerforming() {
@@ -669,6 +806,8 @@ public class Association {
             Dimse.LOG.info("\n{}", cmd);
             throw new AAbort();
         }
+        metrics.onDimseRSPReceived(dimse, pending,
+                System.nanoTime() - rspHandler.getRQSentTime());
         rspHandler.onDimseRSP(this, cmd, data);
         if (pending)
             startTimeout(msgId, dimse.isRetrieveRQ()
@@ -692,12 +831,88 @@ public class Association {
             throws InterruptedException {
         synchronized (rspHandlerForMsgId) {
             while (maxOpsInvoked > 0
-                    && rspHandlerForMsgId.size() >= maxOpsInvoked)
+                    && (rspHandlerForMsgId.size() >= maxOpsInvoked
+                        || !pendingInvokes.isEmpty()))
                 rspHandlerForMsgId.wait();
             rspHandlerForMsgId.put(rspHandler.getMessageID(), rspHandler);
         }
     }
 
+    private boolean addDimseRSPHandlerOrQueue(PresentationContext pc,
+            Attributes cmd, DataWriter data, DimseRSPHandler rspHandler,
+            int rspTimeout) throws IOException {
+        synchronized (rspHandlerForMsgId) {
+            if (maxOpsInvoked > 0
+                    && (rspHandlerForMsgId.size() >= maxOpsInvoked
+                        || !pendingInvokes.isEmpty())) {
+                int maxQueued = conn.getMaxQueuedDimseRQ();
+                if (maxQueued > 0 && pendingInvokes.size() >= maxQueued)
+                    throw new IOException("Maximal number of " + maxQueued
+                            + " queued DIMSE-RQs of " + name + " exceeded");
+                pendingInvokes.add(new PendingInvoke(pc, cmd, data,
+                        rspHandler, rspTimeout));
+                LOG.debug("{}: queue {}:DIMSE-RQ - {} outstanding",
+                        name, rspHandler.getMessageID(), maxOpsInvoked);
+                return false;
+            }
+            rspHandlerForMsgId.put(rspHandler.getMessageID(), rspHandler);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the request of the operation with the specified response
+     * handler from the queue of requests waiting for a free slot.
+     *
+     * @return command of the removed request or {@code null}, if the request
+     *         is not queued
+     */
+    Attributes removePendingInvoke(DimseRSPHandler rspHandler) {
+        synchronized (rspHandlerForMsgId) {
+            for (Iterator<PendingInvoke> iter = pendingInvokes.iterator();
+                    iter.hasNext();) {
+                PendingInvoke pending = iter.next();
+                if (pending.rspHandler == rspHandler) {
+                    iter.remove();
+                    rspHandlerForMsgId.notifyAll();
+                    return pending.cmd;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void invokeNextPending() {
+        final PendingInvoke next;
+        synchronized (rspHandlerForMsgId) {
+            if (pendingInvokes.isEmpty()
+                    || rspHandlerForMsgId.size() >= maxOpsInvoked)
+                return;
+            next = pendingInvokes.removeFirst();
+            rspHandlerForMsgId.put(next.rspHandler.getMessageID(),
+                    next.rspHandler);
+        }
+        device.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                int msgId = next.rspHandler.getMessageID();
+                try {
+                    checkException();
+                    startTimeout(msgId, next.rspTimeout);
+                    next.rspHandler.setRQSentTime(System.nanoTime());
+                    encoder.writeDIMSE(next.pc, next.cmd, next.data);
+                } catch (IOException e) {
+                    LOG.info("{}: failed to send queued {}:DIMSE-RQ: {}",
+                            name, msgId, e);
+                    DimseRSPHandler rspHandler = removeDimseRSPHandler(msgId);
+                    if (rspHandler != null)
+                        rspHandler.onClose(Association.this);
+                }
+            }
+        });
+    }
+
     private DimseRSPHandler getDimseRSPHandler(int msgId) {
         synchronized (rspHandlerForMsgId ) {
             return rspHandlerForMsgId.get(msgId);
@@ -707,6 +922,7 @@ public class Association {
     private DimseRSPHandler removeDimseRSPHandler(int msgId) {
         synchronized (rspHandlerForMsgId ) {
             DimseRSPHandler tmp = rspHandlerForMsgId.remove(msgId);
+            invokeNextPending();
             rspHandlerForMsgId.notifyAll();
             return tmp;
         }
@@ -751,28 +967,69 @@ public class Association {
         cmd.setInt(Tag.CommandDataSetType, VR.US, datasetType);
         encoder.writeDIMSE(pc, cmd, writer);
         if (!Status.isPending(cmd.getInt(Tag.Status, 0))) {
+            removeCancelRQPlaceholder(
+                    cmd.getInt(Tag.MessageIDBeingRespondedTo, -1));
             decPerforming();
             startIdleTimeout();
         }
     }
 
+    private static boolean isPlaceholder(CancelRQHandler handler) {
+        return handler == CANCEL_RQ_EXPECTED || handler == CANCEL_RQ_RECEIVED;
+    }
+
+    private void expectCancelRQ(int msgId) {
+        synchronized (cancelHandlerForMsgId) {
+            if (cancelHandlerForMsgId.get(msgId) == null)
+                cancelHandlerForMsgId.put(msgId, CANCEL_RQ_EXPECTED);
+        }
+    }
+
+    private void removeCancelRQPlaceholder(int msgId) {
+        synchronized (cancelHandlerForMsgId) {
+            if (isPlaceholder(cancelHandlerForMsgId.get(msgId)))
+                cancelHandlerForMsgId.remove(msgId);
+        }
+    }
+
     void onCancelRQ(Attributes cmd) throws IOException {
+        metrics.onDimseRQReceived(Dimse.C_CANCEL_RQ);
         int msgId = cmd.getInt(Tag.MessageIDBeingRespondedTo, -1);
-        CancelRQHandler handler = removeCancelRQHandler(msgId);
-        if (handler != null)
-            handler.onCancelRQ(this);
+        CancelRQHandler handler;
+        synchronized (cancelHandlerForMsgId) {
+            handler = cancelHandlerForMsgId.get(msgId);
+            if (handler == CANCEL_RQ_EXPECTED) {
+                cancelHandlerForMsgId.put(msgId, CANCEL_RQ_RECEIVED);
+                return;
+            }
+            if (handler == null || handler == CANCEL_RQ_RECEIVED)
+                return;
+            cancelHandlerForMsgId.remove(msgId);
+        }
+        handler.onCancelRQ(this);
     }
 
+    /**
+     * Registers the handler for a C-CANCEL-RQ of the request with the
+     * specified Message ID. If the C-CANCEL-RQ was already received, the
+     * handler is called immediately by the current thread.
+     */
     public void addCancelRQHandler(int msgId, CancelRQHandler handler) {
         synchronized (cancelHandlerForMsgId) {
-            cancelHandlerForMsgId.put(msgId, handler);
+            if (cancelHandlerForMsgId.put(msgId, handler)
+                    != CANCEL_RQ_RECEIVED)
+                return;
+            cancelHandlerForMsgId.remove(msgId);
         }
+        handler.onCancelRQ(this);
     }
 
     public CancelRQHandler removeCancelRQHandler(int msgId) {
+        CancelRQHandler handler;
         synchronized (cancelHandlerForMsgId) {
-            return cancelHandlerForMsgId.remove(msgId);
+            handler = cancelHandlerForMsgId.remove(msgId);
         }
+        return isPlaceholder(handler) ? null : handler;
     }
 
     private void initPCMap() {
@@ -994,6 +1251,130 @@ public class Association {
         return rsp;
     }
 
+    public AsyncDimseRSP cechoAsync() throws IOException {
+        return cechoAsync(UID.VerificationSOPClass);
+    }
+
+    public AsyncDimseRSP cechoAsync(String cuid) throws IOException {
+        AsyncDimseRSP rsp = new AsyncDimseRSP(this, nextMessageID());
+        PresentationContext pc = pcFor(cuid, null);
+        checkIsSCU(cuid);
+        Attributes cechorq = Commands.mkCEchoRQ(rsp.getMessageID(), cuid);
+        invokeAsync(pc, cechorq, null, rsp, conn.getResponseTimeout());
+        return rsp;
+    }
+
+    public AsyncDimseRSP cstoreAsync(String cuid, String iuid, int priority,
+            DataWriter data, String tsuid) throws IOException {
+        return cstoreAsync(cuid, cuid, iuid, priority, data, tsuid);
+    }
+
+    public AsyncDimseRSP cstoreAsync(String asuid, String cuid, String iuid,
+            int priority, DataWriter data, String tsuid) throws IOException {
+        AsyncDimseRSP rsp = new AsyncDimseRSP(this, nextMessageID());
+        PresentationContext pc = pcFor(asuid, tsuid);
+        checkIsSCU(cuid);
+        Attributes cstorerq = Commands.mkCStoreRQ(rsp.getMessageID(),
+                cuid, iuid, priority);
+        invokeAsync(pc, cstorerq, data, rsp, conn.getResponseTimeout());
+        return rsp;
+    }
+
+    public AsyncDimseRSP cfindAsync(String cuid, int priority,
+            Attributes data, String tsuid) throws IOException {
+        return cfindAsync(cuid, cuid, priority, data, tsuid);
+    }
+
+    public AsyncDimseRSP cfindAsync(String asuid, String cuid, int priority,
+            Attributes data, String tsuid) throws IOException {
+        return cfindAsync(asuid, cuid, priority, data, tsuid, null);
+    }
+
+    /**
+     * Invokes a C-FIND operation with a listener, which is registered before
+     * the request is sent, so it receives all pending responses.
+     */
+    public AsyncDimseRSP cfindAsync(String asuid, String cuid, int priority,
+            Attributes data, String tsuid, AsyncDimseRSP.Listener listener)
+            throws IOException {
+        AsyncDimseRSP rsp = newAsyncDimseRSP(listener);
+        PresentationContext pc = pcFor(asuid, tsuid);
+        checkIsSCU(cuid);
+        Attributes cfindrq =
+                Commands.mkCFindRQ(rsp.getMessageID(), cuid, priority);
+        invokeAsync(pc, cfindrq, new DataWriterAdapter(data), rsp,
+                conn.getResponseTimeout());
+        return rsp;
+    }
+
+    public AsyncDimseRSP cgetAsync(String cuid, int priority,
+            Attributes data, String tsuid) throws IOException {
+        return cgetAsync(cuid, cuid, priority, data, tsuid);
+    }
+
+    public AsyncDimseRSP cgetAsync(String asuid, String cuid, int priority,
+            Attributes data, String tsuid) throws IOException {
+        return cgetAsync(asuid, cuid, priority, data, tsuid, null);
+    }
+
+    /**
+     * Invokes a C-GET operation with a listener, which is registered before
+     * the request is sent, so it receives all pending responses.
+     */
+    public AsyncDimseRSP cgetAsync(String asuid, String cuid, int priority,
+            Attributes data, String tsuid, AsyncDimseRSP.Listener listener)
+            throws IOException {
+        AsyncDimseRSP rsp = newAsyncDimseRSP(listener);
+        PresentationContext pc = pcFor(asuid, tsuid);
+        checkIsSCU(cuid);
+        Attributes cgetrq =
+                Commands.mkCGetRQ(rsp.getMessageID(), cuid, priority);
+        invokeAsync(pc, cgetrq, new DataWriterAdapter(data), rsp,
+                conn.getRetrieveTimeout());
+        return rsp;
+    }
+
+    public AsyncDimseRSP cmoveAsync(String cuid, int priority,
+            Attributes data, String tsuid, String destination)
+            throws IOException {
+        return cmoveAsync(cuid, cuid, priority, data, tsuid, destination);
+    }
+
+    public AsyncDimseRSP cmoveAsync(String asuid, String cuid, int priority,
+            Attributes data, String tsuid, String destination)
+            throws IOException {
+        return cmoveAsync(asuid, cuid, priority, data, tsuid, destination,
+                null);
+    }
+
+    /**
+     * Invokes a C-MOVE operation with a listener, which is registered before
+     * the request is sent, so it receives all pending responses.
+     */
+    public AsyncDimseRSP cmoveAsync(String asuid, String cuid, int priority,
+            Attributes data, String tsuid, String destination,
+            AsyncDimseRSP.Listener listener) throws IOException {
+        AsyncDimseRSP rsp = newAsyncDimseRSP(listener);
+        PresentationContext pc = pcFor(asuid, tsuid);
+        checkIsSCU(cuid);
+        Attributes cmoverq = Commands.mkCMoveRQ(rsp.getMessageID(),
+                cuid, priority, destination);
+        invokeAsync(pc, cmoverq, new DataWriterAdapter(data), rsp,
+                conn.getRetrieveTimeout());
+        return rsp;
+    }
+
+    public AsyncDimseRSP ngetAsync(String cuid, String iuid, int[] tags)
+            throws IOException {
+        AsyncDimseRSP rsp = new AsyncDimseRSP(this, nextMessageID());
+        PresentationContext pc = pcFor(cuid, null);
+        checkIsSCU(cuid);
+        Attributes ngetrq =
+                Commands.mkNGetRQ(rsp.getMessageID(), cuid, iuid, tags);
+        invokeAsync(pc, ngetrq, null, rsp, conn.getResponseTimeout());
+        return rsp;
+    }
+
     public void neventReport(String cuid, String iuid, int eventTypeId,
             Attributes data, String tsuid, DimseRSPHandler rspHandler)
             throws IOException, InterruptedException {
@@ -1204,11 +1585,53 @@ public class Association {
         stopTimeout();
         checkException();
         rspHandler.setPC(pc);
-        addDimseRSPHandler(rspHandler);
+        if (rspHandler.isNonBlocking()) {
+            if (!addDimseRSPHandlerOrQueue(pc, cmd, data, rspHandler,
+                    rspTimeout))
+                return;
+        } else
+            addDimseRSPHandler(rspHandler);
         startTimeout(rspHandler.getMessageID(), rspTimeout);
+        rspHandler.setRQSentTime(System.nanoTime());
         encoder.writeDIMSE(pc, cmd, data);
     }
 
+    private AsyncDimseRSP newAsyncDimseRSP(AsyncDimseRSP.Listener listener) {
+        AsyncDimseRSP rsp = new AsyncDimseRSP(this, nextMessageID());
+        if (listener != null)
+            rsp.addListener(listener);
+        return rsp;
+    }
+
+    private void invokeAsync(PresentationContext pc, Attributes cmd,
+            DataWriter data, AsyncDimseRSP rsp, int rspTimeout)
+            throws IOException {
+        rsp.setDimse(Dimse.valueOf(cmd.getInt(Tag.CommandField, 0)));
+        try {
+            invoke(pc, cmd, data, rsp, rspTimeout);
+        } catch (InterruptedException e) {
+            // never thrown for non-blocking DIMSE-RSP handlers
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private static final class PendingInvoke {
+        final PresentationContext pc;
+        final Attributes cmd;
+        final DataWriter data;
+        final DimseRSPHandler rspHandler;
+        final int rspTimeout;
+
+        PendingInvoke(PresentationContext pc, Attributes cmd, DataWriter data,
+                DimseRSPHandler rspHandler, int rspTimeout) {
+            this.pc = pc;
+            this.cmd = cmd;
+            this.data = data;
+            this.rspHandler = rspHandler;
+            this.rspTimeout = rspTimeout;
+        }
+    }
+
     static int minZeroAsMax(int i1, int i2) {
         return i1 == 0 ? i2 : i2 == 0 ? i1 : Math.min(i1, i2);
     }
@@ -0,0 +1,133 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+/**
+ * Receives the events of one association, which are relevant for metrics.
+ * Methods are called by the threads reading from and writing to the
+ * association, so implementations must be thread-safe, shall not block and
+ * should not allocate objects.
+ * <p>
+ * All durations are in nanoseconds.
+ *
+ * @author agent <agent@local>
+ * @see NetworkMetrics
+ */
+public interface AssociationMetrics {
+
+    /**
+     * Association metrics ignoring all events.
+     */
+    AssociationMetrics NONE = new AssociationMetrics() {
+
+        @Override
+        public void onAssociationEstablished(long setupTime) {
+        }
+
+        @Override
+        public void onAssociationClosed(long releaseTime) {
+        }
+
+        @Override
+        public void onPDUSent(int pduType, int pduLength, long writeTime) {
+        }
+
+        @Override
+        public void onPDUReceived(int pduType, int pduLength, long stallTime) {
+        }
+
+        @Override
+        public void onDimseRQSent(Dimse dimse) {
+        }
+
+        @Override
+        public void onDimseRSPSent(Dimse dimse, boolean pending) {
+        }
+
+        @Override
+        public void onDimseRQReceived(Dimse dimse) {
+        }
+
+        @Override
+        public void onDimseRSPReceived(Dimse dimse, boolean pending,
+                long rspTime) {
+        }
+    };
+
+    /**
+     * @param setupTime time from opening the connection until sending or
+     *        receiving the A-ASSOCIATE-AC
+     */
+    void onAssociationEstablished(long setupTime);
+
+    /**
+     * @param releaseTime time from sending or receiving the A-RELEASE-RQ
+     *        until closing the connection; -1 if the association was not
+     *        released
+     */
+    void onAssociationClosed(long releaseTime);
+
+    /**
+     * @param pduType PDU type
+     * @param pduLength PDU length, excluding the PDU header
+     * @param writeTime time the sending thread was blocked writing the PDU
+     *        to the socket
+     */
+    void onPDUSent(int pduType, int pduLength, long writeTime);
+
+    /**
+     * @param pduType PDU type
+     * @param pduLength PDU length, excluding the PDU header
+     * @param stallTime time waiting for the remainder of the PDU after
+     *        receiving its header
+     */
+    void onPDUReceived(int pduType, int pduLength, long stallTime);
+
+    void onDimseRQSent(Dimse dimse);
+
+    void onDimseRSPSent(Dimse dimse, boolean pending);
+
+    void onDimseRQReceived(Dimse dimse);
+
+    /**
+     * @param dimse type of the response
+     * @param pending {@code true} for a pending response
+     * @param rspTime time since sending the request
+     */
+    void onDimseRSPReceived(Dimse dimse, boolean pending, long rspTime);
+}
@@ -0,0 +1,523 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.RoleSelection;
+import org.dcm4che3.net.pdu.UserIdentityRQ;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of associations initiated by an {@link ApplicationEntity}, which are
+ * kept open after use and reused by later requests for an association to the
+ * same peer with the same proposed presentation contexts.
+ * <p>
+ * An association is obtained by {@link #lease(ApplicationEntity, AAssociateRQ)}
+ * and must be handed back by {@link #release(Association)} after all responses
+ * were received, or by {@link #invalidate(Association)} if it shall not be
+ * reused. Idle associations are released after {@link #getIdleTimeout()}.
+ * Associations idle for longer than {@link #getValidateAfterIdle()} are
+ * verified by a C-ECHO before reuse, if a presentation context for the
+ * Verification SOP Class was negotiated; associations failing verification
+ * are aborted and transparently replaced by a new association.
+ *
+ * @author agent <agent@local>
+ * @see ApplicationEntity#getAssociationPool()
+ */
+public class AssociationPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssociationPool.class);
+
+    public static final int DEF_MAX_PER_PEER = 4;
+    public static final int DEF_IDLE_TIMEOUT = 60000;
+    public static final int DEF_VALIDATE_AFTER_IDLE = 10000;
+
+    private final ApplicationEntity ae;
+    private final HashMap<Key, Peer> peers = new HashMap<Key, Peer>();
+    private final IdentityHashMap<Association, Peer> leased =
+            new IdentityHashMap<Association, Peer>();
+    private int maxPerPeer = DEF_MAX_PER_PEER;
+    private int idleTimeout = DEF_IDLE_TIMEOUT;
+    private int validateAfterIdle = DEF_VALIDATE_AFTER_IDLE;
+    private ScheduledFuture<?> reaper;
+    private boolean closed;
+
+    AssociationPool(ApplicationEntity ae) {
+        this.ae = ae;
+    }
+
+    public final ApplicationEntity getApplicationEntity() {
+        return ae;
+    }
+
+    /**
+     * Maximal number of leased and idle associations to one peer with equal
+     * proposed presentation contexts. Further leases wait until an association
+     * is handed back. 4 by default.
+     *
+     * @return maximal number of associations per peer
+     */
+    public final synchronized int getMaxPerPeer() {
+        return maxPerPeer;
+    }
+
+    public final synchronized void setMaxPerPeer(int maxPerPeer) {
+        if (maxPerPeer <= 0)
+            throw new IllegalArgumentException("maxPerPeer: " + maxPerPeer);
+        this.maxPerPeer = maxPerPeer;
+        notifyAll();
+    }
+
+    /**
+     * Timeout in ms after which idle associations are released.
+     * 60000 by default.
+     *
+     * @return An int value containing the milliseconds.
+     */
+    public final synchronized int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public final synchronized void setIdleTimeout(int idleTimeout) {
+        if (idleTimeout <= 0)
+            throw new IllegalArgumentException("idleTimeout: " + idleTimeout);
+        this.idleTimeout = idleTimeout;
+        cancelReaper();
+    }
+
+    /**
+     * Time in ms an association must have been idle to get verified by a
+     * C-ECHO before reuse. 10000 by default; 0 verifies associations before
+     * each reuse.
+     *
+     * @return An int value containing the milliseconds.
+     */
+    public final synchronized int getValidateAfterIdle() {
+        return validateAfterIdle;
+    }
+
+    public final synchronized void setValidateAfterIdle(int validateAfterIdle) {
+        if (validateAfterIdle < 0)
+            throw new IllegalArgumentException(
+                    "validateAfterIdle: " + validateAfterIdle);
+        this.validateAfterIdle = validateAfterIdle;
+    }
+
+    /**
+     * Leases an association to the remote application entity with the
+     * presentation contexts proposed by {@code rq}, reusing an idle pooled
+     * association or opening a new association.
+     */
+    public Association lease(ApplicationEntity remote, AAssociateRQ rq)
+            throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        CompatibleConnection cc = ae.findCompatibelConnection(remote);
+        if (rq.getCalledAET() == null)
+            rq.setCalledAET(remote.getAETitle());
+        return lease(cc.getLocalConnection(), cc.getRemoteConnection(), rq);
+    }
+
+    public Association lease(Connection local, Connection remote,
+            AAssociateRQ rq) throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        if (rq.getCallingAET() == null)
+            rq.setCallingAET(ae.getAETitle());
+        Key key = new Key(local, remote, rq);
+        for (;;) {
+            Entry entry;
+            Peer peer;
+            synchronized (this) {
+                checkNotClosed();
+                peer = peers.get(key);
+                if (peer == null)
+                    peers.put(key, peer = new Peer(key));
+                entry = peer.idle.pollLast();
+                if (entry != null) {
+                    addLeased(entry.as, peer);
+                } else if (peer.size() >= maxPerPeer) {
+                    wait();
+                    continue;
+                } else {
+                    peer.opening++;
+                }
+            }
+            if (entry != null) {
+                boolean valid = false;
+                try {
+                    valid = validate(entry);
+                } finally {
+                    if (!valid)
+                        discard(entry.as);
+                }
+                if (!valid)
+                    continue;
+
+                LOG.debug("{}: reuse pooled association", entry.as);
+                return entry.as;
+            }
+            Association as = null;
+            try {
+                as = ae.connect(local, remote, rq);
+            } finally {
+                synchronized (this) {
+                    peer.opening--;
+                    if (as != null)
+                        addLeased(as, peer);
+                    else
+                        removeIfEmpty(peer);
+                    notifyAll();
+                }
+            }
+            return as;
+        }
+    }
+
+    /**
+     * Hands back a leased association for reuse. Waits for outstanding
+     * responses. Associations no longer ready for data transfer are discarded.
+     */
+    public void release(Association as) {
+        synchronized (this) {
+            if (!leased.containsKey(as))
+                throw new IllegalArgumentException(as + " not leased from pool");
+        }
+        boolean interrupted = false;
+        try {
+            as.waitForOutstandingRSP();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        synchronized (this) {
+            Peer peer = removeLeased(as);
+            notifyAll();
+            if (peer == null) // concurrently invalidated
+                return;
+            if (!interrupted && !closed && as.isReadyForDataTransfer()) {
+                peer.idle.addLast(new Entry(as));
+                startReaper();
+                return;
+            }
+            removeIfEmpty(peer);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            as.abort();
+        } else {
+            releaseQuietly(as);
+        }
+    }
+
+    /**
+     * Removes a leased association from the pool and releases it.
+     */
+    public void invalidate(Association as) {
+        synchronized (this) {
+            Peer peer = removeLeased(as);
+            if (peer == null)
+                throw new IllegalArgumentException(as + " not leased from pool");
+            removeIfEmpty(peer);
+            notifyAll();
+        }
+        releaseQuietly(as);
+    }
+
+    /**
+     * Releases all idle associations. Leased associations are released when
+     * handed back. Further leases fail with {@link IllegalStateException}.
+     */
+    public void close() {
+        List<Association> idle;
+        synchronized (this) {
+            closed = true;
+            cancelReaper();
+            idle = removeIdle(Long.MAX_VALUE);
+            notifyAll();
+        }
+        for (Association as : idle)
+            releaseQuietly(as);
+    }
+
+    public synchronized int getNumberOfIdleAssociations() {
+        int n = 0;
+        for (Peer peer : peers.values())
+            n += peer.idle.size();
+        return n;
+    }
+
+    public synchronized int getNumberOfLeasedAssociations() {
+        return leased.size();
+    }
+
+    synchronized int getNumberOfPeers() {
+        return peers.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkNotClosed() {
+        if (closed)
+            throw new IllegalStateException("Association pool of "
+                    + ae.getAETitle() + " closed");
+    }
+
+    private boolean validate(Entry entry) throws InterruptedException {
+        Association as = entry.as;
+        return as.isReadyForDataTransfer()
+                && (System.currentTimeMillis() - entry.idleSince < getValidateAfterIdle()
+                        || echo(as));
+    }
+
+    private void discard(Association as) {
+        LOG.info("{}: discard stale pooled association", as);
+        as.abort();
+        synchronized (this) {
+            Peer peer = removeLeased(as);
+            if (peer != null)
+                removeIfEmpty(peer);
+            notifyAll();
+        }
+    }
+
+    private void addLeased(Association as, Peer peer) {
+        leased.put(as, peer);
+        peer.leased++;
+    }
+
+    private Peer removeLeased(Association as) {
+        Peer peer = leased.remove(as);
+        if (peer != null)
+            peer.leased--;
+        return peer;
+    }
+
+    private void removeIfEmpty(Peer peer) {
+        if (peer.size() == 0 && peers.get(peer.key) == peer)
+            peers.remove(peer.key);
+    }
+
+    private static boolean echo(Association as) throws InterruptedException {
+        try {
+            DimseRSP rsp = as.cecho();
+            rsp.next();
+            return rsp.getCommand().getInt(Tag.Status, -1) == Status.Success;
+        } catch (NoPresentationContextException e) {
+            return as.isReadyForDataTransfer();
+        } catch (IOException e) {
+            LOG.info("{}: C-ECHO on pooled association failed: {}", as, e);
+            return false;
+        }
+    }
+
+    private static void releaseQuietly(Association as) {
+        if (as.isReadyForDataTransfer()) {
+            try {
+                as.release();
+            } catch (IOException e) {
+                LOG.info("{}: failed to release pooled association: {}", as, e);
+            }
+        }
+    }
+
+    private List<Association> removeIdle(long maxIdleSince) {
+        List<Association> removed = new ArrayList<Association>();
+        for (Iterator<Peer> peerIter = peers.values().iterator();
+                peerIter.hasNext();) {
+            Peer peer = peerIter.next();
+            for (Iterator<Entry> iter = peer.idle.iterator(); iter.hasNext();) {
+                Entry entry = iter.next();
+                if (entry.idleSince < maxIdleSince
+                        || !entry.as.isReadyForDataTransfer()) {
+                    iter.remove();
+                    removed.add(entry.as);
+                }
+            }
+            if (peer.size() == 0)
+                peerIter.remove();
+        }
+        return removed;
+    }
+
+    private void reapIdle() {
+        List<Association> expired;
+        synchronized (this) {
+            expired = removeIdle(System.currentTimeMillis() - idleTimeout);
+            if (!expired.isEmpty())
+                notifyAll();
+        }
+        for (Association as : expired) {
+            LOG.debug("{}: release idle pooled association", as);
+            releaseQuietly(as);
+        }
+    }
+
+    private void startReaper() {
+        Device device = ae.getDevice();
+        if (reaper != null || device == null
+                || device.getScheduledExecutor() == null)
+            return;
+
+        int period = Math.max(idleTimeout / 2, 1000);
+        reaper = device.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                reapIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelReaper() {
+        if (reaper != null) {
+            reaper.cancel(false);
+            reaper = null;
+        }
+    }
+
+    private static final class Entry {
+        final Association as;
+        final long idleSince = System.currentTimeMillis();
+
+        Entry(Association as) {
+            this.as = as;
+        }
+    }
+
+    private final class Peer {
+        final Key key;
+        final LinkedList<Entry> idle = new LinkedList<Entry>();
+        int opening;
+        int leased;
+
+        Peer(Key key) {
+            this.key = key;
+        }
+
+        int size() {
+            return opening + idle.size() + leased;
+        }
+    }
+
+    /**
+     * Identifies pooled associations by local and remote connection, AE
+     * titles, proposed presentation contexts, role selections and user
+     * identity.
+     */
+    private static final class Key {
+        private final String id;
+        private final byte[] identity;
+        private final int hash;
+
+        Key(Connection local, Connection remote, AAssociateRQ rq) {
+            StringBuilder sb = new StringBuilder(256)
+                    .append(rq.getCallingAET()).append("->")
+                    .append(rq.getCalledAET()).append('@')
+                    .append(remote.getHostname()).append(':')
+                    .append(remote.getPort())
+                    .append(local.isTls() ? "/tls" : "")
+                    .append(local.getCommonName() != null
+                            ? "|" + local.getCommonName() : "");
+            List<String> pcs = new ArrayList<String>();
+            for (PresentationContext pc : rq.getPresentationContexts())
+                pcs.add(pc.getAbstractSyntax() + '='
+                        + Arrays.toString(pc.getTransferSyntaxes()));
+            Collections.sort(pcs);
+            sb.append(pcs);
+            List<String> rss = new ArrayList<String>();
+            for (RoleSelection rs : rq.getRoleSelections())
+                rss.add(rs.getSOPClassUID() + (rs.isSCU() ? "+SCU" : "")
+                        + (rs.isSCP() ? "+SCP" : ""));
+            Collections.sort(rss);
+            sb.append(rss);
+            this.id = sb.toString();
+            this.identity = identityOf(rq.getUserIdentityRQ());
+            this.hash = id.hashCode() * 31 + Arrays.hashCode(identity);
+        }
+
+        private static byte[] identityOf(UserIdentityRQ userIdentity) {
+            if (userIdentity == null)
+                return null;
+
+            byte[] primary = userIdentity.getPrimaryField();
+            byte[] secondary = userIdentity.getSecondaryField();
+            byte[] b = new byte[1 + primary.length + 1 + secondary.length];
+            b[0] = (byte) userIdentity.getType();
+            System.arraycopy(primary, 0, b, 1, primary.length);
+            b[1 + primary.length] = 0;
+            System.arraycopy(secondary, 0, b, 2 + primary.length, secondary.length);
+            return b;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return id.equals(other.id) && Arrays.equals(identity, other.identity);
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking handle of an invoked DIMSE operation. Pending responses are
+ * pushed to registered {@link Listener}s as they arrive; the final response
+ * completes this {@link Future}.
+ * <p>
+ * Invoking an operation with an {@code AsyncDimseRSP} never blocks the
+ * calling thread for a free slot of the negotiated maximal number of
+ * asynchronous operations; if all slots are occupied, the request is queued
+ * and sent as soon as an outstanding operation completes. The response
+ * timeout of the connection applies from sending the request.
+ * <p>
+ * Listeners are called by the thread reading from the association, so they
+ * must not block; longer processing shall be passed to an executor.
+ *
+ * @author agent <agent@local>
+ */
+public class AsyncDimseRSP extends DimseRSPHandler implements Future<Attributes> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncDimseRSP.class);
+
+    /**
+     * Receives the responses of an asynchronously invoked DIMSE operation.
+     */
+    public interface Listener {
+
+        void onPending(AsyncDimseRSP rsp, Attributes cmd, Attributes data);
+
+        void onCompleted(AsyncDimseRSP rsp, Attributes cmd, Attributes data);
+
+        void onFailed(AsyncDimseRSP rsp, IOException e);
+    }
+
+    /**
+     * Listener with empty implementations of all callbacks.
+     */
+    public static class Adapter implements Listener {
+
+        @Override
+        public void onPending(AsyncDimseRSP rsp, Attributes cmd, Attributes data) {
+        }
+
+        @Override
+        public void onCompleted(AsyncDimseRSP rsp, Attributes cmd, Attributes data) {
+        }
+
+        @Override
+        public void onFailed(AsyncDimseRSP rsp, IOException e) {
+        }
+    }
+
+    private final Association as;
+    private final List<Listener> listeners = new ArrayList<Listener>(1);
+    private Dimse dimse;
+    private Attributes command;
+    private Attributes dataset;
+    private IOException exception;
+    private Attributes result;
+    private boolean completed;
+    private boolean done;
+    private boolean cancelled;
+
+    public AsyncDimseRSP(Association as, int msgId) {
+        super(msgId);
+        this.as = as;
+    }
+
+    public final Association getAssociation() {
+        return as;
+    }
+
+    final void setDimse(Dimse dimse) {
+        this.dimse = dimse;
+    }
+
+    @Override
+    boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * Registers a listener. If the operation is already completed, the
+     * listener is called immediately by the current thread. Pending responses
+     * received before are not passed to the listener; listeners which shall
+     * receive all pending responses have to be passed to the method invoking
+     * the operation, e.g.
+     * {@link Association#cfindAsync(String, String, int, Attributes, String, Listener)}.
+     *
+     * @param listener listener to register
+     * @return this
+     */
+    public AsyncDimseRSP addListener(Listener listener) {
+        synchronized (this) {
+            if (!completed) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        fireDone(listener);
+        return this;
+    }
+
+    @Override
+    public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+        super.onDimseRSP(as, cmd, data);
+        Listener[] ls;
+        boolean pending = Status.isPending(cmd.getInt(Tag.Status, 0));
+        synchronized (this) {
+            ls = listeners.toArray(new Listener[listeners.size()]);
+            if (!pending) {
+                command = cmd;
+                dataset = data;
+                completed = true;
+                if (!done) {
+                    result = cmd;
+                    cancelled = cmd.getInt(Tag.Status, 0) == Status.Cancel;
+                    done = true;
+                }
+                listeners.clear();
+                notifyAll();
+            }
+        }
+        for (Listener l : ls) {
+            try {
+                if (pending)
+                    l.onPending(this, cmd, data);
+                else
+                    l.onCompleted(this, cmd, data);
+            } catch (RuntimeException e) {
+                LOG.warn("{}: listener failed on DIMSE-RSP:", as, e);
+            }
+        }
+    }
+
+    @Override
+    public void onClose(Association as) {
+        super.onClose(as);
+        Listener[] ls;
+        synchronized (this) {
+            if (completed)
+                return;
+
+            exception = as.getException();
+            if (exception == null)
+                exception = new IOException("Association to " + as.getRemoteAET()
+                        + " released before receive of outstanding DIMSE RSP");
+            completed = true;
+            done = true;
+            ls = listeners.toArray(new Listener[listeners.size()]);
+            listeners.clear();
+            notifyAll();
+        }
+        for (Listener l : ls)
+            fireDone(l);
+    }
+
+    private void fireDone(Listener l) {
+        try {
+            if (exception != null)
+                l.onFailed(this, exception);
+            else
+                l.onCompleted(this, command, dataset);
+        } catch (RuntimeException e) {
+            LOG.warn("{}: listener failed on completion:", as, e);
+        }
+    }
+
+    /**
+     * Cancels the operation. If the request is still queued for a free slot,
+     * it is removed from the queue and the operation is completed with status
+     * Cancel without sending any request. Otherwise a C-CANCEL-RQ is sent for
+     * C-FIND, C-GET and C-MOVE operations; operations of other types cannot
+     * be cancelled once their request was sent.
+     * <p>
+     * After sending the C-CANCEL-RQ, this {@link Future} is cancelled, so
+     * {@link #get()} throws {@link CancellationException}. Listeners still
+     * receive the remaining responses of the operation, including the final
+     * response, which may have status Cancel or any other status.
+     *
+     * @param mayInterruptIfRunning ignored
+     * @return {@code false} if the operation is already completed, cannot be
+     *         cancelled or the C-CANCEL-RQ could not be sent
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (done)
+                return false;
+        }
+        Attributes rq = as.removePendingInvoke(this);
+        if (rq != null) {
+            onDimseRSP(as, Commands.mkRSP(rq, Status.Cancel,
+                    Dimse.valueOf(rq.getInt(Tag.CommandField, 0))), null);
+            return true;
+        }
+        if (!isCancellable())
+            return false;
+        try {
+            cancel(as);
+        } catch (IOException e) {
+            LOG.info("{}: failed to send C-CANCEL-RQ: {}", as, e);
+            return false;
+        }
+        synchronized (this) {
+            if (done)
+                return false;
+            cancelled = true;
+            done = true;
+            notifyAll();
+        }
+        return true;
+    }
+
+    private boolean isCancellable() {
+        return dimse != null
+                && (dimse == Dimse.C_FIND_RQ || dimse.isRetrieveRQ());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the final response.
+     *
+     * @return command of the final response
+     * @throws CancellationException if the operation was cancelled by a
+     *         C-CANCEL-RQ before the final response was received
+     * @throws ExecutionException with the {@link IOException} causing the
+     *         failure of the operation as cause
+     */
+    @Override
+    public synchronized Attributes get()
+            throws InterruptedException, ExecutionException {
+        while (!done)
+            wait();
+        return result();
+    }
+
+    @Override
+    public synchronized Attributes get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private Attributes result() throws ExecutionException {
+        if (result != null)
+            return result;
+        if (cancelled)
+            throw new CancellationException();
+        throw new ExecutionException(exception);
+    }
+
+    /**
+     * @return dataset of the final response or {@code null}
+     */
+    public synchronized Attributes getDataset() {
+        return dataset;
+    }
+
+    /**
+     * @return {@link IOException} causing the failure of the operation or
+     *         {@code null}
+     */
+    public synchronized IOException getException() {
+        return exception;
+    }
+
+    /**
+     * Runs the given action once all given operations are completed,
+     * successfully or not, by the thread completing the last operation.
+     *
+     * @param rsps operations to wait for
+     * @param action action to run
+     */
+    public static void whenAllDone(Collection<? extends AsyncDimseRSP> rsps,
+            final Runnable action) {
+        if (rsps.isEmpty()) {
+            action.run();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(rsps.size());
+        Listener countDown = new Adapter() {
+
+            @Override
+            public void onCompleted(AsyncDimseRSP rsp, Attributes cmd,
+                    Attributes data) {
+                countDown();
+            }
+
+            @Override
+            public void onFailed(AsyncDimseRSP rsp, IOException e) {
+                countDown();
+            }
+
+            private void countDown() {
+                if (remaining.decrementAndGet() == 0)
+                    action.run();
+            }
+        };
+        for (AsyncDimseRSP rsp : rsps)
+            rsp.addListener(countDown);
+    }
+}
@@ -0,0 +1,297 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default implementation of {@link NetworkMetrics}, maintaining
+ * {@link NetworkCounters} per association, per pair of calling and called
+ * AE Title and per device. Events are recorded by atomic operations on
+ * preallocated counters and histograms, so it may be kept enabled in
+ * production.
+ * <p>
+ * The calling AE Title is chosen by the peer, so the number of AE pairs with
+ * own counters is limited. Associations of further AE pairs are counted by
+ * {@link #getOtherAEPairCounters()}.
+ *
+ * @author agent <agent@local>
+ */
+public class BasicNetworkMetrics implements NetworkMetrics {
+
+    public static final int DEF_MAX_AE_PAIRS = 1000;
+
+    private final NetworkCounters deviceCounters = new NetworkCounters(true);
+    private final NetworkCounters otherAEPairCounters = new NetworkCounters(true);
+    private final ConcurrentMap<String, NetworkCounters> aePairCounters =
+            new ConcurrentHashMap<String, NetworkCounters>();
+    private final AtomicInteger numAEPairs = new AtomicInteger();
+    private final int maxAEPairs;
+
+    public BasicNetworkMetrics() {
+        this(DEF_MAX_AE_PAIRS);
+    }
+
+    /**
+     * @param maxAEPairs maximal number of AE pairs with own counters
+     */
+    public BasicNetworkMetrics(int maxAEPairs) {
+        if (maxAEPairs < 0)
+            throw new IllegalArgumentException("maxAEPairs: " + maxAEPairs);
+        this.maxAEPairs = maxAEPairs;
+    }
+
+    public int getMaxAEPairs() {
+        return maxAEPairs;
+    }
+
+    @Override
+    public AssociationMetrics newAssociationMetrics(Association as) {
+        return new Metrics(as);
+    }
+
+    public NetworkCounters getDeviceCounters() {
+        return deviceCounters;
+    }
+
+    /**
+     * @return counters by AE pair, formatted as
+     *         {@code <calling AET>-><called AET>}
+     */
+    public Map<String, NetworkCounters> getAEPairCounters() {
+        return Collections.unmodifiableMap(aePairCounters);
+    }
+
+    /**
+     * @return counters of the AE pair or {@code null}, if associations
+     *         between these AEs are counted by
+     *         {@link #getOtherAEPairCounters()}
+     */
+    public NetworkCounters getAEPairCounters(String callingAET,
+            String calledAET) {
+        return aePairCounters.get(aePairOf(callingAET, calledAET));
+    }
+
+    /**
+     * @return counters of all AE pairs exceeding the maximal number of AE
+     *         pairs with own counters
+     */
+    public NetworkCounters getOtherAEPairCounters() {
+        return otherAEPairCounters;
+    }
+
+    /**
+     * @return counters of the association or {@code null}, if the
+     *         association does not use this {@code BasicNetworkMetrics}
+     */
+    public static NetworkCounters getAssociationCounters(Association as) {
+        AssociationMetrics metrics = as.getMetrics();
+        return metrics instanceof Metrics
+                ? ((Metrics) metrics).counters
+                : null;
+    }
+
+    private static String aePairOf(String callingAET, String calledAET) {
+        return callingAET + "->" + calledAET;
+    }
+
+    private NetworkCounters aePairCountersOf(Association as) {
+        String key = aePairOf(as.getCallingAET(), as.getCalledAET());
+        NetworkCounters counters = aePairCounters.get(key);
+        if (counters != null)
+            return counters;
+
+        if (numAEPairs.incrementAndGet() > maxAEPairs) {
+            numAEPairs.decrementAndGet();
+            return otherAEPairCounters;
+        }
+        NetworkCounters prev = aePairCounters.putIfAbsent(key,
+                counters = new NetworkCounters(true));
+        if (prev != null) {
+            numAEPairs.decrementAndGet();
+            return prev;
+        }
+        return counters;
+    }
+
+    private class Metrics implements AssociationMetrics {
+
+        final Association as;
+        final NetworkCounters counters = new NetworkCounters(false);
+        volatile NetworkCounters aePair;
+
+        Metrics(Association as) {
+            this.as = as;
+        }
+
+        @Override
+        public void onAssociationEstablished(long setupTime) {
+            NetworkCounters aePair = aePairCountersOf(as);
+            // PDUs exchanged during association negotiation
+            aePair.pdusSent.addAndGet(counters.pdusSent.get());
+            aePair.pdusReceived.addAndGet(counters.pdusReceived.get());
+            aePair.bytesSent.addAndGet(counters.bytesSent.get());
+            aePair.bytesReceived.addAndGet(counters.bytesReceived.get());
+            this.aePair = aePair;
+            counters.associationsEstablished.incrementAndGet();
+            counters.activeAssociations.incrementAndGet();
+            aePair.associationsEstablished.incrementAndGet();
+            aePair.activeAssociations.incrementAndGet();
+            NetworkCounters.record(aePair.setupTime, setupTime);
+            deviceCounters.associationsEstablished.incrementAndGet();
+            deviceCounters.activeAssociations.incrementAndGet();
+            NetworkCounters.record(deviceCounters.setupTime, setupTime);
+        }
+
+        @Override
+        public void onAssociationClosed(long releaseTime) {
+            NetworkCounters aePair = this.aePair;
+            if (aePair == null)
+                return;
+
+            long invoked = counters.outstandingOpsInvoked.getAndSet(0);
+            long performed = counters.outstandingOpsPerformed.getAndSet(0);
+            counters.activeAssociations.decrementAndGet();
+            aePair.activeAssociations.decrementAndGet();
+            aePair.outstandingOpsInvoked.addAndGet(-invoked);
+            aePair.outstandingOpsPerformed.addAndGet(-performed);
+            deviceCounters.activeAssociations.decrementAndGet();
+            deviceCounters.outstandingOpsInvoked.addAndGet(-invoked);
+            deviceCounters.outstandingOpsPerformed.addAndGet(-performed);
+            if (releaseTime >= 0) {
+                NetworkCounters.record(aePair.releaseTime, releaseTime);
+                NetworkCounters.record(deviceCounters.releaseTime, releaseTime);
+            }
+        }
+
+        @Override
+        public void onPDUSent(int pduType, int pduLength, long writeTime) {
+            counters.onPDUSent(pduLength, writeTime);
+            NetworkCounters aePair = this.aePair;
+            if (aePair != null)
+                aePair.onPDUSent(pduLength, writeTime);
+            deviceCounters.onPDUSent(pduLength, writeTime);
+        }
+
+        @Override
+        public void onPDUReceived(int pduType, int pduLength, long stallTime) {
+            counters.onPDUReceived(pduLength, stallTime);
+            NetworkCounters aePair = this.aePair;
+            if (aePair != null)
+                aePair.onPDUReceived(pduLength, stallTime);
+            deviceCounters.onPDUReceived(pduLength, stallTime);
+        }
+
+        @Override
+        public void onDimseRQSent(Dimse dimse) {
+            boolean outstanding = dimse != Dimse.C_CANCEL_RQ;
+            onDimseSent(counters, dimse, outstanding);
+            onDimseSent(aePair, dimse, outstanding);
+            onDimseSent(deviceCounters, dimse, outstanding);
+        }
+
+        private void onDimseSent(NetworkCounters counters, Dimse dimse,
+                boolean outstanding) {
+            if (counters == null)
+                return;
+
+            counters.dimseSent.incrementAndGet(dimse.ordinal());
+            if (outstanding)
+                counters.outstandingOpsInvoked.incrementAndGet();
+        }
+
+        @Override
+        public void onDimseRSPSent(Dimse dimse, boolean pending) {
+            onDimseRSPSent(counters, dimse, pending);
+            onDimseRSPSent(aePair, dimse, pending);
+            onDimseRSPSent(deviceCounters, dimse, pending);
+        }
+
+        private void onDimseRSPSent(NetworkCounters counters, Dimse dimse,
+                boolean pending) {
+            if (counters == null)
+                return;
+
+            counters.dimseSent.incrementAndGet(dimse.ordinal());
+            if (!pending)
+                counters.outstandingOpsPerformed.decrementAndGet();
+        }
+
+        @Override
+        public void onDimseRQReceived(Dimse dimse) {
+            boolean outstanding = dimse != Dimse.C_CANCEL_RQ;
+            onDimseRQReceived(counters, dimse, outstanding);
+            onDimseRQReceived(aePair, dimse, outstanding);
+            onDimseRQReceived(deviceCounters, dimse, outstanding);
+        }
+
+        private void onDimseRQReceived(NetworkCounters counters, Dimse dimse,
+                boolean outstanding) {
+            if (counters == null)
+                return;
+
+            counters.dimseReceived.incrementAndGet(dimse.ordinal());
+            if (outstanding)
+                counters.outstandingOpsPerformed.incrementAndGet();
+        }
+
+        @Override
+        public void onDimseRSPReceived(Dimse dimse, boolean pending,
+                long rspTime) {
+            onDimseRSPReceived(counters, dimse, pending, rspTime);
+            onDimseRSPReceived(aePair, dimse, pending, rspTime);
+            onDimseRSPReceived(deviceCounters, dimse, pending, rspTime);
+        }
+
+        private void onDimseRSPReceived(NetworkCounters counters, Dimse dimse,
+                boolean pending, long rspTime) {
+            if (counters == null)
+                return;
+
+            counters.dimseReceived.incrementAndGet(dimse.ordinal());
+            if (!pending) {
+                counters.outstandingOpsInvoked.decrementAndGet();
+                NetworkCounters.record(counters.rspTime, rspTime);
+            }
+        }
+    }
+}
@@ -110,6 +110,9 @@ public class Connection implements Serializable {
     public static final int NOT_LISTENING = -1;
     public static final int DEF_BACKLOG = 50;
     public static final int DEF_SOCKETDELAY = 50;
+    public static final int DEF_DIMSE_RQ_SPOOL_THRESHOLD = 1048576;
+    public static final int DEF_MAX_QUEUED_DIMSE_RQ = 1000;
+    public static final int DEF_UDP_RECEIVE_QUEUE_SIZE = 256;
 
     public static final String DEF_BUFFERSIZE_STR = "0";
     public static final int DEF_BUFFERSIZE = Integer.valueOf(DEF_BUFFERSIZE_STR);
@@ -201,15 +204,45 @@ public class Connection implements Serializable {
     @ConfigurableProperty(name = "dcmMaxOpsInvoked", defaultValue = "1")
     private int maxOpsInvoked = SYNCHRONOUS_MODE;
 
+    @ConfigurableProperty(name = "dcmMaxConcurrentDimseRQ", defaultValue = "0")
+    private int maxConcurrentDimseRQ;
+
+    @ConfigurableProperty(name = "dcmDimseRQSpoolThreshold", defaultValue = "1048576")
+    private int dimseRQSpoolThreshold = DEF_DIMSE_RQ_SPOOL_THRESHOLD;
+
+    @ConfigurableProperty(name = "dcmMaxQueuedDimseRQ", defaultValue = "1000")
+    private int maxQueuedDimseRQ = DEF_MAX_QUEUED_DIMSE_RQ;
+
     @ConfigurableProperty(name = "dcmPackPDV", defaultValue = "true")
     private boolean packPDV = true;
 
+    @ConfigurableProperty(name = "dcmPDVCoalesceDelay", defaultValue = "0")
+    private int pdvCoalesceDelay;
+
+    @ConfigurableProperty(name = "dcmPDVCoalesceMaxLength", defaultValue = "0")
+    private int pdvCoalesceMaxLength;
+
     @ConfigurableProperty(name = "dcmTCPNoDelay", defaultValue = "true")
     private boolean tcpNoDelay = true;
 
     @ConfigurableProperty(name = "dcmTLSNeedClientAuth", defaultValue = "true")
     private boolean tlsNeedClientAuth = true;
 
+    @ConfigurableProperty(name = "dcmTLSHandshakeTimeout", defaultValue = NO_TIMEOUT_STR)
+    private int tlsHandshakeTimeout;
+
+    @ConfigurableProperty(name = "dcmTLSMaxConcurrentHandshakes", defaultValue = "0")
+    private int tlsMaxConcurrentHandshakes;
+
+    @ConfigurableProperty(name = "dcmUDPReceiveBufferSize", defaultValue = "0")
+    private int udpReceiveBufferSize;
+
+    @ConfigurableProperty(name = "dcmUDPWorkerThreads", defaultValue = "0")
+    private int udpWorkerThreads;
+
+    @ConfigurableProperty(name = "dcmUDPReceiveQueueSize", defaultValue = "256")
+    private int udpReceiveQueueSize = DEF_UDP_RECEIVE_QUEUE_SIZE;
+
     @ConfigurableProperty(name = "dicomTLSCipherSuite")
     private String[] tlsCipherSuites = {};
 
@@ -616,6 +649,108 @@ public class Connection implements Serializable {
         this.requestTimeout = timeout;
     }
 
+    /**
+     * Timeout in ms for completing the TLS handshake of an accepted
+     * connection. 0 (= default) means no timeout.
+     *
+     * @return An int value containing the milliseconds.
+     */
+    public final int getTlsHandshakeTimeout() {
+        return tlsHandshakeTimeout;
+    }
+
+    public final void setTlsHandshakeTimeout(int timeout) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout: " + timeout);
+        this.tlsHandshakeTimeout = timeout;
+    }
+
+    /**
+     * Maximal number of TLS handshakes of accepted connections performed
+     * concurrently. Further accepted connections wait until a running
+     * handshake completes. 0 (= default) means no limit.
+     *
+     * @return maximal number of concurrent TLS handshakes
+     */
+    public final int getTlsMaxConcurrentHandshakes() {
+        return tlsMaxConcurrentHandshakes;
+    }
+
+    public final void setTlsMaxConcurrentHandshakes(int maxConcurrentHandshakes) {
+        if (maxConcurrentHandshakes < 0)
+            throw new IllegalArgumentException(
+                    "maxConcurrentHandshakes: " + maxConcurrentHandshakes);
+        if (this.tlsMaxConcurrentHandshakes == maxConcurrentHandshakes)
+            return;
+
+        this.tlsMaxConcurrentHandshakes = maxConcurrentHandshakes;
+        needRebind();
+    }
+
+    /**
+     * SO_RCVBUF socket option of the datagram socket of a UDP listener in
+     * bytes. 0 (= default) applies {@link #getReceiveBufferSize()}.
+     *
+     * @return receive buffer size in bytes
+     */
+    public final int getUdpReceiveBufferSize() {
+        return udpReceiveBufferSize;
+    }
+
+    public final void setUdpReceiveBufferSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("size: " + size);
+        if (this.udpReceiveBufferSize == size)
+            return;
+
+        this.udpReceiveBufferSize = size;
+        needRebind();
+    }
+
+    /**
+     * Maximal number of threads of the device executor processing datagrams
+     * received by a UDP listener. 0 (= default) processes datagrams by the
+     * receiving thread. A UDP listener receives by one thread only, because
+     * {@link java.net.DatagramSocket#receive} is synchronized, so concurrent
+     * processing requires worker threads.
+     *
+     * @return maximal number of processing threads
+     */
+    public final int getUdpWorkerThreads() {
+        return udpWorkerThreads;
+    }
+
+    public final void setUdpWorkerThreads(int threads) {
+        if (threads < 0)
+            throw new IllegalArgumentException("threads: " + threads);
+        if (this.udpWorkerThreads == threads)
+            return;
+
+        this.udpWorkerThreads = threads;
+        needRebind();
+    }
+
+    /**
+     * Maximal number of received datagrams of a UDP listener waiting to be
+     * processed by worker threads. Further datagrams are dropped. 256 by
+     * default.
+     *
+     * @return capacity of the receive queue
+     */
+    public final int getUdpReceiveQueueSize() {
+        return udpReceiveQueueSize;
+    }
+
+    public final void setUdpReceiveQueueSize(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("size: " + size);
+        if (this.udpReceiveQueueSize == size)
+            return;
+
+        this.udpReceiveQueueSize = size;
+        needRebind();
+    }
+
     public final int getAcceptTimeout() {
         return acceptTimeout;
     }
@@ -831,6 +966,63 @@ public class Connection implements Serializable {
         this.maxOpsInvoked = maxOpsInvoked;
     }
 
+    /**
+     * Maximal number of DIMSE requests received on one association, which are
+     * processed concurrently by worker threads of the device executor, further
+     * limited by the negotiated maximal number of operations performed.
+     * 0 or 1 (= default) processes received DIMSE requests sequentially by the
+     * thread reading from the association.
+     *
+     * @return maximal number of concurrently processed DIMSE requests
+     */
+    public final int getMaxConcurrentDimseRQ() {
+        return maxConcurrentDimseRQ;
+    }
+
+    public final void setMaxConcurrentDimseRQ(int maxConcurrentDimseRQ) {
+        if (maxConcurrentDimseRQ < 0)
+            throw new IllegalArgumentException(
+                    "maxConcurrentDimseRQ: " + maxConcurrentDimseRQ);
+        this.maxConcurrentDimseRQ = maxConcurrentDimseRQ;
+    }
+
+    /**
+     * Size in bytes up to which the data of a concurrently processed DIMSE
+     * request is buffered in memory. Larger data is spooled to a temporary
+     * file. 1048576 by default.
+     *
+     * @return threshold in bytes
+     */
+    public final int getDimseRQSpoolThreshold() {
+        return dimseRQSpoolThreshold;
+    }
+
+    public final void setDimseRQSpoolThreshold(int dimseRQSpoolThreshold) {
+        if (dimseRQSpoolThreshold < 0)
+            throw new IllegalArgumentException(
+                    "dimseRQSpoolThreshold: " + dimseRQSpoolThreshold);
+        this.dimseRQSpoolThreshold = dimseRQSpoolThreshold;
+    }
+
+    /**
+     * Maximal number of asynchronously invoked DIMSE requests of one
+     * association waiting for a free slot of the negotiated maximal number of
+     * outstanding operations. Further invocations fail with an
+     * {@link IOException}. 0 = unlimited; 1000 by default.
+     *
+     * @return maximal number of queued DIMSE requests
+     */
+    public final int getMaxQueuedDimseRQ() {
+        return maxQueuedDimseRQ;
+    }
+
+    public final void setMaxQueuedDimseRQ(int maxQueuedDimseRQ) {
+        if (maxQueuedDimseRQ < 0)
+            throw new IllegalArgumentException(
+                    "maxQueuedDimseRQ: " + maxQueuedDimseRQ);
+        this.maxQueuedDimseRQ = maxQueuedDimseRQ;
+    }
+
     public final boolean isPackPDV() {
         return packPDV;
     }
@@ -839,6 +1031,50 @@ public class Connection implements Serializable {
         this.packPDV = packPDV;
     }
 
+    /**
+     * Maximal delay in ms of sending pending DIMSE responses and
+     * N-EVENT-REPORT requests, so PDVs of subsequent messages are packed
+     * into one P-DATA-TF PDU. Final DIMSE responses and other DIMSE
+     * requests are sent immediately, together with previously deferred
+     * messages. 0 (= default) sends each message immediately.
+     * <p>
+     * Only enable it for peers which decode all messages contained in one
+     * P-DATA-TF PDU. Peers which only decode the first message of a
+     * P-DATA-TF PDU - like dcm4che versions before this was fixed in
+     * {@code PDUDecoder} - silently lose the coalesced responses and will
+     * wait for them until their response timeout expires.
+     *
+     * @return maximal delay in ms; 0 = no coalescing
+     */
+    public final int getPdvCoalesceDelay() {
+        return pdvCoalesceDelay;
+    }
+
+    public final void setPdvCoalesceDelay(int pdvCoalesceDelay) {
+        if (pdvCoalesceDelay < 0)
+            throw new IllegalArgumentException(
+                    "pdvCoalesceDelay: " + pdvCoalesceDelay);
+        this.pdvCoalesceDelay = pdvCoalesceDelay;
+    }
+
+    /**
+     * Length of a P-DATA-TF PDU with coalesced PDVs, at which it is sent
+     * without waiting for the {@link #getPdvCoalesceDelay()}. 0 (= default)
+     * uses the maximal PDU length negotiated for the association.
+     *
+     * @return PDU length in bytes; 0 = maximal negotiated PDU length
+     */
+    public final int getPdvCoalesceMaxLength() {
+        return pdvCoalesceMaxLength;
+    }
+
+    public final void setPdvCoalesceMaxLength(int pdvCoalesceMaxLength) {
+        if (pdvCoalesceMaxLength < 0)
+            throw new IllegalArgumentException(
+                    "pdvCoalesceMaxLength: " + pdvCoalesceMaxLength);
+        this.pdvCoalesceMaxLength = pdvCoalesceMaxLength;
+    }
+
     /**
      * Determine if this network connection is using Nagle's algorithm as part
      * of its network communication.
@@ -977,6 +1213,13 @@ public class Connection implements Serializable {
     }
 
     public void setReceiveBufferSize(DatagramSocket ds) throws SocketException {
+        if (udpReceiveBufferSize != 0) {
+            ds.setReceiveBufferSize(udpReceiveBufferSize);
+            if (ds.getReceiveBufferSize() < udpReceiveBufferSize)
+                LOG.warn("SO_RCVBUF of {} limited to {} bytes by the OS",
+                        ds.getLocalSocketAddress(), ds.getReceiveBufferSize());
+            return;
+        }
         int size = ds.getReceiveBufferSize();
         if (receiveBufferSize == 0) {
             receiveBufferSize = size;
@@ -1142,8 +1385,14 @@ public class Connection implements Serializable {
             } else {
                 s.connect(remoteConn.getEndPoint(), connectTimeout);
             }
-            if (isTls())
+            if (isTls()) {
+                long handshakeStart = System.currentTimeMillis();
                 s = createTLSSocket(s, remoteConn);
+                if (monitor instanceof TLSConnectionMonitor)
+                    ((TLSConnectionMonitor) monitor).onTLSHandshakeCompleted(
+                            this, s,
+                            System.currentTimeMillis() - handshakeStart);
+            }
             if (monitor != null)
                 monitor.onConnectionEstablished(this, remoteConn, s);
             LOG.info("Established connection {}", s);
@@ -1342,9 +1591,19 @@ public class Connection implements Serializable {
         setReceivePDULength(from.receivePDULength);
         setMaxOpsPerformed(from.maxOpsPerformed);
         setMaxOpsPerformed(from.maxOpsInvoked);
+        setMaxConcurrentDimseRQ(from.maxConcurrentDimseRQ);
+        setDimseRQSpoolThreshold(from.dimseRQSpoolThreshold);
+        setMaxQueuedDimseRQ(from.maxQueuedDimseRQ);
         setPackPDV(from.packPDV);
+        setPdvCoalesceDelay(from.pdvCoalesceDelay);
+        setPdvCoalesceMaxLength(from.pdvCoalesceMaxLength);
         setTcpNoDelay(from.tcpNoDelay);
         setTlsNeedClientAuth(from.tlsNeedClientAuth);
+        setTlsHandshakeTimeout(from.tlsHandshakeTimeout);
+        setTlsMaxConcurrentHandshakes(from.tlsMaxConcurrentHandshakes);
+        setUdpReceiveBufferSize(from.udpReceiveBufferSize);
+        setUdpWorkerThreads(from.udpWorkerThreads);
+        setUdpReceiveQueueSize(from.udpReceiveQueueSize);
         setTlsCipherSuites(from.tlsCipherSuites);
         setTlsProtocols(from.tlsProtocols);
         setBlacklist(from.blacklist);
@@ -49,6 +49,7 @@ import org.dcm4che3.util.StringUtils;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import java.io.IOException;
 import java.io.Serializable;
@@ -137,6 +138,12 @@ public class Device implements Serializable {
     @ConfigurableProperty(name = "dcmKeyStoreKeyPinProperty")
     private String keyStoreKeyPinProperty;
 
+    @ConfigurableProperty(name = "dcmTLSSessionCacheSize", defaultValue = "0")
+    private int tlsSessionCacheSize;
+
+    @ConfigurableProperty(name = "dcmTLSSessionTimeout", defaultValue = "0")
+    private int tlsSessionTimeout;
+
     @ConfigurableProperty(name = "dicomIssuerOfPatientID")
     private Issuer issuerOfPatientID;
 
@@ -242,11 +249,15 @@ public class Device implements Serializable {
     private transient AssociationHandler associationHandler = new AssociationHandler();
     private transient DimseRQHandler dimseRQHandler;
     private transient ConnectionMonitor connectionMonitor;
+    private transient NetworkMetrics networkMetrics;
 
     private transient int assocCount = 0;
     private transient final Object assocCountLock = new Object();
 
     private transient Executor executor;
+    private transient Executor handshakeExecutor;
+    private transient volatile EnumMap<ExecutorLane, LaneExecutor> laneExecutors =
+            new EnumMap<ExecutorLane, LaneExecutor>(ExecutorLane.class);
     private transient ScheduledExecutorService scheduledExecutor;
     private transient volatile SSLContext sslContext;
     private transient volatile KeyManager km;
@@ -725,6 +736,49 @@ public class Device implements Serializable {
         this.keyStoreKeyPinProperty = keyStoreKeyPinProperty;
     }
 
+    /**
+     * Maximal number of TLS sessions kept for session resumption by the
+     * server and the client session context of this device. 0 (= default)
+     * uses the default of the JSSE provider.
+     *
+     * @return maximal number of cached TLS sessions
+     */
+    public final int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public final void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        if (tlsSessionCacheSize < 0)
+            throw new IllegalArgumentException(
+                    "tlsSessionCacheSize: " + tlsSessionCacheSize);
+        if (this.tlsSessionCacheSize == tlsSessionCacheSize)
+            return;
+
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        configureSessionContexts(sslContext);
+    }
+
+    /**
+     * Timeout in s after which cached TLS sessions can no longer be resumed.
+     * 0 (= default) uses the default of the JSSE provider.
+     *
+     * @return timeout in s
+     */
+    public final int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    public final void setTlsSessionTimeout(int tlsSessionTimeout) {
+        if (tlsSessionTimeout < 0)
+            throw new IllegalArgumentException(
+                    "tlsSessionTimeout: " + tlsSessionTimeout);
+        if (this.tlsSessionTimeout == tlsSessionTimeout)
+            return;
+
+        this.tlsSessionTimeout = tlsSessionTimeout;
+        configureSessionContexts(sslContext);
+    }
+
     public void removeAllThisNodeCertificates() {
         thisNodeCertificates.clear();
     }
@@ -841,6 +895,20 @@ public class Device implements Serializable {
         this.connectionMonitor = connectionMonitor;
     }
 
+    public NetworkMetrics getNetworkMetrics() {
+        return networkMetrics;
+    }
+
+    /**
+     * Sets the metrics, which are applied to subsequently opened
+     * associations; {@code null} (= default) disables metrics.
+     *
+     * @param networkMetrics network metrics or {@code null}
+     */
+    public void setNetworkMetrics(NetworkMetrics networkMetrics) {
+        this.networkMetrics = networkMetrics;
+    }
+
     public void bindConnections() throws IOException, GeneralSecurityException {
         for (Connection con : connections)
             con.bind();
@@ -867,6 +935,8 @@ public class Device implements Serializable {
 
     public void unbindConnections() {
         // the needReconfigureTLS method is cool
+        for (ApplicationEntity ae : applicationEntitiesMap.values())
+            ae.closeAssociationPool();
         for (Connection con : connections)
             con.unbind();
     }
@@ -879,6 +949,68 @@ public class Device implements Serializable {
         this.executor = executor;
     }
 
+    /**
+     * Executor performing TLS handshakes of accepted connections. If not set,
+     * handshakes are performed by {@link #getExecutor()}.
+     *
+     * @return executor for TLS handshakes or {@code null}
+     */
+    public final Executor getHandshakeExecutor() {
+        return handshakeExecutor;
+    }
+
+    public final void setHandshakeExecutor(Executor handshakeExecutor) {
+        this.handshakeExecutor = handshakeExecutor;
+    }
+
+    /**
+     * Executor for tasks of the specified lane, or {@code null}, if tasks of
+     * that lane are executed by {@link #getExecutor()}.
+     *
+     * @param lane executor lane
+     * @return executor of the lane or {@code null}
+     */
+    public final LaneExecutor getLaneExecutor(ExecutorLane lane) {
+        return laneExecutors.get(lane);
+    }
+
+    /**
+     * Sets the executor for tasks of the specified lane. {@code null} lets
+     * tasks of that lane be executed by {@link #getExecutor()}.
+     *
+     * @param lane executor lane
+     * @param executor executor of the lane or {@code null}
+     */
+    public synchronized void setLaneExecutor(ExecutorLane lane,
+            LaneExecutor executor) {
+        EnumMap<ExecutorLane, LaneExecutor> copy =
+                new EnumMap<ExecutorLane, LaneExecutor>(laneExecutors);
+        if (executor != null)
+            copy.put(lane, executor);
+        else
+            copy.remove(lane);
+        laneExecutors = copy;
+    }
+
+    /**
+     * Returns the configured lane executors, providing their queue depth and
+     * latency metrics.
+     *
+     * @return unmodifiable map of lane executors
+     */
+    public Map<ExecutorLane, LaneExecutor> getLaneExecutors() {
+        return Collections.unmodifiableMap(laneExecutors);
+    }
+
+    void executeHandshake(Runnable command) {
+        Executor exec = handshakeExecutor;
+        if (exec == null) {
+            execute(command);
+            return;
+        }
+        exec.execute(command);
+    }
+
     public final ScheduledExecutorService getScheduledExecutor() {
         return scheduledExecutor;
     }
@@ -1195,10 +1327,30 @@ public class Device implements Serializable {
         if (ctx != null)
             return ctx;
 
-        sslContext = ctx = createSSLContext(km(), tm());
+        ctx = createSSLContext(km(), tm());
+        configureSessionContexts(ctx);
+        sslContext = ctx;
         return ctx;
     }
 
+    private void configureSessionContexts(SSLContext ctx) {
+        if (ctx == null)
+            return;
+
+        configureSessionContext(ctx.getServerSessionContext());
+        configureSessionContext(ctx.getClientSessionContext());
+    }
+
+    private void configureSessionContext(SSLSessionContext sessionContext) {
+        if (sessionContext == null)
+            return;
+
+        if (tlsSessionCacheSize != 0)
+            sessionContext.setSessionCacheSize(tlsSessionCacheSize);
+        if (tlsSessionTimeout != 0)
+            sessionContext.setSessionTimeout(tlsSessionTimeout);
+    }
+
     private static SSLContext createSSLContext(KeyManager km, TrustManager tm)
             throws GeneralSecurityException {
         SSLContext ctx = SSLContext.getInstance("TLS");
@@ -1214,6 +1366,28 @@ public class Device implements Serializable {
         executor.execute(command);
     }
 
+    public void execute(ExecutorLane lane, Runnable command) {
+        execute(lane, Priority.NORMAL, command);
+    }
+
+    /**
+     * Executes the given task by the executor of the specified lane,
+     * considering the DICOM priority, if the lane executor is configured.
+     * Otherwise the task is executed by {@link #getExecutor()}.
+     *
+     * @param lane executor lane
+     * @param priority {@link Priority#HIGH}, {@link Priority#NORMAL} or
+     *        {@link Priority#LOW}
+     * @param command the task to execute
+     */
+    public void execute(ExecutorLane lane, int priority, Runnable command) {
+        LaneExecutor laneExecutor = laneExecutors.get(lane);
+        if (laneExecutor == null)
+            execute(command);
+        else
+            laneExecutor.execute(command, priority);
+    }
+
     public ScheduledFuture<?> schedule(Runnable command, long delay,
                                        TimeUnit unit) {
         if (scheduledExecutor == null)
@@ -1283,6 +1457,8 @@ public class Device implements Serializable {
         setKeyStoreType(from.keyStoreType);
         setKeyStorePin(from.keyStorePin);
         setKeyStoreKeyPin(from.keyStoreKeyPin);
+        setTlsSessionCacheSize(from.tlsSessionCacheSize);
+        setTlsSessionTimeout(from.tlsSessionTimeout);
         setTimeZoneOfDevice(from.timeZoneOfDevice);
         setIssuerOfPatientID(from.issuerOfPatientID);
         setIssuerOfAccessionNumber(from.issuerOfAccessionNumber);
@@ -52,6 +52,7 @@ public class DimseRSPHandler {
     private final int msgId;
     private PresentationContext pc;
     private Timeout timeout;
+    private long rqSentTime;
 
     public DimseRSPHandler(int msgId) {
         this.msgId = msgId;
@@ -65,10 +66,28 @@ public class DimseRSPHandler {
         return msgId;
     }
 
+    final void setRQSentTime(long rqSentTime) {
+        this.rqSentTime = rqSentTime;
+    }
+
+    final long getRQSentTime() {
+        return rqSentTime;
+    }
+
     final void setTimeout(Timeout timeout) {
         this.timeout = timeout;
     }
 
+    /**
+     * @return {@code true} if the invocation of the request shall not block
+     *         for a free slot of the negotiated maximal number of outstanding
+     *         operations, but be queued until an outstanding operation
+     *         completes
+     */
+    boolean isNonBlocking() {
+        return false;
+    }
+
     public void cancel(Association as) throws IOException {
         as.cancel(pc, msgId);
     }
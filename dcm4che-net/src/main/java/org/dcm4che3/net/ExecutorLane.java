@@ -0,0 +1,89 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+/**
+ * Lanes, by which tasks executed by a {@link Device} are separated, so a burst
+ * of tasks of one kind does not starve tasks of other kinds. A lane without
+ * an explicitly configured {@link LaneExecutor} falls back to the executor of
+ * the device.
+ * <p>
+ * Listener and association reader loops, which occupy a thread for their
+ * whole lifetime, are not executed by any lane but by the executor of the
+ * device, which therefore must not be bounded.
+ *
+ * @author agent <agent@local>
+ * @see Device#setLaneExecutor(ExecutorLane, LaneExecutor)
+ */
+public enum ExecutorLane {
+    /**
+     * Processing of received DIMSE requests not belonging to one of the other
+     * lanes, e.g. C-ECHO and DIMSE-N requests.
+     */
+    DIMSE,
+    /**
+     * C-FIND query tasks.
+     */
+    QUERY,
+    /**
+     * C-MOVE and C-GET retrieve tasks.
+     */
+    RETRIEVE,
+    /**
+     * Processing of received C-STORE requests.
+     */
+    STORAGE,
+    /**
+     * Emission of audit messages.
+     */
+    AUDIT;
+
+    public static ExecutorLane valueOf(Dimse dimse) {
+        switch (dimse) {
+        case C_STORE_RQ:
+            return STORAGE;
+        case C_FIND_RQ:
+            return QUERY;
+        case C_GET_RQ:
+        case C_MOVE_RQ:
+            return RETRIEVE;
+        default:
+            return DIMSE;
+        }
+    }
+}
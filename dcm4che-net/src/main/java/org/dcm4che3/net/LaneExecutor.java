@@ -0,0 +1,277 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool executing the tasks of one {@link ExecutorLane} of a
+ * {@link Device}, with a bounded queue and its own rejection policy.
+ * <p>
+ * Queued tasks are scheduled by the DICOM priority passed to
+ * {@link #execute(Runnable, int)} ({@link Priority#HIGH} before
+ * {@link Priority#NORMAL} before {@link Priority#LOW}), and in submission
+ * order within one priority. Tasks passed to {@link #execute(Runnable)} are
+ * executed with {@link Priority#NORMAL}.
+ *
+ * @author agent <agent@local>
+ */
+public class LaneExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final int queueCapacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong totalQueueTime = new AtomicLong();
+    private final AtomicLong maxQueueTime = new AtomicLong();
+    private final AtomicLong totalExecutionTime = new AtomicLong();
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    public LaneExecutor(String name, int threads, int queueCapacity,
+            RejectedExecutionHandler rejectionPolicy) {
+        super(threads, threads, 60L, TimeUnit.SECONDS,
+                new BoundedPriorityQueue(queueCapacity),
+                new LaneThreadFactory(name));
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new CountingRejectionHandler(rejectionPolicy));
+    }
+
+    public final String getName() {
+        return name;
+    }
+
+    public final int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Number of tasks waiting for execution.
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Average time in ms tasks waited in the queue before their execution
+     * started.
+     */
+    public long getAverageQueueTime() {
+        long started = startedCount.get();
+        return started > 0 ? totalQueueTime.get() / started : 0L;
+    }
+
+    /**
+     * Maximal time in ms a task waited in the queue before its execution
+     * started.
+     */
+    public long getMaxQueueTime() {
+        return maxQueueTime.get();
+    }
+
+    /**
+     * Average time in ms of the execution of completed tasks.
+     */
+    public long getAverageExecutionTime() {
+        long completed = getCompletedTaskCount();
+        return completed > 0 ? totalExecutionTime.get() / completed : 0L;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, Priority.NORMAL);
+    }
+
+    /**
+     * Executes the given task with the given DICOM priority.
+     *
+     * @param command the task to execute
+     * @param priority {@link Priority#HIGH}, {@link Priority#NORMAL} or
+     *        {@link Priority#LOW}
+     */
+    public void execute(Runnable command, int priority) {
+        if (command == null)
+            throw new NullPointerException();
+
+        super.execute(command instanceof LaneTask
+                ? command
+                : new LaneTask(command, priority, sequence.incrementAndGet()));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        long now = System.currentTimeMillis();
+        long queueTime = now - ((LaneTask) r).queuedTime;
+        startedCount.incrementAndGet();
+        totalQueueTime.addAndGet(queueTime);
+        for (;;) {
+            long max = maxQueueTime.get();
+            if (queueTime <= max || maxQueueTime.compareAndSet(max, queueTime))
+                break;
+        }
+        startTime.set(now);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        Long start = startTime.get();
+        if (start != null) {
+            totalExecutionTime.addAndGet(System.currentTimeMillis() - start);
+            startTime.remove();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LaneExecutor[" + name
+                + ", threads=" + getPoolSize() + "/" + getMaximumPoolSize()
+                + ", active=" + getActiveCount()
+                + ", queued=" + getQueueSize() + "/" + queueCapacity
+                + ", completed=" + getCompletedTaskCount()
+                + ", rejected=" + getRejectedCount()
+                + "]";
+    }
+
+    private static int rank(int priority) {
+        switch (priority) {
+        case Priority.HIGH:
+            return 0;
+        case Priority.LOW:
+            return 2;
+        default:
+            return 1;
+        }
+    }
+
+    private static final class LaneTask implements Runnable, Comparable<LaneTask> {
+
+        final Runnable command;
+        final int rank;
+        final long seq;
+        final long queuedTime = System.currentTimeMillis();
+
+        LaneTask(Runnable command, int priority, long seq) {
+            this.command = command;
+            this.rank = rank(priority);
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+
+        @Override
+        public int compareTo(LaneTask o) {
+            if (rank != o.rank)
+                return rank < o.rank ? -1 : 1;
+            return seq < o.seq ? -1 : seq == o.seq ? 0 : 1;
+        }
+    }
+
+    /**
+     * Priority queue rejecting further elements, if it already contains
+     * {@code capacity} elements.
+     */
+    private static final class BoundedPriorityQueue
+            extends PriorityBlockingQueue<Runnable> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        BoundedPriorityQueue(int capacity) {
+            if (capacity <= 0)
+                throw new IllegalArgumentException("capacity: " + capacity);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable e) {
+            return size() < capacity && super.offer(e);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+    }
+
+    private final class CountingRejectionHandler
+            implements RejectedExecutionHandler {
+
+        private final RejectedExecutionHandler policy;
+
+        CountingRejectionHandler(RejectedExecutionHandler policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejectedCount.incrementAndGet();
+            policy.rejectedExecution(((LaneTask) r).command, executor);
+        }
+    }
+
+    private static final class LaneThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger threadNo = new AtomicInteger();
+
+        LaneThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, name + "-" + threadNo.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the network activity of one association, of all associations
+ * between a pair of application entities or of all associations of a
+ * device, maintained by {@link BasicNetworkMetrics}.
+ *
+ * @author agent <agent@local>
+ */
+public class NetworkCounters implements NetworkCountersMBean {
+
+    private static final int DIMSE_COUNT = Dimse.values().length;
+
+    final AtomicLong associationsEstablished = new AtomicLong();
+    final AtomicLong activeAssociations = new AtomicLong();
+    final AtomicLong pdusSent = new AtomicLong();
+    final AtomicLong pdusReceived = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    final AtomicLong bytesReceived = new AtomicLong();
+    final AtomicLong outstandingOpsInvoked = new AtomicLong();
+    final AtomicLong outstandingOpsPerformed = new AtomicLong();
+    final AtomicLong encoderBlockedNanos = new AtomicLong();
+    final AtomicLong decoderStallNanos = new AtomicLong();
+    final AtomicLongArray dimseSent = new AtomicLongArray(DIMSE_COUNT);
+    final AtomicLongArray dimseReceived = new AtomicLongArray(DIMSE_COUNT);
+    final LatencyHistogram rspTime;
+    final LatencyHistogram setupTime;
+    final LatencyHistogram releaseTime;
+
+    /**
+     * @param histograms {@code false} to omit the latency histograms, e.g.
+     *        for counters of a single association
+     */
+    public NetworkCounters(boolean histograms) {
+        this.rspTime = histograms ? new LatencyHistogram() : null;
+        this.setupTime = histograms ? new LatencyHistogram() : null;
+        this.releaseTime = histograms ? new LatencyHistogram() : null;
+    }
+
+    void onPDUSent(int pduLength, long writeTime) {
+        pdusSent.incrementAndGet();
+        bytesSent.addAndGet(pduLength + 6);
+        encoderBlockedNanos.addAndGet(writeTime);
+    }
+
+    void onPDUReceived(int pduLength, long stallTime) {
+        pdusReceived.incrementAndGet();
+        bytesReceived.addAndGet(pduLength + 6);
+        decoderStallNanos.addAndGet(stallTime);
+    }
+
+    static void record(LatencyHistogram histogram, long nanos) {
+        if (histogram != null)
+            histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public LatencyHistogram getRSPTimeHistogram() {
+        return rspTime;
+    }
+
+    public LatencyHistogram getAssociationSetupTimeHistogram() {
+        return setupTime;
+    }
+
+    public LatencyHistogram getAssociationReleaseTimeHistogram() {
+        return releaseTime;
+    }
+
+    public long countDimseSent(Dimse dimse) {
+        return dimseSent.get(dimse.ordinal());
+    }
+
+    public long countDimseReceived(Dimse dimse) {
+        return dimseReceived.get(dimse.ordinal());
+    }
+
+    @Override
+    public long countDimseSent(String dimse) {
+        return countDimseSent(Dimse.valueOf(dimse));
+    }
+
+    @Override
+    public long countDimseReceived(String dimse) {
+        return countDimseReceived(Dimse.valueOf(dimse));
+    }
+
+    @Override
+    public long getAssociationsEstablished() {
+        return associationsEstablished.get();
+    }
+
+    @Override
+    public long getActiveAssociations() {
+        return activeAssociations.get();
+    }
+
+    @Override
+    public long getPDUsSent() {
+        return pdusSent.get();
+    }
+
+    @Override
+    public long getPDUsReceived() {
+        return pdusReceived.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getOutstandingOpsInvoked() {
+        return outstandingOpsInvoked.get();
+    }
+
+    @Override
+    public long getOutstandingOpsPerformed() {
+        return outstandingOpsPerformed.get();
+    }
+
+    @Override
+    public long getEncoderBlockedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(encoderBlockedNanos.get());
+    }
+
+    @Override
+    public long getDecoderStallTime() {
+        return TimeUnit.NANOSECONDS.toMillis(decoderStallNanos.get());
+    }
+
+    @Override
+    public double getRSPTimeMean() {
+        return rspTime != null ? rspTime.getMean() : 0;
+    }
+
+    @Override
+    public long getRSPTimeMax() {
+        return rspTime != null ? rspTime.getMax() : 0;
+    }
+
+    @Override
+    public long rspTimeAtPercentile(double percentile) {
+        return rspTime != null ? rspTime.getValueAtPercentile(percentile) : 0;
+    }
+
+    @Override
+    public double getAssociationSetupTimeMean() {
+        return setupTime != null ? setupTime.getMean() : 0;
+    }
+
+    @Override
+    public long getAssociationSetupTimeMax() {
+        return setupTime != null ? setupTime.getMax() : 0;
+    }
+
+    @Override
+    public long associationSetupTimeAtPercentile(double percentile) {
+        return setupTime != null
+                ? setupTime.getValueAtPercentile(percentile)
+                : 0;
+    }
+
+    @Override
+    public double getAssociationReleaseTimeMean() {
+        return releaseTime != null ? releaseTime.getMean() : 0;
+    }
+
+    @Override
+    public long getAssociationReleaseTimeMax() {
+        return releaseTime != null ? releaseTime.getMax() : 0;
+    }
+
+    @Override
+    public long associationReleaseTimeAtPercentile(double percentile) {
+        return releaseTime != null
+                ? releaseTime.getValueAtPercentile(percentile)
+                : 0;
+    }
+
+    /**
+     * Resets all counters, except the gauges of active associations and
+     * outstanding operations.
+     */
+    @Override
+    public void reset() {
+        associationsEstablished.set(0);
+        pdusSent.set(0);
+        pdusReceived.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        encoderBlockedNanos.set(0);
+        decoderStallNanos.set(0);
+        for (int i = 0; i < DIMSE_COUNT; i++) {
+            dimseSent.set(i, 0);
+            dimseReceived.set(i, 0);
+        }
+        if (rspTime != null) {
+            rspTime.reset();
+            setupTime.reset();
+            releaseTime.reset();
+        }
+    }
+}
@@ -208,6 +208,8 @@ class PDUDecoder extends PDVInputStream {
     private void checkPDULength(int len) throws AAbort {
         if (pdulen != len)
             abort(AAbort.INVALID_PDU_PARAMETER_VALUE, INVALID_PDU_LENGTH);
+
+        as.getMetrics().onPDUReceived(pdutype, pdulen, 0);
     }
 
     private void readPDU() throws IOException {
@@ -217,7 +219,10 @@ class PDUDecoder extends PDVInputStream {
         if (6 + pdulen > buf.length)
             buf = Arrays.copyOf(buf, 6 + pdulen);
 
+        long start = System.nanoTime();
         readFully(10, pdulen - 4);
+        as.getMetrics().onPDUReceived(pdutype, pdulen,
+                System.nanoTime() - start);
     }
 
     private void readFully(int off, int len) throws IOException {
@@ -423,6 +428,14 @@ class PDUDecoder extends PDVInputStream {
         if (pcid != - 1)
             return; // already inside decodeDIMSE
 
+        // a P-DATA-TF may contain PDVs of several messages,
+        // e.g. coalesced pending responses
+        do
+            decodeNextDIMSE();
+        while (hasRemaining());
+    }
+
+    private void decodeNextDIMSE() throws IOException {
         nextPDV(PDVType.COMMAND, -1);
 
         PresentationContext pc = as.getPresentationContext(pcid);
@@ -43,6 +43,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -66,6 +67,10 @@ import org.dcm4che3.net.pdu.UserIdentityRQ;
  */
 class PDUEncoder extends PDVOutputStream {
 
+    // room for the PDV header and a fragment of the next message, required
+    // to defer sending a P-DATA-TF PDU
+    private static final int MIN_COALESCE_FREE = 64;
+
     private Association as;
     private OutputStream out;
     private byte[] buf = new byte[Connection.DEF_MAX_PDU_LENGTH + 6];
@@ -76,6 +81,8 @@ class PDUEncoder extends PDVOutputStream {
     private int maxpdulen;
     private Thread th;
     private Object dimseLock = new Object();
+    private boolean coalesced;
+    private int pduCount;
 
     public PDUEncoder(Association as, OutputStream out) {
         this.as = as;
@@ -98,10 +105,12 @@ class PDUEncoder extends PDVOutputStream {
     }
 
     public void writeAReleaseRQ() throws IOException {
+        flushCoalesced();
         write(PDUType.A_RELEASE_RQ, 0, 0, 0);
     }
 
     public void writeAReleaseRP() throws IOException {
+        flushCoalesced();
         write(PDUType.A_RELEASE_RP, 0, 0, 0);
     }
 
@@ -120,20 +129,27 @@ class PDUEncoder extends PDVOutputStream {
                 (byte) source,
                 (byte) reason
         };
+        long start = System.nanoTime();
         out.write(b);
         out.flush();
+        as.getMetrics().onPDUSent(pdutype, 4, System.nanoTime() - start);
     }
 
     private synchronized void writePDU(int pdulen) throws IOException {
         try {
+            long start = System.nanoTime();
             out.write(buf, 0, 6 + pdulen);
             out.flush();
+            as.getMetrics().onPDUSent(buf[0] & 0xff, pdulen,
+                    System.nanoTime() - start);
         } catch (IOException e) {
             as.onIOException(e);
             throw e;
         }
         pdvpos = 6;
         pos = 12;
+        coalesced = false;
+        pduCount++;
     }
 
     private void encode(AAssociateRQAC rqac, int pduType, int pcItemType) {
@@ -430,8 +446,76 @@ class PDUEncoder extends PDVOutputStream {
                 dataWriter.writeTo(this, tsuid);
                 close();
             }
-            as.writePDataTF();
+            Dimse dimse = Dimse.valueOf(cmd.getInt(Tag.CommandField, -1));
+            boolean pending = dimse.isRSP()
+                    && Status.isPending(cmd.getInt(Tag.Status, -1));
+            if (!deferPDataTF(dimse, pending))
+                as.writePDataTF();
             this.th = null;
+            if (dimse.isRSP())
+                as.getMetrics().onDimseRSPSent(dimse, pending);
+            else
+                as.getMetrics().onDimseRQSent(dimse);
+        }
+    }
+
+    private boolean deferPDataTF(Dimse dimse, boolean pending) {
+        int delay = as.getPdvCoalesceDelay();
+        if (delay == 0 || !isDeferrable(dimse, pending))
+            return false;
+
+        int maxlen = as.getPdvCoalesceMaxLength();
+        if (maxlen == 0 || maxlen > maxpdulen)
+            maxlen = maxpdulen;
+        if (pos - 6 >= maxlen || free() < 6 + MIN_COALESCE_FREE)
+            return false;
+
+        pdvpos = pos;
+        pos += 6;
+        if (!coalesced) {
+            coalesced = true;
+            scheduleFlush(delay);
+        }
+        return true;
+    }
+
+    private static boolean isDeferrable(Dimse dimse, boolean pending) {
+        return dimse.isRSP() ? pending : dimse == Dimse.N_EVENT_REPORT_RQ;
+    }
+
+    private void scheduleFlush(int delay) {
+        final int expected = pduCount;
+        as.getDevice().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (dimseLock) {
+                    if (!coalesced || pduCount != expected)
+                        return;
+
+                    pos -= 6;
+                    try {
+                        as.writePDataTF();
+                    } catch (IOException e) {
+                        Association.LOG.debug(
+                                "{}: failed to send coalesced P-DATA-TF: {}",
+                                as, e);
+                        coalesced = false;
+                        pdvpos = 6;
+                        pos = 12;
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushCoalesced() throws IOException {
+        synchronized (dimseLock) {
+            if (!coalesced)
+                return;
+
+            pos -= 6;
+            writePDataTF();
         }
     }
 }
@@ -38,11 +38,14 @@
 
 package org.dcm4che3.net;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -59,4 +62,82 @@ public abstract class PDVInputStream extends InputStream {
 
     public abstract long skipAll() throws IOException;
 
+    /**
+     * Copies the remaining data to {@code out}, parsing it on the fly up to
+     * the given stop tag. This avoids reading the data back from its
+     * destination to extract attributes of the dataset.
+     * <p>
+     * Bulk data preceding the stop tag is copied, but not included in the
+     * returned attributes. For deflated transfer syntaxes, the returned
+     * stop tag position refers to the inflated dataset.
+     *
+     * @param out destination of the data
+     * @param tsuid transfer syntax of the data
+     * @param stopTag stop parsing at the given tag, e.g.
+     *        {@link org.dcm4che3.data.Tag#PixelData}; -1 to parse the
+     *        whole dataset
+     * @return parsed attributes with the position of the stop tag
+     * @throws IOException
+     */
+    public ParsedDataset copyToAndParse(OutputStream out, String tsuid,
+            int stopTag) throws IOException {
+        DicomInputStream dis = new DicomInputStream(new TeeInputStream(this, out), tsuid);
+        dis.setIncludeBulkData(IncludeBulkData.NO);
+        Attributes dataset = dis.readDataset(-1, stopTag);
+        long stopTagPosition = stopTag != -1 && dis.tag() == stopTag
+                ? dis.getTagPosition()
+                : -1L;
+        // bytes read ahead by the parser are already copied by the tee
+        copyTo(out);
+        return new ParsedDataset(dataset, stopTagPosition);
+    }
+
+    private static final class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream out;
+        private byte[] skipBuffer;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1)
+                out.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0)
+                out.write(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0)
+                return 0;
+
+            if (skipBuffer == null)
+                skipBuffer = new byte[8192];
+            int read = read(skipBuffer, 0, (int) Math.min(n, skipBuffer.length));
+            return read > 0 ? read : 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // keep underlying stream open
+        }
+    }
+
 }
@@ -0,0 +1,180 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+
+/**
+ * Copy of the data of a DIMSE request, read completely from the association
+ * before the request is handed over to a worker thread, so the PDU decoder
+ * can continue with the next request. Data up to a configurable threshold is
+ * kept in memory, larger data is spooled to a temporary file, which is
+ * deleted on {@link #close()}.
+ *
+ * @author agent <agent@local>
+ */
+class SpooledPDVInputStream extends PDVInputStream {
+
+    private final File file;
+    private final long length;
+    private final InputStream in;
+    private long pos;
+
+    private SpooledPDVInputStream(byte[] buf, int length) {
+        this.file = null;
+        this.length = length;
+        this.in = new ByteArrayInputStream(buf, 0, length);
+    }
+
+    private SpooledPDVInputStream(File file) throws IOException {
+        this.file = file;
+        this.length = file.length();
+        this.in = new BufferedInputStream(new FileInputStream(file));
+    }
+
+    public static SpooledPDVInputStream spool(PDVInputStream data,
+            int threshold) throws IOException {
+        if (threshold <= 0)
+            return spoolToFile(data, new byte[0], 0);
+
+        byte[] buf = new byte[Math.min(threshold, 8192)];
+        int len = 0;
+        int read;
+        while ((read = data.read(buf, len, buf.length - len)) != -1) {
+            len += read;
+            if (len == buf.length) {
+                if (len >= threshold)
+                    return spoolToFile(data, buf, len);
+                buf = Arrays.copyOf(buf, Math.min(threshold, len << 1));
+            }
+        }
+        return new SpooledPDVInputStream(buf, len);
+    }
+
+    private static SpooledPDVInputStream spoolToFile(PDVInputStream data,
+            byte[] buf, int len) throws IOException {
+        File file = File.createTempFile("dimse", ".spool");
+        boolean success = false;
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(buf, 0, len);
+                data.copyTo(out);
+            } finally {
+                out.close();
+            }
+            SpooledPDVInputStream spooled = new SpooledPDVInputStream(file);
+            success = true;
+            return spooled;
+        } finally {
+            if (!success)
+                file.delete();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1)
+            pos++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0)
+            pos += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - pos);
+    }
+
+    @Override
+    public Attributes readDataset(String tsuid) throws IOException {
+        DicomInputStream dis = new DicomInputStream(this, tsuid);
+        return dis.readDataset(-1, -1);
+    }
+
+    @Override
+    public void copyTo(OutputStream out, int length) throws IOException {
+        StreamUtils.copy(this, out, length);
+    }
+
+    @Override
+    public void copyTo(OutputStream out) throws IOException {
+        StreamUtils.copy(this, out);
+    }
+
+    @Override
+    public long skipAll() throws IOException {
+        long n = length - pos;
+        StreamUtils.skipFully(this, n);
+        return n;
+    }
+
+    @Override
+    public void close() {
+        SafeClose.close(in);
+        if (file != null && !file.delete())
+            Association.LOG.warn("Failed to delete {}", file);
+    }
+}
@@ -43,6 +43,9 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
@@ -50,6 +53,15 @@ import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.SSLSocket;
 
 /**
+ * Accepts TCP connections on the bind point of a {@link Connection}.
+ * <p>
+ * TLS handshakes of accepted connections are not performed by the accept
+ * thread, but by {@link Device#getHandshakeExecutor()}, so a slow or stalled
+ * TLS client does not delay the acceptance of further connections. The number
+ * of concurrent handshakes and their duration can be limited by
+ * {@link Connection#getTlsMaxConcurrentHandshakes()} and
+ * {@link Connection#getTlsHandshakeTimeout()}.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
@@ -58,6 +70,7 @@ class TCPListener implements Listener {
     private final Connection conn;
     private final TCPProtocolHandler handler;
     private final ServerSocket ss;
+    private final Semaphore handshakePermits;
 
     public TCPListener(Connection conn, TCPProtocolHandler handler)
             throws IOException, GeneralSecurityException {
@@ -65,6 +78,10 @@ class TCPListener implements Listener {
         
             this.conn = conn;
             this.handler = handler;
+            int maxHandshakes = conn.getTlsMaxConcurrentHandshakes();
+            this.handshakePermits = conn.isTls() && maxHandshakes > 0
+                    ? new Semaphore(maxHandshakes)
+                    : null;
             ss = conn.isTls() ? createTLSServerSocket(conn) : new ServerSocket();
             conn.setReceiveBufferSize(ss);
             ss.bind(conn.getBindPoint(), conn.getBacklog());
@@ -105,29 +122,16 @@ class TCPListener implements Listener {
                         monitor.onConnectionRejectedBlacklisted(conn, s);
                     Connection.LOG.info("Reject blacklisted connection {}", s);
                     conn.close(s);
+                } else if (s instanceof SSLSocket) {
+                    handshakeAsync((SSLSocket) s, monitor);
                 } else {
                     try {
                         conn.setSocketSendOptions(s);
-                        if (s instanceof SSLSocket) {
-                            ((SSLSocket) s).startHandshake();
-                        }
                     } catch (Throwable e) {
-                        if (monitor != null)
-                            monitor.onConnectionRejected(conn, s, e);
-                        Connection.LOG.warn("Reject connection {}:",s, e);
-                        conn.close(s);
+                        reject(s, monitor, e);
                         continue;
                     }
-
-                    if (monitor != null)
-                        monitor.onConnectionAccepted(conn, s);
-                    Connection.LOG.info("Accept connection {}", s);
-                    try {
-                        handler.onAccept(conn, s);
-                    } catch (Throwable e) {
-                        Connection.LOG.warn("Exception on accepted connection {}:",s, e);
-                        conn.close(s);
-                    }
+                    accept(s, monitor);
                 }
             }
         } catch (Throwable e) {
@@ -137,6 +141,114 @@ class TCPListener implements Listener {
         Connection.LOG.info("Stop TCP Listener on {}", sockAddr);
     }
 
+    private void handshakeAsync(final SSLSocket s,
+            final ConnectionMonitor monitor) throws InterruptedException {
+        if (!acquireHandshakePermit()) {
+            conn.close(s);
+            return;
+        }
+        try {
+            conn.getDevice().executeHandshake(new Runnable() {
+
+                @Override
+                public void run() {
+                    boolean handshaked;
+                    try {
+                        handshaked = handshake(s, monitor);
+                    } finally {
+                        releaseHandshakePermit();
+                    }
+                    if (handshaked)
+                        accept(s, monitor);
+                }
+            });
+        } catch (RuntimeException e) {
+            releaseHandshakePermit();
+            reject(s, monitor, e);
+        }
+    }
+
+    private boolean acquireHandshakePermit() throws InterruptedException {
+        if (handshakePermits == null)
+            return true;
+
+        // poll, so close() is not blocked by stalled handshakes
+        while (!handshakePermits.tryAcquire(1, TimeUnit.SECONDS))
+            if (ss.isClosed())
+                return false;
+
+        return true;
+    }
+
+    private void releaseHandshakePermit() {
+        if (handshakePermits != null)
+            handshakePermits.release();
+    }
+
+    private boolean handshake(SSLSocket s, ConnectionMonitor monitor) {
+        int timeout = conn.getTlsHandshakeTimeout();
+        ScheduledFuture<?> timeoutTask = null;
+        long start = System.currentTimeMillis();
+        try {
+            conn.setSocketSendOptions(s);
+            if (timeout > 0) {
+                s.setSoTimeout(timeout);
+                timeoutTask = scheduleHandshakeTimeout(s, timeout);
+            }
+            s.startHandshake();
+            if (timeout > 0)
+                s.setSoTimeout(conn.getSocketTimeout());
+        } catch (Throwable e) {
+            reject(s, monitor, e);
+            return false;
+        } finally {
+            if (timeoutTask != null)
+                timeoutTask.cancel(false);
+        }
+        long handshakeTime = System.currentTimeMillis() - start;
+        Connection.LOG.debug("TLS handshake of {} completed in {} ms", s,
+                handshakeTime);
+        if (monitor instanceof TLSConnectionMonitor)
+            ((TLSConnectionMonitor) monitor).onTLSHandshakeCompleted(conn, s,
+                    handshakeTime);
+        return true;
+    }
+
+    private ScheduledFuture<?> scheduleHandshakeTimeout(final Socket s,
+            int timeout) {
+        Device device = conn.getDevice();
+        if (device.getScheduledExecutor() == null)
+            return null;
+
+        return device.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                Connection.LOG.info("TLS handshake timeout of {} expired", s);
+                conn.close(s);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void reject(Socket s, ConnectionMonitor monitor, Throwable e) {
+        if (monitor != null)
+            monitor.onConnectionRejected(conn, s, e);
+        Connection.LOG.warn("Reject connection {}:",s, e);
+        conn.close(s);
+    }
+
+    private void accept(Socket s, ConnectionMonitor monitor) {
+        if (monitor != null)
+            monitor.onConnectionAccepted(conn, s);
+        Connection.LOG.info("Accept connection {}", s);
+        try {
+            handler.onAccept(conn, s);
+        } catch (Throwable e) {
+            Connection.LOG.warn("Exception on accepted connection {}:",s, e);
+            conn.close(s);
+        }
+    }
+
 
     @Override
     public SocketAddress getEndPoint() {
@@ -198,6 +198,10 @@ public class TransferCapability implements Serializable {
             if (ts.isEmpty())
                 throw new IllegalArgumentException("empty transferSyntax");
         this.transferSyntaxes = transferSyntaxes;
+
+        ApplicationEntity ae = this.ae;
+        if (ae != null)
+            ae.onTransferCapabilityChanged();
     }
 
     public boolean containsTransferSyntax(String ts) {
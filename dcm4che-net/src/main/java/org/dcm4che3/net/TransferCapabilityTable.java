@@ -0,0 +1,114 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.dcm4che3.data.UIDSet;
+
+/**
+ * Immutable snapshot of the Transfer Capabilities of an Application Entity, prepared for the negotiation of
+ * Presentation Contexts.
+ * <p>
+ * The accepted Transfer Syntaxes of each Transfer Capability are kept as {@link org.dcm4che3.data.UIDSet}, a bitset
+ * of {@link org.dcm4che3.data.UIDId}s. Selecting the Transfer Syntax for a proposed Presentation Context thereby
+ * does not need to compare UID strings nor allocate any objects.
+ *
+ * @author agent <agent@local>
+ */
+final class TransferCapabilityTable {
+
+    private final Map<String, TransferCapability> scpTCs;
+    private final Map<String, TransferCapability> scuTCs;
+
+    /**
+     * Transfer Syntaxes by Transfer Capability, null value for Transfer Capabilities accepting any syntax
+     */
+    private final IdentityHashMap<TransferCapability, UIDSet> tsSets =
+            new IdentityHashMap<TransferCapability, UIDSet>();
+
+    TransferCapabilityTable(Map<String, TransferCapability> scpTCs,
+            Map<String, TransferCapability> scuTCs) {
+        this.scpTCs = new HashMap<String, TransferCapability>(scpTCs);
+        this.scuTCs = new HashMap<String, TransferCapability>(scuTCs);
+        for (TransferCapability tc : this.scpTCs.values())
+            tsSets.put(tc, tsSet(tc));
+        for (TransferCapability tc : this.scuTCs.values())
+            tsSets.put(tc, tsSet(tc));
+    }
+
+    private static UIDSet tsSet(TransferCapability tc) {
+        String[] tss = tc.getTransferSyntaxes();
+        return "*".equals(tss[0]) ? null : UIDSet.of(tss);
+    }
+
+    Map<String, TransferCapability> getTransferCapabilities(TransferCapability.Role role) {
+        return role == TransferCapability.Role.SCU ? scuTCs : scpTCs;
+    }
+
+    /**
+     * @return the first of the proposed Transfer Syntaxes that is accepted by the Transfer Capability,
+     * or null if there is none
+     */
+    String selectTransferSyntax(TransferCapability tc, String[] proposed) {
+        if (!tsSets.containsKey(tc))
+            return selectTransferSyntaxFromArray(tc, proposed);
+
+        UIDSet tsSet = tsSets.get(tc);
+        if (tsSet == null)
+            return proposed.length > 0 ? proposed[0] : null;
+
+        for (int i = 0; i < proposed.length; i++)
+            if (tsSet.contains(proposed[i]))
+                return proposed[i];
+        return null;
+    }
+
+    /**
+     * For Transfer Capabilities that are not part of the table (e.g. returned by an overridden role selection)
+     */
+    private static String selectTransferSyntaxFromArray(TransferCapability tc, String[] proposed) {
+        for (String ts : proposed)
+            if (tc.containsTransferSyntax(ts))
+                return ts;
+        return null;
+    }
+}
@@ -41,23 +41,44 @@ package org.dcm4che3.net;
 import java.io.IOException;
 import java.net.*;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
-class UDPListener implements Listener {
+class UDPListener implements DatagramListener {
 
     private static final int MAX_PACKAGE_LEN = 0x10000;
 
     private final Connection conn;
     private final UDPProtocolHandler handler;
     private final DatagramSocket ds;
+    private final int maxWorkers;
+    private final int queueSize;
+    private final ArrayBlockingQueue<DatagramPacket> queue;
+    private final ArrayBlockingQueue<DatagramPacket> free;
+    private int allocated;
+    private final AtomicInteger workers = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
 
     public UDPListener(Connection conn, UDPProtocolHandler handler)
             throws IOException, GeneralSecurityException {
         this.conn = conn;
         this.handler = handler;
+        this.maxWorkers = conn.getUdpWorkerThreads();
+        this.queueSize = conn.getUdpReceiveQueueSize();
+        if (maxWorkers > 0) {
+            queue = new ArrayBlockingQueue<DatagramPacket>(queueSize);
+            free = new ArrayBlockingQueue<DatagramPacket>(queueSize);
+        } else {
+            queue = null;
+            free = null;
+        }
         try {
             ds = new DatagramSocket(conn.getBindPoint());
         } catch (BindException e) {
@@ -75,25 +96,34 @@ class UDPListener implements Listener {
     private void listen() {
         SocketAddress sockAddr = ds.getLocalSocketAddress();
         Connection.LOG.info("Start UDP listener on {}", sockAddr);
-        byte[] data = new byte[MAX_PACKAGE_LEN];
+        DatagramPacket scratch = null;
         try {
             while (!ds.isClosed()) {
                 Connection.LOG.debug("Wait for UDP datagram package on {}", sockAddr);
-                DatagramPacket dp = new DatagramPacket(data, MAX_PACKAGE_LEN);
+                DatagramPacket dp = queue != null ? allocate() : null;
+                if (dp == null) {
+                    if (scratch == null)
+                        scratch = newPacket();
+                    dp = scratch;
+                }
+                dp.setLength(MAX_PACKAGE_LEN);
                 ds.receive(dp);
+                received.incrementAndGet();
                 InetAddress senderAddr = dp.getAddress();
                 if (conn.isBlackListed(dp.getAddress())) {
                     Connection.LOG.info(
                             "Ignore UDP datagram package received from blacklisted {}", senderAddr);
+                    if (dp != scratch)
+                        free.offer(dp);
+                } else if (queue == null) {
+                    process(dp);
+                } else if (dp == scratch) {
+                    dropped.incrementAndGet();
+                    Connection.LOG.debug(
+                            "Drop UDP datagram package received from {} - {} queued",
+                            senderAddr, queueSize);
                 } else {
-                    Connection.LOG.info(
-                            "Received UDP datagram package from {}", senderAddr);
-                    try {
-                        handler.onReceive(conn, dp);
-                    } catch (Throwable e) {
-                        Connection.LOG.warn(
-                                "Exception processing UDP received from {}:", senderAddr, e);
-                    }
+                    enqueue(dp);
                 }
             }
         } catch (Throwable e) {
@@ -103,6 +133,112 @@ class UDPListener implements Listener {
         Connection.LOG.info("Stop UDP listener on {}", sockAddr);
     }
 
+    private static DatagramPacket newPacket() {
+        return new DatagramPacket(new byte[MAX_PACKAGE_LEN], MAX_PACKAGE_LEN);
+    }
+
+    // packets are allocated on demand by the receiving thread up to the
+    // capacity of the queue, so an allocated packet can always be added to
+    // the queue
+    private DatagramPacket allocate() {
+        DatagramPacket dp = free.poll();
+        if (dp != null)
+            return dp;
+
+        if (allocated == queueSize)
+            return null;
+
+        allocated++;
+        return newPacket();
+    }
+
+    private void enqueue(DatagramPacket dp) {
+        queue.offer(dp);
+        int size = queue.size();
+        for (;;) {
+            int max = maxQueued.get();
+            if (size <= max || maxQueued.compareAndSet(max, size))
+                break;
+        }
+        if (tryIncrementWorkers())
+            startWorker();
+    }
+
+    private boolean tryIncrementWorkers() {
+        for (;;) {
+            int n = workers.get();
+            if (n >= maxWorkers)
+                return false;
+            if (workers.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    private void startWorker() {
+        try {
+            // UDP is only used for receiving Syslog messages
+            conn.getDevice().execute(ExecutorLane.AUDIT, new Runnable() {
+
+                @Override
+                public void run() {
+                    processQueued();
+                }
+            });
+        } catch (RuntimeException e) {
+            workers.decrementAndGet();
+            Connection.LOG.warn("Failed to start processing of UDP datagram packages:", e);
+        }
+    }
+
+    private void processQueued() {
+        for (;;) {
+            DatagramPacket dp = queue.poll();
+            if (dp == null) {
+                workers.decrementAndGet();
+                // recheck for a packet enqueued before the decrement
+                if (queue.isEmpty() || !tryIncrementWorkers())
+                    return;
+                continue;
+            }
+            try {
+                process(dp);
+            } finally {
+                free.offer(dp);
+            }
+        }
+    }
+
+    private void process(DatagramPacket dp) {
+        InetAddress senderAddr = dp.getAddress();
+        Connection.LOG.info(
+                "Received UDP datagram package from {}", senderAddr);
+        try {
+            handler.onReceive(conn, dp);
+        } catch (Throwable e) {
+            Connection.LOG.warn(
+                    "Exception processing UDP received from {}:", senderAddr, e);
+        }
+    }
+
+    @Override
+    public long getReceivedDatagrams() {
+        return received.get();
+    }
+
+    @Override
+    public long getDroppedDatagrams() {
+        return dropped.get();
+    }
+
+    @Override
+    public int getQueuedDatagrams() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    @Override
+    public int getMaxQueuedDatagrams() {
+        return maxQueued.get();
+    }
 
     @Override
     public SocketAddress getEndPoint()  {
@@ -39,10 +39,14 @@
 package org.dcm4che3.net.service;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.ExecutorLane;
+import org.dcm4che3.net.Priority;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
 
@@ -63,7 +67,12 @@ public class BasicCFindSCP extends AbstractDicomService {
             throw new DicomServiceException(Status.UnrecognizedOperation);
 
         QueryTask queryTask = calculateMatches(as, pc, rq, keys);
-        as.getApplicationEntity().getDevice().execute(queryTask);
+        try {
+            as.getApplicationEntity().getDevice().execute(ExecutorLane.QUERY,
+                    rq.getInt(Tag.Priority, Priority.NORMAL), queryTask);
+        } catch (RejectedExecutionException e) {
+            throw new DicomServiceException(Status.OutOfResources, e);
+        }
     }
 
     protected QueryTask calculateMatches(Association as, PresentationContext pc,
@@ -39,11 +39,15 @@
 package org.dcm4che3.net.service;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Commands;
 import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.ExecutorLane;
+import org.dcm4che3.net.Priority;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
 
@@ -64,10 +68,17 @@ public class BasicCMoveSCP extends AbstractDicomService {
             throw new DicomServiceException(Status.UnrecognizedOperation);
 
         RetrieveTask retrieveTask = calculateMatches(as, pc, cmd, keys);
-        if (retrieveTask != null)
-            as.getApplicationEntity().getDevice().execute(retrieveTask);
-        else
+        if (retrieveTask == null) {
             as.tryWriteDimseRSP(pc, Commands.mkCMoveRSP(cmd, Status.Success));
+            return;
+        }
+
+        try {
+            as.getApplicationEntity().getDevice().execute(ExecutorLane.RETRIEVE,
+                    cmd.getInt(Tag.Priority, Priority.NORMAL), retrieveTask);
+        } catch (RejectedExecutionException e) {
+            throw new DicomServiceException(Status.UnableToCalculateNumberOfMatches, e);
+        }
     }
 
     protected RetrieveTask calculateMatches(Association as, PresentationContext pc,
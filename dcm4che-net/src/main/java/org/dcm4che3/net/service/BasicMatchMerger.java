@@ -0,0 +1,106 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.service;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+
+/**
+ * Adds attributes missing in the first match from later matches and
+ * combines the values of configured multi-valued attributes, by default
+ * Retrieve AE Title and Modalities in Study.
+ *
+ * @author agent <agent@local>
+ */
+public class BasicMatchMerger implements MatchMerger {
+
+    private int[] unionTags = {
+            Tag.RetrieveAETitle,
+            Tag.ModalitiesInStudy
+    };
+
+    public BasicMatchMerger() {
+    }
+
+    public BasicMatchMerger(int... unionTags) {
+        setUnionTags(unionTags);
+    }
+
+    public final int[] getUnionTags() {
+        return unionTags.clone();
+    }
+
+    public final void setUnionTags(int... unionTags) {
+        this.unionTags = unionTags.clone();
+    }
+
+    @Override
+    public Attributes merge(Attributes match, Attributes other) {
+        for (int tag : unionTags)
+            union(match, other, tag);
+        match.merge(other);
+        return match;
+    }
+
+    private static void union(Attributes match, Attributes other, int tag) {
+        String[] ss2 = other.getStrings(tag);
+        if (ss2 == null || ss2.length == 0)
+            return;
+
+        String[] ss1 = match.getStrings(tag);
+        if (ss1 == null || ss1.length == 0) {
+            match.setString(tag, vrOf(other, tag), ss2);
+            return;
+        }
+        LinkedHashSet<String> union = new LinkedHashSet<String>();
+        Collections.addAll(union, ss1);
+        if (Collections.addAll(union, ss2))
+            match.setString(tag, vrOf(match, tag),
+                    union.toArray(new String[union.size()]));
+    }
+
+    private static VR vrOf(Attributes attrs, int tag) {
+        VR vr = attrs.getVR(tag);
+        return vr != null ? vr : ElementDictionary.vrOf(tag, null);
+    }
+}
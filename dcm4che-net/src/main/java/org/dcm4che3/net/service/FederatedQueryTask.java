@@ -0,0 +1,400 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationPool;
+import org.dcm4che3.net.AsyncDimseRSP;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query task forwarding the C-FIND request to several remote application
+ * entities in parallel, using associations of the
+ * {@link AssociationPool} of the local application entity.
+ * <p>
+ * Matches are returned to the requester as they arrive. Matches for the
+ * same Patient ID, Study, Series or SOP Instance UID - according to the
+ * Query/Retrieve Level - are returned once; matches for the same entity
+ * received before the first match was returned are combined by the
+ * configured {@link MatchMerger}. A cancel request of the requester and
+ * reaching the configured maximal number of returned matches is forwarded
+ * to the remote application entities by C-CANCEL-RQs.
+ *
+ * @author agent <agent@local>
+ */
+public class FederatedQueryTask extends BasicQueryTask {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FederatedQueryTask.class);
+
+    private final List<ApplicationEntity> remotes;
+    private final LinkedHashMap<Object, Attributes> queued =
+            new LinkedHashMap<Object, Attributes>();
+    private final HashSet<Object> returned = new HashSet<Object>();
+    private final List<AsyncDimseRSP> rsps = new ArrayList<AsyncDimseRSP>();
+    private MatchMerger merger = new BasicMatchMerger();
+    private String[] tsuids = { UID.ExplicitVRLittleEndian,
+            UID.ImplicitVRLittleEndian };
+    private int maxMatches;
+    private boolean started;
+    private boolean truncated;
+    private int outstanding;
+    private int failed;
+    private int duplicates;
+
+    public FederatedQueryTask(Association as, PresentationContext pc,
+            Attributes rq, Attributes keys,
+            Collection<ApplicationEntity> remotes) {
+        super(as, pc, rq, keys);
+        if (remotes.isEmpty())
+            throw new IllegalArgumentException("no remote AE");
+        this.remotes = new ArrayList<ApplicationEntity>(remotes);
+    }
+
+    public final MatchMerger getMatchMerger() {
+        return merger;
+    }
+
+    public final void setMatchMerger(MatchMerger merger) {
+        if (merger == null)
+            throw new NullPointerException();
+        this.merger = merger;
+    }
+
+    public final String[] getTransferSyntaxes() {
+        return tsuids.clone();
+    }
+
+    public final void setTransferSyntaxes(String... tsuids) {
+        if (tsuids.length == 0)
+            throw new IllegalArgumentException("no Transfer Syntax");
+        this.tsuids = tsuids.clone();
+    }
+
+    /**
+     * @return maximal number of returned matches; 0 = unlimited
+     */
+    public final int getMaxMatches() {
+        return maxMatches;
+    }
+
+    public final void setMaxMatches(int maxMatches) {
+        if (maxMatches < 0)
+            throw new IllegalArgumentException("maxMatches: " + maxMatches);
+        this.maxMatches = maxMatches;
+    }
+
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    public synchronized int getNumberOfFailedQueries() {
+        return failed;
+    }
+
+    public synchronized int getNumberOfDuplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public void onCancelRQ(Association as) {
+        synchronized (this) {
+            super.onCancelRQ(as);
+            notifyAll();
+        }
+        cancelRemoteQueries();
+    }
+
+    @Override
+    protected synchronized boolean hasMoreMatches()
+            throws DicomServiceException {
+        if (!started)
+            start();
+        try {
+            while (queued.isEmpty() && outstanding > 0 && !canceled
+                    && !truncated)
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        }
+        if (canceled || truncated)
+            return false;
+        if (queued.isEmpty() && failed == remotes.size())
+            throw new DicomServiceException(Status.UnableToProcess,
+                    "Query of all " + failed + " remote AEs failed");
+        return !queued.isEmpty();
+    }
+
+    @Override
+    protected Attributes nextMatch() throws DicomServiceException {
+        Attributes match;
+        boolean cancel;
+        synchronized (this) {
+            Iterator<Map.Entry<Object, Attributes>> iter =
+                    queued.entrySet().iterator();
+            Map.Entry<Object, Attributes> entry = iter.next();
+            iter.remove();
+            returned.add(entry.getKey());
+            match = entry.getValue();
+            if (maxMatches > 0 && returned.size() >= maxMatches
+                    && (outstanding > 0 || !queued.isEmpty())) {
+                truncated = true;
+                LOG.info("{}: reached limit of {} matches", as, maxMatches);
+            }
+            cancel = truncated && outstanding > 0;
+        }
+        if (cancel)
+            cancelRemoteQueries();
+        return match;
+    }
+
+    @Override
+    protected void close() {
+        boolean cancel;
+        synchronized (this) {
+            cancel = outstanding > 0;
+        }
+        if (cancel)
+            cancelRemoteQueries();
+    }
+
+    private void start() {
+        started = true;
+        outstanding = remotes.size();
+        Device device = as.getDevice();
+        // not by the QUERY lane, which may be occupied by query tasks
+        // waiting for the results of remote queries
+        for (final ApplicationEntity remote : remotes) {
+            device.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    query(remote);
+                }
+            });
+        }
+    }
+
+    private void query(ApplicationEntity remote) {
+        String cuid = rq.getString(Tag.AffectedSOPClassUID);
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1, cuid, tsuids));
+        AssociationPool pool = as.getApplicationEntity().getAssociationPool();
+        Association remoteAs;
+        try {
+            remoteAs = pool.lease(remote, aarq);
+        } catch (Exception e) {
+            LOG.warn("{}: failed to connect {}:", as, remote.getAETitle(), e);
+            onQueryFailed();
+            return;
+        }
+        Set<String> accepted = remoteAs.getTransferSyntaxesFor(cuid);
+        String tsuid = accepted.isEmpty()
+                ? tsuids[0]
+                : accepted.iterator().next();
+        // register the listener before the request is sent, otherwise
+        // pending responses received meanwhile would be lost
+        RemoteQueryListener listener = new RemoteQueryListener(pool);
+        AsyncDimseRSP rsp;
+        try {
+            rsp = remoteAs.cfindAsync(cuid, cuid, rq.getInt(Tag.Priority, 0),
+                    keys, tsuid, listener);
+        } catch (IOException e) {
+            LOG.warn("{}: failed to query {}:", as, remoteAs, e);
+            if (listener.setDone()) {
+                pool.invalidate(remoteAs);
+                onQueryFailed();
+            }
+            return;
+        }
+        boolean cancel;
+        synchronized (this) {
+            rsps.add(rsp);
+            cancel = canceled || truncated;
+        }
+        if (cancel)
+            rsp.cancel(true);
+    }
+
+    private void cancelRemoteQueries() {
+        AsyncDimseRSP[] a;
+        synchronized (this) {
+            a = rsps.toArray(new AsyncDimseRSP[rsps.size()]);
+        }
+        for (AsyncDimseRSP rsp : a)
+            if (!rsp.isDone())
+                rsp.cancel(true);
+    }
+
+    private synchronized void onMatch(Attributes match, int status) {
+        if (canceled || truncated)
+            return;
+
+        if (status == Status.PendingWarning)
+            optionalKeysNotSupported = true;
+        Object key = uniqueKeyOf(match);
+        if (returned.contains(key)) {
+            duplicates++;
+            return;
+        }
+        Attributes prev = queued.get(key);
+        if (prev != null) {
+            duplicates++;
+            queued.put(key, merger.merge(prev, match));
+            return;
+        }
+        queued.put(key, match);
+        notifyAll();
+    }
+
+    private synchronized void onQueryFailed() {
+        failed++;
+        onQueryDone();
+    }
+
+    private synchronized void onQueryDone() {
+        if (--outstanding == 0) {
+            LOG.debug("{}: completed queries of {} remote AEs - {} failed, {} duplicate matches",
+                    as, remotes.size(), failed, duplicates);
+            notifyAll();
+        }
+    }
+
+    private Object uniqueKeyOf(Attributes match) {
+        String level = keys.getString(Tag.QueryRetrieveLevel);
+        String uid = null;
+        if ("STUDY".equals(level))
+            uid = match.getString(Tag.StudyInstanceUID);
+        else if ("SERIES".equals(level))
+            uid = match.getString(Tag.SeriesInstanceUID);
+        else if ("IMAGE".equals(level))
+            uid = match.getString(Tag.SOPInstanceUID);
+        else if ("PATIENT".equals(level)) {
+            String pid = match.getString(Tag.PatientID);
+            if (pid != null)
+                uid = pid + '^' + match.getString(Tag.IssuerOfPatientID, "");
+        }
+        // matches without unique key are never considered as duplicates
+        return uid != null ? uid : new Object();
+    }
+
+    private class RemoteQueryListener extends AsyncDimseRSP.Adapter {
+
+        private final AssociationPool pool;
+        private boolean done;
+
+        RemoteQueryListener(AssociationPool pool) {
+            this.pool = pool;
+        }
+
+        // the failure of sending the request may be reported by the
+        // association and by cfindAsync, but must only be counted once
+        synchronized boolean setDone() {
+            if (done)
+                return false;
+            done = true;
+            return true;
+        }
+
+        @Override
+        public void onPending(AsyncDimseRSP rsp, Attributes cmd,
+                Attributes data) {
+            if (data != null)
+                onMatch(data, cmd.getInt(Tag.Status, -1));
+        }
+
+        @Override
+        public void onCompleted(AsyncDimseRSP rsp, Attributes cmd,
+                Attributes data) {
+            if (!setDone())
+                return;
+            int status = cmd.getInt(Tag.Status, -1);
+            if (status != Status.Success && status != Status.Cancel) {
+                LOG.warn("{}: query of {} failed with status {}H", as,
+                        rsp.getAssociation(), Integer.toHexString(status));
+                onQueryFailed();
+            } else
+                onQueryDone();
+            release(rsp.getAssociation(), false);
+        }
+
+        @Override
+        public void onFailed(AsyncDimseRSP rsp, IOException e) {
+            if (!setDone())
+                return;
+            LOG.warn("{}: query of {} failed:", as, rsp.getAssociation(), e);
+            onQueryFailed();
+            release(rsp.getAssociation(), true);
+        }
+
+        // called by the reader thread of the association, which must not
+        // wait for the outstanding response it is processing
+        private void release(final Association remoteAs,
+                final boolean invalidate) {
+            as.getDevice().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (invalidate)
+                        pool.invalidate(remoteAs);
+                    else
+                        pool.release(remoteAs);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class AssociationPoolTest {
+
+    private Device scpDevice;
+    private Device scuDevice;
+    private ApplicationEntity scp;
+    private ApplicationEntity scu;
+    private AssociationPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        scp = TestDevices.createAE("SCP", Role.SCP);
+        scpDevice = TestDevices.createDevice("scp", scp,
+                TestDevices.createConnection(true));
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP());
+        scpDevice.setDimseRQHandler(serviceRegistry);
+        scpDevice.bindConnections();
+
+        scu = TestDevices.createAE("SCU", Role.SCU);
+        scuDevice = TestDevices.createDevice("scu", scu,
+                TestDevices.createConnection(false));
+        pool = scu.getAssociationPool();
+    }
+
+    @After
+    public void tearDown() {
+        TestDevices.shutdown(scuDevice, scpDevice);
+    }
+
+    private Association lease() throws Exception {
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        return pool.lease(scp, rq);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        Association as = lease();
+        assertEquals(1, pool.getNumberOfLeasedAssociations());
+        pool.release(as);
+        assertEquals(0, pool.getNumberOfLeasedAssociations());
+        assertEquals(1, pool.getNumberOfIdleAssociations());
+        assertTrue(as.isReadyForDataTransfer());
+
+        assertSame(as, lease());
+        assertEquals(1, pool.getNumberOfLeasedAssociations());
+        assertEquals(0, pool.getNumberOfIdleAssociations());
+        pool.release(as);
+    }
+
+    @Test
+    public void testReuseVerifiedByEcho() throws Exception {
+        pool.setValidateAfterIdle(0);
+        Association as = lease();
+        pool.release(as);
+        assertSame(as, lease());
+        pool.release(as);
+    }
+
+    @Test
+    public void testLeaseWaitsForMaxPerPeer() throws Exception {
+        pool.setMaxPerPeer(1);
+        final Association as = lease();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Association> waiting = executor.submit(
+                    new Callable<Association>() {
+
+                @Override
+                public Association call() throws Exception {
+                    return lease();
+                }
+            });
+            try {
+                waiting.get(500, TimeUnit.MILLISECONDS);
+                fail("lease exceeding maxPerPeer did not wait");
+            } catch (TimeoutException expected) {
+            }
+            pool.release(as);
+            assertSame(as, waiting.get(5, TimeUnit.SECONDS));
+            pool.release(as);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        Association as = lease();
+        pool.invalidate(as);
+        as.waitForSocketClose();
+        assertFalse(as.isReadyForDataTransfer());
+        assertEquals(0, pool.getNumberOfLeasedAssociations());
+        assertEquals(0, pool.getNumberOfIdleAssociations());
+        assertEquals(0, pool.getNumberOfPeers());
+
+        Association as2 = lease();
+        assertNotSame(as, as2);
+        pool.release(as2);
+    }
+
+    @Test
+    public void testDiscardStale() throws Exception {
+        pool.setMaxPerPeer(1);
+        Association as = lease();
+        pool.release(as);
+        as.abort();
+
+        Association as2 = lease();
+        assertNotSame(as, as2);
+        assertTrue(as2.isReadyForDataTransfer());
+        assertEquals(1, pool.getNumberOfLeasedAssociations());
+        pool.release(as2);
+    }
+
+    @Test
+    public void testReapIdle() throws Exception {
+        pool.setIdleTimeout(100);
+        Association as = lease();
+        pool.release(as);
+        assertEquals(1, pool.getNumberOfIdleAssociations());
+        long end = System.currentTimeMillis() + 5000;
+        while (pool.getNumberOfIdleAssociations() > 0
+                && System.currentTimeMillis() < end)
+            Thread.sleep(50);
+        assertEquals(0, pool.getNumberOfIdleAssociations());
+        assertEquals(0, pool.getNumberOfPeers());
+        as.waitForSocketClose();
+        assertFalse(as.isReadyForDataTransfer());
+    }
+
+    @Test
+    public void testCloseOnUnbind() throws Exception {
+        Association as = lease();
+        pool.release(as);
+        scuDevice.unbindConnections();
+        assertTrue(pool.isClosed());
+        as.waitForSocketClose();
+        assertFalse(as.isReadyForDataTransfer());
+
+        AssociationPool newPool = scu.getAssociationPool();
+        assertNotSame(pool, newPool);
+        assertFalse(newPool.isClosed());
+    }
+}
@@ -0,0 +1,308 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class AsyncDimseRSPTest {
+
+    private static Attributes rsp(int status) {
+        Attributes cmd = new Attributes(1);
+        cmd.setInt(Tag.Status, VR.US, status);
+        return cmd;
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        AsyncDimseRSP rsp = new AsyncDimseRSP(null, 1);
+        rsp.addListener(new AsyncDimseRSP.Adapter() {
+
+            @Override
+            public void onPending(AsyncDimseRSP rsp, Attributes cmd,
+                    Attributes data) {
+                pending.incrementAndGet();
+            }
+
+            @Override
+            public void onCompleted(AsyncDimseRSP rsp, Attributes cmd,
+                    Attributes data) {
+                completed.incrementAndGet();
+            }
+        });
+        Attributes data = new Attributes();
+        rsp.onDimseRSP(null, rsp(Status.Pending), data);
+        rsp.onDimseRSP(null, rsp(Status.Pending), data);
+        assertFalse(rsp.isDone());
+        Attributes cmd = rsp(Status.Success);
+        rsp.onDimseRSP(null, cmd, null);
+        assertTrue(rsp.isDone());
+        assertFalse(rsp.isCancelled());
+        assertEquals(2, pending.get());
+        assertEquals(1, completed.get());
+        assertSame(cmd, rsp.get(0, TimeUnit.MILLISECONDS));
+        assertNull(rsp.getDataset());
+    }
+
+    @Test
+    public void testAddListenerAfterCompletion() {
+        final AtomicInteger completed = new AtomicInteger();
+        AsyncDimseRSP rsp = new AsyncDimseRSP(null, 1);
+        rsp.onDimseRSP(null, rsp(Status.Cancel), null);
+        rsp.addListener(new AsyncDimseRSP.Adapter() {
+
+            @Override
+            public void onCompleted(AsyncDimseRSP rsp, Attributes cmd,
+                    Attributes data) {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            public void onFailed(AsyncDimseRSP rsp, IOException e) {
+                fail();
+            }
+        });
+        assertEquals(1, completed.get());
+        assertTrue(rsp.isCancelled());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testGetTimeout() throws Exception {
+        new AsyncDimseRSP(null, 1).get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testWhenAllDone() {
+        final AtomicInteger done = new AtomicInteger();
+        AsyncDimseRSP rsp1 = new AsyncDimseRSP(null, 1);
+        AsyncDimseRSP rsp2 = new AsyncDimseRSP(null, 2);
+        AsyncDimseRSP.whenAllDone(Arrays.asList(rsp1, rsp2), new Runnable() {
+
+            @Override
+            public void run() {
+                done.incrementAndGet();
+            }
+        });
+        rsp1.onDimseRSP(null, rsp(Status.Success), null);
+        assertEquals(0, done.get());
+        rsp2.onDimseRSP(null, rsp(Status.Success), null);
+        assertEquals(1, done.get());
+    }
+
+    @Test
+    public void testCancelQueued() throws Exception {
+        final CountDownLatch respond = new CountDownLatch(1);
+        Device scp = createSCP(respond);
+        Device scu = null;
+        try {
+            Connection conn = TestDevices.createConnection(false);
+            conn.setMaxQueuedDimseRQ(1);
+            ApplicationEntity ae = TestDevices.createAE("SCU", Role.SCU);
+            scu = TestDevices.createDevice("scu", ae, conn);
+            AAssociateRQ aarq = new AAssociateRQ();
+            aarq.addPresentationContext(new PresentationContext(1,
+                    UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+            Association as = ae.connect(
+                    scp.getApplicationEntity("SCP"), aarq);
+            AsyncDimseRSP rsp1 = as.cechoAsync();
+            AsyncDimseRSP rsp2 = as.cechoAsync();
+            try {
+                as.cechoAsync();
+                fail("exceeded maximal number of queued DIMSE-RQs");
+            } catch (IOException expected) {
+            }
+            assertTrue(rsp2.cancel(true));
+            assertTrue(rsp2.isDone());
+            assertTrue(rsp2.isCancelled());
+            assertEquals(Status.Cancel, rsp2.get().getInt(Tag.Status, -1));
+            assertFalse(rsp1.isDone());
+            respond.countDown();
+            assertEquals(Status.Success, rsp1.get(5, TimeUnit.SECONDS)
+                    .getInt(Tag.Status, -1));
+            as.waitForOutstandingRSP();
+            as.release();
+            as.waitForSocketClose();
+        } finally {
+            respond.countDown();
+            if (scu != null)
+                TestDevices.shutdown(scu);
+            TestDevices.shutdown(scp);
+        }
+    }
+
+    @Test
+    public void testCancelCFind() throws Exception {
+        final CountDownLatch respond = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        Device scp = createSCP(respond);
+        Device scu = null;
+        try {
+            Association as = connect(scu = createSCU(),
+                    scp.getApplicationEntity("SCP"));
+            AsyncDimseRSP rsp = as.cfindAsync(
+                    UID.StudyRootQueryRetrieveInformationModelFIND,
+                    UID.StudyRootQueryRetrieveInformationModelFIND, 0,
+                    new Attributes(), UID.ImplicitVRLittleEndian,
+                    new AsyncDimseRSP.Adapter() {
+
+                        @Override
+                        public void onCompleted(AsyncDimseRSP rsp,
+                                Attributes cmd, Attributes data) {
+                            completed.countDown();
+                        }
+                    });
+            assertTrue(rsp.cancel(true));
+            assertTrue(rsp.isDone());
+            assertTrue(rsp.isCancelled());
+            assertFalse(rsp.cancel(true));
+            try {
+                rsp.get(0, TimeUnit.MILLISECONDS);
+                fail("CancellationException expected");
+            } catch (CancellationException expected) {
+            }
+            respond.countDown();
+            assertTrue(completed.await(5, TimeUnit.SECONDS));
+            as.waitForOutstandingRSP();
+            as.release();
+            as.waitForSocketClose();
+        } finally {
+            respond.countDown();
+            if (scu != null)
+                TestDevices.shutdown(scu);
+            TestDevices.shutdown(scp);
+        }
+    }
+
+    @Test
+    public void testCancelCEcho() throws Exception {
+        final CountDownLatch respond = new CountDownLatch(1);
+        Device scp = createSCP(respond);
+        Device scu = null;
+        try {
+            Association as = connect(scu = createSCU(),
+                    scp.getApplicationEntity("SCP"));
+            AsyncDimseRSP rsp = as.cechoAsync();
+            assertFalse(rsp.cancel(true));
+            assertFalse(rsp.isDone());
+            assertFalse(rsp.isCancelled());
+            respond.countDown();
+            assertEquals(Status.Success, rsp.get(5, TimeUnit.SECONDS)
+                    .getInt(Tag.Status, -1));
+            as.release();
+            as.waitForSocketClose();
+        } finally {
+            respond.countDown();
+            if (scu != null)
+                TestDevices.shutdown(scu);
+            TestDevices.shutdown(scp);
+        }
+    }
+
+    private static Device createSCU() throws Exception {
+        ApplicationEntity ae = TestDevices.createAE("SCU", Role.SCU,
+                UID.StudyRootQueryRetrieveInformationModelFIND);
+        return TestDevices.createDevice("scu", ae,
+                TestDevices.createConnection(false));
+    }
+
+    private static Association connect(Device scu, ApplicationEntity scp)
+            throws Exception {
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        aarq.addPresentationContext(new PresentationContext(3,
+                UID.StudyRootQueryRetrieveInformationModelFIND,
+                UID.ImplicitVRLittleEndian));
+        return scu.getApplicationEntity("SCU").connect(scp, aarq);
+    }
+
+    // responds to C-ECHO-RQs by Success and to C-FIND-RQs by Cancel after
+    // the latch was released
+    private static Device createSCP(final CountDownLatch respond)
+            throws Exception {
+        ApplicationEntity ae = TestDevices.createAE("SCP", Role.SCP,
+                UID.StudyRootQueryRetrieveInformationModelFIND);
+        Device scp = TestDevices.createDevice("scp", ae,
+                TestDevices.createConnection(true));
+        scp.setDimseRQHandler(new DimseRQHandler() {
+
+            @Override
+            public void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes cmd, PDVInputStream data)
+                    throws IOException {
+                if (data != null)
+                    data.skipAll();
+                try {
+                    respond.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                as.writeDimseRSP(pc, dimse == Dimse.C_FIND_RQ
+                        ? Commands.mkCFindRSP(cmd, Status.Cancel)
+                        : Commands.mkEchoRSP(cmd, Status.Success));
+            }
+
+            @Override
+            public void onClose(Association as) {
+            }
+        });
+        scp.bindConnections();
+        return scp;
+    }
+}
@@ -0,0 +1,108 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class BasicNetworkMetricsTest {
+
+    private Device scp;
+    private Device scu;
+
+    @After
+    public void tearDown() {
+        TestDevices.shutdown(scu, scp);
+    }
+
+    @Test(timeout = 10000)
+    public void countsFurtherAEPairsAsOther() throws Exception {
+        BasicNetworkMetrics metrics = new BasicNetworkMetrics(1);
+        ApplicationEntity scpAE = TestDevices.createAE("SCP", Role.SCP);
+        scp = TestDevices.createDevice("scp", scpAE,
+                TestDevices.createConnection(true));
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP());
+        scp.setDimseRQHandler(serviceRegistry);
+        scp.setNetworkMetrics(metrics);
+        scp.bindConnections();
+
+        ApplicationEntity scuAE = TestDevices.createAE("SCU1", Role.SCU);
+        scu = TestDevices.createDevice("scu", scuAE,
+                TestDevices.createConnection(false));
+        echo(scuAE, scpAE, "SCU1");
+        echo(scuAE, scpAE, "SCU2");
+        echo(scuAE, scpAE, "SCU3");
+
+        assertEquals(1, metrics.getAEPairCounters().size());
+        assertNotNull(metrics.getAEPairCounters("SCU1", "SCP"));
+        assertNull(metrics.getAEPairCounters("SCU2", "SCP"));
+        assertEquals(1, metrics.getAEPairCounters("SCU1", "SCP")
+                .getAssociationsEstablished());
+        assertEquals(2, metrics.getOtherAEPairCounters()
+                .getAssociationsEstablished());
+        assertEquals(3, metrics.getDeviceCounters()
+                .getAssociationsEstablished());
+    }
+
+    private static void echo(ApplicationEntity scuAE,
+            ApplicationEntity scpAE, String callingAET) throws Exception {
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.setCallingAET(callingAET);
+        aarq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        Association as = scuAE.connect(scpAE, aarq);
+        as.cecho().next();
+        as.release();
+        as.waitForSocketClose();
+    }
+}
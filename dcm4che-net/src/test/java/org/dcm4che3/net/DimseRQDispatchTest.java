@@ -0,0 +1,239 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAbort;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCFindSCP;
+import org.dcm4che3.net.service.BasicQueryTask;
+import org.dcm4che3.net.service.QueryTask;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class DimseRQDispatchTest {
+
+    private static final String CUID =
+            UID.PatientRootQueryRetrieveInformationModelFIND;
+    private static final int MAX_MATCHES = 1000;
+
+    private Device scp;
+    private Device scu;
+
+    @After
+    public void tearDown() {
+        TestDevices.shutdown(scu, scp);
+    }
+
+    @Test
+    public void cancelRQBeforeQueryTaskStarted() throws Exception {
+        assertEquals(Status.Cancel, queryAndCancel(0));
+    }
+
+    @Test
+    public void cancelRQBeforeQueryTaskStartedByWorker() throws Exception {
+        assertEquals(Status.Cancel, queryAndCancel(4));
+    }
+
+    @Test(timeout = 10000)
+    public void abortOnRuntimeExceptionOfWorker() throws Exception {
+        ApplicationEntity scpAE = TestDevices.createAE("SCP", Role.SCP);
+        Connection conn = TestDevices.createConnection(true);
+        conn.setMaxConcurrentDimseRQ(4);
+        conn.setMaxOpsPerformed(4);
+        scp = TestDevices.createDevice("scp", scpAE, conn);
+        scp.setDimseRQHandler(new DimseRQHandler() {
+
+            @Override
+            public void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes cmd, PDVInputStream data)
+                    throws IOException {
+                throw new IllegalStateException("test");
+            }
+
+            @Override
+            public void onClose(Association as) {
+            }
+        });
+        scp.bindConnections();
+
+        ApplicationEntity scuAE = TestDevices.createAE("SCU", Role.SCU);
+        Connection scuConn = TestDevices.createConnection(false);
+        scuConn.setMaxOpsInvoked(4);
+        scu = TestDevices.createDevice("scu", scuAE, scuConn);
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        Association as = scuAE.connect(scpAE, aarq);
+        try {
+            as.cecho().next();
+            as.waitForSocketClose();
+            fail("association not aborted");
+        } catch (AAbort expected) {
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void outOfResourcesOnRejectedDimseRQ() throws Exception {
+        ApplicationEntity scpAE = TestDevices.createAE("SCP", Role.SCP);
+        Connection conn = TestDevices.createConnection(true);
+        conn.setMaxConcurrentDimseRQ(4);
+        conn.setMaxOpsPerformed(4);
+        scp = TestDevices.createDevice("scp", scpAE, conn);
+        LaneExecutor executor = new LaneExecutor(ExecutorLane.DIMSE.name(), 1, 1,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.shutdown();
+        scp.setLaneExecutor(ExecutorLane.DIMSE, executor);
+        scp.bindConnections();
+
+        ApplicationEntity scuAE = TestDevices.createAE("SCU", Role.SCU);
+        Connection scuConn = TestDevices.createConnection(false);
+        scuConn.setMaxOpsInvoked(4);
+        scu = TestDevices.createDevice("scu", scuAE, scuConn);
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        Association as = scuAE.connect(scpAE, aarq);
+        for (int i = 0; i < 2; i++) {
+            DimseRSP rsp = as.cecho();
+            rsp.next();
+            assertEquals(Status.OutOfResources,
+                    rsp.getCommand().getInt(Tag.Status, -1));
+        }
+        // hangs if the rejected operations were still counted as performing
+        as.release();
+        as.waitForSocketClose();
+    }
+
+    private int queryAndCancel(int maxConcurrentDimseRQ) throws Exception {
+        ApplicationEntity scpAE = TestDevices.createAE("SCP", Role.SCP, CUID);
+        Connection conn = TestDevices.createConnection(true);
+        conn.setMaxConcurrentDimseRQ(maxConcurrentDimseRQ);
+        conn.setMaxOpsPerformed(maxConcurrentDimseRQ);
+        scp = TestDevices.createDevice("scp", scpAE, conn);
+        scp.setDimseRQHandler(new BasicCFindSCP(CUID) {
+
+            @Override
+            protected QueryTask calculateMatches(Association as,
+                    PresentationContext pc, Attributes rq, Attributes keys) {
+                return new SlowQueryTask(as, pc, rq, keys);
+            }
+        });
+        scp.bindConnections();
+
+        ApplicationEntity scuAE = TestDevices.createAE("SCU", Role.SCU, CUID);
+        Connection scuConn = TestDevices.createConnection(false);
+        scuConn.setMaxOpsInvoked(4);
+        scu = TestDevices.createDevice("scu", scuAE, scuConn);
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1, CUID,
+                UID.ImplicitVRLittleEndian));
+        Association as = scuAE.connect(scpAE, aarq);
+        Attributes keys = new Attributes(1);
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "PATIENT");
+        final AtomicInteger status = new AtomicInteger(-1);
+        DimseRSPHandler rspHandler = new DimseRSPHandler(as.nextMessageID()) {
+
+            @Override
+            public void onDimseRSP(Association as, Attributes cmd,
+                    Attributes data) {
+                super.onDimseRSP(as, cmd, data);
+                int st = cmd.getInt(Tag.Status, -1);
+                if (!Status.isPending(st))
+                    status.set(st);
+            }
+        };
+        as.cfind(CUID, 0, keys, null, rspHandler);
+        rspHandler.cancel(as);
+        as.waitForOutstandingRSP();
+        as.release();
+        as.waitForSocketClose();
+        return status.get();
+    }
+
+    // starts after the C-CANCEL-RQ was received
+    private static class SlowQueryTask extends BasicQueryTask {
+
+        private int remaining = MAX_MATCHES;
+
+        SlowQueryTask(Association as, PresentationContext pc, Attributes rq,
+                Attributes keys) {
+            super(as, pc, rq, keys);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            super.run();
+        }
+
+        @Override
+        protected boolean hasMoreMatches() {
+            return remaining > 0;
+        }
+
+        @Override
+        protected Attributes nextMatch() {
+            remaining--;
+            Attributes match = new Attributes(1);
+            match.setString(Tag.QueryRetrieveLevel, VR.CS, "PATIENT");
+            return match;
+        }
+    }
+}
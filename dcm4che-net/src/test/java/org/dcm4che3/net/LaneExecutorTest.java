@@ -0,0 +1,130 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class LaneExecutorTest {
+
+    private LaneExecutor executor;
+    private CountDownLatch blocked;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        executor = new LaneExecutor("test", 1, 3,
+                new ThreadPoolExecutor.AbortPolicy());
+        blocked = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Runnable record(final List<String> list, final String s) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                list.add(s);
+            }
+        };
+    }
+
+    @Test
+    public void testExecuteByPriority() throws Exception {
+        blocked.await();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executor.execute(record(order, "low"), Priority.LOW);
+        executor.execute(record(order, "normal"), Priority.NORMAL);
+        executor.execute(record(order, "high"), Priority.HIGH);
+        assertEquals(3, executor.getQueueSize());
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals("high", order.get(0));
+        assertEquals("normal", order.get(1));
+        assertEquals("low", order.get(2));
+    }
+
+    @Test
+    public void testRejectIfQueueFull() throws Exception {
+        blocked.await();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 3; i++)
+            executor.execute(record(order, "task" + i));
+        try {
+            executor.execute(record(order, "rejected"));
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.getRejectedCount());
+        }
+        assertEquals(3, executor.getQueueSize());
+    }
+}
@@ -0,0 +1,278 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.AbstractDicomService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests coalescing of pending DIMSE responses into shared P-DATA-TF PDUs.
+ *
+ * @author agent <agent@local>
+ */
+public class PDUEncoderTest {
+
+    private static final String CUID =
+            UID.PatientRootQueryRetrieveInformationModelFIND;
+
+    private Device scp;
+    private Device scu;
+    private Connection scpConn;
+    private ApplicationEntity scpAE;
+    private ApplicationEntity scuAE;
+    private volatile int matches;
+    private volatile CountDownLatch finalRSPLatch;
+    private final List<Integer> sentPDataTFLengths = new ArrayList<Integer>();
+
+    @Before
+    public void setUp() throws Exception {
+        scpAE = TestDevices.createAE("SCP", Role.SCP, CUID);
+        scpConn = TestDevices.createConnection(true);
+        scp = TestDevices.createDevice("scp", scpAE, scpConn);
+        scp.setNetworkMetrics(new NetworkMetrics() {
+
+            @Override
+            public AssociationMetrics newAssociationMetrics(Association as) {
+                return new PDataTFRecorder();
+            }
+        });
+        scp.setDimseRQHandler(new AbstractDicomService(CUID) {
+
+            @Override
+            protected void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes cmd, Attributes keys)
+                    throws IOException {
+                for (int i = 0; i < matches; i++) {
+                    Attributes match = new Attributes(2);
+                    match.setString(Tag.QueryRetrieveLevel, VR.CS, "PATIENT");
+                    match.setString(Tag.PatientID, VR.LO, "P" + i);
+                    as.writeDimseRSP(pc,
+                            Commands.mkCFindRSP(cmd, Status.Pending), match);
+                }
+                CountDownLatch latch = finalRSPLatch;
+                if (latch != null)
+                    try {
+                        latch.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                as.writeDimseRSP(pc, Commands.mkCFindRSP(cmd, Status.Success));
+            }
+        });
+        scp.bindConnections();
+
+        scuAE = TestDevices.createAE("SCU", Role.SCU, CUID);
+        scu = TestDevices.createDevice("scu", scuAE,
+                TestDevices.createConnection(false));
+    }
+
+    @After
+    public void tearDown() {
+        TestDevices.shutdown(scu, scp);
+    }
+
+    @Test
+    public void testCoalescePendingRSPsUntilFinalRSP() throws Exception {
+        scpConn.setPdvCoalesceDelay(10000);
+        matches = 5;
+        assertEquals(matches, query());
+        assertEquals(1, sentPDataTFs());
+    }
+
+    @Test
+    public void testNoCoalescingByDefault() throws Exception {
+        matches = 5;
+        assertEquals(matches, query());
+        assertEquals(matches + 1, sentPDataTFs());
+    }
+
+    @Test
+    public void testFlushByTimer() throws Exception {
+        scpConn.setPdvCoalesceDelay(100);
+        matches = 5;
+        finalRSPLatch = new CountDownLatch(1);
+        final CountDownLatch pendingRSPs = new CountDownLatch(matches);
+        Association as = scuAE.connect(scpAE, newAAssociateRQ());
+        as.cfind(CUID, 0, newKeys(), null,
+                new DimseRSPHandler(as.nextMessageID()) {
+
+            @Override
+            public void onDimseRSP(Association as, Attributes cmd,
+                    Attributes data) {
+                super.onDimseRSP(as, cmd, data);
+                if (Status.isPending(cmd.getInt(Tag.Status, -1)))
+                    pendingRSPs.countDown();
+            }
+        });
+        assertTrue("pending responses not flushed by timer",
+                pendingRSPs.await(5, TimeUnit.SECONDS));
+        // metrics are updated after the PDU was written to the socket
+        long end = System.currentTimeMillis() + 5000;
+        while (sentPDataTFs() == 0 && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(1, sentPDataTFs());
+        finalRSPLatch.countDown();
+        as.waitForOutstandingRSP();
+        as.release();
+        as.waitForSocketClose();
+        assertEquals(2, sentPDataTFs());
+    }
+
+    @Test
+    public void testCutOverAtMaxLength() throws Exception {
+        int maxLength = 500;
+        scpConn.setPdvCoalesceDelay(10000);
+        scpConn.setPdvCoalesceMaxLength(maxLength);
+        matches = 20;
+        assertEquals(matches, query());
+        List<Integer> lengths = sentPDataTFLengths();
+        assertTrue("no cut-over: " + lengths, lengths.size() > 1);
+        assertTrue("not coalesced: " + lengths, lengths.size() < matches + 1);
+        for (int pdulen : lengths.subList(0, lengths.size() - 1))
+            assertTrue("P-DATA-TF sent before reaching max length: " + lengths,
+                    pdulen >= maxLength);
+    }
+
+    private int query() throws Exception {
+        Association as = scuAE.connect(scpAE, newAAssociateRQ());
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger status = new AtomicInteger(-1);
+        as.cfind(CUID, 0, newKeys(), null,
+                new DimseRSPHandler(as.nextMessageID()) {
+
+            @Override
+            public void onDimseRSP(Association as, Attributes cmd,
+                    Attributes data) {
+                super.onDimseRSP(as, cmd, data);
+                int st = cmd.getInt(Tag.Status, -1);
+                if (Status.isPending(st))
+                    pending.incrementAndGet();
+                else
+                    status.set(st);
+            }
+        });
+        as.waitForOutstandingRSP();
+        as.release();
+        as.waitForSocketClose();
+        assertEquals(Status.Success, status.get());
+        return pending.get();
+    }
+
+    private static AAssociateRQ newAAssociateRQ() {
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1, CUID,
+                UID.ImplicitVRLittleEndian));
+        return aarq;
+    }
+
+    private static Attributes newKeys() {
+        Attributes keys = new Attributes(2);
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "PATIENT");
+        keys.setNull(Tag.PatientID, VR.LO);
+        return keys;
+    }
+
+    private int sentPDataTFs() {
+        return sentPDataTFLengths().size();
+    }
+
+    private List<Integer> sentPDataTFLengths() {
+        synchronized (sentPDataTFLengths) {
+            return new ArrayList<Integer>(sentPDataTFLengths);
+        }
+    }
+
+    private class PDataTFRecorder implements AssociationMetrics {
+
+        @Override
+        public void onPDUSent(int pduType, int pduLength, long writeTime) {
+            if (pduType == PDUType.P_DATA_TF)
+                synchronized (sentPDataTFLengths) {
+                    sentPDataTFLengths.add(pduLength);
+                }
+        }
+
+        @Override
+        public void onAssociationEstablished(long setupTime) {
+        }
+
+        @Override
+        public void onAssociationClosed(long releaseTime) {
+        }
+
+        @Override
+        public void onPDUReceived(int pduType, int pduLength, long stallTime) {
+        }
+
+        @Override
+        public void onDimseRQSent(Dimse dimse) {
+        }
+
+        @Override
+        public void onDimseRSPSent(Dimse dimse, boolean pending) {
+        }
+
+        @Override
+        public void onDimseRQReceived(Dimse dimse) {
+        }
+
+        @Override
+        public void onDimseRSPReceived(Dimse dimse, boolean pending,
+                long rspTime) {
+        }
+    }
+}
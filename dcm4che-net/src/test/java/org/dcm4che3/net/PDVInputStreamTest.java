@@ -0,0 +1,107 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class PDVInputStreamTest {
+
+    private static byte[] encode(Attributes attrs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DicomOutputStream dos =
+                new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
+        dos.writeDataset(null, attrs);
+        dos.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCopyToAndParse() throws Exception {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+        attrs.setString(Tag.PatientName, VR.PN, "Simpson^Homer");
+        attrs.setBytes(Tag.OverlayData, VR.OW, new byte[256]);
+        attrs.setBytes(Tag.PixelData, VR.OW, new byte[1024]);
+        byte[] encoded = encode(attrs);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParsedDataset parsed = new ByteArrayPDVInputStream(encoded)
+                .copyToAndParse(out, UID.ExplicitVRLittleEndian, Tag.PixelData);
+
+        assertArrayEquals(encoded, out.toByteArray());
+        Attributes dataset = parsed.getDataset();
+        assertEquals("1.2.3.4", dataset.getString(Tag.SOPInstanceUID));
+        assertEquals("Simpson^Homer", dataset.getString(Tag.PatientName));
+        assertFalse(dataset.contains(Tag.PixelData));
+        assertTrue(parsed.containsStopTag());
+        int pos = (int) parsed.getStopTagPosition();
+        assertEquals(encoded.length - 1024 - 12, pos);
+        assertEquals((byte) 0xE0, encoded[pos]);
+        assertEquals((byte) 0x7F, encoded[pos + 1]);
+        assertEquals((byte) 0x10, encoded[pos + 2]);
+        assertEquals((byte) 0x00, encoded[pos + 3]);
+    }
+
+    @Test
+    public void testCopyToAndParseWithoutStopTag() throws Exception {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+        byte[] encoded = encode(attrs);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParsedDataset parsed = new ByteArrayPDVInputStream(encoded)
+                .copyToAndParse(out, UID.ExplicitVRLittleEndian, Tag.PixelData);
+
+        assertArrayEquals(encoded, out.toByteArray());
+        assertEquals("1.2.3.4", parsed.getDataset().getString(Tag.SOPInstanceUID));
+        assertFalse(parsed.containsStopTag());
+    }
+}
@@ -0,0 +1,106 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.fail;
+
+import java.net.Socket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+
+import org.dcm4che3.net.TransferCapability.Role;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class TCPListenerTest {
+
+    private Device device;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = TestDevices.createConnection(true);
+        conn.setTlsCipherSuites(Connection.TLS_RSA_WITH_AES_128_CBC_SHA);
+        conn.setTlsProtocols("TLSv1.2");
+        conn.setTlsHandshakeTimeout(10000);
+        device = TestDevices.createDevice("scp",
+                TestDevices.createAE("SCP", Role.SCP), conn);
+        device.bindConnections();
+    }
+
+    @After
+    public void tearDown() {
+        TestDevices.shutdown(device);
+    }
+
+    /**
+     * The second client does not complete its handshake either, because
+     * the device has no key configured - but the server shall process its
+     * ClientHello without waiting for the stalled first client.
+     */
+    @Test(timeout = 20000)
+    public void stalledTLSClientDoesNotBlockAccept() throws Exception {
+        Socket stalled = new Socket(conn.getHostname(), conn.getPort());
+        try {
+            Thread.sleep(200); // let the listener accept the stalled client
+            SSLSocket s = (SSLSocket) SSLContext.getDefault()
+                    .getSocketFactory()
+                    .createSocket(conn.getHostname(), conn.getPort());
+            try {
+                s.setEnabledProtocols(new String[] { "TLSv1.2" });
+                s.setEnabledCipherSuites(conn.getTlsCipherSuites());
+                s.setSoTimeout(3000);
+                s.startHandshake();
+                fail("Expected SSLException");
+            } catch (SSLException expected) {
+                // handshake_failure from the server
+            } finally {
+                s.close();
+            }
+        } finally {
+            stalled.close();
+        }
+    }
+}
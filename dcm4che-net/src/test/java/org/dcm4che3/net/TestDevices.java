@@ -0,0 +1,101 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.TransferCapability.Role;
+
+/**
+ * Creates devices communicating over the loopback interface.
+ *
+ * @author agent <agent@local>
+ */
+public class TestDevices {
+
+    public static int freePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        } finally {
+            ss.close();
+        }
+    }
+
+    public static Connection createConnection(boolean listening)
+            throws IOException {
+        return new Connection("dicom", "localhost",
+                listening ? freePort() : Connection.NOT_LISTENING);
+    }
+
+    public static ApplicationEntity createAE(String aet, Role role,
+            String... cuids) {
+        ApplicationEntity ae = new ApplicationEntity(aet);
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.VerificationSOPClass, role, UID.ImplicitVRLittleEndian));
+        for (String cuid : cuids)
+            ae.addTransferCapability(new TransferCapability(null, cuid, role,
+                    UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian));
+        return ae;
+    }
+
+    public static Device createDevice(String name, ApplicationEntity ae,
+            Connection conn) {
+        Device device = new Device(name);
+        device.addConnection(conn);
+        device.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        device.setExecutor(Executors.newCachedThreadPool());
+        device.setScheduledExecutor(
+                Executors.newSingleThreadScheduledExecutor());
+        return device;
+    }
+
+    public static void shutdown(Device... devices) {
+        for (Device device : devices) {
+            device.unbindConnections();
+            ((ExecutorService) device.getExecutor()).shutdownNow();
+            device.getScheduledExecutor().shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.pdu.AAssociateAC;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class TransferCapabilityTableTest {
+
+    private static PresentationContext negotiate(ApplicationEntity ae, String as, String... tss) {
+        AAssociateRQ rq = new AAssociateRQ();
+        PresentationContext rqpc = new PresentationContext(1, as, tss);
+        rq.addPresentationContext(rqpc);
+        return ae.negotiate(rq, new AAssociateAC(), rqpc);
+    }
+
+    @Test
+    public void testNegotiate() {
+        ApplicationEntity ae = new ApplicationEntity("AET");
+        ae.addTransferCapability(new TransferCapability(null, UID.CTImageStorage,
+                TransferCapability.Role.SCP, UID.ImplicitVRLittleEndian, UID.JPEGLossless));
+        ae.addTransferCapability(new TransferCapability(null, UID.VerificationSOPClass,
+                TransferCapability.Role.SCP, "*"));
+
+        PresentationContext pc = negotiate(ae, UID.CTImageStorage,
+                UID.ExplicitVRLittleEndian, UID.JPEGLossless, UID.ImplicitVRLittleEndian);
+        assertTrue(pc.isAccepted());
+        assertEquals(UID.JPEGLossless, pc.getTransferSyntax());
+
+        pc = negotiate(ae, UID.CTImageStorage, UID.ExplicitVRLittleEndian);
+        assertEquals(PresentationContext.TRANSFER_SYNTAX_NOT_SUPPORTED, pc.getResult());
+
+        pc = negotiate(ae, UID.MRImageStorage, UID.ImplicitVRLittleEndian);
+        assertEquals(PresentationContext.ABSTRACT_SYNTAX_NOT_SUPPORTED, pc.getResult());
+
+        pc = negotiate(ae, UID.VerificationSOPClass, UID.ExplicitVRBigEndianRetired);
+        assertTrue(pc.isAccepted());
+        assertEquals(UID.ExplicitVRBigEndianRetired, pc.getTransferSyntax());
+    }
+
+    @Test
+    public void testNegotiateAfterChange() {
+        ApplicationEntity ae = new ApplicationEntity("AET");
+        TransferCapability tc = new TransferCapability(null, UID.CTImageStorage,
+                TransferCapability.Role.SCP, UID.ImplicitVRLittleEndian);
+        ae.addTransferCapability(tc);
+        assertFalse(negotiate(ae, UID.CTImageStorage, UID.JPEGLossless).isAccepted());
+
+        tc.setTransferSyntaxes(UID.JPEGLossless);
+        assertTrue(negotiate(ae, UID.CTImageStorage, UID.JPEGLossless).isAccepted());
+
+        ae.removeTransferCapabilityFor(UID.CTImageStorage, TransferCapability.Role.SCP);
+        assertFalse(negotiate(ae, UID.CTImageStorage, UID.JPEGLossless).isAccepted());
+    }
+}
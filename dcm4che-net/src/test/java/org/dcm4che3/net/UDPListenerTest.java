@@ -0,0 +1,169 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.net.Connection.Protocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class UDPListenerTest {
+
+    private static final int BURST = 20;
+
+    private final AtomicInteger processed = new AtomicInteger();
+    private final CountDownLatch processing = new CountDownLatch(1);
+    private UDPProtocolHandler prevHandler;
+    private Device device;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        prevHandler = Connection.registerUDPProtocolHandler(
+                Protocol.SYSLOG_UDP, new UDPProtocolHandler() {
+
+            @Override
+            public void onReceive(Connection conn, DatagramPacket packet) {
+                try {
+                    processing.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processed.incrementAndGet();
+            }
+        });
+        conn = new Connection("syslog", "localhost", TestDevices.freePort());
+        conn.setProtocol(Protocol.SYSLOG_UDP);
+        conn.setUdpWorkerThreads(1);
+        device = new Device("syslog");
+        device.addConnection(conn);
+        device.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    @After
+    public void tearDown() {
+        processing.countDown();
+        device.unbindConnections();
+        ((ExecutorService) device.getExecutor()).shutdownNow();
+        if (prevHandler != null)
+            Connection.registerUDPProtocolHandler(Protocol.SYSLOG_UDP,
+                    prevHandler);
+        else
+            Connection.unregisterUDPProtocolHandler(Protocol.SYSLOG_UDP);
+    }
+
+    @Test
+    public void testBurstExceedingQueueIsDropped() throws Exception {
+        int queueSize = 4;
+        conn.setUdpReceiveQueueSize(queueSize);
+        DatagramListener listener = bindAndSendBurst();
+
+        // one datagram is processed, the others are kept in the queue;
+        // the counter of dropped datagrams is incremented after receipt
+        long end = System.currentTimeMillis() + 5000;
+        while (listener.getDroppedDatagrams() < BURST - queueSize
+                && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(BURST - queueSize, listener.getDroppedDatagrams());
+        processing.countDown();
+        awaitProcessed(queueSize);
+        assertEquals(queueSize, processed.get());
+        assertEquals(BURST, listener.getReceivedDatagrams());
+        assertTrue(listener.getMaxQueuedDatagrams() <= queueSize);
+        assertEquals(0, listener.getQueuedDatagrams());
+    }
+
+    @Test
+    public void testBurstWithinQueueIsProcessed() throws Exception {
+        conn.setUdpReceiveQueueSize(BURST);
+        DatagramListener listener = bindAndSendBurst();
+
+        assertEquals(0, listener.getDroppedDatagrams());
+        processing.countDown();
+        awaitProcessed(BURST);
+        assertEquals(BURST, processed.get());
+        assertEquals(BURST, listener.getReceivedDatagrams());
+        assertEquals(0, listener.getQueuedDatagrams());
+    }
+
+    private DatagramListener bindAndSendBurst() throws Exception {
+        device.bindConnections();
+        DatagramListener listener = (DatagramListener) conn.getListener();
+        DatagramSocket ds = new DatagramSocket();
+        try {
+            InetSocketAddress addr =
+                    new InetSocketAddress("localhost", conn.getPort());
+            for (int i = 0; i < BURST; i++) {
+                byte[] msg = ("<14>message " + i).getBytes("US-ASCII");
+                ds.send(new DatagramPacket(msg, msg.length, addr));
+            }
+        } finally {
+            ds.close();
+        }
+        long end = System.currentTimeMillis() + 5000;
+        while (listener.getReceivedDatagrams() < BURST
+                && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(BURST, listener.getReceivedDatagrams());
+        return listener;
+    }
+
+    private void awaitProcessed(int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (processed.get() < expected
+                && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        // give the worker a chance to process datagrams exceeding expected
+        Thread.sleep(100);
+    }
+}
@@ -0,0 +1,82 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.service;
+
+import static org.junit.Assert.*;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class BasicMatchMergerTest {
+
+    @Test
+    public void testMerge() {
+        Attributes match = new Attributes();
+        match.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        match.setString(Tag.StudyDescription, VR.LO, "First");
+        match.setString(Tag.ModalitiesInStudy, VR.CS, "CT", "MR");
+        match.setString(Tag.RetrieveAETitle, VR.AE, "ARCHIVE1");
+        Attributes other = new Attributes();
+        other.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        other.setString(Tag.StudyDescription, VR.LO, "Other");
+        other.setString(Tag.StudyID, VR.SH, "42");
+        other.setString(Tag.ModalitiesInStudy, VR.CS, "MR", "PR");
+        other.setString(Tag.RetrieveAETitle, VR.AE, "ARCHIVE2");
+        Attributes merged = new BasicMatchMerger().merge(match, other);
+        assertEquals("First", merged.getString(Tag.StudyDescription));
+        assertEquals("42", merged.getString(Tag.StudyID));
+        assertArrayEquals(new String[] { "CT", "MR", "PR" },
+                merged.getStrings(Tag.ModalitiesInStudy));
+        assertArrayEquals(new String[] { "ARCHIVE1", "ARCHIVE2" },
+                merged.getStrings(Tag.RetrieveAETitle));
+    }
+
+    @Test
+    public void testFirstWins() {
+        Attributes match = new Attributes();
+        Attributes other = new Attributes();
+        other.setString(Tag.StudyID, VR.SH, "42");
+        assertSame(match, MatchMerger.FIRST_WINS.merge(match, other));
+        assertFalse(match.contains(Tag.StudyID));
+    }
+}
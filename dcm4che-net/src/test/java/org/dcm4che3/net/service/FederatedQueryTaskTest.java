@@ -0,0 +1,202 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Commands;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.DimseRSPHandler;
+import org.dcm4che3.net.ExecutorLane;
+import org.dcm4che3.net.LaneExecutor;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.TestDevices;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class FederatedQueryTaskTest {
+
+    private static final String CUID =
+            UID.PatientRootQueryRetrieveInformationModelFIND;
+    private static final int MATCHES = 50;
+
+    private Device remote;
+    private Device proxy;
+    private Device scu;
+    private ApplicationEntity proxyAE;
+    private ApplicationEntity scuAE;
+
+    @Before
+    public void setUp() throws Exception {
+        final ApplicationEntity remoteAE =
+                TestDevices.createAE("REMOTE", Role.SCP, CUID);
+        remote = TestDevices.createDevice("remote", remoteAE,
+                TestDevices.createConnection(true));
+        // responds to the C-FIND-RQ by the reader thread, so the pending
+        // responses are sent as fast as possible
+        remote.setDimseRQHandler(new AbstractDicomService(CUID) {
+
+            @Override
+            protected void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes cmd, Attributes keys)
+                    throws IOException {
+                for (int i = 0; i < MATCHES; i++) {
+                    Attributes match = new Attributes(2);
+                    match.setString(Tag.QueryRetrieveLevel, VR.CS, "PATIENT");
+                    match.setString(Tag.PatientID, VR.LO, "P" + i);
+                    as.writeDimseRSP(pc,
+                            Commands.mkCFindRSP(cmd, Status.Pending), match);
+                }
+                as.writeDimseRSP(pc, Commands.mkCFindRSP(cmd, Status.Success));
+            }
+        });
+        remote.bindConnections();
+
+        proxyAE = TestDevices.createAE("PROXY", Role.SCP, CUID);
+        proxyAE.addTransferCapability(new TransferCapability(null, CUID,
+                Role.SCU, UID.ExplicitVRLittleEndian,
+                UID.ImplicitVRLittleEndian));
+        proxy = TestDevices.createDevice("proxy", proxyAE,
+                TestDevices.createConnection(true));
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCFindSCP(CUID) {
+
+            @Override
+            protected QueryTask calculateMatches(Association as,
+                    PresentationContext pc, Attributes rq, Attributes keys) {
+                return new FederatedQueryTask(as, pc, rq, keys,
+                        Collections.singleton(remoteAE));
+            }
+        });
+        proxy.setDimseRQHandler(serviceRegistry);
+        proxy.bindConnections();
+
+        scuAE = TestDevices.createAE("SCU", Role.SCU, CUID);
+        scu = TestDevices.createDevice("scu", scuAE,
+                TestDevices.createConnection(false));
+    }
+
+    @After
+    public void tearDown() {
+        proxyAE.getAssociationPool().close();
+        TestDevices.shutdown(scu, proxy, remote);
+    }
+
+    @Test
+    public void returnsAllMatchesOfFastRespondingRemoteAE() throws Exception {
+        query();
+    }
+
+    @Test(timeout = 10000)
+    public void queryWithSingleThreadedLanes() throws Exception {
+        for (ExecutorLane lane : ExecutorLane.values())
+            proxy.setLaneExecutor(lane, new LaneExecutor(lane.name(), 1, 10,
+                    new ThreadPoolExecutor.AbortPolicy()));
+        try {
+            query();
+        } finally {
+            for (LaneExecutor executor : proxy.getLaneExecutors().values())
+                executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void queryRejectedByLaneExecutor() throws Exception {
+        LaneExecutor executor = new LaneExecutor(ExecutorLane.QUERY.name(), 1, 1,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.shutdown();
+        proxy.setLaneExecutor(ExecutorLane.QUERY, executor);
+        assertEquals(Status.OutOfResources, query(0));
+    }
+
+    private void query() throws Exception {
+        assertEquals(Status.Success, query(MATCHES));
+    }
+
+    private int query(int expectedMatches) throws Exception {
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.addPresentationContext(new PresentationContext(1, CUID,
+                UID.ImplicitVRLittleEndian));
+        Association as = scuAE.connect(proxyAE, aarq);
+        Attributes keys = new Attributes(2);
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "PATIENT");
+        keys.setNull(Tag.PatientID, VR.LO);
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger status = new AtomicInteger(-1);
+        as.cfind(CUID, 0, keys, null, new DimseRSPHandler(as.nextMessageID()) {
+
+            @Override
+            public void onDimseRSP(Association as, Attributes cmd,
+                    Attributes data) {
+                super.onDimseRSP(as, cmd, data);
+                int st = cmd.getInt(Tag.Status, -1);
+                if (Status.isPending(st))
+                    pending.incrementAndGet();
+                else
+                    status.set(st);
+            }
+        });
+        as.waitForOutstandingRSP();
+        as.release();
+        as.waitForSocketClose();
+        assertEquals(expectedMatches, pending.get());
+        return status.get();
+    }
+}
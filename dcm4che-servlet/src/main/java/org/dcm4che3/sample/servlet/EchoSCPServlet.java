@@ -47,6 +47,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 
 import org.dcm4che3.conf.api.internal.ExtendedDicomConfiguration;
+import org.dcm4che3.net.BasicNetworkMetrics;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -57,6 +58,8 @@ public class EchoSCPServlet extends HttpServlet {
 
     private ObjectInstance mbean;
 
+    private ObjectInstance metricsMBean;
+
     private EchoSCP echoSCP;
 
     private ExtendedDicomConfiguration dicomConfig;
@@ -71,6 +74,14 @@ public class EchoSCPServlet extends HttpServlet {
                     Thread.currentThread().getContextClassLoader()).newInstance();
             echoSCP = new EchoSCP(dicomConfig,
                     config.getInitParameter("deviceName"));
+            String metricsJmxName = config.getInitParameter("metricsJmxName");
+            if (metricsJmxName != null) {
+                BasicNetworkMetrics metrics = new BasicNetworkMetrics();
+                echoSCP.getDevice().setNetworkMetrics(metrics);
+                metricsMBean = ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(metrics.getDeviceCounters(),
+                                new ObjectName(metricsJmxName));
+            }
             echoSCP.start();
             mbean = ManagementFactory.getPlatformMBeanServer()
                     .registerMBean(echoSCP, 
@@ -83,6 +94,13 @@ public class EchoSCPServlet extends HttpServlet {
 
     @Override
     public void destroy() {
+        if (metricsMBean != null)
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(metricsMBean.getObjectName());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         if (mbean != null)
             try {
                 ManagementFactory.getPlatformMBeanServer()
@@ -52,6 +52,7 @@ import org.apache.commons.cli.ParseException;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.emf.MultiframeExtractor;
+import org.dcm4che3.emf.SingleFrameConsumer;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
@@ -156,22 +157,24 @@ public class Emf2sf {
         } finally {
             SafeClose.close(dis);
         }
-        Attributes fmi = dis.getFileMetaInformation();
+        final Attributes fmi = dis.getFileMetaInformation();
         if (frames == null) {
-            int n = src.getInt(Tag.NumberOfFrames, 1);
-            for (int frame = 0; frame < n; ++frame)
-                extract(file, fmi, src, frame);
-            return n;
+            final File srcFile = file;
+            return extractor.extractAll(src, new SingleFrameConsumer() {
+                @Override
+                public void accept(int frame, Attributes sf) throws IOException {
+                    write(srcFile, fmi, sf, frame);
+                }
+            });
         } else {
             for (int frame : frames)
-                extract(file, fmi, src, frame);
+                write(file, fmi, extractor.extract(src, frame), frame);
             return frames.length;
         }
     }
 
-    private void extract(File file, Attributes fmi, Attributes src, int frame)
+    private void write(File file, Attributes fmi, Attributes sf, int frame)
             throws IOException {
-        Attributes sf = extractor.extract(src, frame);
         DicomOutputStream out = new DicomOutputStream(
                 new File(outDir, fname(file, frame+1)));
         try {
@@ -53,9 +53,7 @@ import org.apache.commons.cli.ParseException;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
-import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Connection;
@@ -107,12 +105,13 @@ public class StoreSCP {
             String tsuid = pc.getTransferSyntax();
             File file = new File(storageDir, iuid + PART_EXT);
             try {
-                storeTo(as, as.createFileMetaInformation(iuid, cuid, tsuid),
-                        data, file);
+                Attributes attrs = storeTo(as,
+                        as.createFileMetaInformation(iuid, cuid, tsuid),
+                        data, file, filePathFormat != null);
                 renameTo(as, file, new File(storageDir,
                         filePathFormat == null
                             ? iuid
-                            : filePathFormat.format(parse(file))));
+                            : filePathFormat.format(attrs)));
             } catch (Exception e) {
                 deleteFile(as, file);
                 throw new DicomServiceException(Status.ProcessingFailure, e);
@@ -129,14 +128,20 @@ public class StoreSCP {
         ae.addConnection(conn);
     }
 
-    private void storeTo(Association as, Attributes fmi, 
-            PDVInputStream data, File file) throws IOException  {
+    private Attributes storeTo(Association as, Attributes fmi,
+            PDVInputStream data, File file, boolean parse) throws IOException  {
         LOG.info("{}: M-WRITE {}", as, file);
         file.getParentFile().mkdirs();
         DicomOutputStream out = new DicomOutputStream(file);
         try {
             out.writeFileMetaInformation(fmi);
-            data.copyTo(out);
+            if (!parse) {
+                data.copyTo(out);
+                return null;
+            }
+            return data.copyToAndParse(out,
+                    fmi.getString(Tag.TransferSyntaxUID), Tag.PixelData)
+                    .getDataset();
         } finally {
             SafeClose.close(out);
         }
@@ -151,16 +156,6 @@ public class StoreSCP {
             throw new IOException("Failed to rename " + from + " to " + dest);
     }
 
-    private static Attributes parse(File file) throws IOException {
-        DicomInputStream in = new DicomInputStream(file);
-        try {
-            in.setIncludeBulkData(IncludeBulkData.NO);
-            return in.readDataset(-1, Tag.PixelData);
-        } finally {
-            SafeClose.close(in);
-        }
-    }
-
     private static void deleteFile(Association as, File file) {
         if (file.delete())
             LOG.info("{}: M-DELETE {}", as, file);